@@ -0,0 +1,132 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.northwestern.cbits.purple_robot_manager.plugins.HttpTransport;
+import edu.northwestern.cbits.purple_robot_manager.plugins.PayloadEncoder;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+
+public class HttpTransportTest extends InstrumentationTestCase
+{
+	private static final int BATCHES = 20;
+
+	private Context _context = null;
+	private SharedPreferences _prefs = null;
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		this._context = this.getInstrumentation().getTargetContext();
+		this._prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+		this._prefs.edit().putString(HttpTransport.MAX_CONNECTIONS, HttpTransport.MAX_CONNECTIONS_DEFAULT).commit();
+	}
+
+	protected void tearDown() throws Exception
+	{
+		this._prefs.edit().putString(HttpTransport.MAX_CONNECTIONS, HttpTransport.MAX_CONNECTIONS_DEFAULT).commit();
+
+		super.tearDown();
+	}
+
+	private static PayloadEncoder batch(int first, int count) throws IOException
+	{
+		ArrayList<byte[]> readings = new ArrayList<byte[]>();
+
+		for (int i = first; i < first + count; i++)
+		{
+			readings.add(StandInServer.reading(i));
+		}
+
+		return StandInServer.encode(readings, PayloadEncoder.ENCODING_GZIP, null);
+	}
+
+	public void testConnectionReuse() throws IOException, JSONException
+	{
+		StandInServer.reset("");
+
+		HttpTransport transport = HttpTransport.getInstance(this._context);
+
+		for (int i = 0; i < BATCHES; i++)
+		{
+			PayloadEncoder encoder = HttpTransportTest.batch(i * 50, 50);
+
+			Assert.assertTrue(StandInServer.delivered(StandInServer.upload(transport, encoder), encoder));
+		}
+
+		JSONObject stats = StandInServer.stats();
+
+		Assert.assertEquals(BATCHES, stats.getInt("Requests"));
+
+		// One handshake for the lot, or two if a pooled connection went stale in between.
+
+		Assert.assertTrue(stats.getInt("Connections") + " connections for " + BATCHES + " batches.", stats.getInt("Connections") <= 2);
+	}
+
+	public void testSettingsChangeInFlight() throws Exception
+	{
+		StandInServer.reset("latency=1");
+
+		final HttpTransport transport = HttpTransport.getInstance(this._context);
+
+		final List<String> failures = Collections.synchronizedList(new ArrayList<String>());
+
+		ArrayList<Thread> senders = new ArrayList<Thread>();
+
+		for (int i = 0; i < 2; i++)
+		{
+			final int first = i * 50;
+
+			Thread sender = new Thread()
+			{
+				public void run()
+				{
+					try
+					{
+						PayloadEncoder encoder = HttpTransportTest.batch(first, 50);
+
+						if (StandInServer.delivered(StandInServer.upload(transport, encoder), encoder) == false)
+							failures.add("Batch " + first + " not delivered.");
+					}
+					catch (Exception e)
+					{
+						failures.add("Batch " + first + ": " + e);
+					}
+				}
+			};
+
+			sender.start();
+			senders.add(sender);
+		}
+
+		// Changing the pool size rebuilds the client while both requests are in flight.
+
+		Thread.sleep(300);
+
+		this._prefs.edit().putString(HttpTransport.MAX_CONNECTIONS, "4").commit();
+
+		PayloadEncoder encoder = HttpTransportTest.batch(100, 50);
+
+		Assert.assertTrue(StandInServer.delivered(StandInServer.upload(transport, encoder), encoder));
+
+		for (Thread sender : senders)
+		{
+			sender.join();
+		}
+
+		Assert.assertTrue(failures.toString(), failures.isEmpty());
+		Assert.assertEquals(150, StandInServer.stats().getInt("Readings"));
+	}
+}
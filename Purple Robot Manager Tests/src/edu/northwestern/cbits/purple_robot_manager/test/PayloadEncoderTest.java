@@ -0,0 +1,153 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.northwestern.cbits.purple_robot_manager.plugins.HttpTransport;
+import edu.northwestern.cbits.purple_robot_manager.plugins.PayloadEncoder;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+
+public class PayloadEncoderTest extends InstrumentationTestCase
+{
+	private static final int READINGS = 200;
+
+	private Context _context = null;
+	private SharedPreferences _prefs = null;
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		this._context = this.getInstrumentation().getTargetContext();
+		this._prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+		this._prefs.edit().putBoolean(PayloadEncoder.COMPRESS_UPLOADS, true).commit();
+
+		// Forgets what earlier tests negotiated with the server.
+
+		PayloadEncoder.updateEncodings(this._prefs, "", new JSONObject());
+	}
+
+	private static List<byte[]> readings(int count)
+	{
+		ArrayList<byte[]> readings = new ArrayList<byte[]>();
+
+		for (int i = 0; i < count; i++)
+		{
+			readings.add(StandInServer.reading(i));
+		}
+
+		return readings;
+	}
+
+	private void uploadWith(String encoding) throws IOException, JSONException
+	{
+		StandInServer.reset("");
+
+		PayloadEncoder encoder = StandInServer.encode(PayloadEncoderTest.readings(READINGS), encoding, "deflate,gzip");
+
+		JSONObject response = StandInServer.upload(HttpTransport.getInstance(this._context), encoder);
+
+		Assert.assertTrue("Not delivered as " + encoding + ": " + response, StandInServer.delivered(response, encoder));
+		Assert.assertEquals(READINGS, StandInServer.stats().getInt("Readings"));
+	}
+
+	public void testPlainUpload() throws IOException, JSONException
+	{
+		this.uploadWith(null);
+	}
+
+	public void testGzipUpload() throws IOException, JSONException
+	{
+		this.uploadWith(PayloadEncoder.ENCODING_GZIP);
+	}
+
+	public void testDeflateUpload() throws IOException, JSONException
+	{
+		this.uploadWith(PayloadEncoder.ENCODING_DEFLATE);
+	}
+
+	public void testBatchIdIgnoresEncoding() throws IOException
+	{
+		List<byte[]> readings = PayloadEncoderTest.readings(10);
+
+		String plain = StandInServer.encode(readings, null, null).batchId();
+
+		Assert.assertEquals(plain, StandInServer.encode(readings, PayloadEncoder.ENCODING_GZIP, null).batchId());
+		Assert.assertEquals(plain, StandInServer.encode(readings, PayloadEncoder.ENCODING_DEFLATE, null).batchId());
+	}
+
+	public void testNegotiation() throws IOException, JSONException
+	{
+		StandInServer.reset("encodings=gzip");
+
+		HttpTransport transport = HttpTransport.getInstance(this._context);
+
+		// The first batch goes out plain and learns the server's encodings.
+
+		PayloadEncoder encoder = StandInServer.encode(PayloadEncoderTest.readings(10), null, PayloadEncoder.acceptEncodings(this._prefs, StandInServer.URI));
+		JSONObject response = StandInServer.upload(transport, encoder);
+
+		PayloadEncoder.updateEncodings(this._prefs, StandInServer.URI, response);
+
+		Assert.assertTrue(StandInServer.delivered(response, encoder));
+		Assert.assertEquals(PayloadEncoder.ENCODING_GZIP, PayloadEncoder.negotiatedEncoding(this._prefs, StandInServer.URI));
+
+		// A payload the server cannot decode is named in the error, and the encoding is set aside.
+
+		encoder = StandInServer.encode(PayloadEncoderTest.readings(10), PayloadEncoder.ENCODING_DEFLATE, null);
+		response = StandInServer.upload(transport, encoder);
+
+		PayloadEncoder.updateEncodings(this._prefs, StandInServer.URI, response);
+
+		Assert.assertEquals("error", response.getString("Status"));
+		Assert.assertTrue(PayloadEncoder.encodingFailed(response, PayloadEncoder.ENCODING_DEFLATE));
+	}
+
+	public void testRejection() throws JSONException
+	{
+		String uri = StandInServer.URI;
+
+		PayloadEncoder.updateEncodings(this._prefs, uri, new JSONObject("{\"Status\":\"success\",\"Encodings\":\"deflate,gzip\"}"));
+
+		Assert.assertEquals(PayloadEncoder.ENCODING_DEFLATE, PayloadEncoder.negotiatedEncoding(this._prefs, uri));
+
+		// An error that does not concern the encoding keeps it.
+
+		JSONObject error = new JSONObject("{\"Status\":\"error\",\"Encodings\":\"deflate,gzip\"}");
+
+		PayloadEncoder.updateEncodings(this._prefs, uri, error);
+
+		Assert.assertFalse(PayloadEncoder.encodingFailed(error, PayloadEncoder.ENCODING_DEFLATE));
+		Assert.assertEquals(PayloadEncoder.ENCODING_DEFLATE, PayloadEncoder.negotiatedEncoding(this._prefs, uri));
+
+		// A decoding error sets it aside, even though the server still lists it.
+
+		error = new JSONObject("{\"Status\":\"error\",\"Encodings\":\"deflate,gzip\",\"EncodingError\":\"deflate\"}");
+
+		PayloadEncoder.updateEncodings(this._prefs, uri, error);
+
+		Assert.assertTrue(PayloadEncoder.encodingFailed(error, PayloadEncoder.ENCODING_DEFLATE));
+
+		PayloadEncoder.rejectEncoding(this._prefs, uri, PayloadEncoder.ENCODING_DEFLATE);
+
+		Assert.assertEquals(PayloadEncoder.ENCODING_GZIP, PayloadEncoder.negotiatedEncoding(this._prefs, uri));
+		Assert.assertEquals(PayloadEncoder.ENCODING_GZIP, PayloadEncoder.acceptEncodings(this._prefs, uri));
+
+		// A server that drops the encoding and lists it again gets another chance with it.
+
+		PayloadEncoder.updateEncodings(this._prefs, uri, new JSONObject("{\"Status\":\"success\",\"Encodings\":\"gzip\"}"));
+		PayloadEncoder.updateEncodings(this._prefs, uri, new JSONObject("{\"Status\":\"success\",\"Encodings\":\"deflate,gzip\"}"));
+
+		Assert.assertEquals(PayloadEncoder.ENCODING_DEFLATE, PayloadEncoder.negotiatedEncoding(this._prefs, uri));
+	}
+}
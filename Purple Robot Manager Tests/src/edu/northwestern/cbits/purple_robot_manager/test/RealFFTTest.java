@@ -0,0 +1,204 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.commons.math3.complex.Complex;
+import org.apache.commons.math3.transform.DftNormalization;
+import org.apache.commons.math3.transform.FastFourierTransformer;
+import org.apache.commons.math3.transform.TransformType;
+
+import junit.framework.Assert;
+import edu.northwestern.cbits.purple_robot_manager.util.RealFFT;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+public class RealFFTTest extends InstrumentationTestCase
+{
+	private static final int[] BENCHMARK_SIZES = { 1024, 4096, 16384 };
+	private static final int BENCHMARK_SAMPLES = 1 << 20;
+	private static final int BENCHMARK_PASSES = 5;
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+
+	private static double[] signal(int size, long seed)
+	{
+		Random random = new Random(seed);
+
+		double[] signal = new double[size];
+
+		for (int i = 0; i < size; i++)
+		{
+			signal[i] = (random.nextDouble() * 2) - 1;
+		}
+
+		return signal;
+	}
+
+	/**
+	 * Compares every bin with the first size / 2 + 1 outputs of the commons-math3
+	 * transform, relative to the largest magnitude of the spectrum.
+	 */
+
+	private static void assertMatches(double[] signal)
+	{
+		int size = signal.length;
+
+		FastFourierTransformer transformer = new FastFourierTransformer(DftNormalization.STANDARD);
+		Complex[] expected = transformer.transform(signal, TransformType.FORWARD);
+
+		RealFFT fft = RealFFT.forSize(size);
+
+		Assert.assertEquals(size, fft.size());
+		Assert.assertEquals((size / 2) + 1, fft.bins());
+
+		double[] re = new double[size];
+		double[] im = new double[size];
+
+		double[] input = signal.clone();
+
+		fft.transform(input, re, im);
+
+		Assert.assertTrue("Input was modified.", Arrays.equals(signal, input));
+
+		double scale = 1;
+
+		for (int i = 0; i < fft.bins(); i++)
+		{
+			scale = Math.max(scale, expected[i].abs());
+		}
+
+		double tolerance = scale * 1e-10;
+
+		for (int i = 0; i < fft.bins(); i++)
+		{
+			Assert.assertEquals("Real part of bin " + i + " of " + size + ".", expected[i].getReal(), re[i], tolerance);
+			Assert.assertEquals("Imaginary part of bin " + i + " of " + size + ".", expected[i].getImaginary(), im[i], tolerance);
+		}
+	}
+
+	public void testEquivalence()
+	{
+		for (int size = 1; size <= 16384; size *= 2)
+		{
+			RealFFTTest.assertMatches(RealFFTTest.signal(size, size));
+		}
+	}
+
+	public void testTone()
+	{
+		int size = 1024;
+
+		double[] signal = new double[size];
+
+		for (int i = 0; i < size; i++)
+		{
+			signal[i] = 3 + Math.sin((2 * Math.PI * 100 * i) / size) + (0.5 * Math.cos((2 * Math.PI * 37 * i) / size));
+		}
+
+		RealFFTTest.assertMatches(signal);
+
+		RealFFT fft = RealFFT.forSize(size);
+
+		double[] re = new double[size];
+		double[] im = new double[size];
+
+		fft.transform(signal, re, im);
+
+		RealFFT.powerSpectrum(re, im, re, fft.bins());
+
+		Assert.assertEquals(0, RealFFT.peakIndex(re, 0, fft.bins(), 0));
+		Assert.assertEquals(100, RealFFT.peakIndex(re, 1, fft.bins(), 0));
+		Assert.assertEquals(37, RealFFT.peakIndex(re, 1, 100, 0));
+		Assert.assertEquals(-1, RealFFT.peakIndex(re, 1, 37, 1));
+	}
+
+	public void testInvalidSize()
+	{
+		try
+		{
+			RealFFT.forSize(1000);
+
+			Assert.fail("Accepted a size that is not a power of two.");
+		}
+		catch (IllegalArgumentException e)
+		{
+
+		}
+
+		Assert.assertSame(RealFFT.forSize(256), RealFFT.forSize(256));
+	}
+
+	/**
+	 * Returns the fastest of several timed passes of rounds transforms, in
+	 * nanoseconds per transform. Earlier passes also warm up the compiler.
+	 */
+
+	private static long bestTime(RealFFT fft, double[] signal, double[] re, double[] im, int rounds)
+	{
+		long best = Long.MAX_VALUE;
+
+		for (int pass = 0; pass < BENCHMARK_PASSES; pass++)
+		{
+			long start = System.nanoTime();
+
+			for (int i = 0; i < rounds; i++)
+			{
+				fft.transform(signal, re, im);
+			}
+
+			best = Math.min(best, (System.nanoTime() - start) / rounds);
+		}
+
+		return best;
+	}
+
+	private static long bestTime(FastFourierTransformer transformer, double[] signal, int rounds)
+	{
+		long best = Long.MAX_VALUE;
+
+		for (int pass = 0; pass < BENCHMARK_PASSES; pass++)
+		{
+			long start = System.nanoTime();
+
+			for (int i = 0; i < rounds; i++)
+			{
+				transformer.transform(signal, TransformType.FORWARD);
+			}
+
+			best = Math.min(best, (System.nanoTime() - start) / rounds);
+		}
+
+		return best;
+	}
+
+	/**
+	 * Transforms the same number of samples at each size with both
+	 * implementations and logs the time each took.
+	 */
+
+	public void testBenchmark()
+	{
+		FastFourierTransformer transformer = new FastFourierTransformer(DftNormalization.STANDARD);
+
+		for (int size : BENCHMARK_SIZES)
+		{
+			double[] signal = RealFFTTest.signal(size, size);
+
+			double[] re = new double[size];
+			double[] im = new double[size];
+
+			int rounds = BENCHMARK_SAMPLES / size;
+
+			long realTime = RealFFTTest.bestTime(RealFFT.forSize(size), signal, re, im, rounds);
+			long complexTime = RealFFTTest.bestTime(transformer, signal, rounds);
+
+			Log.i("PR", "FFT of " + size + " points: RealFFT " + (realTime / 1000) + " us, FastFourierTransformer " + (complexTime / 1000) + " us.");
+
+			Assert.assertTrue("RealFFT took " + realTime + " ns and FastFourierTransformer " + complexTime + " ns per transform of " + size + " points.", realTime < complexTime);
+		}
+	}
+}
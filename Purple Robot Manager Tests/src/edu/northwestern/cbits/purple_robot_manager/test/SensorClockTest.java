@@ -0,0 +1,167 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import junit.framework.Assert;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.SensorClock;
+import android.test.InstrumentationTestCase;
+
+public class SensorClockTest extends InstrumentationTestCase
+{
+	private static final long MILLISECOND = 1000 * 1000;
+
+	/**
+	 * A clock with a settable uptime and wall clock (boot + uptime). Each read
+	 * of the uptime is off by a different small amount, as an offset sampled at
+	 * two moments would be, so every sample of the offset is detectable.
+	 */
+
+	private static class TestClock extends SensorClock
+	{
+		public double boot = 1400000000000.0;
+		public double uptime = 0;
+		public int reads = 0;
+
+		protected double uptime()
+		{
+			this.reads += 1;
+
+			return this.uptime + (this.reads % 7);
+		}
+
+		public double now()
+		{
+			return this.boot + this.uptime;
+		}
+
+		public long timestamp(long eventTimestamp)
+		{
+			return this.timestamp(eventTimestamp, this.now());
+		}
+	}
+
+	/**
+	 * Delivers a hardware batch of count events sampled period milliseconds
+	 * apart and ending at uptime end, arriving in a quick burst from uptime
+	 * start. Returns the converted timestamps.
+	 */
+
+	private static long[] burst(TestClock clock, double start, double end, int count, double period)
+	{
+		long[] timestamps = new long[count];
+
+		for (int i = 0; i < count; i++)
+		{
+			clock.uptime = start + i * 0.01;
+
+			long event = (long) ((end - (count - 1 - i) * period) * MILLISECOND);
+
+			timestamps[i] = clock.timestamp(event);
+		}
+
+		return timestamps;
+	}
+
+	public void testBurstKeepsSpacing()
+	{
+		TestClock clock = new TestClock();
+
+		SensorClockTest.burst(clock, 10000, 10000, 100, 10);
+
+		// The next batch arrives just before the offset would have been
+		// refreshed on a timer, so a timer would have split it.
+
+		int reads = clock.reads;
+
+		long[] timestamps = SensorClockTest.burst(clock, 10999.9, 10999.9, 100, 10);
+
+		Assert.assertEquals(reads + 1, clock.reads);
+
+		for (int i = 1; i < timestamps.length; i++)
+		{
+			Assert.assertEquals(10 * MILLISECOND, timestamps[i] - timestamps[i - 1]);
+		}
+
+		// The last event was sampled as the batch arrived.
+
+		double last = timestamps[timestamps.length - 1] / (double) MILLISECOND;
+
+		Assert.assertEquals(clock.boot + 10999.9, last, 10);
+	}
+
+	public void testLongBurst()
+	{
+		TestClock clock = new TestClock();
+
+		// A FIFO holding a minute of samples takes seconds to deliver.
+
+		for (int i = 0; i < 6000; i++)
+		{
+			clock.uptime = 60000 + i * 0.5;
+
+			clock.timestamp((long) (i * 10 * MILLISECOND));
+		}
+
+		Assert.assertEquals(1, clock.reads);
+	}
+
+	public void testNewBurst()
+	{
+		TestClock clock = new TestClock();
+
+		SensorClockTest.burst(clock, 10000, 10000, 50, 10);
+
+		int reads = clock.reads;
+
+		// Sampling resumes after a pause.
+
+		SensorClockTest.burst(clock, 10000.5, 10500, 1, 10);
+
+		Assert.assertEquals(reads + 1, clock.reads);
+
+		// The next batch follows on from the last one, but arrives later.
+
+		SensorClockTest.burst(clock, 11000, 11000, 50, 10);
+
+		Assert.assertEquals(reads + 2, clock.reads);
+	}
+
+	public void testStreamRefresh()
+	{
+		TestClock clock = new TestClock();
+
+		// Events delivered as they are sampled, 100 a second for ten seconds.
+
+		for (int i = 0; i < 1000; i++)
+		{
+			clock.uptime = 1000 + i * 10;
+
+			long timestamp = clock.timestamp((long) (clock.uptime * MILLISECOND));
+
+			Assert.assertEquals(clock.now(), timestamp / (double) MILLISECOND, 10);
+		}
+
+		Assert.assertTrue(clock.reads + " offset reads.", clock.reads >= 9 && clock.reads <= 11);
+	}
+
+	public void testClockSetBack()
+	{
+		TestClock clock = new TestClock();
+
+		clock.uptime = 1000;
+		clock.timestamp(1000 * MILLISECOND);
+
+		clock.uptime = 1010;
+		clock.timestamp(1010 * MILLISECOND);
+
+		int reads = clock.reads;
+
+		// The wall clock is set back by a minute; uptime is not.
+
+		clock.boot -= 60000;
+		clock.uptime = 1020;
+
+		long timestamp = clock.timestamp(1020 * MILLISECOND);
+
+		Assert.assertEquals(reads + 1, clock.reads);
+		Assert.assertEquals(clock.now(), timestamp / (double) MILLISECOND, 10);
+	}
+}
@@ -0,0 +1,270 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import edu.northwestern.cbits.purple_robot_manager.plugins.HttpTransport;
+import edu.northwestern.cbits.purple_robot_manager.plugins.PayloadEncoder;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadLanes;
+
+/**
+ * Uploads to the stand-in server in Test Server/server.py, which must be
+ * running on the development machine (python server.py) for the tests that
+ * use it. The emulator reaches the development machine at 10.0.2.2.
+ */
+
+public class StandInServer
+{
+	public static final String URI = "http://10.0.2.2:9080/";
+
+	private static final String USER_HASH = "purple-robot-test";
+	private static final String OPERATION = "SubmitProbes";
+
+	/**
+	 * Clears the server's counters and stored readings, and sets the given
+	 * options (e.g. "latency=0.5&drop_rate=0.3") until the next reset.
+	 */
+
+	public static JSONObject reset(String options) throws IOException, JSONException
+	{
+		return StandInServer.get("reset?" + options);
+	}
+
+	/**
+	 * Requests, connections, stored readings, refused duplicates and dropped
+	 * responses since the last reset.
+	 */
+
+	public static JSONObject stats() throws IOException, JSONException
+	{
+		return StandInServer.get("stats");
+	}
+
+	private static JSONObject get(String path) throws IOException, JSONException
+	{
+		try
+		{
+			HttpURLConnection connection = (HttpURLConnection) new URL(StandInServer.URI + path).openConnection();
+
+			try
+			{
+				InputStream in = connection.getInputStream();
+
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+				byte[] buffer = new byte[1024];
+				int read = 0;
+
+				while ((read = in.read(buffer, 0, buffer.length)) != -1)
+				{
+					out.write(buffer, 0, read);
+				}
+
+				in.close();
+
+				return new JSONObject(out.toString("UTF-8"));
+			}
+			finally
+			{
+				connection.disconnect();
+			}
+		}
+		catch (ConnectException e)
+		{
+			Assert.fail("Start Test Server/server.py on the development machine first (" + e.getMessage() + ").");
+		}
+
+		return null;
+	}
+
+	/**
+	 * A reading with a new GUID.
+	 */
+
+	public static byte[] reading(int index)
+	{
+		String reading = "{\"PROBE\":\"edu.northwestern.cbits.purple_robot_manager.probes.builtin.AccelerometerProbe\",\"GUID\":\"" + UUID.randomUUID() + "\",\"TIMESTAMP\":" + index + ",\"X\":[" + index + ",0.5,1.5],\"Y\":[0.25,0.5,0.75],\"Z\":[9.75,9.8,9.85]}";
+
+		try
+		{
+			return reading.getBytes("UTF-8");
+		}
+		catch (IOException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	public static PayloadEncoder encode(List<byte[]> records, String encoding, String acceptEncodings) throws IOException
+	{
+		PayloadEncoder encoder = new PayloadEncoder(USER_HASH, OPERATION, encoding, acceptEncodings);
+
+		encoder.write("[");
+
+		for (int i = 0; i < records.size(); i++)
+		{
+			if (i > 0)
+				encoder.write(",");
+
+			encoder.write(new String(records.get(i), "UTF-8"));
+		}
+
+		encoder.write("]");
+		encoder.finish();
+
+		return encoder;
+	}
+
+	/**
+	 * Posts an encoded batch through the transport and returns the server's
+	 * response. A dropped response surfaces as a JSONException.
+	 */
+
+	public static JSONObject upload(HttpTransport transport, PayloadEncoder encoder) throws IOException, JSONException
+	{
+		HttpResponse response = null;
+
+		try
+		{
+			HttpPost post = new HttpPost(StandInServer.URI);
+			post.setEntity(encoder.entity());
+
+			response = transport.getClient().execute(post);
+
+			return new JSONObject(EntityUtils.toString(response.getEntity()));
+		}
+		catch (ConnectException e)
+		{
+			Assert.fail("Start Test Server/server.py on the development machine first (" + e.getMessage() + ").");
+		}
+		finally
+		{
+			transport.finish(response);
+		}
+
+		return null;
+	}
+
+	/**
+	 * Whether the server stored the batch and acknowledged it by its id.
+	 */
+
+	public static boolean delivered(JSONObject response, PayloadEncoder encoder) throws JSONException
+	{
+		return "success".equals(response.getString("Status")) && encoder.batchId().equals(response.getString(PayloadEncoder.BATCH_ID_KEY));
+	}
+
+	/**
+	 * Sends everything pending in lanes the way HttpUploadPlugin does: the next
+	 * batch is read and encoded while up to slots others are in flight, and
+	 * readings in the journal are not sent again. Batches that are not
+	 * delivered go back to the lanes and are sent again. Returns the number of
+	 * uploads.
+	 */
+
+	public static int drain(final UploadLanes lanes, final HttpTransport transport, int slots, long batchSize) throws IOException, InterruptedException
+	{
+		final AtomicInteger uploads = new AtomicInteger(0);
+		final AtomicReference<Error> failure = new AtomicReference<Error>();
+
+		final Semaphore inFlight = new Semaphore(slots);
+		ExecutorService senders = Executors.newFixedThreadPool(slots);
+
+		try
+		{
+			while (true)
+			{
+				// Failed assertions on the sender threads end the drain.
+
+				if (failure.get() != null)
+					throw failure.get();
+
+				final UploadLanes.Batch batch = lanes.next(batchSize);
+
+				if (batch == null)
+				{
+					// Batches that fail go back to the lanes, so look again once the ones in flight are done.
+
+					inFlight.acquire(slots);
+					inFlight.release(slots);
+
+					if (lanes.pendingBytes() == 0)
+						break;
+
+					continue;
+				}
+
+				final List<byte[]> records = lanes.journal().unacknowledged(lanes.read(batch));
+
+				if (records.isEmpty())
+				{
+					lanes.acknowledge(batch);
+
+					continue;
+				}
+
+				final PayloadEncoder encoder = StandInServer.encode(records, PayloadEncoder.ENCODING_GZIP, null);
+
+				inFlight.acquire();
+
+				senders.execute(new Runnable()
+				{
+					public void run()
+					{
+						try
+						{
+							uploads.incrementAndGet();
+
+							if (StandInServer.delivered(StandInServer.upload(transport, encoder), encoder))
+							{
+								lanes.journal().acknowledge(records);
+								lanes.acknowledge(batch);
+							}
+							else
+								lanes.release(batch);
+						}
+						catch (Exception e)
+						{
+							lanes.release(batch);
+						}
+						catch (Error e)
+						{
+							lanes.release(batch);
+
+							failure.set(e);
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+			}
+		}
+		finally
+		{
+			senders.shutdown();
+		}
+
+		return uploads.get();
+	}
+}
@@ -0,0 +1,139 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+
+import edu.northwestern.cbits.purple_robot_manager.plugins.HttpTransport;
+import edu.northwestern.cbits.purple_robot_manager.plugins.PayloadEncoder;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadJournal;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadLanes;
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+public class UploadJournalTest extends InstrumentationTestCase
+{
+	private static final int READINGS = 2000;
+	private static final long BATCH_SIZE = 8192;
+
+	private Context _context = null;
+	private File _directory = null;
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		this._context = this.getInstrumentation().getTargetContext();
+		this._directory = new File(this._context.getCacheDir(), "upload_journal_test");
+
+		UploadJournalTest.delete(this._directory);
+	}
+
+	protected void tearDown() throws Exception
+	{
+		UploadJournalTest.delete(this._directory);
+
+		super.tearDown();
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				UploadJournalTest.delete(child);
+			}
+		}
+
+		file.delete();
+	}
+
+	private static List<byte[]> readings(int count)
+	{
+		ArrayList<byte[]> readings = new ArrayList<byte[]>();
+
+		for (int i = 0; i < count; i++)
+		{
+			readings.add(StandInServer.reading(i));
+		}
+
+		return readings;
+	}
+
+	public void testDroppedResponses() throws Exception
+	{
+		StandInServer.reset("drop_rate=0.3");
+
+		List<byte[]> readings = UploadJournalTest.readings(READINGS);
+
+		UploadLanes lanes = new UploadLanes(this._context, this._directory);
+		lanes.append(UploadLanes.BULK, readings, false);
+
+		HttpTransport transport = HttpTransport.getInstance(this._context);
+
+		int uploads = StandInServer.drain(lanes, transport, transport.maxConnections(), BATCH_SIZE);
+
+		JSONObject stats = StandInServer.stats();
+
+		Assert.assertTrue("No responses were dropped.", stats.getInt("Dropped") > 0);
+		Assert.assertEquals(uploads, stats.getInt("Requests"));
+
+		// Every reading arrived once. Only batches whose answer was lost were
+		// sent again, so at most those readings reached the server twice.
+
+		Assert.assertEquals(READINGS, stats.getInt("Readings"));
+
+		int perBatch = (int) (BATCH_SIZE / readings.get(0).length) + 1;
+
+		Assert.assertTrue(stats.getInt("Duplicates") + " duplicates for " + stats.getInt("Dropped") + " dropped responses.", stats.getInt("Duplicates") <= stats.getInt("Dropped") * perBatch);
+
+		Assert.assertEquals(0, lanes.pendingBytes());
+		Assert.assertTrue(new UploadJournal(this._directory).unacknowledged(readings).isEmpty());
+	}
+
+	public void testRestartAfterDelivery() throws Exception
+	{
+		StandInServer.reset("");
+
+		List<byte[]> readings = UploadJournalTest.readings(READINGS);
+
+		UploadLanes lanes = new UploadLanes(this._context, this._directory);
+		lanes.append(UploadLanes.BULK, readings, false);
+
+		HttpTransport transport = HttpTransport.getInstance(this._context);
+
+		// Delivers a few batches and records them in the journal, but stops
+		// before they are trimmed from the pending log, like a crash would.
+
+		for (int i = 0; i < 5; i++)
+		{
+			UploadLanes.Batch batch = lanes.next(BATCH_SIZE);
+			List<byte[]> records = lanes.read(batch);
+
+			PayloadEncoder encoder = StandInServer.encode(records, PayloadEncoder.ENCODING_GZIP, null);
+
+			Assert.assertTrue(StandInServer.delivered(StandInServer.upload(transport, encoder), encoder));
+
+			lanes.journal().acknowledge(records);
+		}
+
+		// After the restart, those readings are still pending but are not sent again.
+
+		lanes = new UploadLanes(this._context, this._directory);
+
+		StandInServer.drain(lanes, transport, transport.maxConnections(), BATCH_SIZE);
+
+		JSONObject stats = StandInServer.stats();
+
+		Assert.assertEquals(READINGS, stats.getInt("Readings"));
+		Assert.assertEquals(0, stats.getInt("Duplicates"));
+		Assert.assertEquals(0, lanes.pendingBytes());
+	}
+}
@@ -0,0 +1,242 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import junit.framework.Assert;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadLanes;
+import android.content.Context;
+import android.test.InstrumentationTestCase;
+
+public class UploadLanesTest extends InstrumentationTestCase
+{
+	private static final long BATCH_SIZE = 65536;
+
+	private Context _context = null;
+	private File _directory = null;
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		this._context = this.getInstrumentation().getTargetContext();
+		this._directory = new File(this._context.getCacheDir(), "upload_lanes_test");
+
+		UploadLanesTest.delete(this._directory);
+	}
+
+	protected void tearDown() throws Exception
+	{
+		UploadLanesTest.delete(this._directory);
+
+		super.tearDown();
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				UploadLanesTest.delete(child);
+			}
+		}
+
+		file.delete();
+	}
+
+	private static List<byte[]> records(String lane, int first, int count, int size)
+	{
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+
+		for (int i = first; i < first + count; i++)
+		{
+			byte[] record = new byte[size];
+			Arrays.fill(record, (byte) 'x');
+
+			byte[] id = (lane + i + ":").getBytes();
+			System.arraycopy(id, 0, record, 0, id.length);
+
+			records.add(record);
+		}
+
+		return records;
+	}
+
+	private static String id(byte[] record)
+	{
+		String text = new String(record, 0, Math.min(record.length, 16));
+
+		return text.substring(0, text.indexOf(':'));
+	}
+
+	public void testNullNameLane()
+	{
+		Assert.assertEquals(UploadLanes.HIGH, UploadLanes.laneFor(this._context, null));
+	}
+
+	public void testDeliveredOnce() throws IOException
+	{
+		UploadLanes lanes = new UploadLanes(this._context, this._directory);
+
+		lanes.append(UploadLanes.BULK, UploadLanesTest.records("B", 0, 1500, 2000), false);
+		lanes.append(UploadLanes.NORMAL, UploadLanesTest.records("N", 0, 300, 500), false);
+
+		HashSet<String> seen = new HashSet<String>();
+		Random random = new Random(3);
+
+		int high = 0;
+		int batches = 0;
+
+		UploadLanes.Batch batch = null;
+
+		while ((batch = lanes.next(BATCH_SIZE)) != null)
+		{
+			batches += 1;
+
+			List<byte[]> records = lanes.read(batch);
+
+			Assert.assertEquals(batch.count(), records.size());
+
+			// One in five uploads fails and goes back to be sent again.
+
+			if (random.nextInt(5) == 0)
+				lanes.release(batch);
+			else
+			{
+				for (byte[] record : records)
+				{
+					Assert.assertTrue("Delivered twice: " + UploadLanesTest.id(record), seen.add(UploadLanesTest.id(record)));
+				}
+
+				lanes.acknowledge(batch);
+			}
+
+			if (batches % 10 == 0 && high < 200)
+			{
+				lanes.append(UploadLanes.HIGH, UploadLanesTest.records("H", high, 20, 300), false);
+				high += 20;
+			}
+		}
+
+		Assert.assertEquals(1500 + 300 + high, seen.size());
+		Assert.assertEquals(0, lanes.pendingBytes());
+
+		// Nothing acknowledged is handed out again after a restart.
+
+		lanes = new UploadLanes(this._context, this._directory);
+
+		Assert.assertNull(lanes.next(BATCH_SIZE));
+	}
+
+	public void testHighLatency() throws IOException
+	{
+		UploadLanes lanes = new UploadLanes(this._context, this._directory);
+
+		lanes.append(UploadLanes.BULK, UploadLanesTest.records("B", 0, 3000, 2000), false);
+		lanes.append(UploadLanes.NORMAL, UploadLanesTest.records("N", 0, 1000, 500), false);
+
+		HashMap<String, Integer> appended = new HashMap<String, Integer>();
+
+		int high = 0;
+		int batches = 0;
+		int worst = 0;
+
+		UploadLanes.Batch batch = null;
+
+		while (batches < 100 && (batch = lanes.next(BATCH_SIZE)) != null)
+		{
+			batches += 1;
+
+			for (byte[] record : lanes.read(batch))
+			{
+				String id = UploadLanesTest.id(record);
+
+				if (id.startsWith("H"))
+					worst = Math.max(worst, batches - appended.get(id).intValue());
+			}
+
+			lanes.acknowledge(batch);
+
+			// A burst as large as the high lane quota of three batches arrives
+			// every ten batches, behind a bulk and normal backlog.
+
+			if (batches % 10 == 0)
+			{
+				int count = (int) (BATCH_SIZE * 3 / 2 / 1000);
+
+				for (int i = high; i < high + count; i++)
+				{
+					appended.put("H" + i, Integer.valueOf(batches));
+				}
+
+				lanes.append(UploadLanes.HIGH, UploadLanesTest.records("H", high, count, 1000), false);
+				high += count;
+			}
+		}
+
+		Assert.assertTrue(high > 0);
+		Assert.assertTrue("High lane records waited " + worst + " batches.", worst <= 3);
+	}
+
+	public void testBatchLimits() throws IOException
+	{
+		UploadLanes lanes = new UploadLanes(this._context, this._directory);
+
+		// One bulk record is larger than a whole batch.
+
+		lanes.append(UploadLanes.BULK, UploadLanesTest.records("B", 0, 1, (int) BATCH_SIZE * 2), false);
+		lanes.append(UploadLanes.BULK, UploadLanesTest.records("B", 1, 100, 2000), false);
+		lanes.append(UploadLanes.HIGH, UploadLanesTest.records("H", 0, 200, 1000), false);
+
+		boolean oversized = false;
+		int high = 0;
+
+		UploadLanes.Batch batch = null;
+
+		while ((batch = lanes.next(BATCH_SIZE)) != null)
+		{
+			List<byte[]> records = lanes.read(batch);
+
+			if (batch.size() > BATCH_SIZE)
+			{
+				// Only ever on its own.
+
+				Assert.assertEquals(1, batch.count());
+				Assert.assertEquals("B0", UploadLanesTest.id(records.get(0)));
+
+				oversized = true;
+			}
+			else
+			{
+				long bulk = 0;
+
+				for (byte[] record : records)
+				{
+					if (UploadLanesTest.id(record).startsWith("B"))
+						bulk += record.length;
+					else
+						high += 1;
+				}
+
+				// The bulk lane may only go past its quota with room the high lane left.
+
+				if (bulk > BATCH_SIZE * 0.15 && high < 200)
+					Assert.fail("Bulk lane took " + bulk + " bytes while high lane records were waiting.");
+			}
+
+			lanes.acknowledge(batch);
+		}
+
+		Assert.assertTrue(oversized);
+		Assert.assertEquals(0, lanes.pendingBytes());
+	}
+}
@@ -0,0 +1,118 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import java.io.File;
+import java.util.ArrayList;
+
+import junit.framework.Assert;
+
+import org.json.JSONObject;
+
+import edu.northwestern.cbits.purple_robot_manager.plugins.HttpTransport;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadLanes;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+public class UploadPipelineTest extends InstrumentationTestCase
+{
+	private static final int READINGS = 1200;
+	private static final long BATCH_SIZE = 16384;
+
+	// Seconds the stand-in server holds each request, like a slow cellular link.
+	private static final double LATENCY = 0.5;
+
+	private Context _context = null;
+	private SharedPreferences _prefs = null;
+	private File _directory = null;
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+
+		this._context = this.getInstrumentation().getTargetContext();
+		this._prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+		this._directory = new File(this._context.getCacheDir(), "upload_pipeline_test");
+
+		UploadPipelineTest.delete(this._directory);
+	}
+
+	protected void tearDown() throws Exception
+	{
+		this._prefs.edit().putString(HttpTransport.MAX_CONNECTIONS, HttpTransport.MAX_CONNECTIONS_DEFAULT).commit();
+
+		UploadPipelineTest.delete(this._directory);
+
+		super.tearDown();
+	}
+
+	private static void delete(File file)
+	{
+		File[] children = file.listFiles();
+
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				UploadPipelineTest.delete(child);
+			}
+		}
+
+		file.delete();
+	}
+
+	/**
+	 * Drains the same backlog with up to slots batches in flight and returns
+	 * the time it took, in milliseconds.
+	 */
+
+	private long drainTime(int slots) throws Exception
+	{
+		UploadPipelineTest.delete(this._directory);
+
+		StandInServer.reset("latency=" + LATENCY);
+
+		this._prefs.edit().putString(HttpTransport.MAX_CONNECTIONS, "" + slots).commit();
+
+		UploadLanes lanes = new UploadLanes(this._context, this._directory);
+
+		ArrayList<byte[]> readings = new ArrayList<byte[]>();
+
+		for (int i = 0; i < READINGS; i++)
+		{
+			readings.add(StandInServer.reading(i));
+		}
+
+		lanes.append(UploadLanes.NORMAL, readings, false);
+
+		HttpTransport transport = HttpTransport.getInstance(this._context);
+
+		long start = System.currentTimeMillis();
+
+		int uploads = StandInServer.drain(lanes, transport, transport.maxConnections(), BATCH_SIZE);
+
+		long elapsed = System.currentTimeMillis() - start;
+
+		JSONObject stats = StandInServer.stats();
+
+		Assert.assertEquals(READINGS, stats.getInt("Readings"));
+		Assert.assertEquals(0, stats.getInt("Duplicates"));
+		Assert.assertEquals(0, lanes.pendingBytes());
+
+		Log.i("PR", "Drained " + READINGS + " readings in " + uploads + " batches with " + slots + " in flight: " + elapsed + " ms.");
+
+		return elapsed;
+	}
+
+	public void testDrainTime() throws Exception
+	{
+		long one = this.drainTime(1);
+		long four = this.drainTime(4);
+
+		// Each batch waits out the latency, so four in flight should take about
+		// a quarter of the time. Allow for encoding and connection setup.
+
+		Assert.assertTrue("One in flight: " + one + " ms, four in flight: " + four + " ms.", four < one / 2);
+	}
+}
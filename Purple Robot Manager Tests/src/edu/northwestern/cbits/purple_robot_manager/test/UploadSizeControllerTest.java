@@ -0,0 +1,279 @@
+package edu.northwestern.cbits.purple_robot_manager.test;
+
+import junit.framework.Assert;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadSizeController;
+import android.test.InstrumentationTestCase;
+import android.util.Log;
+
+public class UploadSizeControllerTest extends InstrumentationTestCase
+{
+	private static final long MIN_SIZE = 16384;
+	private static final long MAX_SIZE = 262144;
+
+	// Seconds. The socket timeout of HttpTransport and the round trip of a small request.
+	private static final double TIMEOUT = 180;
+	private static final double ROUND_TRIP = 1.5;
+
+	// Link bandwidth in bytes per second, changing once every BACKLOG bytes.
+	private static final double[] BANDWIDTHS = { 4096, 1024, 20000, 800, 60000 };
+	private static final long BACKLOG = 8 << 20;
+
+	/**
+	 * Picks the size of each batch and hears whether it was delivered.
+	 */
+
+	private interface Sizer
+	{
+		public long size();
+		public void delivered(long size, long elapsed);
+		public void congested(long sent);
+	}
+
+	/**
+	 * The sizing HttpUploadPlugin used before UploadSizeController: double the
+	 * size after each delivery and halve it after each failure, between the
+	 * minimum and maximum sizes.
+	 */
+
+	private static class StepSizer implements Sizer
+	{
+		private long _size = MIN_SIZE;
+
+		public long size()
+		{
+			return this._size;
+		}
+
+		public void delivered(long size, long elapsed)
+		{
+			this._size = Math.min(MAX_SIZE, this._size * 2);
+		}
+
+		public void congested(long sent)
+		{
+			this._size = Math.max(MIN_SIZE, this._size / 2);
+		}
+	}
+
+	private static class ControllerSizer implements Sizer
+	{
+		private UploadSizeController _controller = new UploadSizeController(MIN_SIZE, MAX_SIZE, MAX_SIZE * 2);
+
+		public long size()
+		{
+			return this._controller.size(UploadSizeController.LINK_MOBILE);
+		}
+
+		public void delivered(long size, long elapsed)
+		{
+			this._controller.delivered(UploadSizeController.LINK_MOBILE, size, elapsed);
+		}
+
+		public void congested(long sent)
+		{
+			this._controller.congested(UploadSizeController.LINK_MOBILE, sent);
+		}
+	}
+
+	private static class Result
+	{
+		public double duration = 0;
+		public int timeouts = 0;
+		public int batches = 0;
+
+		public double[] phaseDurations = new double[BANDWIDTHS.length];
+		public int[] phaseTimeouts = new int[BANDWIDTHS.length];
+	}
+
+	protected void setUp() throws Exception
+	{
+		super.setUp();
+	}
+
+	/**
+	 * Uploads a backlog over a link whose bandwidth changes between phases,
+	 * one batch at a time. A batch takes a round trip plus its transfer time,
+	 * and one that would take longer than the timeout is lost after it.
+	 */
+
+	private static Result simulate(Sizer sizer)
+	{
+		Result result = new Result();
+
+		for (int phase = 0; phase < BANDWIDTHS.length; phase++)
+		{
+			double bandwidth = BANDWIDTHS[phase];
+			double start = result.duration;
+
+			long backlog = BACKLOG;
+
+			while (backlog > 0)
+			{
+				long size = Math.min(sizer.size(), backlog);
+
+				// Batches go out one after the other, so each was sent after any earlier reduction.
+
+				long sent = System.currentTimeMillis();
+
+				double elapsed = ROUND_TRIP + (size / bandwidth);
+
+				result.batches += 1;
+
+				if (elapsed > TIMEOUT)
+				{
+					result.duration += TIMEOUT;
+					result.timeouts += 1;
+					result.phaseTimeouts[phase] += 1;
+
+					sizer.congested(sent);
+				}
+				else
+				{
+					result.duration += elapsed;
+					backlog -= size;
+
+					sizer.delivered(size, (long) (elapsed * 1000));
+				}
+			}
+
+			result.phaseDurations[phase] = result.duration - start;
+		}
+
+		return result;
+	}
+
+	private static void log(String name, Result result)
+	{
+		Log.i("PR", name + ": " + Math.round(result.duration) + " s, " + result.timeouts + " timeouts, " + result.batches + " batches.");
+
+		for (int i = 0; i < BANDWIDTHS.length; i++)
+		{
+			Log.i("PR", "  " + Math.round(BANDWIDTHS[i]) + " B/s: " + Math.round(result.phaseDurations[i]) + " s, " + result.phaseTimeouts[i] + " timeouts.");
+		}
+	}
+
+	public void testSimulatedLink()
+	{
+		Result step = UploadSizeControllerTest.simulate(new StepSizer());
+		Result controller = UploadSizeControllerTest.simulate(new ControllerSizer());
+
+		UploadSizeControllerTest.log("Step function", step);
+		UploadSizeControllerTest.log("UploadSizeController", controller);
+
+		Assert.assertTrue(controller.timeouts + " timeouts against " + step.timeouts + ".", controller.timeouts < step.timeouts);
+		Assert.assertTrue(controller.duration + " s against " + step.duration + " s.", controller.duration < step.duration);
+
+		// After a drop in bandwidth, it settles instead of timing out over and over.
+
+		for (int i = 0; i < BANDWIDTHS.length; i++)
+		{
+			Assert.assertTrue("Phase " + i + ": " + controller.phaseTimeouts[i] + " timeouts against " + step.phaseTimeouts[i] + ".", controller.phaseTimeouts[i] <= step.phaseTimeouts[i]);
+		}
+	}
+
+	public void testGrowth()
+	{
+		UploadSizeController controller = new UploadSizeController(MIN_SIZE, MAX_SIZE, MAX_SIZE * 2);
+
+		int link = UploadSizeController.LINK_WIFI;
+
+		// Doubles up to the maximum on a fast link.
+
+		long size = controller.size(link);
+
+		Assert.assertEquals(MIN_SIZE, size);
+
+		while (size < MAX_SIZE * 2)
+		{
+			controller.delivered(link, size, 100);
+
+			Assert.assertEquals(Math.min(size * 2, MAX_SIZE * 2), controller.size(link));
+
+			size = controller.size(link);
+		}
+
+		controller.delivered(link, size, 100);
+
+		Assert.assertEquals(MAX_SIZE * 2, controller.size(link));
+
+		// A small batch does not count towards growth.
+
+		controller.congested(link, System.currentTimeMillis());
+
+		size = controller.size(link);
+
+		controller.delivered(link, size / 4, 100);
+
+		Assert.assertEquals(size, controller.size(link));
+
+		// After congestion, it grows by one minimum size per delivery.
+
+		controller.delivered(link, size, 100);
+
+		Assert.assertEquals(size + MIN_SIZE, controller.size(link));
+	}
+
+	public void testCongestion()
+	{
+		UploadSizeController controller = new UploadSizeController(MIN_SIZE, MAX_SIZE, MAX_SIZE * 2);
+
+		int link = UploadSizeController.LINK_MOBILE;
+
+		for (int i = 0; i < 4; i++)
+		{
+			controller.delivered(link, controller.size(link), 100);
+		}
+
+		Assert.assertEquals(MAX_SIZE, controller.size(link));
+
+		long sent = System.currentTimeMillis() - 1000;
+
+		// Several batches in flight fail together: only the first halves the size.
+
+		controller.congested(link, sent);
+		controller.congested(link, sent);
+		controller.congested(link, sent);
+
+		Assert.assertEquals(MAX_SIZE / 2, controller.size(link));
+
+		// A batch sent after the reduction halves it again.
+
+		controller.congested(link, System.currentTimeMillis() + 1);
+
+		Assert.assertEquals(MAX_SIZE / 4, controller.size(link));
+
+		// The mobile link's trouble does not affect Wi-Fi.
+
+		Assert.assertEquals(MIN_SIZE, controller.size(UploadSizeController.LINK_WIFI));
+	}
+
+	public void testThroughputCap()
+	{
+		UploadSizeController controller = new UploadSizeController(MIN_SIZE, MAX_SIZE, MAX_SIZE * 2);
+
+		int link = UploadSizeController.LINK_MOBILE;
+
+		// 1,000 bytes per second moves 60,000 bytes in a minute.
+
+		for (int i = 0; i < 20; i++)
+		{
+			long size = controller.size(link);
+
+			controller.delivered(link, size, size);
+		}
+
+		Assert.assertEquals(1000.0, controller.throughput(link), 1);
+		Assert.assertEquals(60000, controller.size(link), 100);
+
+		// Never smaller than the minimum size, however slow the link.
+
+		for (int i = 0; i < 20; i++)
+		{
+			long size = controller.size(link);
+
+			controller.delivered(link, size, size * 100);
+		}
+
+		Assert.assertEquals(MIN_SIZE, controller.size(link));
+	}
+}
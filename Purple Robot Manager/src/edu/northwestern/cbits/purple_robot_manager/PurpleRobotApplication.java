@@ -16,6 +16,7 @@ import android.content.SharedPreferences.Editor;
 import android.net.Uri;
 import android.preference.PreferenceManager;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.plugins.HttpTransport;
 
 public class PurpleRobotApplication extends Application
 {
@@ -29,6 +30,13 @@ public class PurpleRobotApplication extends Application
         PurpleRobotApplication._context = this.getApplicationContext();
     }
 
+    public void onLowMemory()
+    {
+        super.onLowMemory();
+
+        HttpTransport.shutdown();
+    }
+
     public static Context getAppContext()
     {
         return PurpleRobotApplication._context;
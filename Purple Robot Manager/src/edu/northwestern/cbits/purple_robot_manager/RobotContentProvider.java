@@ -1,14 +1,23 @@
 package edu.northwestern.cbits.purple_robot_manager;
 
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Map;
+
 import android.content.ContentProvider;
+import android.content.ContentProviderOperation;
+import android.content.ContentProviderResult;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.OperationApplicationException;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
@@ -22,7 +31,7 @@ public class RobotContentProvider extends ContentProvider
 	private static final int SNAPSHOT_LIST = 3;
 	private static final int SNAPSHOT = 4;
 
-	private static final int DATABASE_VERSION = 3;
+	private static final int DATABASE_VERSION = 4;
 	private static final String DATABASE = "purple_robot.db";
 
 	private static final String RECENT_PROBE_VALUES_TABLE = "recent_probe_values";
@@ -34,6 +43,9 @@ public class RobotContentProvider extends ContentProvider
 	private UriMatcher _uriMatcher = null;
 	private SQLiteOpenHelper _openHelper = null;
 
+	// Uris changed by the batch running on the calling thread, notified once it commits.
+	private ThreadLocal<HashSet<Uri>> _batchChanges = new ThreadLocal<HashSet<Uri>>();
+
 	public int delete(Uri uri, String selection, String[] selectionArgs) 
 	{
 		SQLiteDatabase db = this._openHelper.getWritableDatabase();
@@ -50,40 +62,195 @@ public class RobotContentProvider extends ContentProvider
 				break;
 		}
 
+		if (result > 0)
+			this.notifyChange(uri);
+
 		return result;
 	}
 
 	public Uri insert(Uri uri, ContentValues values) 
 	{
-		Uri newUri = uri;
-		
+		SQLiteDatabase db = this._openHelper.getWritableDatabase();
+
+		long id = -1;
+
 		try
 		{
-			newUri = ContentUris.withAppendedId(uri, values.getAsLong("id"));
+			switch(this._uriMatcher.match(uri))
+			{
+				case RobotContentProvider.RECENT_PROBE_VALUE_LIST:
+					id = this.upsertRecentValue(db, values);
+					break;
+				case RobotContentProvider.SNAPSHOT_LIST:
+					id = db.insert(RobotContentProvider.SNAPSHOTS_TABLE, null, values);
+					break;
+			}
 		}
-		catch (NullPointerException e)
+		catch (SQLiteException e)
 		{
 			LogManager.getInstance(this.getContext()).logException(e);
 		}
 
-		switch(this._uriMatcher.match(uri))
+		if (id == -1)
+			return null;
+
+		this.notifyChange(uri);
+
+		return ContentUris.withAppendedId(uri, id);
+	}
+
+	/**
+	 * Inserts all rows in one transaction and sends one change notification.
+	 */
+
+	public int bulkInsert(Uri uri, ContentValues[] values)
+	{
+		SQLiteDatabase db = this._openHelper.getWritableDatabase();
+
+		int count = 0;
+
+		boolean batch = this.beginBatch();
+
+		db.beginTransaction();
+
+		try
 		{
-			case RobotContentProvider.RECENT_PROBE_VALUE_LIST:
-				if (this.update(newUri, values, null, null) == 1)
-					return newUri;
-	
-				break;
-			case RobotContentProvider.SNAPSHOT_LIST:
-				SQLiteDatabase db = this._openHelper.getWritableDatabase();
-				
-				long id = db.insert(RobotContentProvider.SNAPSHOTS_TABLE, null, values);
-	
-				ContentUris.withAppendedId(uri, id);
+			for (ContentValues value : values)
+			{
+				if (this.insert(uri, value) != null)
+					count += 1;
+			}
 
-				break;
+			db.setTransactionSuccessful();
 		}
+		finally
+		{
+			db.endTransaction();
 
-		return null;
+			this.endBatch(batch);
+		}
+
+		return count;
+	}
+
+	/**
+	 * Applies the operations in one transaction and sends one change
+	 * notification per changed URI.
+	 */
+
+	public ContentProviderResult[] applyBatch(ArrayList<ContentProviderOperation> operations) throws OperationApplicationException
+	{
+		SQLiteDatabase db = this._openHelper.getWritableDatabase();
+
+		boolean batch = this.beginBatch();
+
+		db.beginTransaction();
+
+		try
+		{
+			ContentProviderResult[] results = super.applyBatch(operations);
+
+			db.setTransactionSuccessful();
+
+			return results;
+		}
+		finally
+		{
+			db.endTransaction();
+
+			this.endBatch(batch);
+		}
+	}
+
+	private boolean beginBatch()
+	{
+		if (this._batchChanges.get() != null)
+			return false;
+
+		this._batchChanges.set(new HashSet<Uri>());
+
+		return true;
+	}
+
+	private void endBatch(boolean batch)
+	{
+		if (batch == false)
+			return;
+
+		HashSet<Uri> changes = this._batchChanges.get();
+
+		this._batchChanges.remove();
+
+		for (Uri uri : changes)
+		{
+			this.getContext().getContentResolver().notifyChange(uri, null);
+		}
+	}
+
+	private void notifyChange(Uri uri)
+	{
+		HashSet<Uri> changes = this._batchChanges.get();
+
+		if (changes != null)
+			changes.add(uri);
+		else
+			this.getContext().getContentResolver().notifyChange(uri, null);
+	}
+
+	/**
+	 * Writes the row for the values' source with a single insert-or-replace
+	 * statement against the unique source index. The existing row id is kept,
+	 * so item URIs handed out earlier stay valid.
+	 */
+
+	private long upsertRecentValue(SQLiteDatabase db, ContentValues values)
+	{
+		String source = values.getAsString("source");
+
+		if (source == null)
+			return db.insert(RobotContentProvider.RECENT_PROBE_VALUES_TABLE, null, values);
+
+		StringBuilder columns = new StringBuilder("_id");
+		StringBuilder params = new StringBuilder();
+
+		ArrayList<Object> args = new ArrayList<Object>();
+
+		if (values.containsKey("_id"))
+		{
+			params.append("?");
+			args.add(values.get("_id"));
+		}
+		else
+		{
+			params.append("(SELECT _id FROM " + RobotContentProvider.RECENT_PROBE_VALUES_TABLE + " WHERE source = ?)");
+			args.add(source);
+		}
+
+		for (Map.Entry<String, Object> entry : values.valueSet())
+		{
+			if ("_id".equals(entry.getKey()) == false)
+			{
+				columns.append(", " + entry.getKey());
+				params.append(", ?");
+				args.add(entry.getValue());
+			}
+		}
+
+		SQLiteStatement statement = db.compileStatement("INSERT OR REPLACE INTO " + RobotContentProvider.RECENT_PROBE_VALUES_TABLE + " (" + columns.toString() + ") VALUES (" + params.toString() + ");");
+
+		try
+		{
+			for (int i = 0; i < args.size(); i++)
+			{
+				DatabaseUtils.bindObjectToProgram(statement, i + 1, args.get(i));
+			}
+
+			return statement.executeInsert();
+		}
+		finally
+		{
+			statement.close();
+		}
 	}
 	
 	public boolean onCreate() 
@@ -115,6 +282,9 @@ public class RobotContentProvider extends ContentProvider
 						db.execSQL(me.getContext().getString(R.string.create_snapshots_sql));
 					case 2:
 						db.execSQL(me.getContext().getString(R.string.db_update_snapshots_add_audio));
+					case 3:
+						db.execSQL(me.getContext().getString(R.string.db_update_recent_probe_values_dedupe));
+						db.execSQL(me.getContext().getString(R.string.db_update_recent_probe_values_unique_source));
 					default:
 						break;
 				}
@@ -124,51 +294,6 @@ public class RobotContentProvider extends ContentProvider
 		return true;
 	}
 
-	public int updateOrInsert(Uri uri, ContentValues values, String selection, String[] selectionArgs)
-	{
-		SQLiteDatabase db = this._openHelper.getWritableDatabase();
-
-		String[] projection = { "_id" };
-		
-		int count = 0;
-		Cursor c = null;
-		
-		switch(this._uriMatcher.match(uri))
-		{
-			case RobotContentProvider.RECENT_PROBE_VALUE:
-				c = this.query(uri, projection, selection, selectionArgs, null);
-				
-				if (c.getCount() == 0)
-				{
-					db.insert(RobotContentProvider.RECENT_PROBE_VALUES_TABLE, null, values);
-					count = 1;
-				}
-				else
-					count = this.update(RobotContentProvider.RECENT_PROBE_VALUES, values, selection, selectionArgs);
-				
-				break;
-			case RobotContentProvider.SNAPSHOT:
-				c = this.query(uri, projection, selection, selectionArgs, null);
-				
-				if (c.getCount() == 0)
-				{
-					db.insert(RobotContentProvider.SNAPSHOTS_TABLE, null, values);
-					count = 1;
-				}
-				else
-					count = this.update(RobotContentProvider.SNAPSHOTS, values, selection, selectionArgs);
-				
-				break;
-		}
-		
-		if (c != null && c.isClosed() == false)
-			c.close();
-		
-		this.getContext().getContentResolver().notifyChange(uri, null);
-
-		return count;
-	}
-	
 	public int update(Uri uri, ContentValues values, String selection, String[] selectionArgs) 
 	{
 		SQLiteDatabase db = this._openHelper.getWritableDatabase();
@@ -184,14 +309,25 @@ public class RobotContentProvider extends ContentProvider
 					
 					if (result == 0)
 					{
-						db.insert(RobotContentProvider.RECENT_PROBE_VALUES_TABLE, null, values);
+						this.upsertRecentValue(db, values);
 						
 						result = 1;
 					}
 
 					break;
 				case RobotContentProvider.RECENT_PROBE_VALUE:
-					result = this.updateOrInsert(uri, values, this.buildSingleSelection(selection), this.buildSingleSelectionArgs(uri, selectionArgs));
+					result = db.update(RobotContentProvider.RECENT_PROBE_VALUES_TABLE, values, this.buildSingleSelection(selection), this.buildSingleSelectionArgs(uri, selectionArgs));
+
+					if (result == 0)
+					{
+						ContentValues row = new ContentValues(values);
+						row.put("_id", ContentUris.parseId(uri));
+
+						this.upsertRecentValue(db, row);
+
+						result = 1;
+					}
+
 					break;
 
 				case RobotContentProvider.SNAPSHOT_LIST:
@@ -206,7 +342,18 @@ public class RobotContentProvider extends ContentProvider
 
 					break;
 				case RobotContentProvider.SNAPSHOT:
-					result = this.updateOrInsert(uri, values, this.buildSingleSelection(selection), this.buildSingleSelectionArgs(uri, selectionArgs));
+					result = db.update(RobotContentProvider.SNAPSHOTS_TABLE, values, this.buildSingleSelection(selection), this.buildSingleSelectionArgs(uri, selectionArgs));
+
+					if (result == 0)
+					{
+						ContentValues row = new ContentValues(values);
+						row.put("_id", ContentUris.parseId(uri));
+
+						db.insert(RobotContentProvider.SNAPSHOTS_TABLE, null, row);
+
+						result = 1;
+					}
+
 					break;
 			}
 		}
@@ -214,6 +361,9 @@ public class RobotContentProvider extends ContentProvider
 		{
 			LogManager.getInstance(this.getContext()).logException(e);
 		}
+
+		if (result > 0)
+			this.notifyChange(uri);
 		
 		return result;
 	}
@@ -6,6 +6,7 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.preference.PreferenceManager;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 
 public class ShutdownReceiver extends BroadcastReceiver
 {
@@ -20,5 +21,7 @@ public class ShutdownReceiver extends BroadcastReceiver
     	e.putLong(ShutdownReceiver.SHUTDOWN_KEY, System.currentTimeMillis());
     	
     	e.commit();
+
+    	ProbeValuesProvider.getProvider(context).flush();
     }
 }
@@ -3,6 +3,7 @@ package edu.northwestern.cbits.purple_robot_manager.charts;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +20,10 @@ public class LineChart extends Chart
 	protected Map<String, List<Double>> _series = new HashMap<String, List<Double>>();
 	protected List<Double> _times = new ArrayList<Double>();
 
+	// Series with their own time axis, such as downsampled probe values.
+	protected Map<String, double[]> _sampledTimes = new LinkedHashMap<String, double[]>();
+	protected Map<String, double[]> _sampledValues = new LinkedHashMap<String, double[]>();
+
 	public void addSeries(String key, List<Double> series)
 	{
 		this._series.put(key, series);
@@ -29,6 +34,32 @@ public class LineChart extends Chart
 		this._times = times;
 	}
 
+	public void addSeries(String key, double[] times, double[] values)
+	{
+		this._sampledTimes.put(key, times);
+		this._sampledValues.put(key, values);
+	}
+
+	protected JSONArray sampledData(String key, double timeScale) throws JSONException
+	{
+		JSONArray array = new JSONArray();
+
+		double[] times = this._sampledTimes.get(key);
+		double[] values = this._sampledValues.get(key);
+
+		for (int i = 0; i < values.length && i < times.length; i++)
+		{
+			JSONArray sample = new JSONArray();
+
+			sample.put(times[i] * timeScale);
+			sample.put(values[i]);
+
+			array.put(sample);
+		}
+
+		return array;
+	}
+
 	public JSONObject dataJson(Activity activity) throws JSONException, IOException
 	{
 		JSONObject chartJson = (JSONObject) new JSONTokener(WebkitActivity.stringForAsset(activity, "webkit/js/placeholder_line.js")).nextValue();
@@ -68,6 +99,15 @@ public class LineChart extends Chart
 			series.put(seriesObject);
 		}
 
+		for (String key : this._sampledValues.keySet())
+		{
+			JSONObject seriesObject = new JSONObject();
+
+			seriesObject.put("data", this.sampledData(key, 1));
+
+			series.put(seriesObject);
+		}
+
 		return chartJson;
 	}
 }
@@ -54,6 +54,16 @@ public class SplineChart extends LineChart
 			series.put(seriesObject);
 		}
 
+		for (String key : this._sampledValues.keySet())
+		{
+			JSONObject seriesObject = new JSONObject();
+
+			seriesObject.put("name", key);
+			seriesObject.put("data", this.sampledData(key, 1000));
+
+			series.put(seriesObject);
+		}
+
 		return chartJson;
 	}
 }
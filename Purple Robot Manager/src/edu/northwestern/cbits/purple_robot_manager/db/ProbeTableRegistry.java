@@ -0,0 +1,343 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Maps probe names and their schemas to the tables holding their values. The
+ * registry is loaded from the database catalog when the database opens and is
+ * only used while holding the database lock, so the insert and read paths
+ * resolve tables with a map lookup rather than a digest and a catalog query.
+ *
+ * Each probe keeps a single table. If a probe later reports columns that its
+ * table lacks, they are added to that table instead of starting a new one.
+ */
+
+public class ProbeTableRegistry
+{
+	public static final String REGISTRY_TABLE = "probe_tables";
+	public static final String REGISTRY_NAME = "name";
+	public static final String REGISTRY_TABLE_NAME = "table_name";
+
+	private static final String TABLE_PREFIX = "table_";
+
+	public static class TableHandle
+	{
+		public final String name;
+		public final String tableName;
+		public final String[] columns;
+		public final String[] types;
+
+		private Map<String, String> _schema = null;
+		private SQLiteStatement _insert = null;
+
+		private TableHandle(String name, String tableName, Map<String, String> schema, String[] columns)
+		{
+			this.name = name;
+			this.tableName = tableName;
+			this.columns = columns;
+
+			this._schema = schema;
+
+			this.types = new String[columns.length];
+
+			for (int i = 0; i < columns.length; i++)
+			{
+				this.types[i] = schema.get(columns[i]);
+			}
+		}
+
+		/**
+		 * Insert statement binding the timestamp first, then columns in order.
+		 */
+
+		public SQLiteStatement insertStatement(SQLiteDatabase database)
+		{
+			if (this._insert == null)
+			{
+				StringBuilder names = new StringBuilder(ProbeValuesProvider.TIMESTAMP);
+				StringBuilder params = new StringBuilder("?");
+
+				for (String column : this.columns)
+				{
+					names.append(", " + column);
+					params.append(", ?");
+				}
+
+				this._insert = database.compileStatement("insert into " + this.tableName + " (" + names.toString() + ") values (" + params.toString() + ");");
+			}
+
+			return this._insert;
+		}
+
+		private void close()
+		{
+			if (this._insert != null)
+			{
+				this._insert.close();
+
+				this._insert = null;
+			}
+		}
+	}
+
+	private Context _context = null;
+	private SQLiteDatabase _database = null;
+
+	private HashMap<String, TableHandle> _handles = new HashMap<String, TableHandle>();
+	private HashMap<String, String> _registeredTables = new HashMap<String, String>();
+	private HashMap<String, HashSet<String>> _tableColumns = new HashMap<String, HashSet<String>>();
+
+	public ProbeTableRegistry(Context context, SQLiteDatabase database)
+	{
+		this._context = context;
+		this._database = database;
+
+		this.load();
+	}
+
+	private void load()
+	{
+		Cursor c = this._database.rawQuery("select name from sqlite_master where type='table';", null);
+
+		ArrayList<String> tables = new ArrayList<String>();
+
+		while (c.moveToNext())
+		{
+			String tableName = c.getString(0);
+
+			if (tableName.startsWith(TABLE_PREFIX))
+				tables.add(tableName);
+		}
+
+		c.close();
+
+		for (String tableName : tables)
+		{
+			this._tableColumns.put(tableName, this.existingColumns(tableName));
+
+			// Tables created by earlier versions have no timestamp index.
+
+			this.createIndex(tableName);
+		}
+
+		c = this._database.query(REGISTRY_TABLE, null, null, null, null, null, null);
+
+		while (c.moveToNext())
+		{
+			String name = c.getString(c.getColumnIndex(REGISTRY_NAME));
+			String tableName = c.getString(c.getColumnIndex(REGISTRY_TABLE_NAME));
+
+			if (this._tableColumns.containsKey(tableName))
+				this._registeredTables.put(name, tableName);
+		}
+
+		c.close();
+	}
+
+	private HashSet<String> existingColumns(String tableName)
+	{
+		HashSet<String> columns = new HashSet<String>();
+
+		Cursor c = this._database.rawQuery("pragma table_info(" + tableName + ");", null);
+
+		int nameIndex = c.getColumnIndex("name");
+
+		while (c.moveToNext())
+		{
+			columns.add(c.getString(nameIndex));
+		}
+
+		c.close();
+
+		return columns;
+	}
+
+	public Set<String> tableNames()
+	{
+		return Collections.unmodifiableSet(this._tableColumns.keySet());
+	}
+
+	/**
+	 * Probe names mapped to their table names.
+	 */
+
+	public Map<String, String> registeredTables()
+	{
+		return Collections.unmodifiableMap(this._registeredTables);
+	}
+
+	/**
+	 * Returns the handle for the probe's table, creating or extending the table
+	 * when the probe is new or its schema has changed.
+	 */
+
+	public TableHandle resolve(String name, Map<String, String> schema)
+	{
+		TableHandle handle = this._handles.get(name);
+
+		if (handle != null && handle._schema.equals(schema))
+			return handle;
+
+		String[] columns = this.validColumns(schema);
+
+		String tableName = this._registeredTables.get(name);
+
+		// Probes not yet registered adopt the table earlier versions derived from the schema.
+
+		if (tableName == null)
+			tableName = this.legacyTableName(name, schema);
+
+		HashSet<String> existing = this._tableColumns.get(tableName);
+
+		if (existing == null)
+		{
+			this.createTable(tableName, schema, columns);
+
+			existing = new HashSet<String>();
+			existing.add(ProbeValuesSqlHelper.COLUMN_ID);
+			existing.add(ProbeValuesSqlHelper.COLUMN_TIMESTAMP);
+
+			Collections.addAll(existing, columns);
+
+			this._tableColumns.put(tableName, existing);
+		}
+		else
+		{
+			for (String column : columns)
+			{
+				if (existing.contains(column) == false)
+				{
+					this._database.execSQL("alter table " + tableName + " add column " + column + " " + schema.get(column) + ";");
+
+					existing.add(column);
+				}
+			}
+		}
+
+		if (tableName.equals(this._registeredTables.get(name)) == false)
+		{
+			ContentValues values = new ContentValues();
+			values.put(REGISTRY_NAME, name);
+			values.put(REGISTRY_TABLE_NAME, tableName);
+
+			this._database.insertWithOnConflict(REGISTRY_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+
+			this._registeredTables.put(name, tableName);
+		}
+
+		if (handle != null)
+			handle.close();
+
+		handle = new TableHandle(name, tableName, new HashMap<String, String>(schema), columns);
+
+		this._handles.put(name, handle);
+
+		return handle;
+	}
+
+	/**
+	 * Releases compiled statements. Handles recompile them on next use.
+	 */
+
+	public void closeStatements()
+	{
+		for (TableHandle handle : this._handles.values())
+		{
+			handle.close();
+		}
+	}
+
+	private boolean isValidColumn(String key)
+	{
+		// TODO: Add more checks...
+
+		return true;
+	}
+
+	private String[] validColumns(Map<String, String> schema)
+	{
+		ArrayList<String> columns = new ArrayList<String>();
+
+		for (String key : schema.keySet())
+		{
+			String type = schema.get(key);
+
+			if (this.isValidColumn(key) && (ProbeValuesProvider.REAL_TYPE.equals(type) || ProbeValuesProvider.INTEGER_TYPE.equals(type) || ProbeValuesProvider.TEXT_TYPE.equals(type)))
+				columns.add(key);
+		}
+
+		Collections.sort(columns);
+
+		return columns.toArray(new String[columns.size()]);
+	}
+
+	private String legacyTableName(String name, Map<String, String> schema)
+	{
+		String tableName = name;
+
+		ArrayList<String> columns = new ArrayList<String>(schema.keySet());
+		Collections.sort(columns);
+
+		for (String key : columns)
+		{
+			tableName += (key + schema.get(key));
+		}
+
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("MD5");
+			byte[] digest = md.digest(tableName.getBytes("UTF-8"));
+
+			tableName = TABLE_PREFIX + (new BigInteger(1, digest)).toString(16);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			LogManager.getInstance(this._context).logException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			LogManager.getInstance(this._context).logException(e);
+		}
+
+		return tableName;
+	}
+
+	private void createTable(String tableName, Map<String, String> schema, String[] columns)
+	{
+		String createSql = "create table " + tableName + " (" + ProbeValuesSqlHelper.COLUMN_ID + " integer primary key autoincrement";
+
+		createSql += (", " + ProbeValuesSqlHelper.COLUMN_TIMESTAMP + " real");
+
+		for (String column : columns)
+		{
+			createSql += (", " + column + " " + schema.get(column));
+		}
+
+		createSql += ");";
+
+		this._database.execSQL(createSql);
+
+		this.createIndex(tableName);
+	}
+
+	private void createIndex(String tableName)
+	{
+		this._database.execSQL("create index if not exists " + tableName + "_" + ProbeValuesSqlHelper.COLUMN_TIMESTAMP + " on " + tableName + " (" + ProbeValuesSqlHelper.COLUMN_TIMESTAMP + ");");
+	}
+}
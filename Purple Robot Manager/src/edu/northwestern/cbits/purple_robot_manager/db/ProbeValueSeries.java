@@ -0,0 +1,240 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import android.database.Cursor;
+
+/**
+ * Stored probe values over a time range, reduced to a bounded number of points
+ * per column. When the range holds more rows than requested, it is split into
+ * equal time buckets and each column keeps its minimum and maximum sample per
+ * bucket, so spikes survive the reduction. The rows are read in a single pass
+ * and memory stays proportional to the point limit rather than the range.
+ */
+
+public class ProbeValueSeries
+{
+	private String[] _columns = null;
+	private int _maxPoints = 0;
+
+	private int _rowCount = 0;
+	private double _start = 0;
+	private double _width = 0;
+	private int _buckets = 0;
+
+	private double[][] _times = null;
+	private double[][] _values = null;
+	private int[] _sizes = null;
+
+	// Extremes of the current bucket, per column.
+	private int _bucket = -1;
+	private boolean[] _filled = null;
+	private double[] _minTimes = null;
+	private double[] _minValues = null;
+	private double[] _maxTimes = null;
+	private double[] _maxValues = null;
+
+	public ProbeValueSeries(String[] columns, int maxPoints)
+	{
+		this._columns = columns;
+		this._maxPoints = Math.max(maxPoints, 2);
+
+		int count = columns.length;
+
+		this._times = new double[count][0];
+		this._values = new double[count][0];
+		this._sizes = new int[count];
+
+		this._filled = new boolean[count];
+		this._minTimes = new double[count];
+		this._minValues = new double[count];
+		this._maxTimes = new double[count];
+		this._maxValues = new double[count];
+	}
+
+	/**
+	 * Number of stored rows in the range, before reduction.
+	 */
+
+	public int rowCount()
+	{
+		return this._rowCount;
+	}
+
+	public double[] times(String column)
+	{
+		int index = this.columnIndex(column);
+
+		if (index < 0)
+			return new double[0];
+
+		return ProbeValueSeries.copyOf(this._times[index], this._sizes[index]);
+	}
+
+	public double[] values(String column)
+	{
+		int index = this.columnIndex(column);
+
+		if (index < 0)
+			return new double[0];
+
+		return ProbeValueSeries.copyOf(this._values[index], this._sizes[index]);
+	}
+
+	private int columnIndex(String column)
+	{
+		for (int i = 0; i < this._columns.length; i++)
+		{
+			if (this._columns[i].equals(column))
+				return i;
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Sets the row count and timestamp range that the rows passed to read()
+	 * will cover.
+	 */
+
+	void setRange(int rowCount, double start, double end)
+	{
+		this._rowCount = rowCount;
+		this._start = start;
+
+		int capacity = rowCount;
+
+		if (rowCount > this._maxPoints)
+		{
+			this._buckets = this._maxPoints / 2;
+			this._width = (end - start) / this._buckets;
+
+			capacity = this._buckets * 2;
+		}
+
+		for (int i = 0; i < this._columns.length; i++)
+		{
+			this._times[i] = new double[capacity];
+			this._values[i] = new double[capacity];
+		}
+	}
+
+	/**
+	 * Consumes a cursor ordered by timestamp whose first column is the
+	 * timestamp, followed by the series columns in order.
+	 */
+
+	void read(Cursor cursor)
+	{
+		while (cursor.moveToNext())
+		{
+			if (cursor.isNull(0))
+				continue;
+
+			double time = cursor.getDouble(0);
+
+			if (this._buckets == 0)
+			{
+				for (int i = 0; i < this._columns.length; i++)
+				{
+					if (cursor.isNull(i + 1) == false)
+						this.append(i, time, cursor.getDouble(i + 1));
+				}
+
+				continue;
+			}
+
+			int bucket = this._buckets - 1;
+
+			if (this._width > 0)
+				bucket = Math.max(0, Math.min(this._buckets - 1, (int) ((time - this._start) / this._width)));
+
+			if (bucket != this._bucket)
+			{
+				this.emitBucket();
+
+				this._bucket = bucket;
+			}
+
+			for (int i = 0; i < this._columns.length; i++)
+			{
+				if (cursor.isNull(i + 1))
+					continue;
+
+				double value = cursor.getDouble(i + 1);
+
+				if (this._filled[i] == false)
+				{
+					this._filled[i] = true;
+
+					this._minTimes[i] = time;
+					this._minValues[i] = value;
+					this._maxTimes[i] = time;
+					this._maxValues[i] = value;
+				}
+				else if (value < this._minValues[i])
+				{
+					this._minTimes[i] = time;
+					this._minValues[i] = value;
+				}
+				else if (value > this._maxValues[i])
+				{
+					this._maxTimes[i] = time;
+					this._maxValues[i] = value;
+				}
+			}
+		}
+
+		this.emitBucket();
+	}
+
+	private void emitBucket()
+	{
+		for (int i = 0; i < this._columns.length; i++)
+		{
+			if (this._filled[i] == false)
+				continue;
+
+			this._filled[i] = false;
+
+			if (this._minTimes[i] == this._maxTimes[i])
+				this.append(i, this._minTimes[i], this._minValues[i]);
+			else if (this._minTimes[i] < this._maxTimes[i])
+			{
+				this.append(i, this._minTimes[i], this._minValues[i]);
+				this.append(i, this._maxTimes[i], this._maxValues[i]);
+			}
+			else
+			{
+				this.append(i, this._maxTimes[i], this._maxValues[i]);
+				this.append(i, this._minTimes[i], this._minValues[i]);
+			}
+		}
+	}
+
+	private void append(int column, double time, double value)
+	{
+		int size = this._sizes[column];
+
+		// Rows inserted between counting and reading can overrun the estimate.
+
+		if (size == this._times[column].length)
+		{
+			int capacity = Math.max(16, size * 2);
+
+			this._times[column] = ProbeValueSeries.copyOf(this._times[column], capacity);
+			this._values[column] = ProbeValueSeries.copyOf(this._values[column], capacity);
+		}
+
+		this._times[column][size] = time;
+		this._values[column][size] = value;
+
+		this._sizes[column] = size + 1;
+	}
+
+	private static double[] copyOf(double[] array, int length)
+	{
+		double[] copy = new double[length];
+		System.arraycopy(array, 0, copy, 0, Math.min(array.length, length));
+
+		return copy;
+	}
+}
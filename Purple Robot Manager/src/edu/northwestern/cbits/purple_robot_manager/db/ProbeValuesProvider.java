@@ -1,33 +1,57 @@
 package edu.northwestern.cbits.purple_robot_manager.db;
 
-import java.io.UnsupportedEncodingException;
-import java.math.BigInteger;
-import java.security.MessageDigest;
-import java.security.NoSuchAlgorithmException;
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
-import android.content.ContentValues;
 import android.content.Context;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.database.Cursor;
 import android.database.SQLException;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteException;
 import android.database.sqlite.SQLiteStatement;
+import android.os.Process;
+import android.preference.PreferenceManager;
 
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeTableRegistry.TableHandle;
+import edu.northwestern.cbits.purple_robot_manager.db.filters.DeadBandFilter;
 import edu.northwestern.cbits.purple_robot_manager.db.filters.Filter;
+import edu.northwestern.cbits.purple_robot_manager.db.filters.FilterChain;
 import edu.northwestern.cbits.purple_robot_manager.db.filters.FrequencyThrottleFilter;
+import edu.northwestern.cbits.purple_robot_manager.db.filters.RateOfChangeFilter;
+import edu.northwestern.cbits.purple_robot_manager.db.filters.TimeBucketFilter;
 import edu.northwestern.cbits.purple_robot_manager.db.filters.ValueDeltaFilter;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.AccelerometerProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.GyroscopeProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.LightProbe;
+import edu.northwestern.cbits.purple_robot_manager.probes.builtin.LocationProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.MagneticFieldProbe;
 import edu.northwestern.cbits.purple_robot_manager.probes.builtin.PressureProbe;
 
+/**
+ * Caches recent probe values in per-probe SQLite tables for charts and
+ * calibration screens. Inserts are queued and written by a single background
+ * writer that commits them in batches, one transaction per batch, reusing a
+ * compiled insert statement per table.
+ *
+ * When enabled, high-frequency sensors are stored at full rate in a
+ * SegmentStore instead. Reads go through the same methods for both backends.
+ * The writer stays up while a segment is open and seals it once it has been
+ * open for SEGMENT_SEAL_INTERVAL, so a killed process loses at most about that
+ * much of each probe's samples.
+ */
+
 public class ProbeValuesProvider
 {
 	public static final String INTEGER_TYPE = "integer";
@@ -35,18 +59,78 @@ public class ProbeValuesProvider
 	public static final String TEXT_TYPE = "text";
 
 	public static final String TIMESTAMP = "timestamp";
+
+	// Points per column requested by the probe charts.
+	public static final int CHART_POINTS = 512;
+
+	public static final String SEGMENT_STORE_ENABLED = "config_probe_values_segment_store";
+
+	/**
+	 * Per-probe filters are configured with string preferences named
+	 * FILTER_PREFIX + probe name + one of the suffixes below, e.g.
+	 * config_probe_values_filter_light_probe_dead_band.
+	 */
+
+	public static final String FILTER_PREFIX = "config_probe_values_filter_";
+	public static final String FILTER_RATE_OF_CHANGE = "_rate_of_change";
+	public static final String FILTER_DEAD_BAND = "_dead_band";
+	public static final String FILTER_DEAD_BAND_HYSTERESIS = "_dead_band_hysteresis";
+	public static final String FILTER_TIME_BUCKET = "_time_bucket";
+
 	private static final String ID = "_id";
 
+	// A batch is committed once it holds this many rows or its oldest row has waited this long (ms).
+	private static final int WRITE_BATCH_SIZE = 128;
+	private static final long WRITE_BATCH_LATENCY = 2000;
+
+	private static final int MAX_PENDING_VALUES = 4096;
+	private static final long WRITER_IDLE_TIMEOUT = 60000;
+	private static final long FLUSH_TIMEOUT = 5000;
+
+	// Retention deletes run after each committed batch.
+	private static final int PRUNE_STEPS_PER_BATCH = 4;
+
+	private static final long MIN_UPDATE_INTERVAL = 5000;
+
+	private static final String SEGMENT_DIRECTORY = "probe_segments";
+	private static final int MAX_SEGMENTS = 256;
+	private static final long SEGMENT_SEAL_INTERVAL = 60000;
+
+	private static class PendingValue
+	{
+		private String name = null;
+		private Map<String, String> schema = null;
+		private Map<String, Object> values = null;
+
+		// Set on flush markers only.
+		private CountDownLatch flushed = null;
+
+		// Set on sealed segments waiting to be written only.
+		private SegmentStore store = null;
+		private SegmentStore.Segment segment = null;
+	}
+
 	private SQLiteDatabase _database = null;
 	private ProbeValuesSqlHelper _dbHelper = null;
 
 	private ArrayList<Filter> _filters = new ArrayList<Filter>();
-
-	private long _lastCleanup = 0;
+	private HashMap<String, FilterChain> _filterChains = new HashMap<String, FilterChain>();
+	private OnSharedPreferenceChangeListener _filterListener = null;
 
 	private static ProbeValuesProvider _instance = null;
-	
-	private HashMap<String, Long> _lastUpdates = new HashMap<String, Long>();
+
+	private Context _context = null;
+
+	private LinkedBlockingQueue<PendingValue> _pending = new LinkedBlockingQueue<PendingValue>();
+	private Thread _writer = null;
+
+	// Used while holding the database lock only.
+	private ProbeTableRegistry _registry = null;
+
+	private ProbeValuesRetention _retention = new ProbeValuesRetention();
+
+	private HashSet<String> _segmentProbes = new HashSet<String>();
+	private HashMap<String, SegmentStore> _segmentStores = new HashMap<String, SegmentStore>();
 
 	public static ProbeValuesProvider getProvider(Context context)
 	{
@@ -58,11 +142,15 @@ public class ProbeValuesProvider
 
 	public ProbeValuesProvider(Context context)
 	{
+		this._context = context.getApplicationContext();
+
 		this._dbHelper = new ProbeValuesSqlHelper(context);
 
 		try
 		{
 			this._database = this._dbHelper.getWritableDatabase();
+
+			this._registry = new ProbeTableRegistry(this._context, this._database);
 		}
 		catch (SQLException e)
 		{
@@ -95,287 +183,774 @@ public class ProbeValuesProvider
 		fiveDelta.add(LightProbe.DB_TABLE);
 
 		this._filters.add(new ValueDeltaFilter(5.0, fiveDelta));
+
+		// High-frequency sensors: the newest rows from the last day. Locations: the last week.
+
+		for (String table : highFreq)
+		{
+			this._retention.setPolicy(table, ProbeValuesRetention.DEFAULT_MAX_ROWS, 24 * 60 * 60 * 1000L);
+		}
+
+		this._retention.setPolicy(LocationProbe.DB_TABLE, ProbeValuesRetention.DEFAULT_MAX_ROWS, 7 * 24 * 60 * 60 * 1000L);
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+		if (prefs.getBoolean(ProbeValuesProvider.SEGMENT_STORE_ENABLED, false))
+			this._segmentProbes.addAll(highFreq);
+
+		final ProbeValuesProvider me = this;
+
+		// Rebuild a probe's chain when its filter configuration changes.
+
+		this._filterListener = new OnSharedPreferenceChangeListener()
+		{
+			public void onSharedPreferenceChanged(SharedPreferences prefs, String key)
+			{
+				if (key == null || key.startsWith(ProbeValuesProvider.FILTER_PREFIX) == false)
+					return;
+
+				synchronized(me._filterChains)
+				{
+					for (String name : new ArrayList<String>(me._filterChains.keySet()))
+					{
+						if (key.startsWith(ProbeValuesProvider.FILTER_PREFIX + name + "_"))
+							me._filterChains.remove(name);
+					}
+				}
+			}
+		};
+
+		prefs.registerOnSharedPreferenceChangeListener(this._filterListener);
 	}
 
 	public void close()
 	{
+		Thread writer = null;
+
+		synchronized(this)
+		{
+			writer = this._writer;
+		}
+
+		if (writer != null)
+		{
+			writer.interrupt();
+
+			try
+			{
+				writer.join(FLUSH_TIMEOUT);
+			}
+			catch (InterruptedException e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
+		}
+
 		this._dbHelper.close();
 	}
 
-	private String tableName(Context context, String name, Map<String, String> schema)
+	public void insertValue(Context context, String name, Map<String, String> schema, Map<String, Object> values)
 	{
-		String tableName = name;
+		// Segment-backed probes store their full sample buffers through insertSamples().
 
-		ArrayList<String> columns = new ArrayList<String>(schema.keySet());
-		Collections.sort(columns);
+		if (this.segmentStore(name, schema) != null)
+			return;
 
-		for (String key : columns)
-		{
-			tableName += (key + schema.get(key));
-		}
+		if (this._registry == null)
+			return;
 
-		try
-		{
-			MessageDigest md = MessageDigest.getInstance("MD5");
-			byte[] digest = md.digest(tableName.getBytes("UTF-8"));
+		// Filters run on the calling thread under the probe's own lock, before anything is queued.
 
-			tableName = "table_" + (new BigInteger(1, digest)).toString(16);
-		}
-		catch (NoSuchAlgorithmException e)
+		if (this.filterChain(name, schema).apply(System.currentTimeMillis(), values) == false)
+			return;
+
+		if (this._pending.size() >= MAX_PENDING_VALUES)
+			return;
+
+		PendingValue value = new PendingValue();
+		value.name = name;
+		value.schema = schema;
+		value.values = values;
+
+		this._pending.offer(value);
+
+		this.startWriter();
+	}
+
+	private FilterChain filterChain(String name, Map<String, String> schema)
+	{
+		synchronized(this._filterChains)
 		{
-			LogManager.getInstance(context).logException(e);
+			FilterChain chain = this._filterChains.get(name);
+
+			if (chain == null || chain.matches(schema) == false)
+			{
+				ArrayList<Filter> filters = new ArrayList<Filter>(this._filters);
+				filters.addAll(this.configuredFilters(name));
+
+				chain = new FilterChain(name, schema, filters, MIN_UPDATE_INTERVAL);
+
+				this._filterChains.put(name, chain);
+			}
+
+			return chain;
 		}
-		catch (UnsupportedEncodingException e)
+	}
+
+	private List<Filter> configuredFilters(String name)
+	{
+		ArrayList<Filter> filters = new ArrayList<Filter>();
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+		String prefix = ProbeValuesProvider.FILTER_PREFIX + name;
+
+		Set<String> probe = Collections.singleton(name);
+
+		String[] kinds = { ProbeValuesProvider.FILTER_TIME_BUCKET, ProbeValuesProvider.FILTER_DEAD_BAND, ProbeValuesProvider.FILTER_RATE_OF_CHANGE };
+
+		// Each filter is parsed on its own, so one bad setting does not drop the others.
+
+		for (String kind : kinds)
 		{
-			LogManager.getInstance(context).logException(e);
+			try
+			{
+				Filter filter = this.configuredFilter(prefs, prefix, kind, probe);
+
+				if (filter != null)
+					filters.add(filter);
+			}
+			catch (NumberFormatException e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
+			catch (ClassCastException e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
 		}
 
-		return tableName;
+		return filters;
 	}
 
-	private boolean tableExists(Context context, String tableName)
+	private Filter configuredFilter(SharedPreferences prefs, String prefix, String kind, Set<String> probe)
 	{
-		Cursor c = null;
+		String value = prefs.getString(prefix + kind, null);
 
-		boolean tableExists = false;
+		if (value == null)
+			return null;
 
-		try
+		if (ProbeValuesProvider.FILTER_TIME_BUCKET.equals(kind))
+			return new TimeBucketFilter(Long.parseLong(value), probe);
+		else if (ProbeValuesProvider.FILTER_DEAD_BAND.equals(kind))
 		{
-		    c = this._database.query(tableName, null, null, null, null, null, null);
+			String hysteresis = prefs.getString(prefix + ProbeValuesProvider.FILTER_DEAD_BAND_HYSTERESIS, "0");
 
-		    tableExists = true;
+			return new DeadBandFilter(Double.parseDouble(value), Double.parseDouble(hysteresis), probe);
 		}
-		catch (SQLiteException e)
-		{
-			// LogManager.getInstance(context).logException(e);
-		}
-		finally
+		else if (ProbeValuesProvider.FILTER_RATE_OF_CHANGE.equals(kind))
+			return new RateOfChangeFilter(Double.parseDouble(value), probe);
+
+		return null;
+	}
+
+	/**
+	 * Appends a buffer of samples (event times in nanoseconds, one value array
+	 * per field) to the probe's segment store. Does nothing unless the probe is
+	 * segment-backed. The arrays are copied before the call returns.
+	 */
+
+	public void insertSamples(Context context, String name, Map<String, String> schema, String[] fields, long[] times, float[][] values, int count)
+	{
+		SegmentStore store = this.segmentStore(name, schema);
+
+		if (store == null)
+			return;
+
+		int[] mapping = store.mapping(fields);
+
+		float[] sample = new float[fields.length];
+
+		for (int i = 0; i < count; i++)
 		{
-			if (c != null)
-				c.close();
+			for (int j = 0; j < fields.length; j++)
+			{
+				sample[j] = values[j][i];
+			}
+
+			SegmentStore.Segment sealed = store.append(times[i] / 1000, sample, mapping);
+
+			if (sealed != null)
+				this.queueSegment(name, store, sealed);
 		}
 
-		return tableExists;
+		// The writer seals the open segment after SEGMENT_SEAL_INTERVAL.
+
+		if (count > 0)
+			this.startWriter();
 	}
 
-	private boolean isValidColumn(String key)
+	private SegmentStore segmentStore(String name, Map<String, String> schema)
 	{
-		// TODO: Add more checks...
+		if (this._registry == null)
+			return null;
+
+		synchronized(this._segmentStores)
+		{
+			if (this._segmentProbes.contains(name) == false)
+				return null;
+
+			SegmentStore store = this._segmentStores.get(name);
+
+			if (store == null)
+			{
+				ArrayList<String> columns = new ArrayList<String>();
+
+				for (String key : schema.keySet())
+				{
+					String type = schema.get(key);
+
+					if (ProbeValuesProvider.REAL_TYPE.equals(type) || ProbeValuesProvider.INTEGER_TYPE.equals(type))
+						columns.add(key);
+				}
+
+				Collections.sort(columns);
 
-		return true;
+				File directory = new File(new File(this._context.getFilesDir(), SEGMENT_DIRECTORY), name);
+
+				store = new SegmentStore(directory, columns.toArray(new String[columns.size()]));
+
+				this._segmentStores.put(name, store);
+			}
+
+			return store;
+		}
 	}
 
-	private boolean createTable(String name, Map<String, String> schema)
+	private void queueSegment(String name, SegmentStore store, SegmentStore.Segment segment)
 	{
-		String createSql = "create table " + name + " (" + ProbeValuesProvider.ID + " integer primary key autoincrement";
+		PendingValue value = new PendingValue();
+		value.name = name;
+		value.store = store;
+		value.segment = segment;
 
-		createSql += (", " + ProbeValuesProvider.TIMESTAMP + " real");
+		this._pending.offer(value);
 
-		for (String key : schema.keySet())
+		this.startWriter();
+	}
+
+	/**
+	 * Seals and queues the segments that have been open for
+	 * SEGMENT_SEAL_INTERVAL. Returns the milliseconds until the next open
+	 * segment is due, or -1 if none is open.
+	 */
+
+	private long sealSegments()
+	{
+		long now = System.currentTimeMillis();
+		long next = -1;
+
+		synchronized(this._segmentStores)
 		{
-			if (this.isValidColumn(key))
+			for (String name : this._segmentStores.keySet())
 			{
-				String dbType = null;
+				SegmentStore store = this._segmentStores.get(name);
 
-				String type = schema.get(key);
+				SegmentStore.Segment sealed = store.sealExpired(now, SEGMENT_SEAL_INTERVAL);
 
-				if (ProbeValuesProvider.REAL_TYPE.equals(type))
-					dbType = ProbeValuesProvider.REAL_TYPE;
-				else if (ProbeValuesProvider.INTEGER_TYPE.equals(type))
-					dbType = ProbeValuesProvider.INTEGER_TYPE;
-				if (ProbeValuesProvider.TEXT_TYPE.equals(type))
-					dbType = ProbeValuesProvider.TEXT_TYPE;
+				if (sealed != null)
+					this.queueSegment(name, store, sealed);
+				else
+				{
+					long delay = store.sealDelay(now, SEGMENT_SEAL_INTERVAL);
 
-				if (dbType != null)
-					createSql += (", " + key + " " + dbType);
+					if (delay >= 0 && (next < 0 || delay < next))
+						next = delay;
+				}
 			}
 		}
 
-		createSql += ");";
+		return next;
+	}
 
-		this._database.execSQL(createSql);
+	/**
+	 * Blocks until every value queued before the call has been committed, or
+	 * until the flush times out. Used before the device shuts down.
+	 */
 
-		return false;
+	public void flush()
+	{
+		synchronized(this._segmentStores)
+		{
+			for (String name : this._segmentStores.keySet())
+			{
+				SegmentStore store = this._segmentStores.get(name);
+
+				SegmentStore.Segment sealed = store.seal();
+
+				if (sealed != null)
+					this.queueSegment(name, store, sealed);
+			}
+		}
+
+		PendingValue marker = new PendingValue();
+		marker.flushed = new CountDownLatch(1);
+
+		this._pending.offer(marker);
+
+		this.startWriter();
+
+		try
+		{
+			marker.flushed.await(FLUSH_TIMEOUT, TimeUnit.MILLISECONDS);
+		}
+		catch (InterruptedException e)
+		{
+			LogManager.getInstance(this._context).logException(e);
+		}
 	}
 
-	public void insertValue(final Context context, final String name, final Map<String, String> schema, final Map<String, Object> values)
+	private synchronized void startWriter()
 	{
-		long now = System.currentTimeMillis();
-		
-		long lastUpdate = 0;
-		
-		if (this._lastUpdates.containsKey(name))
-			lastUpdate = this._lastUpdates.get(name);
-		
-		if (now - lastUpdate < 5000)
+		if (this._writer != null)
 			return;
-		
-		this._lastUpdates.put(name, now);
-		
+
 		final ProbeValuesProvider me = this;
 
 		Runnable r = new Runnable()
 		{
 			public void run()
 			{
-				synchronized(me._database)
+				Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+				me.writeValues();
+			}
+		};
+
+		try
+		{
+			this._writer = new Thread(r, "ProbeValuesWriter");
+			this._writer.start();
+		}
+		catch (OutOfMemoryError e)
+		{
+			this._writer = null;
+
+			LogManager.getInstance(this._context).logException(e);
+		}
+	}
+
+	private void writeValues()
+	{
+		ArrayList<PendingValue> batch = new ArrayList<PendingValue>();
+		long batchStart = 0;
+
+		boolean interrupted = false;
+
+		while (interrupted == false)
+		{
+			PendingValue value = null;
+
+			try
+			{
+				if (batch.isEmpty())
 				{
-					for (Filter f : me._filters)
+					long timeout = WRITER_IDLE_TIMEOUT;
+
+					long seal = this.sealSegments();
+
+					if (seal >= 0)
+						timeout = Math.min(timeout, Math.max(1, seal));
+
+					value = this._pending.poll(timeout, TimeUnit.MILLISECONDS);
+				}
+				else
+					value = this._pending.poll(Math.max(1, (batchStart + WRITE_BATCH_LATENCY) - System.currentTimeMillis()), TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+
+			if (value == null && batch.isEmpty() && interrupted == false)
+			{
+				// Open segments keep the writer up until they are sealed.
+
+				if (this.sealSegments() >= 0)
+					continue;
+
+				synchronized(this)
+				{
+					if (this._pending.isEmpty())
 					{
-						if (f.allow(name, values) == false)
-							return;
+						this._writer = null;
+
+						return;
 					}
+				}
 
-					long now = System.currentTimeMillis();
+				continue;
+			}
 
-					if (now - me._lastCleanup > 300000) // Flush old entries every 5 minutes...
-						me.cleanup(context);
+			boolean ready = (value == null);
 
-					String localName = me.tableName(context, name, schema);
+			if (value != null)
+			{
+				if (batch.isEmpty())
+					batchStart = System.currentTimeMillis();
 
-					if (me.tableExists(context, localName) == false)
-						me.createTable(localName, schema);
+				int added = batch.size();
 
-					ContentValues toInsert = new ContentValues();
+				batch.add(value);
+				this._pending.drainTo(batch, WRITE_BATCH_SIZE - batch.size());
 
-					for (String key : schema.keySet())
-					{
-						String type = schema.get(key);
+				for (int i = added; i < batch.size(); i++)
+				{
+					if (batch.get(i).flushed != null)
+						ready = true;
+				}
+			}
+
+			if (interrupted)
+			{
+				this._pending.drainTo(batch);
+
+				ready = true;
+			}
+
+			if (ready || batch.size() >= WRITE_BATCH_SIZE || System.currentTimeMillis() - batchStart >= WRITE_BATCH_LATENCY)
+			{
+				this.writeBatch(batch);
+
+				batch.clear();
+			}
+		}
+
+		// Interrupted by close(): release the compiled statements before the database goes away.
+
+		synchronized(this._database)
+		{
+			this._registry.closeStatements();
+		}
+
+		synchronized(this)
+		{
+			this._writer = null;
+		}
+	}
+
+	private void writeBatch(ArrayList<PendingValue> batch)
+	{
+		this.writeSegments(batch);
+
+		try
+		{
+			synchronized(this._database)
+			{
+				this._database.beginTransaction();
 
-						if (ProbeValuesProvider.REAL_TYPE.equals(type))
+				try
+				{
+					for (PendingValue value : batch)
+					{
+						if (value.flushed == null && value.segment == null)
 						{
 							try
 							{
-								Double d = (Double) values.get(key);
-								toInsert.put(key, d);
+								this.writeValue(value);
 							}
-							catch (ClassCastException e)
+							catch (RuntimeException e)
 							{
-								try
-								{
-									Float f = (Float) values.get(key);
-									toInsert.put(key, f.doubleValue());
-								}
-								catch (ClassCastException ee)
-								{
-									Integer i = (Integer) values.get(key);
-									toInsert.put(key, i.doubleValue());
-								}
+								LogManager.getInstance(this._context).logException(e);
 							}
 						}
-						else if (ProbeValuesProvider.INTEGER_TYPE.equals(type))
-						{
-							Integer i = (Integer) values.get(key);
-
-							toInsert.put(key, i);
-						}
-						else if (ProbeValuesProvider.TEXT_TYPE.equals(type))
-							toInsert.put(key, values.get(key).toString());
 					}
 
-					toInsert.put(ProbeValuesProvider.TIMESTAMP, (Double) values.get(ProbeValuesProvider.TIMESTAMP));
-
-					me._database.insert(localName, null, toInsert);
+					this._database.setTransactionSuccessful();
+				}
+				finally
+				{
+					this._database.endTransaction();
 				}
 			}
-		};
 
-		try
+			synchronized(this._database)
+			{
+				this._database.beginTransaction();
+
+				try
+				{
+					this._retention.prune(this._context, this._database, this._registry, PRUNE_STEPS_PER_BATCH);
+
+					this._database.setTransactionSuccessful();
+				}
+				finally
+				{
+					this._database.endTransaction();
+				}
+			}
+		}
+		catch (SQLException e)
 		{
-			Thread t = new Thread(r);
-			t.start();
+			LogManager.getInstance(this._context).logException(e);
 		}
-		catch (OutOfMemoryError e)
+		finally
 		{
-			LogManager.getInstance(context).logException(e);
+			for (PendingValue value : batch)
+			{
+				if (value.flushed != null)
+					value.flushed.countDown();
+			}
+		}
+	}
+
+	private void writeSegments(ArrayList<PendingValue> batch)
+	{
+		long now = System.currentTimeMillis();
+
+		for (PendingValue value : batch)
+		{
+			if (value.segment == null)
+				continue;
+
+			try
+			{
+				value.segment.write();
+			}
+			catch (IOException e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
+
+			ProbeValuesRetention.Policy policy = this._retention.getPolicy(value.name);
+
+			long minTime = Long.MIN_VALUE;
+
+			if (policy.maxAge > 0)
+				minTime = (now - policy.maxAge) * 1000;
+
+			value.store.prune(minTime, MAX_SEGMENTS);
 		}
 	}
 
-	private void cleanup(Context context)
+	private void writeValue(PendingValue value)
 	{
-		this._lastCleanup = System.currentTimeMillis();
+		TableHandle table = this._registry.resolve(value.name, value.schema);
 
-		String tableSelect = "select name from sqlite_master where type='table';";
+		SQLiteStatement statement = table.insertStatement(this._database);
+		statement.clearBindings();
 
-		Cursor c = this._database.rawQuery(tableSelect, null);
+		Object timestamp = value.values.get(ProbeValuesProvider.TIMESTAMP);
 
-		while (c.moveToNext())
+		if (timestamp instanceof Number)
+			statement.bindDouble(1, ((Number) timestamp).doubleValue());
+		else
+			statement.bindNull(1);
+
+		for (int i = 0; i < table.columns.length; i++)
 		{
-			String tableName = c.getString(c.getColumnIndex("name"));
+			Object item = value.values.get(table.columns[i]);
+
+			int index = i + 2;
+
+			if (item == null)
+				statement.bindNull(index);
+			else if (ProbeValuesProvider.REAL_TYPE.equals(table.types[i]))
+				statement.bindDouble(index, ((Number) item).doubleValue());
+			else if (ProbeValuesProvider.INTEGER_TYPE.equals(table.types[i]))
+				statement.bindLong(index, ((Number) item).longValue());
+			else
+				statement.bindString(index, item.toString());
+		}
 
-			try
+		statement.executeInsert();
+	}
+
+	/**
+	 * Sets how many of the newest rows (zero for no limit) and how old rows
+	 * (milliseconds, zero for no limit) the probe's table keeps.
+	 */
+
+	public void setRetentionPolicy(String name, int maxRows, long maxAge)
+	{
+		this._retention.setPolicy(name, maxRows, maxAge);
+	}
+
+	public void clear(Context context)
+	{
+		synchronized(this._segmentStores)
+		{
+			for (SegmentStore store : this._segmentStores.values())
 			{
-				if (tableName.startsWith("table_"))
+				store.clear();
+			}
+		}
+
+		synchronized(this._database)
+		{
+			for (String name : this._registry.tableNames())
+			{
+				try
 				{
-					Cursor cursor = this._database.query(tableName, null, null, null, null, null, null);
-	
-					cursor.close();
-	
-					SQLiteStatement delete = this._database.compileStatement("delete from " + tableName + " where " + ProbeValuesProvider.ID + " not in (select " + ProbeValuesProvider.ID + " from " + tableName + " order by " + ProbeValuesProvider.TIMESTAMP + " desc limit 2048);");
+					SQLiteStatement delete = this._database.compileStatement("delete from " + name + " where (_id != -1)");
 					delete.execute();
-	
-					cursor = this._database.query(tableName, null, null, null, null, null, null);
-	
-					cursor.close();
+					delete.close();
+				}
+				catch (SQLException e)
+				{
+					LogManager.getInstance(context).logException(e);
 				}
 			}
-			catch (SQLException e)
+		}
+	}
+
+	public Cursor retrieveValues(Context context, String name, Map<String, String> schema)
+	{
+		SegmentStore store = this.segmentStore(name, schema);
+
+		if (store != null)
+		{
+			try
+			{
+				return new SegmentCursor(null, store.columns(), store.readers(Long.MIN_VALUE, Long.MAX_VALUE));
+			}
+			catch (IOException e)
+			{
+				LogManager.getInstance(context).logException(e);
+
+				return null;
+			}
+		}
+
+		Cursor c = null;
+
+		synchronized(this._database)
+		{
+			try
+			{
+				TableHandle table = this._registry.resolve(name, schema);
+
+			    c = this._database.query(table.tableName, null, null, null, null, null, ProbeValuesProvider.TIMESTAMP);
+			}
+			catch (Exception e)
 			{
 				LogManager.getInstance(context).logException(e);
 			}
 		}
 
-		c.close();
+		return c;
 	}
 
-	public void clear(Context context)
-	{
-		String tableSelect = "select name from sqlite_master where type='table';";
+	/**
+	 * Returns the values of columns stored between from and to (seconds,
+	 * inclusive), reduced to at most maxPoints points per column.
+	 */
 
-		Cursor c = this._database.rawQuery(tableSelect, null);
+	public ProbeValueSeries retrieveSeries(Context context, String name, Map<String, String> schema, String[] columns, double from, double to, int maxPoints)
+	{
+		ProbeValueSeries series = new ProbeValueSeries(columns, maxPoints);
 
-		ArrayList<String> names = new ArrayList<String>();
-		
-		while (c.moveToNext())
-			names.add(c.getString(c.getColumnIndex("name")));
+		if (this._registry == null)
+			return series;
 
-		c.close();
+		SegmentStore store = this.segmentStore(name, schema);
 
-		for (String name : names)
+		if (store != null)
 		{
 			try
 			{
-				SQLiteStatement delete = this._database.compileStatement("delete from " + name + " where (_id != -1)");
-				delete.execute();
+				List<SegmentStore.Reader> readers = store.readers((long) (from * 1000000), (long) (to * 1000000));
+
+				if (readers.size() > 0)
+				{
+					int count = 0;
+
+					for (SegmentStore.Reader reader : readers)
+					{
+						count += reader.count();
+					}
+
+					SegmentStore.Reader last = readers.get(readers.size() - 1);
+
+					series.setRange(count, ((double) readers.get(0).time(0)) / 1000000, ((double) last.time(last.count() - 1)) / 1000000);
+
+					String[] projection = new String[columns.length + 1];
+					projection[0] = ProbeValuesProvider.TIMESTAMP;
+
+					System.arraycopy(columns, 0, projection, 1, columns.length);
+
+					Cursor c = new SegmentCursor(projection, store.columns(), readers);
+
+					series.read(c);
+
+					c.close();
+				}
 			}
-			catch (SQLException e)
+			catch (IOException e)
 			{
 				LogManager.getInstance(context).logException(e);
 			}
+
+			return series;
 		}
-	}
 
-	public Cursor retrieveValues(Context context, String name, Map<String, String> schema)
-	{
 		Cursor c = null;
 
 		synchronized(this._database)
 		{
-			String localName = this.tableName(context, name, schema);
+			try
+			{
+				TableHandle table = this._registry.resolve(name, schema);
+
+				String where = ProbeValuesProvider.TIMESTAMP + " >= ? and " + ProbeValuesProvider.TIMESTAMP + " <= ?";
+				String[] range = { "" + from, "" + to };
 
-			if (this.tableExists(context, localName) == false)
-				this.createTable(localName, schema);
+				Cursor bounds = this._database.rawQuery("select count(*), min(" + ProbeValuesProvider.TIMESTAMP + "), max(" + ProbeValuesProvider.TIMESTAMP + ") from " + table.tableName + " where " + where + ";", range);
 
+				int count = 0;
+
+				if (bounds.moveToNext())
+				{
+					count = bounds.getInt(0);
+
+					if (count > 0)
+						series.setRange(count, bounds.getDouble(1), bounds.getDouble(2));
+				}
+
+				bounds.close();
+
+				if (count > 0)
+				{
+					String[] projection = new String[columns.length + 1];
+					projection[0] = ProbeValuesProvider.TIMESTAMP;
+
+					System.arraycopy(columns, 0, projection, 1, columns.length);
+
+					c = this._database.query(table.tableName, projection, where, range, null, null, ProbeValuesProvider.TIMESTAMP);
+				}
+			}
+			catch (Exception e)
+			{
+				LogManager.getInstance(context).logException(e);
+			}
+		}
+
+		if (c != null)
+		{
 			try
 			{
-			    c = this._database.query(localName, null, null, null, null, null, ProbeValuesProvider.TIMESTAMP);
+				series.read(c);
 			}
 			catch (Exception e)
 			{
 				LogManager.getInstance(context).logException(e);
 			}
+			finally
+			{
+				c.close();
+			}
 		}
 
-		return c;
+		return series;
 	}
 }
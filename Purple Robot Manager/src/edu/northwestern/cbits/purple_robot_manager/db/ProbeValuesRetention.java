@@ -0,0 +1,165 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import android.content.Context;
+import android.database.Cursor;
+import android.database.SQLException;
+import android.database.sqlite.SQLiteDatabase;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Trims the probe value tables according to per-probe policies: keep the
+ * newest rows up to a count, drop rows older than an age, or both. Work is
+ * split into small range deletes over the primary key and the timestamp index
+ * so that the writer can interleave it with inserts instead of locking the
+ * database for a full pass over every table.
+ */
+
+public class ProbeValuesRetention
+{
+	public static final int DEFAULT_MAX_ROWS = 2048;
+
+	private static final int DELETE_BATCH_SIZE = 256;
+	private static final long CHECK_INTERVAL = 300000;
+
+	public static class Policy
+	{
+		public final int maxRows;
+		public final long maxAge;
+
+		/**
+		 * maxRows of zero keeps any number of rows; maxAge (milliseconds) of
+		 * zero keeps rows of any age.
+		 */
+
+		public Policy(int maxRows, long maxAge)
+		{
+			this.maxRows = maxRows;
+			this.maxAge = maxAge;
+		}
+	}
+
+	private Policy _defaultPolicy = new Policy(DEFAULT_MAX_ROWS, 0);
+	private HashMap<String, Policy> _policies = new HashMap<String, Policy>();
+
+	// Tables that may still hold expired rows, with the policy that applies to each.
+	private LinkedList<String> _pendingTables = new LinkedList<String>();
+	private HashMap<String, Policy> _tablePolicies = new HashMap<String, Policy>();
+
+	private long _lastCheck = 0;
+
+	public synchronized void setPolicy(String name, int maxRows, long maxAge)
+	{
+		this._policies.put(name, new Policy(maxRows, maxAge));
+	}
+
+	public synchronized Policy getPolicy(String name)
+	{
+		Policy policy = this._policies.get(name);
+
+		if (policy == null)
+			policy = this._defaultPolicy;
+
+		return policy;
+	}
+
+	/**
+	 * Runs at most steps batch deletes. Must be called while holding the
+	 * database lock. Returns true if tables are still waiting to be pruned.
+	 */
+
+	public boolean prune(Context context, SQLiteDatabase database, ProbeTableRegistry registry, int steps)
+	{
+		long now = System.currentTimeMillis();
+
+		if (this._pendingTables.isEmpty() && now - this._lastCheck > CHECK_INTERVAL)
+		{
+			this._lastCheck = now;
+
+			this._tablePolicies.clear();
+
+			for (String tableName : registry.tableNames())
+			{
+				this._tablePolicies.put(tableName, this._defaultPolicy);
+			}
+
+			for (Map.Entry<String, String> entry : registry.registeredTables().entrySet())
+			{
+				this._tablePolicies.put(entry.getValue(), this.getPolicy(entry.getKey()));
+			}
+
+			this._pendingTables.addAll(this._tablePolicies.keySet());
+		}
+
+		while (steps > 0 && this._pendingTables.isEmpty() == false)
+		{
+			String tableName = this._pendingTables.poll();
+
+			int deleted = 0;
+
+			try
+			{
+				deleted = this.pruneTable(database, tableName, this._tablePolicies.get(tableName), now);
+			}
+			catch (SQLException e)
+			{
+				LogManager.getInstance(context).logException(e);
+			}
+
+			// A full batch means the table may hold more; revisit it after the others.
+
+			if (deleted >= DELETE_BATCH_SIZE)
+				this._pendingTables.add(tableName);
+
+			steps -= 1;
+		}
+
+		return this._pendingTables.isEmpty() == false;
+	}
+
+	private int pruneTable(SQLiteDatabase database, String tableName, Policy policy, long now)
+	{
+		int deleted = 0;
+
+		if (policy.maxAge > 0)
+		{
+			// Stored timestamps are in seconds.
+
+			String cutoff = "" + (((double) (now - policy.maxAge)) / 1000);
+
+			deleted += database.delete(tableName, ProbeValuesSqlHelper.COLUMN_ID + " in (select " + ProbeValuesSqlHelper.COLUMN_ID + " from " + tableName + " where " + ProbeValuesSqlHelper.COLUMN_TIMESTAMP + " < ? limit " + DELETE_BATCH_SIZE + ")", new String[] { cutoff });
+		}
+
+		if (policy.maxRows > 0 && deleted < DELETE_BATCH_SIZE)
+		{
+			// Row ids increase with insertion order, so the newest maxRows rows are the top of the id range.
+
+			long minId = 0;
+			long maxId = 0;
+
+			Cursor c = database.rawQuery("select min(" + ProbeValuesSqlHelper.COLUMN_ID + "), max(" + ProbeValuesSqlHelper.COLUMN_ID + ") from " + tableName + ";", null);
+
+			if (c.moveToNext() && c.isNull(0) == false)
+			{
+				minId = c.getLong(0);
+				maxId = c.getLong(1);
+			}
+
+			c.close();
+
+			long lastExpired = maxId - policy.maxRows;
+
+			if (maxId > 0 && minId <= lastExpired)
+			{
+				long upper = Math.min(lastExpired, minId + (DELETE_BATCH_SIZE - deleted) - 1);
+
+				deleted += database.delete(tableName, ProbeValuesSqlHelper.COLUMN_ID + " between ? and ?", new String[] { "" + minId, "" + upper });
+			}
+		}
+
+		return deleted;
+	}
+}
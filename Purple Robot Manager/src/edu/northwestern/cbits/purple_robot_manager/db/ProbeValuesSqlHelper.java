@@ -10,20 +10,28 @@ public class ProbeValuesSqlHelper extends SQLiteOpenHelper
 	public static final String COLUMN_TIMESTAMP = "timestamp";
 
 	private static final String DATABASE_NAME = "probe_data.db";
-	private static final int DATABASE_VERSION = 1;
+	private static final int DATABASE_VERSION = 2;
 
 	public ProbeValuesSqlHelper(Context context)
 	{
 		super(context, DATABASE_NAME, null, DATABASE_VERSION);
 	}
 
-	public void onCreate(SQLiteDatabase arg0)
+	public void onCreate(SQLiteDatabase db)
 	{
-		// Tables will be constructed dynamically...
+		// Value tables will be constructed dynamically...
+
+		this.createRegistry(db);
+	}
+
+	public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion)
+	{
+		if (oldVersion < 2)
+			this.createRegistry(db);
 	}
 
-	public void onUpgrade(SQLiteDatabase arg0, int arg1, int arg2)
+	private void createRegistry(SQLiteDatabase db)
 	{
-		// Tables will be constructed dynamically...
+		db.execSQL("create table if not exists " + ProbeTableRegistry.REGISTRY_TABLE + " (" + ProbeTableRegistry.REGISTRY_NAME + " text primary key, " + ProbeTableRegistry.REGISTRY_TABLE_NAME + " text not null);");
 	}
 }
@@ -0,0 +1,176 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import java.util.List;
+
+import android.database.AbstractCursor;
+
+/**
+ * Cursor over rows held in a SegmentStore, so that callers of
+ * ProbeValuesProvider read either backend the same way. Values are read from
+ * the segments as the cursor moves, not copied up front. Timestamps are
+ * reported in seconds, like the SQLite tables.
+ */
+
+public class SegmentCursor extends AbstractCursor
+{
+	private static final int SOURCE_ID = -2;
+	private static final int SOURCE_TIMESTAMP = -1;
+	private static final int SOURCE_MISSING = -3;
+
+	private String[] _names = null;
+	private int[] _sources = null;
+
+	private List<SegmentStore.Reader> _readers = null;
+	private int[] _offsets = null;
+	private int _count = 0;
+
+	private int _reader = 0;
+
+	/**
+	 * Projection entries may name the row id, the timestamp, or any of the
+	 * store's columns. A null projection selects all of them.
+	 */
+
+	public SegmentCursor(String[] projection, String[] columns, List<SegmentStore.Reader> readers)
+	{
+		if (projection == null)
+		{
+			projection = new String[columns.length + 2];
+			projection[0] = ProbeValuesSqlHelper.COLUMN_ID;
+			projection[1] = ProbeValuesSqlHelper.COLUMN_TIMESTAMP;
+
+			System.arraycopy(columns, 0, projection, 2, columns.length);
+		}
+
+		this._names = projection;
+		this._sources = new int[projection.length];
+
+		for (int i = 0; i < projection.length; i++)
+		{
+			if (ProbeValuesSqlHelper.COLUMN_ID.equals(projection[i]))
+				this._sources[i] = SOURCE_ID;
+			else if (ProbeValuesSqlHelper.COLUMN_TIMESTAMP.equals(projection[i]))
+				this._sources[i] = SOURCE_TIMESTAMP;
+			else
+			{
+				this._sources[i] = SOURCE_MISSING;
+
+				for (int j = 0; j < columns.length; j++)
+				{
+					if (columns[j].equals(projection[i]))
+						this._sources[i] = j;
+				}
+			}
+		}
+
+		this._readers = readers;
+		this._offsets = new int[readers.size() + 1];
+
+		for (int i = 0; i < readers.size(); i++)
+		{
+			this._offsets[i + 1] = this._offsets[i] + readers.get(i).count();
+		}
+
+		this._count = this._offsets[readers.size()];
+	}
+
+	public int getCount()
+	{
+		return this._count;
+	}
+
+	public String[] getColumnNames()
+	{
+		return this._names;
+	}
+
+	public boolean onMove(int oldPosition, int newPosition)
+	{
+		if (newPosition < 0 || newPosition >= this._count)
+			return false;
+
+		int reader = this._reader;
+
+		if (newPosition < this._offsets[reader] || newPosition >= this._offsets[reader + 1])
+		{
+			int low = 0;
+			int high = this._readers.size() - 1;
+
+			while (low < high)
+			{
+				int middle = (low + high + 1) >>> 1;
+
+				if (this._offsets[middle] <= newPosition)
+					low = middle;
+				else
+					high = middle - 1;
+			}
+
+			this._reader = low;
+		}
+
+		return true;
+	}
+
+	public double getDouble(int column)
+	{
+		this.checkPosition();
+
+		int source = this._sources[column];
+		int row = this.getPosition() - this._offsets[this._reader];
+
+		if (source == SOURCE_MISSING)
+			return Double.NaN;
+		else if (source == SOURCE_ID)
+			return this.getPosition() + 1;
+		else if (source == SOURCE_TIMESTAMP)
+			return ((double) this._readers.get(this._reader).time(row)) / 1000000;
+
+		return this._readers.get(this._reader).value(source, row);
+	}
+
+	public boolean isNull(int column)
+	{
+		this.checkPosition();
+
+		int source = this._sources[column];
+
+		if (source == SOURCE_MISSING)
+			return true;
+		else if (source < 0)
+			return false;
+
+		return Double.isNaN(this.getDouble(column));
+	}
+
+	public float getFloat(int column)
+	{
+		return (float) this.getDouble(column);
+	}
+
+	public long getLong(int column)
+	{
+		return (long) this.getDouble(column);
+	}
+
+	public int getInt(int column)
+	{
+		return (int) this.getDouble(column);
+	}
+
+	public short getShort(int column)
+	{
+		return (short) this.getDouble(column);
+	}
+
+	public String getString(int column)
+	{
+		if (this.isNull(column))
+			return null;
+
+		if (this._sources[column] == SOURCE_ID)
+			return "" + this.getLong(column);
+
+		return "" + this.getDouble(column);
+	}
+}
@@ -0,0 +1,589 @@
+package edu.northwestern.cbits.purple_robot_manager.db;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Append-only columnar storage for high-rate probe values. Samples are
+ * collected in an open in-memory segment. Once the segment is full, or the
+ * owner finds it has been open too long (sealExpired()), it is sealed and
+ * written as one fixed-width file. Samples in the open segment are lost if the
+ * process dies, so the owner's seal interval bounds that loss. Later reads of
+ * a segment file go through a memory-mapped buffer. Retention removes whole
+ * segment files.
+ *
+ * Segment file layout (big-endian):
+ *
+ *   int     magic
+ *   int     format version
+ *   int     column count C
+ *   int     row count N
+ *   long    base timestamp (microseconds)
+ *   int[N]  timestamp offsets from the base (microseconds)
+ *   float[N] x C  column values, one column after the other
+ *
+ * The store keeps every segment's time range in memory. A query finds the
+ * segments overlapping a range and binary searches their timestamps for the
+ * first and last rows.
+ */
+
+public class SegmentStore
+{
+	private static final int MAGIC = 0x50525347;
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 24;
+
+	private static final String SUFFIX = ".seg";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	public static final int SEGMENT_ROWS = 4096;
+
+	/**
+	 * Read-only view of a window of rows in one segment.
+	 */
+
+	public static class Reader
+	{
+		private long _base = 0;
+		private int _rows = 0;
+
+		private int _first = 0;
+		private int _count = 0;
+
+		private int[] _offsets = null;
+		private float[][] _values = null;
+		private ByteBuffer _buffer = null;
+
+		public int count()
+		{
+			return this._count;
+		}
+
+		/**
+		 * Timestamp of the index-th row of the window, in microseconds.
+		 */
+
+		public long time(int index)
+		{
+			int row = this._first + index;
+
+			if (this._offsets != null)
+				return this._base + this._offsets[row];
+
+			return this._base + this._buffer.getInt(HEADER_SIZE + (4 * row));
+		}
+
+		public float value(int column, int index)
+		{
+			int row = this._first + index;
+
+			if (this._values != null)
+				return this._values[column][row];
+
+			return this._buffer.getFloat(HEADER_SIZE + (4 * this._rows) + (4 * ((column * this._rows) + row)));
+		}
+
+		/**
+		 * Narrows the window to rows with from <= time <= to (microseconds).
+		 */
+
+		private void restrict(long from, long to)
+		{
+			int first = this.lowerBound(from);
+			int last = this._count;
+
+			if (to < Long.MAX_VALUE)
+				last = this.lowerBound(to + 1);
+
+			this._first += first;
+			this._count = last - first;
+		}
+
+		private int lowerBound(long time)
+		{
+			int low = 0;
+			int high = this._count;
+
+			while (low < high)
+			{
+				int middle = (low + high) >>> 1;
+
+				if (this.time(middle) < time)
+					low = middle + 1;
+				else
+					high = middle;
+			}
+
+			return low;
+		}
+	}
+
+	public static class Segment
+	{
+		private File _file = null;
+		private int _columns = 0;
+
+		private long _base = 0;
+		private long _start = 0;
+		private long _end = 0;
+		private volatile int _rows = 0;
+
+		// Held in memory until the sealed segment has been written.
+		private int[] _offsets = null;
+		private float[][] _values = null;
+
+		private ByteBuffer _mapped = null;
+		private boolean _deleted = false;
+
+		private Segment(File file, int columns, long base)
+		{
+			this._file = file;
+			this._columns = columns;
+			this._base = base;
+			this._start = base;
+			this._end = base;
+
+			this._offsets = new int[SEGMENT_ROWS];
+			this._values = new float[columns][SEGMENT_ROWS];
+		}
+
+		private Segment(File file, int columns)
+		{
+			this._file = file;
+			this._columns = columns;
+		}
+
+		private static Segment load(File file, int columns) throws IOException
+		{
+			Segment segment = new Segment(file, columns);
+
+			ByteBuffer buffer = segment.map();
+
+			if (buffer.capacity() < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION || buffer.getInt(8) != columns)
+				return null;
+
+			int rows = buffer.getInt(12);
+
+			if (rows < 1 || buffer.capacity() < HEADER_SIZE + (4 * rows * (columns + 1)))
+				return null;
+
+			segment._base = buffer.getLong(16);
+			segment._start = segment._base + buffer.getInt(HEADER_SIZE);
+			segment._end = segment._base + buffer.getInt(HEADER_SIZE + (4 * (rows - 1)));
+			segment._rows = rows;
+			segment._mapped = buffer;
+
+			return segment;
+		}
+
+		private ByteBuffer map() throws IOException
+		{
+			RandomAccessFile file = new RandomAccessFile(this._file, "r");
+
+			try
+			{
+				FileChannel channel = file.getChannel();
+
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+			finally
+			{
+				file.close();
+			}
+		}
+
+		public long startTime()
+		{
+			return this._start;
+		}
+
+		public long endTime()
+		{
+			return this._end;
+		}
+
+		public int rows()
+		{
+			return this._rows;
+		}
+
+		/**
+		 * Called by the owning store only, while the segment is open.
+		 */
+
+		private boolean append(long time, float[] values, int[] mapping)
+		{
+			int row = this._rows;
+
+			if (row >= SEGMENT_ROWS || time - this._base > Integer.MAX_VALUE)
+				return false;
+
+			this._offsets[row] = (int) (time - this._base);
+
+			for (int i = 0; i < this._columns; i++)
+			{
+				this._values[i][row] = (mapping[i] >= 0 && mapping[i] < values.length) ? values[mapping[i]] : Float.NaN;
+			}
+
+			if (row == 0)
+				this._start = time;
+
+			this._end = time;
+			this._rows = row + 1;
+
+			return true;
+		}
+
+		private synchronized Reader reader() throws IOException
+		{
+			Reader reader = new Reader();
+
+			reader._base = this._base;
+			reader._rows = this._rows;
+			reader._count = this._rows;
+
+			if (this._offsets != null)
+			{
+				reader._offsets = this._offsets;
+				reader._values = this._values;
+			}
+			else
+			{
+				if (this._mapped == null)
+					this._mapped = this.map();
+
+				reader._buffer = this._mapped;
+			}
+
+			return reader;
+		}
+
+		/**
+		 * Writes a sealed segment to its file. Readers switch to the mapped file
+		 * once the write completes.
+		 */
+
+		public synchronized void write() throws IOException
+		{
+			if (this._offsets == null || this._deleted)
+				return;
+
+			int rows = this._rows;
+
+			ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + (4 * rows * (this._columns + 1)));
+
+			buffer.putInt(MAGIC);
+			buffer.putInt(VERSION);
+			buffer.putInt(this._columns);
+			buffer.putInt(rows);
+			buffer.putLong(this._base);
+
+			buffer.asIntBuffer().put(this._offsets, 0, rows);
+			buffer.position(buffer.position() + (4 * rows));
+
+			for (int i = 0; i < this._columns; i++)
+			{
+				buffer.asFloatBuffer().put(this._values[i], 0, rows);
+				buffer.position(buffer.position() + (4 * rows));
+			}
+
+			buffer.flip();
+
+			File temp = new File(this._file.getPath() + TEMP_SUFFIX);
+
+			RandomAccessFile file = new RandomAccessFile(temp, "rw");
+
+			try
+			{
+				file.setLength(0);
+
+				FileChannel channel = file.getChannel();
+
+				while (buffer.hasRemaining())
+					channel.write(buffer);
+
+				channel.force(false);
+			}
+			finally
+			{
+				file.close();
+			}
+
+			if (temp.renameTo(this._file) == false)
+				throw new IOException("Unable to move " + temp + " to " + this._file);
+
+			this._offsets = null;
+			this._values = null;
+		}
+
+		private synchronized boolean isWritten()
+		{
+			return this._offsets == null;
+		}
+
+		private synchronized void delete()
+		{
+			this._deleted = true;
+
+			this._offsets = null;
+			this._values = null;
+			this._mapped = null;
+
+			this._file.delete();
+		}
+	}
+
+	private File _directory = null;
+	private String[] _columns = null;
+
+	// Ordered by start time. The open segment, if any, is last.
+	private ArrayList<Segment> _segments = new ArrayList<Segment>();
+	private Segment _open = null;
+	private long _opened = 0;
+	private long _lastTime = Long.MIN_VALUE;
+
+	public SegmentStore(File directory, String[] columns)
+	{
+		this._directory = directory;
+		this._columns = columns;
+
+		this._directory.mkdirs();
+
+		File[] files = this._directory.listFiles();
+
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				if (file.getName().endsWith(SUFFIX))
+				{
+					Segment segment = null;
+
+					try
+					{
+						segment = Segment.load(file, columns.length);
+					}
+					catch (IOException e)
+					{
+						segment = null;
+					}
+
+					// Unreadable segments and segments from an earlier schema are dropped.
+
+					if (segment != null)
+						this._segments.add(segment);
+					else
+						file.delete();
+				}
+				else if (file.getName().endsWith(TEMP_SUFFIX))
+					file.delete();
+			}
+		}
+
+		Collections.sort(this._segments, new Comparator<Segment>()
+		{
+			public int compare(Segment one, Segment two)
+			{
+				if (one._start < two._start)
+					return -1;
+				else if (one._start > two._start)
+					return 1;
+
+				return 0;
+			}
+		});
+
+		if (this._segments.size() > 0)
+			this._lastTime = this._segments.get(this._segments.size() - 1)._end;
+	}
+
+	public String[] columns()
+	{
+		return this._columns;
+	}
+
+	/**
+	 * Maps the store's columns to positions in a probe's field list, -1 for
+	 * columns the probe does not report.
+	 */
+
+	public int[] mapping(String[] fields)
+	{
+		int[] mapping = new int[this._columns.length];
+
+		for (int i = 0; i < this._columns.length; i++)
+		{
+			mapping[i] = -1;
+
+			for (int j = 0; j < fields.length; j++)
+			{
+				if (this._columns[i].equals(fields[j]))
+					mapping[i] = j;
+			}
+		}
+
+		return mapping;
+	}
+
+	/**
+	 * Appends one sample (time in microseconds). Samples older than the newest
+	 * stored sample are dropped. Returns a segment that was sealed to make room
+	 * and now needs to be written, or null.
+	 */
+
+	public synchronized Segment append(long time, float[] values, int[] mapping)
+	{
+		if (time < this._lastTime)
+			return null;
+
+		this._lastTime = time;
+
+		if (this._open != null && this._open.append(time, values, mapping))
+			return null;
+
+		Segment sealed = this._open;
+
+		File file = new File(this._directory, time + SUFFIX);
+
+		// The sealed segment may not be on disk yet and can share the start time.
+
+		for (int i = 1; file.exists() || (sealed != null && file.equals(sealed._file)); i++)
+		{
+			file = new File(this._directory, time + "-" + i + SUFFIX);
+		}
+
+		this._open = new Segment(file, this._columns.length, time);
+		this._open.append(time, values, mapping);
+
+		this._opened = System.currentTimeMillis();
+
+		this._segments.add(this._open);
+
+		return sealed;
+	}
+
+	/**
+	 * Seals the open segment so that it can be written, or returns null if
+	 * nothing is pending.
+	 */
+
+	public synchronized Segment seal()
+	{
+		Segment sealed = this._open;
+
+		this._open = null;
+
+		if (sealed != null && sealed.rows() == 0)
+		{
+			this._segments.remove(sealed);
+
+			return null;
+		}
+
+		return sealed;
+	}
+
+	/**
+	 * Milliseconds from now until the open segment has been open for maxAge,
+	 * zero if it has, or -1 if no segment is open.
+	 */
+
+	public synchronized long sealDelay(long now, long maxAge)
+	{
+		if (this._open == null || this._open.rows() == 0)
+			return -1;
+
+		return Math.max(0, this._opened + maxAge - now);
+	}
+
+	/**
+	 * Seals the open segment if it has been open for maxAge (milliseconds), or
+	 * returns null.
+	 */
+
+	public synchronized Segment sealExpired(long now, long maxAge)
+	{
+		if (this.sealDelay(now, maxAge) != 0)
+			return null;
+
+		return this.seal();
+	}
+
+	/**
+	 * Returns readers over the rows with from <= time <= to (microseconds), in
+	 * time order.
+	 */
+
+	public synchronized List<Reader> readers(long from, long to) throws IOException
+	{
+		ArrayList<Reader> readers = new ArrayList<Reader>();
+
+		for (Segment segment : this._segments)
+		{
+			if (segment.rows() == 0 || segment._end < from || segment._start > to)
+				continue;
+
+			Reader reader = segment.reader();
+
+			reader.restrict(from, to);
+
+			if (reader.count() > 0)
+				readers.add(reader);
+		}
+
+		return readers;
+	}
+
+	/**
+	 * Deletes written segments that end before minTime (microseconds), then the
+	 * oldest written segments beyond maxSegments.
+	 */
+
+	public synchronized void prune(long minTime, int maxSegments)
+	{
+		ArrayList<Segment> expired = new ArrayList<Segment>();
+
+		int remaining = this._segments.size();
+
+		for (Segment segment : this._segments)
+		{
+			if (segment == this._open || segment.isWritten() == false)
+				break;
+
+			if (segment._end < minTime || remaining > maxSegments)
+			{
+				expired.add(segment);
+
+				remaining -= 1;
+			}
+			else
+				break;
+		}
+
+		for (Segment segment : expired)
+		{
+			this._segments.remove(segment);
+
+			segment.delete();
+		}
+	}
+
+	public synchronized void clear()
+	{
+		for (Segment segment : this._segments)
+		{
+			segment.delete();
+		}
+
+		this._segments.clear();
+		this._open = null;
+		this._lastTime = Long.MIN_VALUE;
+	}
+}
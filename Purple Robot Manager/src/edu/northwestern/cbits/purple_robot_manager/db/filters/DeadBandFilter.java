@@ -0,0 +1,94 @@
+package edu.northwestern.cbits.purple_robot_manager.db.filters;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Drops values within a band around the last kept value. A column must move
+ * more than the band to pass. While it keeps passing, steps larger than the
+ * band minus the hysteresis are enough, so a steady drift is not cut into
+ * band-sized steps. Once the column settles, the full band applies again.
+ */
+
+public class DeadBandFilter extends Filter
+{
+	private Set<String> _check = new HashSet<String>();
+
+	private double _band = 0;
+	private double _hysteresis = 0;
+
+	private class BandSlot extends Slot
+	{
+		private double[] _reference = null;
+		private boolean[] _moving = null;
+
+		private BandSlot(int columns)
+		{
+			this._reference = new double[columns + 1];
+			this._moving = new boolean[columns + 1];
+
+			for (int i = 0; i < this._reference.length; i++)
+			{
+				this._reference[i] = Double.NaN;
+			}
+		}
+
+		public boolean allow(double[] sample)
+		{
+			boolean allow = false;
+
+			for (int i = 1; i < sample.length; i++)
+			{
+				if (Double.isNaN(sample[i]))
+					continue;
+
+				double band = DeadBandFilter.this._band;
+
+				if (this._moving[i])
+					band -= DeadBandFilter.this._hysteresis;
+
+				boolean outside = Double.isNaN(this._reference[i]) || Math.abs(sample[i] - this._reference[i]) > band;
+
+				this._moving[i] = outside;
+
+				if (outside)
+					allow = true;
+			}
+
+			if (allow)
+			{
+				for (int i = 1; i < sample.length; i++)
+				{
+					if (Double.isNaN(sample[i]) == false)
+						this._reference[i] = sample[i];
+				}
+			}
+
+			return allow;
+		}
+	}
+
+	public DeadBandFilter(double band, double hysteresis, Collection<String> toCheck)
+	{
+		this._band = band;
+		this._hysteresis = Math.max(0, Math.min(hysteresis, band));
+
+		if (toCheck != null)
+			this._check.addAll(toCheck);
+	}
+
+	public Slot createSlot(String name, String[] columns)
+	{
+		if (this._check.contains(name) == false)
+			return null;
+
+		return new BandSlot(columns.length);
+	}
+
+	@Override
+	public String description()
+	{
+		return "Values leaving a band of " + this._band + " (hysteresis " + this._hysteresis + ")";
+	}
+}
@@ -1,9 +1,29 @@
 package edu.northwestern.cbits.purple_robot_manager.db.filters;
 
-import java.util.Map;
-
 public abstract class Filter
 {
-	public abstract boolean allow(String name, Map<String, Object> values);
+	/**
+	 * State a filter keeps for one probe. Slots are created when the probe's
+	 * FilterChain is built and are only called while holding that chain's
+	 * lock, so they keep plain primitive fields.
+	 */
+
+	public static abstract class Slot
+	{
+		/**
+		 * sample[0] is the timestamp (seconds), followed by the probe's numeric
+		 * columns in chain order, NaN where missing. Slots may rewrite the
+		 * sample.
+		 */
+
+		public abstract boolean allow(double[] sample);
+	}
+
+	/**
+	 * Returns the filter's state for the probe, or null if the filter does not
+	 * apply to it.
+	 */
+
+	public abstract Slot createSlot(String name, String[] columns);
 	public abstract String description();
 }
@@ -0,0 +1,130 @@
+package edu.northwestern.cbits.purple_robot_manager.db.filters;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
+
+/**
+ * The filters that apply to one probe, resolved once when the probe first
+ * reports. Each filter's state lives in a slot of primitive fields. The chain
+ * is its own lock, so probes filter their values concurrently without boxing
+ * or touching a shared map.
+ */
+
+public class FilterChain
+{
+	private Map<String, String> _schema = null;
+
+	private String[] _columns = null;
+	private Filter.Slot[] _slots = null;
+
+	private double[] _sample = null;
+	private double[] _original = null;
+
+	private long _minInterval = 0;
+	private long _lastUpdate = 0;
+
+	/**
+	 * Values arriving less than minInterval ms (wall clock) after the last one
+	 * the chain saw are dropped before any filter runs.
+	 */
+
+	public FilterChain(String name, Map<String, String> schema, List<Filter> filters, long minInterval)
+	{
+		this._schema = schema;
+		this._minInterval = minInterval;
+
+		ArrayList<String> columns = new ArrayList<String>();
+
+		for (String key : schema.keySet())
+		{
+			String type = schema.get(key);
+
+			if (ProbeValuesProvider.REAL_TYPE.equals(type) || ProbeValuesProvider.INTEGER_TYPE.equals(type))
+				columns.add(key);
+		}
+
+		Collections.sort(columns);
+
+		this._columns = columns.toArray(new String[columns.size()]);
+
+		ArrayList<Filter.Slot> slots = new ArrayList<Filter.Slot>();
+
+		for (Filter filter : filters)
+		{
+			Filter.Slot slot = filter.createSlot(name, this._columns);
+
+			if (slot != null)
+				slots.add(slot);
+		}
+
+		this._slots = slots.toArray(new Filter.Slot[slots.size()]);
+
+		this._sample = new double[this._columns.length + 1];
+		this._original = new double[this._columns.length + 1];
+	}
+
+	public boolean matches(Map<String, String> schema)
+	{
+		return this._schema == schema || this._schema.equals(schema);
+	}
+
+	/**
+	 * Returns true if the value should be stored. Filters that rewrite the
+	 * sample update the map in place.
+	 */
+
+	public synchronized boolean apply(long now, Map<String, Object> values)
+	{
+		if (now - this._lastUpdate < this._minInterval)
+			return false;
+
+		this._lastUpdate = now;
+
+		if (this._slots.length == 0)
+			return true;
+
+		this._sample[0] = this.read(values, ProbeValuesProvider.TIMESTAMP);
+
+		for (int i = 0; i < this._columns.length; i++)
+		{
+			this._sample[i + 1] = this.read(values, this._columns[i]);
+		}
+
+		System.arraycopy(this._sample, 0, this._original, 0, this._sample.length);
+
+		for (Filter.Slot slot : this._slots)
+		{
+			if (slot.allow(this._sample) == false)
+				return false;
+		}
+
+		for (int i = 0; i < this._sample.length; i++)
+		{
+			if (Double.compare(this._sample[i], this._original[i]) != 0)
+			{
+				String key = (i == 0) ? ProbeValuesProvider.TIMESTAMP : this._columns[i - 1];
+
+				if (Double.isNaN(this._sample[i]))
+					values.remove(key);
+				else
+					values.put(key, Double.valueOf(this._sample[i]));
+			}
+		}
+
+		return true;
+	}
+
+	private double read(Map<String, Object> values, String key)
+	{
+		Object value = values.get(key);
+
+		if (value instanceof Number)
+			return ((Number) value).doubleValue();
+
+		return Double.NaN;
+	}
+}
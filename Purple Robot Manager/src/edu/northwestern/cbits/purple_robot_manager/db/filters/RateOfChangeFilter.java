@@ -0,0 +1,99 @@
+package edu.northwestern.cbits.purple_robot_manager.db.filters;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Keeps a value when some column has changed, since the last kept value, at
+ * least minRate units per second. Columns that are not finite in both values
+ * are skipped, and a column that turns finite or non-finite counts as a
+ * change. If the clock steps backwards, the value is kept and comparisons
+ * restart from it.
+ */
+
+public class RateOfChangeFilter extends Filter
+{
+	private Set<String> _check = new HashSet<String>();
+
+	private double _minRate = 0;
+
+	private class RateSlot extends Slot
+	{
+		private double[] _lastSample = null;
+		private boolean _saved = false;
+
+		private RateSlot(int columns)
+		{
+			this._lastSample = new double[columns + 1];
+		}
+
+		public boolean allow(double[] sample)
+		{
+			if (this._saved)
+			{
+				double elapsed = sample[0] - this._lastSample[0];
+
+				if (elapsed == 0)
+					return false;
+
+				// A negative or unknown elapsed time falls through and resets the slot.
+
+				if (elapsed > 0)
+				{
+					boolean allow = false;
+
+					for (int i = 1; i < sample.length && allow == false; i++)
+					{
+						boolean finite = RateOfChangeFilter.isFinite(sample[i]);
+						boolean lastFinite = RateOfChangeFilter.isFinite(this._lastSample[i]);
+
+						if (finite && lastFinite)
+						{
+							if (Math.abs(sample[i] - this._lastSample[i]) / elapsed >= RateOfChangeFilter.this._minRate)
+								allow = true;
+						}
+						else if (finite != lastFinite)
+							allow = true;
+					}
+
+					if (allow == false)
+						return false;
+				}
+			}
+
+			System.arraycopy(sample, 0, this._lastSample, 0, sample.length);
+
+			this._saved = true;
+
+			return true;
+		}
+	}
+
+	private static boolean isFinite(double value)
+	{
+		return Double.isNaN(value) == false && Double.isInfinite(value) == false;
+	}
+
+	public RateOfChangeFilter(double minRate, Collection<String> toCheck)
+	{
+		this._minRate = minRate;
+
+		if (toCheck != null)
+			this._check.addAll(toCheck);
+	}
+
+	public Slot createSlot(String name, String[] columns)
+	{
+		if (this._check.contains(name) == false)
+			return null;
+
+		return new RateSlot(columns.length);
+	}
+
+	@Override
+	public String description()
+	{
+		return "Values changing by at least " + this._minRate + " per second";
+	}
+}
@@ -0,0 +1,111 @@
+package edu.northwestern.cbits.purple_robot_manager.db.filters;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Replaces the values in each time bucket with one value holding the bucket's
+ * start time and the mean of each column. A bucket is passed on when the
+ * first value of a later bucket arrives.
+ */
+
+public class TimeBucketFilter extends Filter
+{
+	private Set<String> _check = new HashSet<String>();
+
+	private long _bucket = 60000;
+
+	private class BucketSlot extends Slot
+	{
+		private double _start = Double.NaN;
+		private double[] _sums = null;
+		private int[] _counts = null;
+
+		private BucketSlot(int columns)
+		{
+			this._sums = new double[columns + 1];
+			this._counts = new int[columns + 1];
+		}
+
+		public boolean allow(double[] sample)
+		{
+			if (Double.isNaN(sample[0]))
+				return false;
+
+			double width = ((double) TimeBucketFilter.this._bucket) / 1000;
+			double start = Math.floor(sample[0] / width) * width;
+
+			boolean allow = false;
+
+			if (Double.isNaN(this._start) == false && start > this._start)
+			{
+				double time = this._start;
+
+				for (int i = 1; i < sample.length; i++)
+				{
+					double value = sample[i];
+
+					if (this._counts[i] > 0)
+						sample[i] = this._sums[i] / this._counts[i];
+					else
+						sample[i] = Double.NaN;
+
+					this._sums[i] = 0;
+					this._counts[i] = 0;
+
+					this.add(i, value);
+				}
+
+				sample[0] = time;
+
+				allow = true;
+			}
+			else if (Double.isNaN(this._start) || start == this._start)
+			{
+				for (int i = 1; i < sample.length; i++)
+				{
+					this.add(i, sample[i]);
+				}
+			}
+
+			// Late values from an earlier bucket are dropped.
+
+			if (Double.isNaN(this._start) || start > this._start)
+				this._start = start;
+
+			return allow;
+		}
+
+		private void add(int column, double value)
+		{
+			if (Double.isNaN(value) == false)
+			{
+				this._sums[column] += value;
+				this._counts[column] += 1;
+			}
+		}
+	}
+
+	public TimeBucketFilter(long bucket, Collection<String> toCheck)
+	{
+		this._bucket = Math.max(1, bucket);
+
+		if (toCheck != null)
+			this._check.addAll(toCheck);
+	}
+
+	public Slot createSlot(String name, String[] columns)
+	{
+		if (this._check.contains(name) == false)
+			return null;
+
+		return new BucketSlot(columns.length);
+	}
+
+	@Override
+	public String description()
+	{
+		return "Mean values over " + this._bucket + " ms buckets";
+	}
+}
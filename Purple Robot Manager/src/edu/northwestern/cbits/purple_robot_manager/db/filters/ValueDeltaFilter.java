@@ -1,101 +1,71 @@
 package edu.northwestern.cbits.purple_robot_manager.db.filters;
 
 import java.util.Collection;
-import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Map;
 import java.util.Set;
 
-import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
-
 public class ValueDeltaFilter extends Filter
 {
 	private Set<String> _check = new HashSet<String>();
 
-	private Map<String, Map<String, Double>> _priorValues = new HashMap<String, Map<String, Double>>();
-
 	private double _minDelta = 0;
 
-	public ValueDeltaFilter(double minDelta, Collection<String> toCheck)
-	{
-		this._minDelta = minDelta;
-
-		if (toCheck != null)
-			this._check.addAll(toCheck);
-	}
-
-	public boolean allow(String name, Map<String, Object> values)
+	private class DeltaSlot extends Slot
 	{
-		if (this._check.contains(name) == false)
-			return true;
-
-		boolean allow = true;
+		private double[] _lastValues = null;
 
-		Map<String, Double> lastValues = this._priorValues.get(name);
+		private DeltaSlot(int columns)
+		{
+			this._lastValues = new double[columns + 1];
 
-		if (lastValues == null)
-			lastValues = new HashMap<String, Double>();
+			for (int i = 0; i < this._lastValues.length; i++)
+			{
+				this._lastValues[i] = Double.NaN;
+			}
+		}
 
-		for (String key : values.keySet())
+		public boolean allow(double[] sample)
 		{
-			if (allow == true && ProbeValuesProvider.TIMESTAMP.equals(key) == false)
+			for (int i = 1; i < sample.length; i++)
 			{
-				Object o = values.get(key);
-
-				Double lastValue = lastValues.get(key);
+				double lastValue = this._lastValues[i];
 
-				if (lastValue != null)
+				if (Double.isNaN(lastValue) == false && Double.isNaN(sample[i]) == false)
 				{
-					if (o instanceof Double)
-					{
-						Double d = (Double) o;
-
-						if (Math.abs(lastValue.doubleValue() - d.doubleValue()) < this._minDelta)
-							allow = false;
-					}
-					else if (o instanceof Long)
-					{
-						Long l = (Long) o;
-
-						if (Math.abs(lastValue.doubleValue() - l.doubleValue()) < this._minDelta)
-							allow = false;
-					}
+					if (Math.abs(lastValue - sample[i]) < ValueDeltaFilter.this._minDelta)
+						return false;
 				}
 			}
-		}
 
-		if (allow)
-		{
-			for (String key : values.keySet())
+			for (int i = 1; i < sample.length; i++)
 			{
-				if (ProbeValuesProvider.TIMESTAMP.equals(key) == false)
-				{
-					Object o = values.get(key);
+				if (Double.isNaN(sample[i]) == false)
+					this._lastValues[i] = sample[i];
+			}
 
-					if (o instanceof Double)
-					{
-						Double d = (Double) o;
+			return true;
+		}
+	}
 
-						lastValues.put(key, Double.valueOf(d.doubleValue()));
-					}
-					else if (o instanceof Long)
-					{
-						Long l = (Long) o;
+	public ValueDeltaFilter(double minDelta, Collection<String> toCheck)
+	{
+		this._minDelta = minDelta;
 
-						lastValues.put(key, Double.valueOf(l.doubleValue()));
-					}
-				}
-			}
+		if (toCheck != null)
+			this._check.addAll(toCheck);
+	}
 
-			this._priorValues.put(name, lastValues);
-		}
+	public Slot createSlot(String name, String[] columns)
+	{
+		if (this._check.contains(name) == false)
+			return null;
 
-		return allow;
+		return new DeltaSlot(columns.length);
 	}
 
 	@Override
-	public String description() {
-		// TODO Auto-generated method stub
-		return null;
+	public String description()
+	{
+		return "Values changing by at least " + this._minDelta;
 	}
 }
@@ -1,8 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.logging;
 
-import java.io.File;
-import java.io.FilenameFilter;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.preference.PreferenceManager;
@@ -60,25 +57,8 @@ public class LastUploadCheck extends SanityCheck
 			{
 				final HttpUploadPlugin httpPlugin = (HttpUploadPlugin) plugin;
 
-				File pendingFolder = httpPlugin.getPendingFolder();
-
-				int pendingCount = 0;
-
-				FilenameFilter jsonFilter =  new FilenameFilter()
-				{
-					public boolean accept(File dir, String filename)
-					{
-						return filename.endsWith(".json");
-					}
-				};
+				int pendingCount = httpPlugin.pendingFilesCount();
 
-				String[] filenames = pendingFolder.list(jsonFilter);
-		
-				if (filenames == null)
-					filenames = new String[0];
-
-				pendingCount = filenames.length;
-				
 				if (pendingCount > 0)
 				{
 					this._errorLevel = SanityCheck.ERROR;
@@ -22,6 +22,7 @@ import android.preference.PreferenceScreen;
 import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.SettingsActivity;
+import edu.northwestern.cbits.purple_robot_manager.plugins.ReadingEnvelope;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 import edu.northwestern.cbits.purple_robot_manager.util.Slugify;
 
@@ -112,7 +113,9 @@ public class ModelManager extends BroadcastReceiver
 	@SuppressLint("DefaultLocale")
 	public void onReceive(Context context, Intent intent) 
 	{
-		Bundle extras = intent.getExtras();
+		ReadingEnvelope envelope = ReadingEnvelope.forIntent(context, intent);
+
+		Bundle extras = envelope.getExtras();
 
 		if (extras.containsKey("FROM_MODEL"))
 			return;
@@ -120,8 +123,10 @@ public class ModelManager extends BroadcastReceiver
 		String[] nameComponents = extras.getString("PROBE").split("\\.");
 		
 		String probeName = nameComponents[nameComponents.length - 1];
+
+		Map<String, Object> values = envelope.values();
 		
-		for (String key : extras.keySet())
+		for (String key : values.keySet())
 		{
 			if ("PROBE".equals(key) || "GUID".equals(key) || "TIMESTAMP".equals(key))
 			{
@@ -141,7 +146,10 @@ public class ModelManager extends BroadcastReceiver
 					this._keyCache.put(probeKey, slug);
 				}
 				
-				this._milieu.put(slug, extras.get(key));
+				synchronized(this._milieu)
+				{
+					this._milieu.put(slug, values.get(key));
+				}
 			}
 		}
 
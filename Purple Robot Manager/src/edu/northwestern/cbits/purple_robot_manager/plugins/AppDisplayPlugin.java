@@ -1,23 +1,15 @@
 package edu.northwestern.cbits.purple_robot_manager.plugins;
 
 import java.io.IOException;
-import java.io.StringWriter;
 import java.util.ArrayList;
 
 import android.annotation.SuppressLint;
-import android.content.ContentProviderOperation;
 import android.content.ContentValues;
 import android.content.Context;
 import android.content.Intent;
-import android.content.OperationApplicationException;
 import android.os.Bundle;
-import android.os.Handler;
-import android.os.RemoteException;
 import android.support.v4.content.LocalBroadcastManager;
 
-import com.fasterxml.jackson.core.JsonFactory;
-import com.fasterxml.jackson.core.JsonGenerator;
-
 import edu.northwestern.cbits.purple_robot_manager.RobotContentProvider;
 import edu.northwestern.cbits.purple_robot_manager.activities.StartActivity;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
@@ -41,10 +33,12 @@ public class AppDisplayPlugin extends OutputPlugin
 	@SuppressLint("NewApi")
 	public void processIntent(final Intent intent)
 	{
-		Bundle extras = intent.getExtras();
-		
 		final Context context = this.getContext();
 
+		ReadingEnvelope envelope = ReadingEnvelope.forIntent(context, intent);
+
+		Bundle extras = envelope.getExtras();
+
 		if (AppDisplayPlugin.DISPLAY_MESSAGE.equals(intent.getAction()))
 		{
 			Intent displayIntent = new Intent(StartActivity.UPDATE_MESSAGE);
@@ -74,16 +68,7 @@ public class AppDisplayPlugin extends OutputPlugin
 			
 			try 
 			{
-				JsonFactory factory = new JsonFactory();
-
-				StringWriter outputWriter = new StringWriter();
-
-				JsonGenerator generator = factory.createGenerator(outputWriter);
-				
-				StreamingJacksonUploadPlugin.writeBundle(this.getContext(), generator, extras);
-				generator.close();
-
-				values.put("value", outputWriter.toString());
+				values.put("value", envelope.jacksonString());
 			}
 			catch (IOException e) 
 			{
@@ -126,41 +111,9 @@ public class AppDisplayPlugin extends OutputPlugin
 					}
 				}
 				
-				Handler mainHandler = new Handler(context.getMainLooper());
-				
-				mainHandler.post(new Runnable()
-				{
-					public void run() 
-					{
-						String where = "source = ?";
-						
-						ArrayList<ContentProviderOperation> ops = new ArrayList<ContentProviderOperation>();
-
-						for (ContentValues value: toUpdate)
-						{
-							String[] whereArgs = { value.getAsString("source") };
-
-							ContentProviderOperation.Builder update = ContentProviderOperation.newUpdate(RobotContentProvider.RECENT_PROBE_VALUES).withSelection(where, whereArgs).withValues(value);
-							
-							ops.add(update.build());
-						}
-
-						try 
-						{
-							context.getContentResolver().applyBatch(RobotContentProvider.AUTHORITY, ops);
-						}
-						catch (RemoteException e) 
-						{
-		         			LogManager.getInstance(context).logException(e);
-						} 
-						catch (OperationApplicationException e) 
-						{
-		         			LogManager.getInstance(context).logException(e);
-						}
-
-						context.getContentResolver().notifyChange(RobotContentProvider.RECENT_PROBE_VALUES, null);
-					}
-				});
+				// One transaction and one change notification for the whole batch.
+
+				context.getContentResolver().bulkInsert(RobotContentProvider.RECENT_PROBE_VALUES, toUpdate.toArray(new ContentValues[toUpdate.size()]));
 			}
 		}
 	}
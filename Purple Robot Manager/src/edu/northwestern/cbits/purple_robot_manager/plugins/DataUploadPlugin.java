@@ -8,34 +8,16 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.security.KeyStore;
 import java.security.MessageDigest;
-import java.text.Normalizer;
-import java.util.ArrayList;
-import java.util.List;
 import java.util.Locale;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLPeerUnverifiedException;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONException;
 import org.json.JSONObject;
@@ -48,14 +30,12 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.net.http.AndroidHttpClient;
-import android.os.Build;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.WiFiHelper;
 import edu.northwestern.cbits.purple_robot_manager.activities.StartActivity;
-import edu.northwestern.cbits.purple_robot_manager.logging.LiberalSSLSocketFactory;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
 @SuppressLint("NewApi")
@@ -73,8 +53,6 @@ public abstract class DataUploadPlugin extends OutputPlugin
 
 	private static final String RESTRICT_TO_WIFI = "config_restrict_data_wifi";
 	private static final boolean RESTRICT_TO_WIFI_DEFAULT = true;
-	private static final String ALLOW_ALL_SSL_CERTIFICATES = "config_http_liberal_ssl";
-	private static final boolean ALLOW_ALL_SSL_CERTIFICATES_DEFAULT = true;
 	private static final String UPLOAD_URI = "config_data_server_uri";
 
 	protected static final int RESULT_SUCCESS = 0;
@@ -132,10 +110,13 @@ public abstract class DataUploadPlugin extends OutputPlugin
 		if (payload == null || payload.trim().length() == 0)
 			return DataUploadPlugin.RESULT_SUCCESS;
 
-		AndroidHttpClient androidClient = AndroidHttpClient.newInstance("Purple Robot", context);
-		
+		HttpTransport transport = HttpTransport.getInstance(context);
+		HttpResponse response = null;
+
 		final DataUploadPlugin me = this;
 
+		boolean retryPlain = false;
+
 		try
 		{
 			if (this.restrictToWifi(prefs))
@@ -148,63 +129,19 @@ public abstract class DataUploadPlugin extends OutputPlugin
 				}
 			}
 
-			JSONObject jsonMessage = new JSONObject();
-
-			jsonMessage.put(OPERATION_KEY, "SubmitProbes");
-				
-			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
-				payload = Normalizer.normalize(payload, Normalizer.Form.NFD).replaceAll("[^\\p{ASCII}]", "");
-						
-			payload = payload.replaceAll("\r", "");
-			payload = payload.replaceAll("\n", "");
-				
-			jsonMessage.put(PAYLOAD_KEY, payload);
+			String uriString = prefs.getString(DataUploadPlugin.UPLOAD_URI, context.getString(R.string.sensor_upload_url));
+			String encoding = PayloadEncoder.negotiatedEncoding(prefs, uriString);
 
 			String userHash = EncryptionManager.getInstance().getUserHash(me.getContext());
+			String acceptEncodings = PayloadEncoder.acceptEncodings(prefs, uriString);
 
-			jsonMessage.put(USER_HASH_KEY, userHash);
+			PayloadEncoder encoder = new PayloadEncoder(userHash, "SubmitProbes", encoding, acceptEncodings);
+			encoder.write(payload);
+			encoder.finish();
 
 			MessageDigest md = MessageDigest.getInstance("MD5");
-				
-			byte[] checksummed = (jsonMessage.get(USER_HASH_KEY).toString() + jsonMessage.get(OPERATION_KEY).toString() + jsonMessage.get(PAYLOAD_KEY).toString()).getBytes("US-ASCII");
-
-			byte[] digest = md.digest(checksummed);
 
-			String checksum = (new BigInteger(1, digest)).toString(16);
-
-			while (checksum.length() < 32)
-				checksum = "0" + checksum;
-
-			jsonMessage.put(CHECKSUM_KEY, checksum);
-			jsonMessage.put(CONTENT_LENGTH_KEY, checksummed.length);
-
-			// Liberal HTTPS setup: http://stackoverflow.com/questions/2012497/accepting-a-certificate-for-https-on-android
-
-	        HostnameVerifier hostnameVerifier = org.apache.http.conn.ssl.SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER;
-
-			SchemeRegistry registry = new SchemeRegistry();
-			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-				
-			SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
-				
-			if (prefs.getBoolean(DataUploadPlugin.ALLOW_ALL_SSL_CERTIFICATES, DataUploadPlugin.ALLOW_ALL_SSL_CERTIFICATES_DEFAULT))
-			{
-		        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-		        trustStore.load(null, null);
-
-		        socketFactory = new LiberalSSLSocketFactory(trustStore);								
-			}
-
-			registry.register(new Scheme("https", socketFactory, 443));
-			
-			HttpParams params = androidClient.getParams();
-			HttpConnectionParams.setConnectionTimeout(params, 180000);
-			HttpConnectionParams.setSoTimeout(params, 180000);
-			
-			SingleClientConnManager mgr = new SingleClientConnManager(params, registry);
-			HttpClient httpClient = new DefaultHttpClient(mgr, params);
-
-			HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
+			HttpClient httpClient = transport.getClient();
 				
 			String title = me.getContext().getString(R.string.notify_upload_data);
 
@@ -217,26 +154,18 @@ public abstract class DataUploadPlugin extends OutputPlugin
 			note.flags = Notification.FLAG_ONGOING_EVENT;
 
 			String body = null;
-				
-			String uriString = prefs.getString(DataUploadPlugin.UPLOAD_URI, context.getString(R.string.sensor_upload_url));
 
 			URI siteUri = new URI(uriString);
 			
 			HttpPost httpPost = new HttpPost(siteUri);
 
-			String jsonString = jsonMessage.toString();
-			
-			List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-			nameValuePairs.add(new BasicNameValuePair("json", jsonString));
-			HttpEntity entity = new UrlEncodedFormEntity(nameValuePairs, HTTP.US_ASCII);
-
-			httpPost.setEntity(entity);
+			httpPost.setEntity(encoder.entity());
 
 			String uploadMessage = String.format(context.getString(R.string.message_transmit_bytes),
 					(httpPost.getEntity().getContentLength() / 1024));
 			me.broadcastMessage(uploadMessage);
 
-			HttpResponse response = httpClient.execute(httpPost);
+			response = httpClient.execute(httpPost);
 
 			HttpEntity httpEntity = response.getEntity();
 
@@ -266,6 +195,8 @@ public abstract class DataUploadPlugin extends OutputPlugin
 			
 			JSONObject json = new JSONObject(body);
 
+			PayloadEncoder.updateEncodings(prefs, uriString, json);
+
 			int index = body.length() - 512;
 			
 			if (index < 0)
@@ -309,6 +240,13 @@ public abstract class DataUploadPlugin extends OutputPlugin
 					payloadString = payloadString.substring(payloadString.length() - 512);
 				
 				Log.e("PR", "ERROR BODY: " + payloadString);
+
+				if (encoding != null && PayloadEncoder.encodingFailed(json, encoding))
+				{
+					PayloadEncoder.rejectEncoding(prefs, uriString, encoding);
+
+					retryPlain = true;
+				}
 			}
 		}
 		catch (HttpHostConnectException e)
@@ -349,9 +287,12 @@ public abstract class DataUploadPlugin extends OutputPlugin
 		}
 		finally
 		{
-			androidClient.close();
+			transport.finish(response);
 		}
-		
+
+		if (retryPlain)
+			return this.transmitPayload(prefs, payload);
+
 		return DataUploadPlugin.RESULT_ERROR;
 	}
 }
@@ -0,0 +1,366 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.security.KeyStore;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.TimeUnit;
+
+import javax.net.ssl.HttpsURLConnection;
+
+import org.apache.http.HeaderElement;
+import org.apache.http.HeaderElementIterator;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.params.HttpClientParams;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.message.BasicHeaderElementIterator;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.params.HttpParams;
+import org.apache.http.params.HttpProtocolParams;
+import org.apache.http.protocol.HTTP;
+import org.apache.http.protocol.HttpContext;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.SSLCertificateSocketFactory;
+import android.net.SSLSessionCache;
+import android.preference.PreferenceManager;
+import edu.northwestern.cbits.purple_robot_manager.logging.LiberalSSLSocketFactory;
+
+/**
+ * HTTP client shared by the upload plugins. Connections are kept alive and
+ * pooled per endpoint, so consecutive batches reuse an open socket instead of
+ * paying for a new TCP and TLS handshake. The SSL socket factories live as long
+ * as the transport, which lets new connections resume earlier TLS sessions;
+ * the default factory also keeps its sessions on disk across restarts.
+ *
+ * Connections idle for longer than config_http_keep_alive seconds are closed,
+ * and at most config_http_max_connections are open to one endpoint at a time.
+ * Callers must consume or finish() every response to return its connection to
+ * the pool. The client is rebuilt when the SSL or pool settings change; the
+ * old one keeps serving the requests already using it and is shut down once
+ * they have returned their connections.
+ */
+
+public class HttpTransport
+{
+	public static final String KEEP_ALIVE = "config_http_keep_alive";
+	public static final String KEEP_ALIVE_DEFAULT = "60";
+
+	public static final String MAX_CONNECTIONS = "config_http_max_connections";
+	public static final String MAX_CONNECTIONS_DEFAULT = "2";
+
+	private static final String LIBERAL_SSL = "config_http_liberal_ssl";
+
+	private static final int TIMEOUT = 180000;
+
+	private static HttpTransport _instance = null;
+
+	private Context _context = null;
+
+	private ThreadSafeClientConnManager _manager = null;
+	private DefaultHttpClient _client = null;
+
+	private HashMap<ThreadSafeClientConnManager, Long> _retired = new HashMap<ThreadSafeClientConnManager, Long>();
+
+	private boolean _liberalSsl = false;
+	private long _keepAlive = 0;
+	private int _maxConnections = 0;
+
+	private Timer _timer = null;
+	private TimerTask _eviction = null;
+
+	private HttpTransport(Context context)
+	{
+		this._context = context.getApplicationContext();
+	}
+
+	public static synchronized HttpTransport getInstance(Context context)
+	{
+		if (HttpTransport._instance == null)
+			HttpTransport._instance = new HttpTransport(context);
+
+		return HttpTransport._instance;
+	}
+
+	/**
+	 * Closes the pooled connections of the shared transport, if one exists.
+	 * The next request opens new ones.
+	 */
+
+	public static synchronized void shutdown()
+	{
+		if (HttpTransport._instance != null)
+			HttpTransport._instance.close();
+	}
+
+	/**
+	 * Returns the pooled client, built for the current settings.
+	 */
+
+	public synchronized HttpClient getClient() throws IOException
+	{
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+		boolean liberalSsl = HttpTransport.liberalSsl(prefs);
+		long keepAlive = Long.parseLong(prefs.getString(HttpTransport.KEEP_ALIVE, HttpTransport.KEEP_ALIVE_DEFAULT)) * 1000;
+		int maxConnections = this.maxConnections();
+
+		if (this._client != null && (liberalSsl != this._liberalSsl || keepAlive != this._keepAlive || maxConnections != this._maxConnections))
+			this.retire();
+
+		if (this._client == null)
+		{
+			this._liberalSsl = liberalSsl;
+			this._keepAlive = keepAlive;
+			this._maxConnections = maxConnections;
+
+			SchemeRegistry registry = new SchemeRegistry();
+			registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+			registry.register(new Scheme("https", this.sslSocketFactory(liberalSsl), 443));
+
+			HttpParams params = new BasicHttpParams();
+
+			HttpConnectionParams.setConnectionTimeout(params, TIMEOUT);
+			HttpConnectionParams.setSoTimeout(params, TIMEOUT);
+			HttpConnectionParams.setSocketBufferSize(params, 8192);
+
+			// Pooled connections may have been closed by the server in the meantime.
+			HttpConnectionParams.setStaleCheckingEnabled(params, true);
+
+			HttpClientParams.setRedirecting(params, false);
+			HttpProtocolParams.setUserAgent(params, "Purple Robot");
+
+			ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnections));
+			ConnManagerParams.setMaxTotalConnections(params, maxConnections * 4);
+			ConnManagerParams.setTimeout(params, TIMEOUT);
+
+			this._manager = new ThreadSafeClientConnManager(params, registry);
+			this._client = new DefaultHttpClient(this._manager, params);
+
+			final HttpTransport me = this;
+
+			this._client.setKeepAliveStrategy(new ConnectionKeepAliveStrategy()
+			{
+				public long getKeepAliveDuration(HttpResponse response, HttpContext context)
+				{
+					long duration = me._keepAlive;
+
+					HeaderElementIterator iterator = new BasicHeaderElementIterator(response.headerIterator(HTTP.CONN_KEEP_ALIVE));
+
+					while (iterator.hasNext())
+					{
+						HeaderElement element = iterator.nextElement();
+
+						if ("timeout".equalsIgnoreCase(element.getName()) && element.getValue() != null)
+						{
+							try
+							{
+								duration = Math.min(duration, Long.parseLong(element.getValue()) * 1000);
+							}
+							catch (NumberFormatException e)
+							{
+
+							}
+						}
+					}
+
+					return duration;
+				}
+			});
+
+			HttpsURLConnection.setDefaultHostnameVerifier(SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER);
+		}
+
+		this.closeRetired();
+		this.scheduleEviction();
+
+		return this._client;
+	}
+
+	/**
+	 * Connections that may be open to one endpoint at a time, and so the
+	 * number of requests that can be in flight to it at once.
+	 */
+
+	public int maxConnections()
+	{
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+		return Math.max(1, Integer.parseInt(prefs.getString(HttpTransport.MAX_CONNECTIONS, HttpTransport.MAX_CONNECTIONS_DEFAULT)));
+	}
+
+	/**
+	 * Consumes what is left of a response so that its connection goes back to
+	 * the pool.
+	 */
+
+	public void finish(HttpResponse response)
+	{
+		if (response != null)
+		{
+			HttpEntity entity = response.getEntity();
+
+			try
+			{
+				if (entity != null)
+					entity.consumeContent();
+			}
+			catch (IOException e)
+			{
+
+			}
+		}
+
+		synchronized(this)
+		{
+			this.closeRetired();
+			this.scheduleEviction();
+		}
+	}
+
+	private SSLSocketFactory sslSocketFactory(boolean liberalSsl) throws IOException
+	{
+		if (liberalSsl)
+		{
+			try
+			{
+				KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+				trustStore.load(null, null);
+
+				return new LiberalSSLSocketFactory(trustStore);
+			}
+			catch (GeneralSecurityException e)
+			{
+				throw new IOException(e.toString());
+			}
+		}
+
+		return SSLCertificateSocketFactory.getHttpSocketFactory(TIMEOUT, new SSLSessionCache(this._context));
+	}
+
+	private static boolean liberalSsl(SharedPreferences prefs)
+	{
+		try
+		{
+			return prefs.getBoolean(HttpTransport.LIBERAL_SSL, true);
+		}
+		catch (ClassCastException e)
+		{
+			return "false".equals(prefs.getString(HttpTransport.LIBERAL_SSL, "true").toLowerCase(Locale.ENGLISH)) == false;
+		}
+	}
+
+	/**
+	 * Closes pooled connections once they have been idle for the keep-alive
+	 * period. Each use of the transport pushes the check back.
+	 */
+
+	private void scheduleEviction()
+	{
+		if (this._manager == null)
+			return;
+
+		if (this._timer == null)
+			this._timer = new Timer("HttpTransport", true);
+
+		if (this._eviction != null)
+			this._eviction.cancel();
+
+		final HttpTransport me = this;
+		final ThreadSafeClientConnManager manager = this._manager;
+		final long keepAlive = this._keepAlive;
+
+		this._eviction = new TimerTask()
+		{
+			public void run()
+			{
+				manager.closeExpiredConnections();
+				manager.closeIdleConnections(keepAlive, TimeUnit.MILLISECONDS);
+
+				synchronized(me)
+				{
+					me.closeRetired();
+				}
+			}
+		};
+
+		this._timer.schedule(this._eviction, keepAlive + 1000);
+	}
+
+	/**
+	 * Sets the current client aside for a new one. Other threads may still be
+	 * sending with it, so its connection manager is only shut down by
+	 * closeRetired() once they are done.
+	 */
+
+	private void retire()
+	{
+		if (this._manager != null)
+			this._retired.put(this._manager, Long.valueOf(System.currentTimeMillis()));
+
+		this._manager = null;
+		this._client = null;
+	}
+
+	/**
+	 * Closes the idle connections of retired clients and shuts down those with
+	 * none left in use. A thread still waiting for a connection from a retired
+	 * pool holds none yet, so pools are only shut down after the longest such
+	 * wait.
+	 */
+
+	private void closeRetired()
+	{
+		long now = System.currentTimeMillis();
+
+		for (ThreadSafeClientConnManager manager : new ArrayList<ThreadSafeClientConnManager>(this._retired.keySet()))
+		{
+			manager.closeIdleConnections(0, TimeUnit.MILLISECONDS);
+
+			if (manager.getConnectionsInPool() == 0 && now - this._retired.get(manager).longValue() > TIMEOUT)
+			{
+				manager.shutdown();
+
+				this._retired.remove(manager);
+			}
+		}
+	}
+
+	private synchronized void close()
+	{
+		if (this._eviction != null)
+		{
+			this._eviction.cancel();
+			this._eviction = null;
+		}
+
+		if (this._manager != null)
+			this._manager.shutdown();
+
+		for (ThreadSafeClientConnManager manager : this._retired.keySet())
+		{
+			manager.shutdown();
+		}
+
+		this._retired.clear();
+
+		this._manager = null;
+		this._client = null;
+	}
+}
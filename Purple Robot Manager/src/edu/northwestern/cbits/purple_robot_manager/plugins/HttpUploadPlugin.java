@@ -15,44 +15,26 @@ import java.net.SocketException;
 import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.net.UnknownHostException;
-import java.security.KeyManagementException;
-import java.security.KeyStore;
-import java.security.KeyStoreException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
-import java.security.UnrecoverableKeyException;
-import java.security.cert.CertificateException;
-import java.text.Normalizer;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
-import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
-import javax.net.ssl.HostnameVerifier;
-import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLPeerUnverifiedException;
 
 import org.apache.commons.io.FileUtils;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
-import org.apache.http.NameValuePair;
 import org.apache.http.client.HttpClient;
-import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.HttpResponseException;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.conn.HttpHostConnectException;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.SingleClientConnManager;
-import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
-import org.apache.http.protocol.HTTP;
 import org.apache.http.util.EntityUtils;
 import org.json.JSONArray;
 import org.json.JSONException;
@@ -68,22 +50,17 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
-import android.content.res.Resources;
 import android.net.Uri;
 import android.net.http.AndroidHttpClient;
-import android.os.Build;
 import android.os.Bundle;
 import android.preference.PreferenceManager;
 import android.util.Log;
 import android.widget.Toast;
-import edu.emory.mathcs.backport.java.util.Arrays;
-import edu.emory.mathcs.backport.java.util.Collections;
 import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
 import edu.northwestern.cbits.purple_robot_manager.PurpleRobotApplication;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.WiFiHelper;
 import edu.northwestern.cbits.purple_robot_manager.activities.StartActivity;
-import edu.northwestern.cbits.purple_robot_manager.logging.LiberalSSLSocketFactory;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 
@@ -108,17 +85,32 @@ public class HttpUploadPlugin extends OutputPlugin
 	private final static long MAX_UPLOAD_SIZE = 262144; // 256KB
 	private final static long MIN_UPLOAD_SIZE = 16384; // 16KB
 
-	private List<String> _pendingSaves = new ArrayList<String>();
+	private static class PendingSave
+	{
+		private String _json = null;
+		private int _lane = UploadLanes.NORMAL;
+
+		private PendingSave(String json, int lane)
+		{
+			this._json = json;
+			this._lane = lane;
+		}
+	}
+
+	private List<PendingSave> _pendingSaves = new ArrayList<PendingSave>();
 	private long _lastSave = 0;
 	private long _lastUpload = 0;
 
 	private double _throughput = 0.0;
+	private long _transferStart = 0;
+	private long _transferBytes = 0;
+	private double _compressionRatio = 4.0;
 	private double _accumulation = 0.0;
 	
 	private long _lastAccumulationMeasure = System.currentTimeMillis();
 	private double _accumulationSum = 0.0;
 
-	private long _uploadSize = MIN_UPLOAD_SIZE;
+	private UploadSizeController _sizes = new UploadSizeController(MIN_UPLOAD_SIZE, MAX_UPLOAD_SIZE, MAX_UPLOAD_SIZE * WIFI_MULTIPLIER);
 	private long _uploadPeriod = MIN_UPLOAD_PERIOD;
 
 	private boolean _uploading = false;
@@ -126,6 +118,7 @@ public class HttpUploadPlugin extends OutputPlugin
 	private int _failCount = 0;
 	
 	private static SharedPreferences _preferences = null;
+	private static UploadLanes _lanes = null;
 	
 
 	protected static SharedPreferences getPreferences(Context context)
@@ -146,23 +139,39 @@ public class HttpUploadPlugin extends OutputPlugin
 		return this._accumulation;
 	}
 
-	private void logSuccess(boolean success)
+	/**
+	 * Batch size the next upload over the current network starts from.
+	 */
+
+	public long getUploadSize()
+	{
+		return this._sizes.size(this.currentLink());
+	}
+
+	/**
+	 * Average throughput of single batches over the current network, in bytes
+	 * per second.
+	 */
+
+	public double getLinkThroughput()
+	{
+		return this._sizes.throughput(this.currentLink());
+	}
+
+	private int currentLink()
+	{
+		if (WiFiHelper.wifiAvailable(this.getContext()))
+			return UploadSizeController.LINK_WIFI;
+
+		return UploadSizeController.LINK_MOBILE;
+	}
+
+	private synchronized void adjustUploadPeriod(boolean success)
 	{
 		if (success)
-		{
-			this._uploadSize *= 2;
 			this._uploadPeriod /= 2;
-		}
 		else
-		{
-			this._uploadSize /= 2;
 			this._uploadPeriod *= 2;
-		}
-
-		if (this._uploadSize > MAX_UPLOAD_SIZE)
-			this._uploadSize = MAX_UPLOAD_SIZE;
-		else if (this._uploadSize < MIN_UPLOAD_SIZE)
-			this._uploadSize = MIN_UPLOAD_SIZE;
 
 		if (this._uploadPeriod > MAX_UPLOAD_PERIOD)
 			this._uploadPeriod = MAX_UPLOAD_PERIOD;
@@ -170,6 +179,39 @@ public class HttpUploadPlugin extends OutputPlugin
 			this._uploadPeriod = MIN_UPLOAD_PERIOD;
 	}
 
+	private synchronized int failCount()
+	{
+		return this._failCount;
+	}
+
+	private synchronized void logFailure()
+	{
+		this._failCount += 1;
+		this._throughput = 0.0;
+	}
+
+	private synchronized void startTransfer()
+	{
+		this._transferStart = System.currentTimeMillis();
+		this._transferBytes = 0;
+	}
+
+	/**
+	 * Counts a delivered batch towards the throughput of the current upload
+	 * run, which covers all of its batches in flight.
+	 */
+
+	private synchronized void logSent(long bytes)
+	{
+		this._failCount = 0;
+		this._transferBytes += bytes;
+
+		double elapsed = ((double) (System.currentTimeMillis() - this._transferStart)) / 1000.0;
+
+		if (elapsed > 0)
+			this._throughput = ((double) this._transferBytes) / elapsed;
+	}
+
 	private long savePeriod()
 	{
 		return 10000;
@@ -193,21 +235,14 @@ public class HttpUploadPlugin extends OutputPlugin
 		return period;
 	}
 
-	private long maxUploadSize()
+	private long maxUploadSize(int link)
 	{
 		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this.getContext());
 		
 		long size = Long.parseLong(prefs.getString("config_http_upload_size", "0"));
 		
 		if (size == 0)
-		{
-			int multiplier = 1;
-	
-			if (WiFiHelper.wifiAvailable(this.getContext()))
-				multiplier = WIFI_MULTIPLIER;
-			
-			size = this._uploadSize * multiplier;
-		}
+			size = this._sizes.size(link);
 		
 		if (size < MIN_UPLOAD_SIZE) 
 			size = MIN_UPLOAD_SIZE;
@@ -255,18 +290,22 @@ public class HttpUploadPlugin extends OutputPlugin
 		{
 			try
 			{
-				Bundle extras = intent.getExtras();
+				ReadingEnvelope envelope = ReadingEnvelope.forIntent(this.getContext(), intent);
+
+				Bundle extras = envelope.getExtras();
 				
 				if (extras.containsKey("TRANSMIT") && extras.getBoolean("TRANSMIT") == false)
 					return;
 
-				final JSONObject jsonObject = OutputPlugin.jsonForBundle(extras);
+				final JSONObject jsonObject = envelope.json();
 
 				if (jsonObject != null)
 				{
+					int lane = UploadLanes.laneFor(this.getContext(), extras.getString("PROBE"));
+
 					synchronized (this._pendingSaves)
 					{
-						this._pendingSaves.add(jsonObject.toString());
+						this._pendingSaves.add(new PendingSave(envelope.jsonString(), lane));
 					}
 				}
 				else
@@ -341,550 +380,448 @@ public class HttpUploadPlugin extends OutputPlugin
 				}
 			}
 
-			final Resources resources = this.getContext().getResources();
-			final long maxUploadSize = me.maxUploadSize();
-
 			final Runnable r = new Runnable()
 			{
-				@SuppressWarnings("deprecation")
 				public void run()
 				{
-					long start = System.currentTimeMillis();
-
-					boolean wasSuccessful = false;
-
 					me._lastUpload = now;
 
-					File pendingFolder = me.getPendingFolder();
+					UploadLanes log = me.pendingLanes();
 
-					File archiveFolder = me.getArchiveFolder();
+					me.migratePendingFiles(log, prefs);
 
 					me.broadcastMessage(R.string.message_reading_files);
 
-					String[] filenames = pendingFolder.list(new FilenameFilter()
-					{
-						public boolean accept(File dir, String filename)
-						{
-							return filename.endsWith(".json");
-						}
-					});
+					String operation = "SubmitProbes";
+					String uriString = prefs.getString("config_data_server_uri", me.getContext().getResources().getString(R.string.sensor_upload_url));
+					String userHash = EncryptionManager.getInstance().getUserHash(me.getContext());
+
+					HttpTransport transport = HttpTransport.getInstance(me.getContext());
 
-					if (filenames == null)
-						filenames = new String[0];
+					// One slot per batch in flight. The next batch is read and encoded while the others are sent.
 
-					Collections.shuffle(Arrays.asList(filenames));
-					
-					ArrayList<JSONObject> pendingObjects = new ArrayList<JSONObject>();
+					int slots = transport.maxConnections();
 
-					int totalRead = 0;
+					Semaphore inFlight = new Semaphore(slots);
+					ExecutorService senders = Executors.newFixedThreadPool(slots);
 
-					for (String filename : filenames)
+					me.startTransfer();
+
+					try
 					{
-						if (totalRead <= maxUploadSize)
+						while (me.failCount() < MAX_RETRIES)
 						{
-							File f = new File(pendingFolder, filename);
+							int link = me.currentLink();
+							long maxUploadSize = me.maxUploadSize(link);
+
+							String encoding = PayloadEncoder.negotiatedEncoding(prefs, uriString);
+							String acceptEncodings = PayloadEncoder.acceptEncodings(prefs, uriString);
+
+							UploadLanes.Batch batch = null;
+							List<byte[]> records = null;
+							PayloadEncoder encoder = null;
 
 							try
 							{
-								byte[] bytes = EncryptionManager.getInstance().readFromEncryptedStream(me.getContext(), new FileInputStream(f), me.encryptData(prefs));
+								while (encoder == null)
+								{
+									long batchSize = maxUploadSize;
 
-								JSONArray jsonArray = new JSONArray(new String(bytes, "UTF-8"));
+									// The size cap applies to the compressed payload, so the budget of plain bytes follows the last compression ratio.
 
-								totalRead += bytes.length;
+									if (encoding != null)
+										batchSize = (long) (maxUploadSize * me._compressionRatio * 0.9);
 
-								for (int i = 0; i < jsonArray.length(); i++)
-								{
-									JSONObject jsonObject = jsonArray.getJSONObject(i);
+									batch = log.next(batchSize);
 
-									pendingObjects.add(jsonObject);
-								}
-							}
-							catch (FileNotFoundException e)
-							{
-								LogManager.getInstance(me.getContext()).logException(e);
-							}
-							catch (IOException e)
-							{
-								LogManager.getInstance(me.getContext()).logException(e);
-							}
-							catch (JSONException e)
-							{
-								LogManager.getInstance(me.getContext()).logException(e);
-							}
+									if (batch == null)
+										break;
 
-							if (me.enableArchive(prefs))
-							{
-								long now = System.currentTimeMillis();
+									records = log.read(batch);
 
-								File archive = new File(archiveFolder, now + ".archive");
+									// Readings the server has already acknowledged are not sent again.
 
-								f.renameTo(archive);
-							}
-							else
-								f.delete();
-						}
-					}
-					
-					if (pendingObjects.size() > 0)
-					{
-						me.broadcastMessage(R.string.message_package_upload);
+									List<byte[]> unacknowledged = log.journal().unacknowledged(records);
 
-						long tally = 0;
+									if (unacknowledged.isEmpty())
+									{
+										log.acknowledge(batch);
 
-						List<JSONObject> toUpload = new ArrayList<JSONObject>();
+										continue;
+									}
 
-						for (int i = 0; i < pendingObjects.size() && tally < maxUploadSize; i++)
-						{
-							try
-							{
-								JSONObject json = pendingObjects.get(i);
+									records = unacknowledged;
+									encoder = me.encodePayload(records, userHash, operation, encoding, acceptEncodings);
 
-								String jsonString = json.toString();
+									if (encoding != null)
+									{
+										me._compressionRatio = Math.max(1.0, ((double) encoder.plainSize()) / encoder.encodedSize());
 
-								int jsonSize = jsonString.toString().getBytes("UTF-8").length;
-								
-								if (i > 0 && jsonSize > maxUploadSize)
-								{
-									// Skip until connection is better...
-								}
-								else if (i == 0 || jsonSize + tally < maxUploadSize)
-								{
-									tally += jsonSize;
+										if (encoder.encodedSize() > maxUploadSize && batch.count() > 1)
+										{
+											log.release(batch);
 
-									toUpload.add(json);
+											encoder = null;
+										}
+									}
 								}
 							}
-							catch (UnsupportedEncodingException e)
+							catch (IOException e)
 							{
 								LogManager.getInstance(me.getContext()).logException(e);
-							}
-						}
 
-						JSONArray uploadArray = new JSONArray();
+								if (batch == null)
+									break;
 
-						for (int i = 0; i < toUpload.size(); i++)
-						{
-							uploadArray.put(toUpload.get(i));
-						}
+								// Unreadable records are dropped instead of being retried forever.
 
-						int l = 0;
-						Random r = new Random(System.currentTimeMillis());
+								log.acknowledge(batch);
 
-						try
-						{
-							if (uploadArray.length() == 0)
+								continue;
+							}
+
+							if (batch == null)
 							{
-								while (pendingObjects.size() > 0)
+								if (inFlight.tryAcquire(slots))
 								{
-									JSONArray toSave = new JSONArray();
-
-									List<JSONObject> toRemove = new ArrayList<JSONObject>();
-
-									for (int i = 0; i < pendingObjects.size() && i < 100; i++)
-									{
-										toSave.put(pendingObjects.get(i));
-										toRemove.add(pendingObjects.get(i));
-									}
-
-									File f = new File(pendingFolder, "pending_" + l + ".json");
-
-									while (f.exists())
-									{
-										l += r.nextInt(10);
-
-										f = new File(pendingFolder, "pending_" + l + ".json");
-									}
-
-									byte[] jsonBytes = toSave.toString().getBytes("UTF-8");
+									inFlight.release(slots);
 
-									EncryptionManager.getInstance().writeToEncryptedStream(me.getContext(), new FileOutputStream(f), jsonBytes, me.encryptData(prefs));
-
-									pendingObjects.removeAll(toRemove);
+									break;
 								}
-								
-								throw new Exception(me.getContext().getString(R.string.error_empty_payload));
-							}
-							
-							JSONObject jsonMessage = new JSONObject();
 
-							jsonMessage.put(OPERATION_KEY, "SubmitProbes");
-							
-							String payload = uploadArray.toString();
-							
-							if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
-								payload = Normalizer.normalize(payload, Normalizer.Form.NFD).replaceAll("[^\\p{ASCII}]", "");
-									
-							payload = payload.replaceAll("\r", "");
-							payload = payload.replaceAll("\n", "");
-							
-							jsonMessage.put(PAYLOAD_KEY, payload);
+								// Batches that fail go back to the log, so look again once the ones in flight are done.
 
-							String userHash = EncryptionManager.getInstance().getUserHash(me.getContext());
+								inFlight.acquire(slots);
+								inFlight.release(slots);
 
-							jsonMessage.put(USER_HASH_KEY, userHash);
-
-							MessageDigest md = MessageDigest.getInstance("MD5");
-							
-							byte[] checksummed = (jsonMessage.get(USER_HASH_KEY).toString() + jsonMessage.get(OPERATION_KEY).toString() + jsonMessage.get(PAYLOAD_KEY).toString()).getBytes("US-ASCII");
+								continue;
+							}
 
-							byte[] digest = md.digest(checksummed);
+							inFlight.acquire();
 
-							String checksum = (new BigInteger(1, digest)).toString(16);
+							final UploadLanes sendLog = log;
+							final UploadLanes.Batch sendBatch = batch;
+							final List<byte[]> sendRecords = records;
+							final PayloadEncoder sendEncoder = encoder;
+							final HttpTransport sendTransport = transport;
+							final String sendUri = uriString;
+							final Semaphore sendSlots = inFlight;
+							final int sendLink = link;
 
-							while (checksum.length() < 32)
+							senders.execute(new Runnable()
 							{
-								checksum = "0" + checksum;
-							}
-
-							jsonMessage.put(CHECKSUM_KEY, checksum);
-							jsonMessage.put(CONTENT_LENGTH_KEY, checksummed.length);
+								public void run()
+								{
+									try
+									{
+										me.transmitBatch(sendLog, sendBatch, sendRecords, sendEncoder, sendTransport, prefs, sendUri, sendLink);
+									}
+									finally
+									{
+										sendSlots.release();
+									}
+								}
+							});
+						}
 
-							AndroidHttpClient androidClient = AndroidHttpClient.newInstance("Purple Robot", me.getContext());
+						inFlight.acquire(slots);
+					}
+					catch (IOException e)
+					{
+						LogManager.getInstance(me.getContext()).logException(e);
+					}
+					catch (InterruptedException e)
+					{
+						LogManager.getInstance(me.getContext()).logException(e);
+					}
+					finally
+					{
+						senders.shutdown();
+					}
 
-							// Liberal HTTPS setup: http://stackoverflow.com/questions/2012497/accepting-a-certificate-for-https-on-android
+					me._uploading = false;
 
-					        HostnameVerifier hostnameVerifier = org.apache.http.conn.ssl.SSLSocketFactory.ALLOW_ALL_HOSTNAME_VERIFIER;
+					if (me.failCount() == 0)
+						me.broadcastMessage(R.string.message_reading_complete);
+				}
+			};
 
-							SchemeRegistry registry = new SchemeRegistry();
-							registry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-							
-							SSLSocketFactory socketFactory = SSLSocketFactory.getSocketFactory();
-							
-							if (me.useLiberalSsl(prefs))
-							{
-						        KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
-						        trustStore.load(null, null);
+			Thread t = new Thread(r);
+			t.start();
+		}
+	}
 
-						        socketFactory = new LiberalSSLSocketFactory(trustStore);								
-							}
+	/**
+	 * Sends one encoded batch and acknowledges it, or releases it back to the
+	 * log if it was not delivered. Runs on the sender threads, several at a
+	 * time. Timeouts and server errors shrink the batch size for the link.
+	 */
 
-							registry.register(new Scheme("https", socketFactory, 443));
-							
-							HttpParams params = androidClient.getParams();
-							HttpConnectionParams.setConnectionTimeout(params, 180000);
-							HttpConnectionParams.setSoTimeout(params, 180000);
-							
-							SingleClientConnManager mgr = new SingleClientConnManager(params, registry);
-							HttpClient httpClient = new DefaultHttpClient(mgr, params);
+	@SuppressWarnings("deprecation")
+	private void transmitBatch(UploadLanes log, UploadLanes.Batch batch, List<byte[]> records, PayloadEncoder encoder, HttpTransport transport, SharedPreferences prefs, String uriString, int link)
+	{
+		String encoding = encoder.encoding();
 
-							HttpsURLConnection.setDefaultHostnameVerifier(hostnameVerifier);
-							
-							String title = me.getContext().getString(R.string.notify_upload_data);
+		this.broadcastMessage(R.string.message_package_upload);
 
-							Notification note = new Notification(R.drawable.ic_note_normal, title, System.currentTimeMillis());
-							PendingIntent contentIntent = PendingIntent.getActivity(me.getContext(), 0,
-									new Intent(me.getContext(), StartActivity.class), Notification.FLAG_ONGOING_EVENT);
+		boolean wasSuccessful = false;
+		boolean congested = false;
 
-							note.setLatestEventInfo(me.getContext(), title, title, contentIntent);
+		long sent = 0;
 
-							note.flags = Notification.FLAG_ONGOING_EVENT;
+		long payloadSize = -1;
 
-							String body = null;
-							
-							long payloadSize = -1;
+		try
+		{
+			MessageDigest md = MessageDigest.getInstance("MD5");
 
-							try
-							{
-								String uriString = prefs.getString("config_data_server_uri", me.getContext().getResources().getString(R.string.sensor_upload_url));
+			HttpClient httpClient = transport.getClient();
+			
+			String title = this.getContext().getString(R.string.notify_upload_data);
 
-								URI siteUri = new URI(uriString);
-								
-								HttpPost httpPost = new HttpPost(siteUri);
+			Notification note = new Notification(R.drawable.ic_note_normal, title, System.currentTimeMillis());
+			PendingIntent contentIntent = PendingIntent.getActivity(this.getContext(), 0,
+					new Intent(this.getContext(), StartActivity.class), Notification.FLAG_ONGOING_EVENT);
 
-								String jsonString = jsonMessage.toString();
+			note.setLatestEventInfo(this.getContext(), title, title, contentIntent);
 
-								List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>();
-								nameValuePairs.add(new BasicNameValuePair("json", jsonString));
-								HttpEntity entity = new UrlEncodedFormEntity(nameValuePairs, HTTP.US_ASCII);
+			note.flags = Notification.FLAG_ONGOING_EVENT;
 
-								httpPost.setEntity(entity);
+			String body = null;
 
-								String uploadMessage = String.format(resources.getString(R.string.message_transmit_bytes),
-										(httpPost.getEntity().getContentLength() / 1024));
-								me.broadcastMessage(uploadMessage);
+			HttpResponse response = null;
 
-//								noteManager.notify(12345, note);
-								
-								HttpResponse response = httpClient.execute(httpPost);
+			try
+			{
+				URI siteUri = new URI(uriString);
+				
+				HttpPost httpPost = new HttpPost(siteUri);
 
-								HttpEntity httpEntity = response.getEntity();
+				httpPost.setEntity(encoder.entity());
 
-								String contentHeader = null;
+				String uploadMessage = String.format(this.getContext().getString(R.string.message_transmit_bytes),
+						(httpPost.getEntity().getContentLength() / 1024));
+				this.broadcastMessage(uploadMessage);
 
-								if (response.containsHeader("Content-Encoding"))
-									contentHeader = response.getFirstHeader("Content-Encoding").getValue();
+//				noteManager.notify(12345, note);
 
-								if (contentHeader != null && contentHeader.endsWith("gzip"))
-								{
-									BufferedInputStream in = new BufferedInputStream(AndroidHttpClient.getUngzippedContent(httpEntity));
+				sent = System.currentTimeMillis();
 
-									ByteArrayOutputStream out = new ByteArrayOutputStream();
+				response = httpClient.execute(httpPost);
 
-									int read = 0;
-									byte[] buffer = new byte[1024];
+				int statusCode = response.getStatusLine().getStatusCode();
 
-									while ((read = in.read(buffer, 0, buffer.length)) != -1)
-									{
-										out.write(buffer, 0, read);
-									}
+				if (statusCode >= 500)
+				{
+					congested = true;
 
-									in.close();
+					throw new HttpResponseException(statusCode, response.getStatusLine().getReasonPhrase());
+				}
 
-									body = out.toString("UTF-8");
-								}
-								else
-									body = EntityUtils.toString(httpEntity);
-								
-								JSONObject json = new JSONObject(body);
+				HttpEntity httpEntity = response.getEntity();
 
-								String status = json.getString(STATUS_KEY);
+				String contentHeader = null;
 
-								String responsePayload = "";
+				if (response.containsHeader("Content-Encoding"))
+					contentHeader = response.getFirstHeader("Content-Encoding").getValue();
 
-								if (json.has(PAYLOAD_KEY))
-									responsePayload = json.getString(PAYLOAD_KEY);
+				if (contentHeader != null && contentHeader.endsWith("gzip"))
+				{
+					BufferedInputStream in = new BufferedInputStream(AndroidHttpClient.getUngzippedContent(httpEntity));
 
-								if (status.equals("error") == false)
-								{
-									byte[] responseDigest = md.digest((status + responsePayload).getBytes("UTF-8"));
-									String responseChecksum = (new BigInteger(1, responseDigest)).toString(16);
+					ByteArrayOutputStream out = new ByteArrayOutputStream();
 
-									while (responseChecksum.length() < 32)
-									{
-										responseChecksum = "0" + responseChecksum;
-									}
+					int read = 0;
+					byte[] buffer = new byte[1024];
 
-									if (responseChecksum.equals(json.getString(CHECKSUM_KEY)))
-									{
-										pendingObjects.removeAll(toUpload);
+					while ((read = in.read(buffer, 0, buffer.length)) != -1)
+					{
+						out.write(buffer, 0, read);
+					}
 
-										wasSuccessful = true;
+					in.close();
 
-										String uploadedMessage = String.format(resources.getString(R.string.message_upload_successful),
-												(httpPost.getEntity().getContentLength() / 1024));
+					body = out.toString("UTF-8");
+				}
+				else
+					body = EntityUtils.toString(httpEntity);
+				
+				JSONObject json = new JSONObject(body);
 
-										me._failCount = 0;
+				PayloadEncoder.updateEncodings(prefs, uriString, json);
 
-										me.broadcastMessage(uploadedMessage);
+				String status = json.getString(STATUS_KEY);
 
-										double elapsed = ((double) (System.currentTimeMillis() - start)) / 1000.0;
+				String responsePayload = "";
 
-										payloadSize = httpPost.getEntity().getContentLength();
-										
-										me._throughput = ((double) payloadSize) / elapsed;
-									}
-									else
-									{
-										me.broadcastMessage(R.string.message_checksum_failed);
-										me._failCount += 1;
+				if (json.has(PAYLOAD_KEY))
+					responsePayload = json.getString(PAYLOAD_KEY);
 
-										me._throughput = 0.0;
-									}
-								}
-								else
-								{
-									String errorMessage = String.format(resources.getString(R.string.message_server_error),	status);
-									me.broadcastMessage(errorMessage);
+				if (status.equals("error") == false)
+				{
+					byte[] responseDigest = md.digest((status + responsePayload).getBytes("UTF-8"));
+					String responseChecksum = (new BigInteger(1, responseDigest)).toString(16);
 
-									me._failCount += 1;
+					while (responseChecksum.length() < 32)
+					{
+						responseChecksum = "0" + responseChecksum;
+					}
 
-									me._throughput = 0.0;
-								}
-							}
-							catch (HttpHostConnectException e)
-							{
-								me.broadcastMessage(R.string.message_http_connection_error);
-								LogManager.getInstance(me.getContext()).logException(e);
+					// Servers that know batch ids acknowledge this batch by echoing its id.
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							catch (SocketTimeoutException e)
-							{
-								me.broadcastMessage(R.string.message_socket_timeout_error);
-								LogManager.getInstance(me.getContext()).logException(e);
+					String batchId = encoder.batchId();
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							catch (SocketException e)
-							{
-								String errorMessage = String.format(resources.getString(R.string.message_socket_error),	e.getMessage());
-								me.broadcastMessage(errorMessage);
-								LogManager.getInstance(me.getContext()).logException(e);
+					if (json.has(PayloadEncoder.BATCH_ID_KEY))
+						batchId = json.getString(PayloadEncoder.BATCH_ID_KEY);
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							catch (UnknownHostException e)
-							{
-								me.broadcastMessage(R.string.message_unreachable_error);
-								LogManager.getInstance(me.getContext()).logException(e);
+					if (responseChecksum.equals(json.getString(CHECKSUM_KEY)) && batchId.equals(encoder.batchId()))
+					{
+						wasSuccessful = true;
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							catch (JSONException e)
-							{
-								me.broadcastMessage(R.string.message_response_error);
-								LogManager.getInstance(me.getContext()).logException(e);
+						String uploadedMessage = String.format(this.getContext().getString(R.string.message_upload_successful),
+								(httpPost.getEntity().getContentLength() / 1024));
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							catch (SSLPeerUnverifiedException e)
-							{
-								LogManager.getInstance(me.getContext()).logException(e);
-								me.broadcastMessage(R.string.message_unverified_server);
+						this.broadcastMessage(uploadedMessage);
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							catch (Exception e)
-							{
-								LogManager.getInstance(me.getContext()).logException(e);
-								String errorMessage = String.format(resources.getString(R.string.message_general_error), e.toString());
-								me.broadcastMessage(errorMessage);
+						payloadSize = httpPost.getEntity().getContentLength();
 
-								me._failCount += 1;
-								me._throughput = 0.0;
-							}
-							finally
-							{
-								androidClient.close();
-							}
+						this.logSent(payloadSize);
+						this._sizes.delivered(link, payloadSize, System.currentTimeMillis() - sent);
+					}
+					else
+					{
+						this.broadcastMessage(R.string.message_checksum_failed);
 
-							while (pendingObjects.size() > 0)
-							{
-								JSONArray toSave = new JSONArray();
+						this.logFailure();
+					}
+				}
+				else
+				{
+					String errorMessage = String.format(this.getContext().getString(R.string.message_server_error),	status);
+					this.broadcastMessage(errorMessage);
 
-								List<JSONObject> toRemove = new ArrayList<JSONObject>();
+					// A batch the server could not decode is retried as plain text right away.
 
-								for (int i = 0; i < pendingObjects.size() && i < 100; i++)
-								{
-									toSave.put(pendingObjects.get(i));
-									toRemove.add(pendingObjects.get(i));
-								}
+					if (encoding != null && PayloadEncoder.encodingFailed(json, encoding))
+						PayloadEncoder.rejectEncoding(prefs, uriString, encoding);
+					else
+						this.logFailure();
+				}
+			}
+			catch (HttpHostConnectException e)
+			{
+				this.broadcastMessage(R.string.message_http_connection_error);
+				LogManager.getInstance(this.getContext()).logException(e);
 
-								File f = new File(pendingFolder, "pending_" + l + ".json");
+				this.logFailure();
+			}
+			catch (SocketTimeoutException e)
+			{
+				this.broadcastMessage(R.string.message_socket_timeout_error);
+				LogManager.getInstance(this.getContext()).logException(e);
 
-								while (f.exists())
-								{
-									l += r.nextInt(10);
+				congested = true;
 
-									f = new File(pendingFolder, "pending_" + l + ".json");
-								}
+				this.logFailure();
+			}
+			catch (SocketException e)
+			{
+				String errorMessage = String.format(this.getContext().getString(R.string.message_socket_error),	e.getMessage());
+				this.broadcastMessage(errorMessage);
+				LogManager.getInstance(this.getContext()).logException(e);
 
-								byte[] jsonBytes = toSave.toString().getBytes("UTF-8");
+				this.logFailure();
+			}
+			catch (UnknownHostException e)
+			{
+				this.broadcastMessage(R.string.message_unreachable_error);
+				LogManager.getInstance(this.getContext()).logException(e);
 
-								EncryptionManager.getInstance().writeToEncryptedStream(me.getContext(), new FileOutputStream(f), jsonBytes, me.encryptData(prefs));
+				this.logFailure();
+			}
+			catch (JSONException e)
+			{
+				this.broadcastMessage(R.string.message_response_error);
+				LogManager.getInstance(this.getContext()).logException(e);
 
-								pendingObjects.removeAll(toRemove);
-							}
+				this.logFailure();
+			}
+			catch (SSLPeerUnverifiedException e)
+			{
+				LogManager.getInstance(this.getContext()).logException(e);
+				this.broadcastMessage(R.string.message_unverified_server);
 
-							if (wasSuccessful == false && me._failCount < MAX_RETRIES)
-							{
+				this.logFailure();
+			}
+			catch (Exception e)
+			{
+				LogManager.getInstance(this.getContext()).logException(e);
+				String errorMessage = String.format(this.getContext().getString(R.string.message_general_error), e.toString());
+				this.broadcastMessage(errorMessage);
 
-							}
-							else
-							{
-								Editor e = prefs.edit();
-								e.putLong("http_last_upload", System.currentTimeMillis());
-								e.putLong("http_last_payload_size", payloadSize);
-								e.commit();
-							}
+				this.logFailure();
+			}
+			finally
+			{
+				transport.finish(response);
+			}
 
-							String message = me.getContext().getString(R.string.notify_running);
-							String messageTitle = me.getContext().getString(R.string.notify_running_title);
-							note.setLatestEventInfo(me.getContext(), messageTitle, message, contentIntent);
-//							noteManager.notify(12345, note);
-						}
-						catch (JSONException e)
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						}
-						catch (NoSuchAlgorithmException e)
-						{
-							throw new RuntimeException(e);
-						}
-						catch (UnsupportedEncodingException e)
-						{
-							throw new RuntimeException(e);
-						}
-						catch (FileNotFoundException e)
-						{
-						}
-						catch (IOException e)
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						} 
-						catch (KeyStoreException e) 
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						}
-						catch (CertificateException e) 
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						}
-						catch (KeyManagementException e) 
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						}
-						catch (UnrecoverableKeyException e) 
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						}
-						catch (Exception e) 
-						{
-							LogManager.getInstance(me.getContext()).logException(e);
-						}
-						finally
-						{
-							me.logSuccess(wasSuccessful);
-						}
-					}
+			if (wasSuccessful)
+			{
+				log.journal().acknowledge(records);
+				log.acknowledge(batch);
 
-					me._uploading = false;
+				if (this.enableArchive(prefs))
+					this.archivePayload(this.batchPayload(records), prefs);
+			}
 
-					filenames = pendingFolder.list(new FilenameFilter()
-					{
-						public boolean accept(File dir, String filename)
-						{
-							return filename.endsWith(".json");
-						}
-					});
+			if (wasSuccessful == false && this.failCount() < MAX_RETRIES)
+			{
 
-					if (filenames == null)
-						filenames = new String[0];
-					
-					if (me._failCount < MAX_RETRIES && filenames.length > 0)
-					{
-						me._lastUpload = 0;
+			}
+			else
+			{
+				Editor e = prefs.edit();
+				e.putLong("http_last_upload", System.currentTimeMillis());
+				e.putLong("http_last_payload_size", payloadSize);
+				e.commit();
+			}
 
-						try
-						{
-							Thread.sleep(500);
-							me.uploadPendingObjects();
-						}
-						catch (InterruptedException e)
-						{
+			String message = this.getContext().getString(R.string.notify_running);
+			String messageTitle = this.getContext().getString(R.string.notify_running_title);
+			note.setLatestEventInfo(this.getContext(), messageTitle, message, contentIntent);
+//			noteManager.notify(12345, note);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch (FileNotFoundException e)
+		{
+		}
+		catch (IOException e)
+		{
+			LogManager.getInstance(this.getContext()).logException(e);
+		} 
+		catch (Exception e) 
+		{
+			LogManager.getInstance(this.getContext()).logException(e);
+		}
+		finally
+		{
+			if (wasSuccessful == false)
+				log.release(batch);
 
-						}
-					}
-					else if (me._failCount == 0)
-						me.broadcastMessage(R.string.message_reading_complete);
-				}
-			};
+			if (congested)
+				this._sizes.congested(link, sent);
 
-			Thread t = new Thread(r);
-			t.start();
+			this.adjustUploadPeriod(wasSuccessful);
 		}
 	}
-	
-	protected boolean useLiberalSsl(SharedPreferences prefs) 
-	{
-		return this.coerceBoolean(prefs, "config_http_liberal_ssl", true);
-	}
 
 	protected boolean enableArchive(SharedPreferences prefs) 
 	{
@@ -968,62 +905,192 @@ public class HttpUploadPlugin extends OutputPlugin
 		return archiveFolder;
 	}
 
+	private UploadLanes pendingLanes()
+	{
+		File pendingFolder = this.getPendingFolder();
+
+		synchronized(HttpUploadPlugin.class)
+		{
+			if (HttpUploadPlugin._lanes == null || HttpUploadPlugin._lanes.getDirectory().equals(pendingFolder) == false)
+				HttpUploadPlugin._lanes = new UploadLanes(this.getContext(), pendingFolder);
+
+			return HttpUploadPlugin._lanes;
+		}
+	}
+
+	private PayloadEncoder encodePayload(List<byte[]> records, String userHash, String operation, String encoding, String acceptEncodings) throws IOException
+	{
+		PayloadEncoder encoder = new PayloadEncoder(userHash, operation, encoding, acceptEncodings);
+
+		// Records are stored serialized, so the batch is joined without parsing.
+
+		encoder.write("[");
+
+		for (int i = 0; i < records.size(); i++)
+		{
+			if (i > 0)
+				encoder.write(",");
+
+			encoder.write(new String(records.get(i), "UTF-8"));
+		}
+
+		encoder.write("]");
+		encoder.finish();
+
+		return encoder;
+	}
+
+	private String batchPayload(List<byte[]> records) throws IOException
+	{
+		int size = 2;
+
+		for (byte[] record : records)
+		{
+			size += record.length + 1;
+		}
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream(size);
+
+		out.write('[');
+
+		for (int i = 0; i < records.size(); i++)
+		{
+			if (i > 0)
+				out.write(',');
+
+			out.write(records.get(i));
+		}
+
+		out.write(']');
+
+		return out.toString("UTF-8");
+	}
+
+	private void archivePayload(String payload, SharedPreferences prefs)
+	{
+		File archive = new File(this.getArchiveFolder(), System.currentTimeMillis() + ".archive");
+
+		try
+		{
+			EncryptionManager.getInstance().writeToEncryptedStream(this.getContext(), new FileOutputStream(archive), payload.getBytes("UTF-8"), this.encryptData(prefs));
+		}
+		catch (IOException e)
+		{
+			LogManager.getInstance(this.getContext()).logException(e);
+		}
+	}
+
+	/**
+	 * Moves pending files written by earlier versions into the record log.
+	 */
+
+	private void migratePendingFiles(UploadLanes lanes, SharedPreferences prefs)
+	{
+		File[] files = lanes.getDirectory().listFiles(new FilenameFilter()
+		{
+			public boolean accept(File dir, String filename)
+			{
+				return filename.endsWith(".json");
+			}
+		});
+
+		if (files == null)
+			return;
+
+		for (File f : files)
+		{
+			try
+			{
+				byte[] bytes = EncryptionManager.getInstance().readFromEncryptedStream(this.getContext(), new FileInputStream(f), this.encryptData(prefs));
+
+				JSONArray jsonArray = new JSONArray(new String(bytes, "UTF-8"));
+
+				ArrayList<byte[]> records = new ArrayList<byte[]>();
+
+				for (int i = 0; i < jsonArray.length(); i++)
+				{
+					records.add(jsonArray.getJSONObject(i).toString().getBytes("UTF-8"));
+				}
+
+				lanes.append(UploadLanes.NORMAL, records, this.encryptData(prefs));
+
+				f.delete();
+			}
+			catch (IOException e)
+			{
+				LogManager.getInstance(this.getContext()).logException(e);
+			}
+			catch (JSONException e)
+			{
+				LogManager.getInstance(this.getContext()).logException(e);
+
+				f.delete();
+			}
+		}
+	}
+
 	private void persistJSONObject(final JSONObject jsonObject)
 	{
 		long now = System.currentTimeMillis();
 		
 		this._lastSave = now;
 
-		File pendingFolder = this.getPendingFolder();
+		ArrayList<List<byte[]>> records = new ArrayList<List<byte[]>>();
 
-		String filename = now + ".json";
+		for (int i = 0; i <= UploadLanes.BULK; i++)
+		{
+			records.add(new ArrayList<byte[]>());
+		}
 
-		File f = new File(pendingFolder, filename);
+		long recordBytes = 0;
 
-		HashSet<String> toRemove = new HashSet<String>();
-		HashSet<String> invalidRemove = new HashSet<String>();
+		// Saves are taken out of the list before they are written, so that persists running at the same time never write the same ones.
 
-		JSONArray saveArray = new JSONArray();
+		ArrayList<PendingSave> saves = new ArrayList<PendingSave>();
 
 		synchronized (this._pendingSaves)
 		{
-			for (String jsonString : this._pendingSaves)
-			{
-				try
-				{
-					JSONObject json = new JSONObject(jsonString);
+			saves.addAll(this._pendingSaves);
 
-					if (saveArray.length() < 256)
-					{
-						saveArray.put(json);
+			this._pendingSaves.clear();
+		}
 
-						toRemove.add(jsonString);
-					}
-				}
-				catch (JSONException e)
-				{
-					LogManager.getInstance(this.getContext()).logException(e);
-					invalidRemove.add(jsonString);
-				}
-				catch (OutOfMemoryError e)
-				{
-					LogManager.getInstance(this.getContext()).logException(e);
-					invalidRemove.add(jsonString);
-				}
-			}
+		try
+		{
+			for (PendingSave save : saves)
+			{
+				byte[] record = save._json.getBytes("UTF-8");
 
-			this._pendingSaves.removeAll(invalidRemove);
+				records.get(save._lane).add(record);
+				recordBytes += record.length;
+			}
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
 		}
 
+		boolean persisted = false;
+
 		try
 		{
-			byte[] jsonBytes = saveArray.toString().getBytes("UTF-8");
-			
 			SharedPreferences prefs = HttpUploadPlugin.getPreferences(this.getContext());
 
-			EncryptionManager.getInstance().writeToEncryptedStream(this.getContext(), new FileOutputStream(f), jsonBytes, this.encryptData(prefs));
+			UploadLanes lanes = this.pendingLanes();
+
+			for (int i = 0; i < records.size(); i++)
+			{
+				if (records.get(i).isEmpty() == false)
+				{
+					lanes.append(i, records.get(i), this.encryptData(prefs));
+
+					records.get(i).clear();
+				}
+			}
+
+			persisted = true;
 			
-			this._accumulationSum += jsonBytes.length;
+			this._accumulationSum += recordBytes;
 			
 			if (now - this._lastAccumulationMeasure > 10000)
 			{
@@ -1034,30 +1101,44 @@ public class HttpUploadPlugin extends OutputPlugin
 				this._accumulationSum = 0;
 				this._lastAccumulationMeasure = now;
 			}
-			
-			synchronized (this._pendingSaves)
-			{
-				this._pendingSaves.removeAll(toRemove);
-			}
 		}
-		catch (FileNotFoundException e)
+		catch (OutOfMemoryError e)
 		{
 			LogManager.getInstance(this.getContext()).logException(e);
 		}
-		catch (UnsupportedEncodingException e)
+		catch (IOException e) 
 		{
-			throw new RuntimeException(e);
+			LogManager.getInstance(this.getContext()).logException(e);
 		}
-		catch (OutOfMemoryError e)
+
+		if (persisted == false)
 		{
-			LogManager.getInstance(this.getContext()).logException(e);
+			// Lanes that were not written go back to the front of the list, ahead of saves added since.
+
+			ArrayList<PendingSave> unsaved = new ArrayList<PendingSave>();
+
+			for (PendingSave save : saves)
+			{
+				if (records.get(save._lane).isEmpty() == false)
+					unsaved.add(save);
+			}
+
+			synchronized (this._pendingSaves)
+			{
+				this._pendingSaves.addAll(0, unsaved);
+			}
+
+			return;
 		}
-		catch (IOException e) 
+
+		int pending = 0;
+
+		synchronized (this._pendingSaves)
 		{
-			LogManager.getInstance(this.getContext()).logException(e);
+			pending = this._pendingSaves.size();
 		}
 
-		if (this._pendingSaves.size() > 128)
+		if (pending > 128)
 		{
 			this._lastSave = 0;
 			this._failCount = 0;
@@ -1242,11 +1323,9 @@ public class HttpUploadPlugin extends OutputPlugin
 		t.start();
 	}
 
-	public int pendingFilesCount()
+	private File[] legacyPendingFiles()
 	{
-		File pendingFolder = this.getPendingFolder();
-
-		String[] filenames = pendingFolder.list(new FilenameFilter()
+		File[] files = this.getPendingFolder().listFiles(new FilenameFilter()
 		{
 			public boolean accept(File dir, String filename)
 			{
@@ -1254,14 +1333,24 @@ public class HttpUploadPlugin extends OutputPlugin
 			}
 		});
 
-		if (filenames == null)
-			filenames = new String[0];
-		
-		return filenames.length;
+		if (files == null)
+			files = new File[0];
+
+		return files;
+	}
+
+	public int pendingFilesCount()
+	{
+		return this.pendingLanes().segmentCount() + this.legacyPendingFiles().length;
 	}
 
 	public static void clearFiles(Context context) 
 	{
+		synchronized(HttpUploadPlugin.class)
+		{
+			HttpUploadPlugin._lanes = null;
+		}
+
 		try 
 		{
 			File internalStorage = context.getFilesDir();
@@ -1284,19 +1373,13 @@ public class HttpUploadPlugin extends OutputPlugin
 	
 	public long pendingFilesSize() 
 	{
-		File pendingFolder = this.getPendingFolder();
+		long size = this.pendingLanes().pendingBytes();
 
-		String[] filenames = pendingFolder.list(new FilenameFilter()
+		for (File f : this.legacyPendingFiles())
 		{
-			public boolean accept(File dir, String filename)
-			{
-				return filename.endsWith(".json");
-			}
-		});
-		
-		if (filenames.length < 1024)
-			return FileUtils.sizeOf(pendingFolder);
-		
-		return 2 * 1024 * 1024 * 1024;
+			size += f.length();
+		}
+
+		return size;
 	}
-}
+}
\ No newline at end of file
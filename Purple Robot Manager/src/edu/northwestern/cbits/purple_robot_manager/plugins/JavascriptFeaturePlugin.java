@@ -3,7 +3,6 @@ package edu.northwestern.cbits.purple_robot_manager.plugins;
 import org.json.JSONException;
 
 import android.content.Intent;
-import android.os.Bundle;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 import edu.northwestern.cbits.purple_robot_manager.probes.ProbeManager;
@@ -20,10 +19,10 @@ public class JavascriptFeaturePlugin extends OutputPlugin
 
 	public void processIntent(Intent intent)
 	{
-		Bundle extras = intent.getExtras();
-
 		if (Probe.PROBE_READING.equals(intent.getAction()))
 		{
+			ReadingEnvelope envelope = ReadingEnvelope.forIntent(this.getContext(), intent);
+
 			for (Probe probe : ProbeManager.allProbes(this.getContext()))
 			{
 				if (probe instanceof JavascriptFeature)
@@ -34,7 +33,7 @@ public class JavascriptFeaturePlugin extends OutputPlugin
 					{
 						try
 						{
-							feature.processData(this.getContext(), OutputPlugin.jsonForBundle(extras));
+							feature.processData(this.getContext(), envelope.json());
 						}
 						catch (JSONException e)
 						{
@@ -4,7 +4,6 @@ import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.content.Intent;
-import android.os.Bundle;
 import android.util.Log;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -26,9 +25,7 @@ public class LogCatOutputPlugin extends OutputPlugin
 		{
 			object.put("intent_action", intent.getAction());
 
-			Bundle extras = intent.getExtras();
-
-			object.put("extras", OutputPlugin.jsonForBundle(extras));
+			object.put("extras", ReadingEnvelope.forIntent(this.getContext(), intent).json());
 
 			Log.e("PRM", "JSON OBJECT: " + object.getJSONObject("extras").getString("NAME"));
 		}
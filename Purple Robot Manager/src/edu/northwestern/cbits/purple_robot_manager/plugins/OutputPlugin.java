@@ -1,10 +1,9 @@
 package edu.northwestern.cbits.purple_robot_manager.plugins;
 
-import java.lang.reflect.InvocationTargetException;
-import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 
@@ -30,9 +29,9 @@ import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
 public abstract class OutputPlugin
 {
-	private ArrayList<Intent> _pendingIntents = new ArrayList<Intent>();
+	private LinkedList<Intent> _pendingIntents = new LinkedList<Intent>();
 	
-	private boolean _isProcessing = false;
+	private boolean _isScheduled = false;
 	
 	public static final String PAYLOAD = "edu.northwestern.cbits.purple_robot.OUTPUT_EVENT_PLUGIN";
 	public static final String OUTPUT_EVENT = "edu.northwestern.cbits.purple_robot.OUTPUT_EVENT";
@@ -82,60 +81,32 @@ public abstract class OutputPlugin
 	@SuppressWarnings("rawtypes")
 	private static List<Class> _pluginClasses = new ArrayList<Class>();
 
-	@SuppressWarnings("unchecked")
 	public static void loadPluginClasses(Context context)
 	{
 		String packageName = OutputPlugin.class.getPackage().getName();
 
 		String[] probeClasses = context.getResources().getStringArray(R.array.output_plugin_classes);
 
-		IntentFilter intentFilter = new IntentFilter();
-
 		for (String className : probeClasses)
 		{
 			try
 			{
-				@SuppressWarnings("rawtypes")
-				Class pluginClass = Class.forName(packageName + "." + className);
-
-				OutputPlugin.registerPluginClass(pluginClass);
-
-				OutputPlugin plugin = (OutputPlugin) pluginClass.newInstance();
-				
-	            Method method = pluginClass.getDeclaredMethod("respondsTo");
-
-	            String[] actions = (String[]) method.invoke(plugin, new Object[0]);
-
-	            for (String action : actions)
-	            {
-	            	if (intentFilter.hasAction(action) == false)
-	            		intentFilter.addAction(action);
-	            }
+				OutputPlugin.registerPluginClass(Class.forName(packageName + "." + className));
 			}
 			catch (ClassNotFoundException e)
 			{
 				LogManager.getInstance(context).logException(e);
 			}
-			catch (NoSuchMethodException e)
-			{
-				LogManager.getInstance(context).logException(e);
-			}
-			catch (IllegalArgumentException e)
-			{
-				LogManager.getInstance(context).logException(e);
-			}
-			catch (IllegalAccessException e)
-			{
-				LogManager.getInstance(context).logException(e);
-			}
-			catch (InvocationTargetException e)
-			{
-				LogManager.getInstance(context).logException(e);
-			}
-			catch (InstantiationException e)
-			{
-				LogManager.getInstance(context).logException(e);
-			}
+		}
+
+		OutputPluginManager.sharedInstance.buildRoutes(context);
+
+		IntentFilter intentFilter = new IntentFilter();
+
+		for (String action : OutputPluginManager.sharedInstance.routedActions())
+		{
+			if (intentFilter.hasAction(action) == false)
+				intentFilter.addAction(action);
 		}
 
 		intentFilter.addAction(OutputPlugin.OUTPUT_EVENT);
@@ -160,51 +131,77 @@ public abstract class OutputPlugin
 	public void process(final Intent intent)
 	{
 		if (this.shouldRespond(intent.getAction()))
+			OutputPluginDispatcher.getInstance(this._context).dispatch(this, intent);
+	}
+
+	/**
+	 * Appends the intent to this plugin's queue. Returns true if the caller is
+	 * responsible for scheduling a drain of the queue.
+	 */
+
+	protected boolean enqueueIntent(Intent intent)
+	{
+		synchronized(this._pendingIntents)
 		{
+			this._pendingIntents.addLast(intent);
+
+			if (this._isScheduled)
+				return false;
+
+			this._isScheduled = true;
+		}
+
+		return true;
+	}
+
+	/**
+	 * Processes up to maxIntents queued intents in arrival order. Returns true
+	 * if intents remain and the plugin should be scheduled again.
+	 */
+
+	protected boolean drainIntents(int maxIntents)
+	{
+		for (int i = 0; i < maxIntents; i++)
+		{
+			Intent nextIntent = null;
+
 			synchronized(this._pendingIntents)
 			{
-				this._pendingIntents.add(intent);
-			}
-			
-			if (this._isProcessing == false)
-			{
-				final OutputPlugin me = this;
-				
-				Runnable r = new Runnable()
-				{
-					public void run() 
-					{
-						me._isProcessing = true;
-						
-						while (me._pendingIntents.size() > 0)
-						{
-							Intent nextIntent = null;
-	
-							synchronized(me._pendingIntents)
-							{
-								if (me._pendingIntents.size() > 0)
-									nextIntent = me._pendingIntents.remove(0);
-							}
-							
-							if (nextIntent != null)
-								me.processIntent(nextIntent);
-						}
-						
-						me._isProcessing = false;
-					}
-				};
-	
-				try
-				{
-					Thread t = new Thread(r);
-					t.start();
-				}
-				catch (OutOfMemoryError e)
+				nextIntent = this._pendingIntents.poll();
+
+				if (nextIntent == null)
 				{
-         			LogManager.getInstance(this._context).logException(e);
+					this._isScheduled = false;
+
+					return false;
 				}
 			}
+
+			try
+			{
+				this.processIntent(nextIntent);
+			}
+			catch (OutOfMemoryError e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
+			catch (RuntimeException e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
 		}
+
+		synchronized(this._pendingIntents)
+		{
+			if (this._pendingIntents.isEmpty())
+			{
+				this._isScheduled = false;
+
+				return false;
+			}
+		}
+
+		return true;
 	}
 
 	public static Map<String,Object> getValues(final Bundle bundle)
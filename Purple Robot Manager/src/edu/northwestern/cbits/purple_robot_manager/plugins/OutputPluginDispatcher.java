@@ -0,0 +1,193 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
+import android.os.Build;
+import android.os.Process;
+import android.preference.PreferenceManager;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Shared, bounded pool of worker threads that drains the pending intents of
+ * every registered output plugin. Each plugin owns a single-consumer queue and
+ * is scheduled onto the pool at most once at a time, so intents are delivered
+ * to a given plugin in the order they arrived. The pool is resized when
+ * WORKER_COUNT changes.
+ */
+
+public class OutputPluginDispatcher
+{
+	public static final String WORKER_COUNT = "config_output_plugin_workers";
+	public static final int DEFAULT_WORKER_COUNT = 2;
+
+	private static final int MAX_WORKER_COUNT = 8;
+	private static final long WORKER_KEEP_ALIVE = 30000;
+
+	// Intents handled per scheduling slot before the plugin yields its worker to others.
+	private static final int DRAIN_BATCH_SIZE = 32;
+
+	private static OutputPluginDispatcher _instance = null;
+
+	private ThreadPoolExecutor _executor = null;
+	private Context _context = null;
+
+	// Preferences only hold their listeners weakly.
+	private OnSharedPreferenceChangeListener _workerCountListener = null;
+
+	private OutputPluginDispatcher(Context context, int workerCount)
+	{
+		this._context = context.getApplicationContext();
+
+		final AtomicInteger threadCount = new AtomicInteger(0);
+
+		ThreadFactory factory = new ThreadFactory()
+		{
+			public Thread newThread(final Runnable r)
+			{
+				Runnable background = new Runnable()
+				{
+					public void run()
+					{
+						Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+						r.run();
+					}
+				};
+
+				return new Thread(background, "OutputPlugin-" + threadCount.incrementAndGet());
+			}
+		};
+
+		workerCount = OutputPluginDispatcher.boundWorkerCount(workerCount);
+
+		this._executor = new ThreadPoolExecutor(workerCount, workerCount, WORKER_KEEP_ALIVE, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), factory);
+		if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+			this._executor.allowCoreThreadTimeOut(true);
+
+		final OutputPluginDispatcher me = this;
+
+		this._workerCountListener = new OnSharedPreferenceChangeListener()
+		{
+			public void onSharedPreferenceChanged(SharedPreferences prefs, String key)
+			{
+				if (OutputPluginDispatcher.WORKER_COUNT.equals(key))
+					me.setWorkerCount(OutputPluginDispatcher.configuredWorkerCount(me._context, prefs));
+			}
+		};
+
+		PreferenceManager.getDefaultSharedPreferences(this._context).registerOnSharedPreferenceChangeListener(this._workerCountListener);
+	}
+
+	public static synchronized OutputPluginDispatcher getInstance(Context context)
+	{
+		if (OutputPluginDispatcher._instance == null)
+		{
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context.getApplicationContext());
+
+			OutputPluginDispatcher._instance = new OutputPluginDispatcher(context, OutputPluginDispatcher.configuredWorkerCount(context, prefs));
+		}
+
+		return OutputPluginDispatcher._instance;
+	}
+
+	private static int configuredWorkerCount(Context context, SharedPreferences prefs)
+	{
+		int workerCount = DEFAULT_WORKER_COUNT;
+
+		try
+		{
+			workerCount = Integer.parseInt(prefs.getString(OutputPluginDispatcher.WORKER_COUNT, "" + DEFAULT_WORKER_COUNT));
+		}
+		catch (NumberFormatException e)
+		{
+			LogManager.getInstance(context).logException(e);
+		}
+		catch (ClassCastException e)
+		{
+			workerCount = prefs.getInt(OutputPluginDispatcher.WORKER_COUNT, DEFAULT_WORKER_COUNT);
+		}
+
+		return workerCount;
+	}
+
+	private static int boundWorkerCount(int workerCount)
+	{
+		if (workerCount < 1)
+			return 1;
+		else if (workerCount > MAX_WORKER_COUNT)
+			return MAX_WORKER_COUNT;
+
+		return workerCount;
+	}
+
+	public int getWorkerCount()
+	{
+		return this._executor.getMaximumPoolSize();
+	}
+
+	public synchronized void setWorkerCount(int workerCount)
+	{
+		workerCount = OutputPluginDispatcher.boundWorkerCount(workerCount);
+
+		if (workerCount > this._executor.getMaximumPoolSize())
+		{
+			this._executor.setMaximumPoolSize(workerCount);
+			this._executor.setCorePoolSize(workerCount);
+		}
+		else
+		{
+			this._executor.setCorePoolSize(workerCount);
+			this._executor.setMaximumPoolSize(workerCount);
+		}
+	}
+
+	/**
+	 * Queues the intent for the plugin and schedules a drain if the plugin is
+	 * not already running on a worker.
+	 */
+
+	public void dispatch(OutputPlugin plugin, Intent intent)
+	{
+		if (plugin.enqueueIntent(intent))
+			this.schedule(plugin);
+	}
+
+	private void schedule(final OutputPlugin plugin)
+	{
+		final OutputPluginDispatcher me = this;
+
+		Runnable r = new Runnable()
+		{
+			public void run()
+			{
+				if (plugin.drainIntents(DRAIN_BATCH_SIZE))
+					me.schedule(plugin);
+			}
+		};
+
+		try
+		{
+			this._executor.execute(r);
+		}
+		catch (RejectedExecutionException e)
+		{
+			LogManager.getInstance(this._context).logException(e);
+
+			// Nothing else would drain the intents already queued, so they are handled on this thread.
+
+			boolean remaining = true;
+
+			while (remaining)
+				remaining = plugin.drainIntents(DRAIN_BATCH_SIZE);
+		}
+	}
+}
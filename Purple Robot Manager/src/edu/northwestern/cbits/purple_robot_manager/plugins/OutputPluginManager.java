@@ -1,7 +1,15 @@
 package edu.northwestern.cbits.purple_robot_manager.plugins;
 
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 
@@ -13,22 +21,31 @@ public class OutputPluginManager extends BroadcastReceiver
 {
 	public static OutputPluginManager sharedInstance = new OutputPluginManager();
 
-	private Map<Class<OutputPlugin>, OutputPlugin> _plugins = new HashMap<Class<OutputPlugin>, OutputPlugin>();
+	private Map<Class<OutputPlugin>, OutputPlugin> _plugins = new ConcurrentHashMap<Class<OutputPlugin>, OutputPlugin>();
+
+	// Lower-cased action -> plugins responding to it. Replaced wholesale, never modified in place.
+	private volatile Map<String, OutputPlugin[]> _routes = Collections.emptyMap();
+	private volatile Set<String> _routedActions = Collections.emptySet();
+
+	private ConcurrentHashMap<String, AtomicLong> _routedCounts = new ConcurrentHashMap<String, AtomicLong>();
 
 	public OutputPlugin pluginForClass(Context context, Class<?> c)
 	{
 		OutputPlugin plugin = this._plugins.get(c);
-		
+
 		if (plugin != null)
 			return plugin;
-		
-		this.onReceive(context, null);
-		
+
+		this.buildRoutes(context);
+
 		return this._plugins.get(c);
 	}
 
-	public void onReceive(Context context, Intent intent)
+	public synchronized void buildRoutes(Context context)
 	{
+		HashMap<String, List<OutputPlugin>> routes = new HashMap<String, List<OutputPlugin>>();
+		HashSet<String> actions = new HashSet<String>();
+
 		for (Class<OutputPlugin> pluginClass : OutputPlugin.availablePluginClasses())
 		{
 			try
@@ -38,13 +55,28 @@ public class OutputPluginManager extends BroadcastReceiver
 				if (plugin == null)
 				{
 					plugin = pluginClass.newInstance();
+					plugin.setContext(context.getApplicationContext());
+
 					this._plugins.put(pluginClass, plugin);
 				}
 
-				plugin.setContext(context);
+				for (String action : plugin.respondsTo())
+				{
+					String key = action.toLowerCase(Locale.ENGLISH);
+
+					List<OutputPlugin> plugins = routes.get(key);
 
-				if (intent != null)
-					plugin.process(intent);
+					if (plugins == null)
+					{
+						plugins = new ArrayList<OutputPlugin>();
+						routes.put(key, plugins);
+					}
+
+					if (plugins.contains(plugin) == false)
+						plugins.add(plugin);
+
+					actions.add(action);
+				}
 			}
 			catch (InstantiationException e)
 			{
@@ -55,5 +87,74 @@ public class OutputPluginManager extends BroadcastReceiver
 				LogManager.getInstance(context).logException(e);
 			}
 		}
+
+		HashMap<String, OutputPlugin[]> table = new HashMap<String, OutputPlugin[]>();
+
+		for (String key : routes.keySet())
+		{
+			List<OutputPlugin> plugins = routes.get(key);
+
+			table.put(key, plugins.toArray(new OutputPlugin[plugins.size()]));
+		}
+
+		this._routes = Collections.unmodifiableMap(table);
+		this._routedActions = Collections.unmodifiableSet(actions);
+	}
+
+	public Set<String> routedActions()
+	{
+		return this._routedActions;
+	}
+
+	public int pluginCountForAction(String action)
+	{
+		OutputPlugin[] plugins = this._routes.get(action.toLowerCase(Locale.ENGLISH));
+
+		if (plugins == null)
+			return 0;
+
+		return plugins.length;
+	}
+
+	public Map<String, Long> routedCounts()
+	{
+		HashMap<String, Long> counts = new HashMap<String, Long>();
+
+		for (String action : this._routedCounts.keySet())
+		{
+			counts.put(action, this._routedCounts.get(action).get());
+		}
+
+		return counts;
+	}
+
+	public void onReceive(Context context, Intent intent)
+	{
+		if (intent == null || intent.getAction() == null)
+			return;
+
+		String key = intent.getAction().toLowerCase(Locale.ENGLISH);
+
+		OutputPlugin[] plugins = this._routes.get(key);
+
+		if (plugins == null)
+			return;
+
+		AtomicLong count = this._routedCounts.get(key);
+
+		if (count == null)
+		{
+			this._routedCounts.putIfAbsent(key, new AtomicLong());
+			count = this._routedCounts.get(key);
+		}
+
+		count.incrementAndGet();
+
+		OutputPluginDispatcher dispatcher = OutputPluginDispatcher.getInstance(context);
+
+		for (OutputPlugin plugin : plugins)
+		{
+			dispatcher.dispatch(plugin, intent);
+		}
 	}
 }
@@ -0,0 +1,711 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.text.Normalizer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.AbstractHttpEntity;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.annotation.SuppressLint;
+import android.content.SharedPreferences;
+import android.content.SharedPreferences.Editor;
+import android.os.Build;
+import android.util.Base64;
+import android.util.Base64OutputStream;
+
+/**
+ * Writes an upload message straight into a form-encoded request body
+ * (json=...). Payload text is folded to ASCII and fed to the checksum as it
+ * is written, then either escaped into the body or compressed. No copy of the
+ * payload is kept besides the body itself. The checksum always covers
+ * UserHash + Operation + the uncompressed payload: a server that accepts a
+ * compressed payload decodes it first and verifies the same checksum as for a
+ * plain one. Checksum, ContentLength and BatchId follow the Payload.
+ *
+ * Compressed payloads are sent base64 encoded (URL-safe alphabet, no padding)
+ * with an Encoding field naming the compression. Requests carry the encodings
+ * the client can send in AcceptEncodings, servers list the ones they read in
+ * the Encodings field of their responses, and the client only compresses for a
+ * server that has listed the encoding. A server that cannot decode a payload
+ * names its encoding in the EncodingError field of its error response. That,
+ * or an error response that no longer lists the encoding, marks the encoding
+ * as rejected for the server. Rejections expire after a day, and are lifted
+ * early when the server lists the encoding again after dropping it.
+ *
+ * BatchId is the MD5 of the uncompressed payload alone, so a batch that is
+ * sent again keeps its id whatever the encoding. Servers echo it in their
+ * response to acknowledge the batch.
+ */
+
+public class PayloadEncoder
+{
+	public static final String ENCODING_KEY = "Encoding";
+	public static final String ACCEPT_ENCODINGS_KEY = "AcceptEncodings";
+	public static final String ENCODINGS_KEY = "Encodings";
+	public static final String BATCH_ID_KEY = "BatchId";
+	public static final String ENCODING_ERROR_KEY = "EncodingError";
+
+	public static final String ENCODING_GZIP = "gzip";
+	public static final String ENCODING_DEFLATE = "deflate";
+
+	public static final String COMPRESS_UPLOADS = "config_http_compress";
+	public static final boolean COMPRESS_UPLOADS_DEFAULT = true;
+
+	private static final String ENCODINGS_URI = "http_upload_encodings_uri";
+	private static final String ENCODINGS_ACCEPTED = "http_upload_encodings_accepted";
+	private static final String ENCODINGS_REJECTED = "http_upload_encodings_rejected";
+
+	private static final long REJECTION_PERIOD = 24 * 60 * 60 * 1000;
+
+	// In order of preference.
+	private static final String[] ENCODINGS = { ENCODING_DEFLATE, ENCODING_GZIP };
+
+	/**
+	 * Preset dictionary for deflate payloads: keys and values common to most
+	 * readings, most frequent last. Servers must use the same bytes.
+	 */
+
+	public static final String DEFLATE_DICTIONARY = "\"IS_OBFUSCATED\":false,\"CAPABILITIES\":\"\",\"BSSID\":\"\",\"SSID\":\"\",\"LEVEL\":-,\"ACCESS_POINTS\":[{\"SPEED\":,\"BEARING\":,\"ALTITUDE\":,\"PROVIDER\":\"\",\"ACCURACY\":,\"LATITUDE\":,\"LONGITUDE\":,\"SENSOR\":{\"POWER\":,\"VENDOR\":\"\",\"RESOLUTION\":,\"NAME\":\"\",\"TYPE\":,\"VERSION\":,\"MAXIMUM_RANGE\":},\"FREQUENCY\":,\"BUFFER_SIZE\":,\"ACCURACY\":[,\"EVENT_TIMESTAMP\":[,\"X\":[,\"Y\":[,\"Z\":[,\"TIMESTAMP\":,\"GUID\":\"-\",\"PROBE\":\"edu.northwestern.cbits.purple_robot_manager.probes.builtin.";
+
+	private static final int CHUNK_SIZE = 8192;
+
+	// A JSON-escaped control character takes 8 form-encoded bytes (%5Cu00XX).
+	private static final int MAX_ESCAPED_SIZE = 8;
+
+	private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+	private String _encoding = null;
+
+	private ByteArrayOutputStream _body = new ByteArrayOutputStream();
+	private int _payloadStart = 0;
+	private int _payloadEnd = -1;
+
+	// Compressor writing through base64 into the body, if compressing.
+	private OutputStream _compressed = null;
+	private Deflater _deflater = null;
+
+	private byte[] _chunk = new byte[CHUNK_SIZE];
+	private int _chunkLength = 0;
+	private byte[] _escaped = new byte[CHUNK_SIZE * MAX_ESCAPED_SIZE];
+
+	private MessageDigest _digest = null;
+	private MessageDigest _batchDigest = null;
+	private long _prefixLength = 0;
+	private long _plainSize = 0;
+
+	private String _checksum = null;
+	private String _batchId = null;
+
+	/**
+	 * Starts a message with the given payload encoding (null for plain text)
+	 * and, unless null, the encodings to advertise to the server.
+	 */
+
+	public PayloadEncoder(String userHash, String operation, String encoding, String acceptEncodings) throws IOException
+	{
+		try
+		{
+			this._digest = MessageDigest.getInstance("MD5");
+			this._batchDigest = MessageDigest.getInstance("MD5");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		if (ENCODING_GZIP.equals(encoding) == false && ENCODING_DEFLATE.equals(encoding) == false)
+			encoding = null;
+
+		this._encoding = encoding;
+
+		byte[] prefix = (userHash + operation).getBytes("US-ASCII");
+
+		this._digest.update(prefix);
+		this._prefixLength = prefix.length;
+
+		String header = null;
+
+		try
+		{
+			JSONObject message = new JSONObject();
+
+			message.put(DataUploadPlugin.OPERATION_KEY, operation);
+			message.put(DataUploadPlugin.USER_HASH_KEY, userHash);
+
+			if (encoding != null)
+				message.put(ENCODING_KEY, encoding);
+
+			if (acceptEncodings != null)
+				message.put(ACCEPT_ENCODINGS_KEY, acceptEncodings);
+
+			header = message.toString();
+		}
+		catch (JSONException e)
+		{
+			throw new RuntimeException(e);
+		}
+
+		header = header.substring(0, header.length() - 1) + ",\"" + DataUploadPlugin.PAYLOAD_KEY + "\":\"";
+
+		this._body.write("json=".getBytes("US-ASCII"));
+		this.writeForm(header);
+
+		this._payloadStart = this._body.size();
+
+		if (encoding != null)
+		{
+			// The base64 alphabet used needs no escaping in JSON or form data.
+
+			OutputStream base64 = new Base64OutputStream(this._body, Base64.URL_SAFE | Base64.NO_WRAP | Base64.NO_PADDING);
+
+			if (ENCODING_GZIP.equals(encoding))
+				this._compressed = new GZIPOutputStream(base64, CHUNK_SIZE);
+			else
+			{
+				this._deflater = new Deflater(Deflater.BEST_COMPRESSION);
+				this._deflater.setDictionary(DEFLATE_DICTIONARY.getBytes("US-ASCII"));
+
+				this._compressed = new DeflaterOutputStream(base64, this._deflater, CHUNK_SIZE);
+			}
+		}
+	}
+
+	public String encoding()
+	{
+		return this._encoding;
+	}
+
+	/**
+	 * Appends payload text. Line breaks are dropped and other non-ASCII
+	 * characters are replaced by the ASCII part of their canonical
+	 * decomposition (so accented letters lose their accents), matching what
+	 * servers have always received.
+	 */
+
+	@SuppressLint("NewApi")
+	public void write(String text) throws IOException
+	{
+		int length = text.length();
+
+		for (int i = 0; i < length; i++)
+		{
+			char c = text.charAt(i);
+
+			if (c == '\r' || c == '\n')
+				continue;
+
+			if (c < 0x80)
+			{
+				this.put(c);
+
+				continue;
+			}
+
+			int end = i + 1;
+
+			if (Character.isHighSurrogate(c) && end < length && Character.isLowSurrogate(text.charAt(end)))
+				end += 1;
+
+			if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.GINGERBREAD)
+			{
+				String decomposed = Normalizer.normalize(text.substring(i, end), Normalizer.Form.NFD);
+
+				for (int j = 0; j < decomposed.length(); j++)
+				{
+					char d = decomposed.charAt(j);
+
+					if (d < 0x80 && d != '\r' && d != '\n')
+						this.put(d);
+				}
+			}
+			else
+				this.put('?');
+
+			i = end - 1;
+		}
+	}
+
+	private void put(char c) throws IOException
+	{
+		if (this._chunkLength == this._chunk.length)
+			this.flushChunk();
+
+		this._chunk[this._chunkLength++] = (byte) c;
+	}
+
+	private void flushChunk() throws IOException
+	{
+		this._digest.update(this._chunk, 0, this._chunkLength);
+		this._batchDigest.update(this._chunk, 0, this._chunkLength);
+		this._plainSize += this._chunkLength;
+
+		if (this._compressed != null)
+			this._compressed.write(this._chunk, 0, this._chunkLength);
+		else
+			this.writeForm(this._chunk, this._chunkLength, true);
+
+		this._chunkLength = 0;
+	}
+
+	/**
+	 * Completes the payload and appends the checksum fields.
+	 */
+
+	public void finish() throws IOException
+	{
+		this.flushChunk();
+
+		if (this._compressed != null)
+		{
+			// Closing flushes the last base64 quantum; closing the body buffer does nothing.
+
+			this._compressed.close();
+			this._compressed = null;
+		}
+
+		if (this._deflater != null)
+		{
+			this._deflater.end();
+			this._deflater = null;
+		}
+
+		this._checksum = PayloadEncoder.hex(this._digest.digest());
+		this._batchId = PayloadEncoder.hex(this._batchDigest.digest());
+
+		this._payloadEnd = this._body.size();
+
+		this.writeForm("\",\"" + DataUploadPlugin.CHECKSUM_KEY + "\":\"" + this._checksum + "\",\"" + DataUploadPlugin.CONTENT_LENGTH_KEY + "\":" + this.contentLength() + ",\"" + BATCH_ID_KEY + "\":\"" + this._batchId + "\"}");
+	}
+
+	private static String hex(byte[] digest)
+	{
+		String hex = (new BigInteger(1, digest)).toString(16);
+
+		while (hex.length() < 32)
+			hex = "0" + hex;
+
+		return hex;
+	}
+
+	private void writeForm(String text) throws IOException
+	{
+		byte[] bytes = text.getBytes("US-ASCII");
+
+		for (int offset = 0; offset < bytes.length; offset += CHUNK_SIZE)
+		{
+			int length = Math.min(CHUNK_SIZE, bytes.length - offset);
+
+			System.arraycopy(bytes, offset, this._chunk, 0, length);
+
+			this.writeForm(this._chunk, length, false);
+		}
+	}
+
+	/**
+	 * Form-encodes ASCII bytes into the body, escaping them for a JSON string
+	 * first if jsonString is set.
+	 */
+
+	private void writeForm(byte[] bytes, int length, boolean jsonString)
+	{
+		byte[] out = this._escaped;
+		int position = 0;
+
+		for (int i = 0; i < length; i++)
+		{
+			int b = bytes[i];
+
+			if (jsonString)
+			{
+				if (b == '"' || b == '\\')
+				{
+					position = PayloadEncoder.formEncode(out, position, '\\');
+				}
+				else if (b < 0x20)
+				{
+					position = PayloadEncoder.formEncode(out, position, '\\');
+					position = PayloadEncoder.formEncode(out, position, 'u');
+					position = PayloadEncoder.formEncode(out, position, '0');
+					position = PayloadEncoder.formEncode(out, position, '0');
+					position = PayloadEncoder.formEncode(out, position, HEX[(b >> 4) & 0x0f]);
+					position = PayloadEncoder.formEncode(out, position, HEX[b & 0x0f]);
+
+					continue;
+				}
+			}
+
+			position = PayloadEncoder.formEncode(out, position, b);
+		}
+
+		this._body.write(out, 0, position);
+	}
+
+	private static int formEncode(byte[] out, int position, int b)
+	{
+		if ((b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z') || (b >= '0' && b <= '9') || b == '.' || b == '-' || b == '*' || b == '_')
+			out[position++] = (byte) b;
+		else if (b == ' ')
+			out[position++] = '+';
+		else
+		{
+			out[position++] = '%';
+			out[position++] = HEX[(b >> 4) & 0x0f];
+			out[position++] = HEX[b & 0x0f];
+		}
+
+		return position;
+	}
+
+	/**
+	 * Size of the uncompressed payload in bytes.
+	 */
+
+	public long plainSize()
+	{
+		return this._plainSize;
+	}
+
+	/**
+	 * Size of the payload as compressed, before base64 encoding. Exact once
+	 * finish() has been called.
+	 */
+
+	public long encodedSize()
+	{
+		if (this._encoding == null)
+			return this._plainSize;
+
+		int payloadEnd = this._payloadEnd;
+
+		// Before finish() the body ends with the payload written so far.
+
+		if (payloadEnd < 0)
+			payloadEnd = this._body.size();
+
+		return ((long) (payloadEnd - this._payloadStart)) * 3 / 4;
+	}
+
+	/**
+	 * Length of the checksummed string, reported as ContentLength.
+	 */
+
+	public long contentLength()
+	{
+		return this._prefixLength + this._plainSize;
+	}
+
+	public String checksum()
+	{
+		return this._checksum;
+	}
+
+	public String batchId()
+	{
+		return this._batchId;
+	}
+
+	/**
+	 * The finished request body.
+	 */
+
+	public HttpEntity entity()
+	{
+		final ByteArrayOutputStream body = this._body;
+
+		AbstractHttpEntity entity = new AbstractHttpEntity()
+		{
+			public boolean isRepeatable()
+			{
+				return true;
+			}
+
+			public long getContentLength()
+			{
+				return body.size();
+			}
+
+			public InputStream getContent()
+			{
+				return new ByteArrayInputStream(body.toByteArray());
+			}
+
+			public void writeTo(OutputStream out) throws IOException
+			{
+				body.writeTo(out);
+				out.flush();
+			}
+
+			public boolean isStreaming()
+			{
+				return false;
+			}
+		};
+
+		entity.setContentType("application/x-www-form-urlencoded");
+
+		return entity;
+	}
+
+	private static boolean compressUploads(SharedPreferences prefs)
+	{
+		try
+		{
+			return prefs.getBoolean(COMPRESS_UPLOADS, COMPRESS_UPLOADS_DEFAULT);
+		}
+		catch (ClassCastException e)
+		{
+			return "false".equals(prefs.getString(COMPRESS_UPLOADS, "" + COMPRESS_UPLOADS_DEFAULT).toLowerCase(Locale.ENGLISH)) == false;
+		}
+	}
+
+	private static List<String> parseEncodings(String list)
+	{
+		ArrayList<String> encodings = new ArrayList<String>();
+
+		for (String encoding : list.split(","))
+		{
+			encoding = encoding.trim().toLowerCase(Locale.ENGLISH);
+
+			if (encoding.length() > 0)
+				encodings.add(encoding);
+		}
+
+		return encodings;
+	}
+
+	private static String joinEncodings(List<String> encodings)
+	{
+		StringBuilder sb = new StringBuilder();
+
+		for (String item : encodings)
+		{
+			if (sb.length() > 0)
+				sb.append(",");
+
+			sb.append(item);
+		}
+
+		return sb.toString();
+	}
+
+	private static List<String> storedEncodings(SharedPreferences prefs, String uri, String key)
+	{
+		if (uri.equals(prefs.getString(ENCODINGS_URI, null)))
+			return PayloadEncoder.parseEncodings(prefs.getString(key, ""));
+
+		return new ArrayList<String>();
+	}
+
+	/**
+	 * The encoding of a stored rejection (encoding@time), or null once it has
+	 * expired. Rejections stored by earlier versions carry no time and count as
+	 * expired.
+	 */
+
+	private static String rejectedEncoding(String rejection, long now)
+	{
+		int split = rejection.indexOf('@');
+
+		if (split <= 0)
+			return null;
+
+		try
+		{
+			if (now - Long.parseLong(rejection.substring(split + 1)) < REJECTION_PERIOD)
+				return rejection.substring(0, split);
+		}
+		catch (NumberFormatException e)
+		{
+
+		}
+
+		return null;
+	}
+
+	private static List<String> rejectedEncodings(SharedPreferences prefs, String uri)
+	{
+		ArrayList<String> rejected = new ArrayList<String>();
+
+		long now = System.currentTimeMillis();
+
+		for (String rejection : PayloadEncoder.storedEncodings(prefs, uri, ENCODINGS_REJECTED))
+		{
+			String encoding = PayloadEncoder.rejectedEncoding(rejection, now);
+
+			if (encoding != null)
+				rejected.add(encoding);
+		}
+
+		return rejected;
+	}
+
+	/**
+	 * Encodings to advertise to the server at uri, or null if uploads are not
+	 * compressed.
+	 */
+
+	public static String acceptEncodings(SharedPreferences prefs, String uri)
+	{
+		if (PayloadEncoder.compressUploads(prefs) == false)
+			return null;
+
+		List<String> rejected = PayloadEncoder.rejectedEncodings(prefs, uri);
+
+		StringBuilder sb = new StringBuilder();
+
+		for (String encoding : ENCODINGS)
+		{
+			if (rejected.contains(encoding) == false)
+			{
+				if (sb.length() > 0)
+					sb.append(",");
+
+				sb.append(encoding);
+			}
+		}
+
+		if (sb.length() == 0)
+			return null;
+
+		return sb.toString();
+	}
+
+	/**
+	 * The preferred encoding that the server at uri has listed and not
+	 * rejected since, or null to send plain text.
+	 */
+
+	public static String negotiatedEncoding(SharedPreferences prefs, String uri)
+	{
+		if (PayloadEncoder.compressUploads(prefs) == false)
+			return null;
+
+		List<String> accepted = PayloadEncoder.storedEncodings(prefs, uri, ENCODINGS_ACCEPTED);
+		List<String> rejected = PayloadEncoder.rejectedEncodings(prefs, uri);
+
+		for (String encoding : ENCODINGS)
+		{
+			if (accepted.contains(encoding) && rejected.contains(encoding) == false)
+				return encoding;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Records the encodings listed in a response from the server at uri.
+	 */
+
+	public static void updateEncodings(SharedPreferences prefs, String uri, JSONObject response) throws JSONException
+	{
+		String encodings = "";
+
+		if (response.has(ENCODINGS_KEY))
+			encodings = response.getString(ENCODINGS_KEY);
+
+		boolean sameUri = uri.equals(prefs.getString(ENCODINGS_URI, null));
+
+		if (sameUri && encodings.equals(prefs.getString(ENCODINGS_ACCEPTED, "")))
+			return;
+
+		Editor e = prefs.edit();
+
+		if (sameUri == false)
+		{
+			e.putString(ENCODINGS_URI, uri);
+			e.remove(ENCODINGS_REJECTED);
+		}
+		else
+		{
+			// A server that lists an encoding again after dropping it (after an
+			// upgrade, say) gets another chance with it.
+
+			List<String> listed = PayloadEncoder.parseEncodings(encodings);
+			List<String> previous = PayloadEncoder.storedEncodings(prefs, uri, ENCODINGS_ACCEPTED);
+
+			ArrayList<String> rejections = new ArrayList<String>();
+
+			long now = System.currentTimeMillis();
+
+			for (String rejection : PayloadEncoder.storedEncodings(prefs, uri, ENCODINGS_REJECTED))
+			{
+				String encoding = PayloadEncoder.rejectedEncoding(rejection, now);
+
+				if (encoding != null && (listed.contains(encoding) == false || previous.contains(encoding)))
+					rejections.add(rejection);
+			}
+
+			e.putString(ENCODINGS_REJECTED, PayloadEncoder.joinEncodings(rejections));
+		}
+
+		e.putString(ENCODINGS_ACCEPTED, encodings);
+		e.commit();
+	}
+
+	/**
+	 * Whether an error response to a payload sent in encoding means the server
+	 * could not decode it: the response names the encoding in EncodingError,
+	 * or no longer lists it. Other errors say nothing about the encoding.
+	 */
+
+	public static boolean encodingFailed(JSONObject response, String encoding) throws JSONException
+	{
+		if (response.has(ENCODING_ERROR_KEY) && encoding.equalsIgnoreCase(response.getString(ENCODING_ERROR_KEY)))
+			return true;
+
+		String encodings = "";
+
+		if (response.has(ENCODINGS_KEY))
+			encodings = response.getString(ENCODINGS_KEY);
+
+		return PayloadEncoder.parseEncodings(encodings).contains(encoding) == false;
+	}
+
+	/**
+	 * Stops compressing with encoding for the server at uri for a while, after
+	 * it failed to decode a payload in that encoding.
+	 */
+
+	public static void rejectEncoding(SharedPreferences prefs, String uri, String encoding)
+	{
+		ArrayList<String> rejections = new ArrayList<String>();
+
+		long now = System.currentTimeMillis();
+
+		for (String rejection : PayloadEncoder.storedEncodings(prefs, uri, ENCODINGS_REJECTED))
+		{
+			String rejected = PayloadEncoder.rejectedEncoding(rejection, now);
+
+			if (rejected != null && rejected.equals(encoding) == false)
+				rejections.add(rejection);
+		}
+
+		rejections.add(encoding + "@" + now);
+
+		Editor e = prefs.edit();
+
+		if (uri.equals(prefs.getString(ENCODINGS_URI, null)) == false)
+		{
+			e.putString(ENCODINGS_URI, uri);
+			e.remove(ENCODINGS_ACCEPTED);
+		}
+
+		e.putString(ENCODINGS_REJECTED, PayloadEncoder.joinEncodings(rejections));
+		e.commit();
+	}
+}
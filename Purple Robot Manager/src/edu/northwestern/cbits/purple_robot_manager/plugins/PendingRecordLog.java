@@ -0,0 +1,745 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.TreeMap;
+
+import javax.crypto.Cipher;
+
+import android.content.Context;
+import edu.northwestern.cbits.purple_robot_manager.EncryptionManager;
+
+/**
+ * Append-only log of pre-serialized records waiting for upload. Records are
+ * written to segment files as length-prefixed frames, each encrypted on its
+ * own, next to an index file holding every record's stored and plain size.
+ * Upload batches are picked from the index and read back as byte ranges, and
+ * acknowledged records are trimmed by moving a segment's head pointer. A
+ * segment is deleted once all of its records have been acknowledged.
+ *
+ * Segment file: int magic, int flags, then for each record an int length
+ * followed by the stored bytes. Index file: an int stored length and an int
+ * plain length per record. Head file: the first unacknowledged record and its
+ * offset in the segment file.
+ */
+
+public class PendingRecordLog
+{
+	private static final int MAGIC = 0x50524c47;
+	private static final int FLAG_ENCRYPTED = 1;
+	private static final int HEADER_SIZE = 8;
+
+	private static final String LOG_SUFFIX = ".log";
+	private static final String INDEX_SUFFIX = ".idx";
+	private static final String HEAD_SUFFIX = ".head";
+	private static final String TEMP_SUFFIX = ".tmp";
+
+	public static final long MAX_SEGMENT_SIZE = 262144;
+
+	private static class Segment
+	{
+		private long _sequence = 0;
+		private File _log = null;
+		private File _index = null;
+		private File _head = null;
+
+		private boolean _encrypted = false;
+
+		private int _count = 0;
+		private long _length = HEADER_SIZE;
+
+		// Loaded on first read.
+		private int[] _stored = null;
+		private int[] _plain = null;
+
+		// First unacknowledged record and first record not handed out yet.
+		private int _first = 0;
+		private long _firstOffset = HEADER_SIZE;
+		private int _next = 0;
+		private long _nextOffset = HEADER_SIZE;
+
+		// Acknowledged records past the head, by first record.
+		private TreeMap<Integer, Integer> _acknowledged = new TreeMap<Integer, Integer>();
+
+		private Segment(File directory, long sequence)
+		{
+			this._sequence = sequence;
+
+			this._log = new File(directory, sequence + LOG_SUFFIX);
+			this._index = new File(directory, sequence + INDEX_SUFFIX);
+			this._head = new File(directory, sequence + HEAD_SUFFIX);
+		}
+
+		private void loadIndex() throws IOException
+		{
+			if (this._stored != null)
+				return;
+
+			int[] stored = new int[Math.max(16, this._count)];
+			int[] plain = new int[stored.length];
+
+			DataInputStream in = new DataInputStream(new FileInputStream(this._index));
+
+			try
+			{
+				for (int i = 0; i < this._count; i++)
+				{
+					stored[i] = in.readInt();
+					plain[i] = in.readInt();
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+
+			this._stored = stored;
+			this._plain = plain;
+		}
+
+		private void addRecord(int stored, int plain)
+		{
+			if (this._stored != null)
+			{
+				if (this._count == this._stored.length)
+				{
+					int[] newStored = new int[this._count * 2];
+					int[] newPlain = new int[this._count * 2];
+
+					System.arraycopy(this._stored, 0, newStored, 0, this._count);
+					System.arraycopy(this._plain, 0, newPlain, 0, this._count);
+
+					this._stored = newStored;
+					this._plain = newPlain;
+				}
+
+				this._stored[this._count] = stored;
+				this._plain[this._count] = plain;
+			}
+
+			this._count += 1;
+			this._length += 4 + stored;
+		}
+
+		private long pendingBytes()
+		{
+			return this._length - this._firstOffset;
+		}
+
+		private void writeHead() throws IOException
+		{
+			File temp = new File(this._head.getPath() + TEMP_SUFFIX);
+
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+
+			try
+			{
+				out.writeInt(this._first);
+				out.writeLong(this._firstOffset);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			if (temp.renameTo(this._head) == false)
+				throw new IOException("Unable to move " + temp + " to " + this._head);
+		}
+
+		private void delete()
+		{
+			this._log.delete();
+			this._index.delete();
+			this._head.delete();
+		}
+	}
+
+	private static class Range
+	{
+		private Segment segment = null;
+		private int first = 0;
+		private int count = 0;
+		private long offset = 0;
+		private long length = 0;
+	}
+
+	/**
+	 * Records handed out for upload. A batch is either acknowledged or released
+	 * for a later retry.
+	 */
+
+	public static class Batch
+	{
+		private ArrayList<Range> _ranges = new ArrayList<Range>();
+		private int _count = 0;
+		private long _size = 0;
+
+		public int count()
+		{
+			return this._count;
+		}
+
+		/**
+		 * Total plain size of the batch's records, in bytes.
+		 */
+
+		public long size()
+		{
+			return this._size;
+		}
+	}
+
+	private Context _context = null;
+	private File _directory = null;
+
+	private ArrayList<Segment> _segments = new ArrayList<Segment>();
+	private Segment _writer = null;
+
+	private LinkedList<Batch> _released = new LinkedList<Batch>();
+
+	public PendingRecordLog(Context context, File directory)
+	{
+		this._context = context.getApplicationContext();
+		this._directory = directory;
+
+		this._directory.mkdirs();
+
+		this.load();
+	}
+
+	public File getDirectory()
+	{
+		return this._directory;
+	}
+
+	private void load()
+	{
+		File[] files = this._directory.listFiles();
+
+		if (files == null)
+			return;
+
+		for (File file : files)
+		{
+			String name = file.getName();
+
+			if (name.endsWith(TEMP_SUFFIX))
+				file.delete();
+			else if (name.endsWith(LOG_SUFFIX))
+			{
+				try
+				{
+					long sequence = Long.parseLong(name.substring(0, name.length() - LOG_SUFFIX.length()));
+
+					Segment segment = this.openSegment(sequence);
+
+					if (segment != null)
+						this._segments.add(segment);
+				}
+				catch (NumberFormatException e)
+				{
+					file.delete();
+				}
+			}
+		}
+
+		Collections.sort(this._segments, new Comparator<Segment>()
+		{
+			public int compare(Segment one, Segment two)
+			{
+				if (one._sequence < two._sequence)
+					return -1;
+				else if (one._sequence > two._sequence)
+					return 1;
+
+				return 0;
+			}
+		});
+	}
+
+	private Segment openSegment(long sequence)
+	{
+		Segment segment = new Segment(this._directory, sequence);
+
+		try
+		{
+			RandomAccessFile log = new RandomAccessFile(segment._log, "rw");
+
+			try
+			{
+				if (log.length() < HEADER_SIZE || log.readInt() != MAGIC)
+				{
+					log.close();
+					segment.delete();
+
+					return null;
+				}
+
+				segment._encrypted = (log.readInt() & FLAG_ENCRYPTED) != 0;
+
+				// Keep the records the index describes completely. A frame written
+				// without its index entry is cut off.
+
+				DataInputStream index = new DataInputStream(new FileInputStream(segment._index));
+
+				try
+				{
+					long entries = segment._index.length() / 8;
+
+					for (long i = 0; i < entries; i++)
+					{
+						int stored = index.readInt();
+						index.readInt();
+
+						if (segment._length + 4 + stored > log.length())
+							break;
+
+						segment.addRecord(stored, 0);
+					}
+				}
+				finally
+				{
+					index.close();
+				}
+
+				if (log.length() > segment._length)
+					log.setLength(segment._length);
+			}
+			finally
+			{
+				log.close();
+			}
+
+			if (segment._head.exists())
+			{
+				DataInputStream head = new DataInputStream(new FileInputStream(segment._head));
+
+				try
+				{
+					segment._first = Math.min(head.readInt(), segment._count);
+					segment._firstOffset = head.readLong();
+				}
+				finally
+				{
+					head.close();
+				}
+			}
+
+			segment._next = segment._first;
+			segment._nextOffset = segment._firstOffset;
+
+			if (segment._first >= segment._count)
+			{
+				segment.delete();
+
+				return null;
+			}
+
+			return segment;
+		}
+		catch (IOException e)
+		{
+			segment.delete();
+
+			return null;
+		}
+	}
+
+	/**
+	 * Appends records to the newest segment, starting a new one when it is full
+	 * or was written with a different encryption setting.
+	 */
+
+	public synchronized void append(List<byte[]> records, boolean encrypt) throws IOException
+	{
+		if (records.size() == 0)
+			return;
+
+		Segment segment = this._writer;
+
+		if (segment == null || segment._encrypted != encrypt || segment._length >= MAX_SEGMENT_SIZE || segment._log.exists() == false)
+			segment = this.createSegment(encrypt);
+
+		Cipher cipher = null;
+
+		if (encrypt)
+			cipher = EncryptionManager.getInstance().encryptCipher(this._context, true);
+
+		DataOutputStream log = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment._log, true)));
+		DataOutputStream index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(segment._index, true)));
+
+		try
+		{
+			for (byte[] record : records)
+			{
+				byte[] stored = record;
+
+				if (cipher != null)
+					stored = cipher.doFinal(record);
+
+				log.writeInt(stored.length);
+				log.write(stored);
+
+				index.writeInt(stored.length);
+				index.writeInt(record.length);
+
+				segment.addRecord(stored.length, record.length);
+			}
+		}
+		catch (GeneralSecurityException e)
+		{
+			throw new IOException(e.toString());
+		}
+		finally
+		{
+			log.close();
+			index.close();
+		}
+	}
+
+	private Segment createSegment(boolean encrypt) throws IOException
+	{
+		long sequence = System.currentTimeMillis();
+
+		if (this._segments.size() > 0)
+			sequence = Math.max(sequence, this._segments.get(this._segments.size() - 1)._sequence + 1);
+
+		Segment segment = new Segment(this._directory, sequence);
+		segment._encrypted = encrypt;
+		segment._stored = new int[16];
+		segment._plain = new int[16];
+
+		DataOutputStream out = new DataOutputStream(new FileOutputStream(segment._log));
+
+		try
+		{
+			out.writeInt(MAGIC);
+			out.writeInt(encrypt ? FLAG_ENCRYPTED : 0);
+		}
+		finally
+		{
+			out.close();
+		}
+
+		new FileOutputStream(segment._index).close();
+
+		// The previous segment stays while it is being written, even if fully acknowledged.
+
+		Segment previous = this._writer;
+
+		if (previous != null && previous._first >= previous._count)
+		{
+			this._segments.remove(previous);
+
+			previous.delete();
+		}
+
+		this._segments.add(segment);
+		this._writer = segment;
+
+		return segment;
+	}
+
+	/**
+	 * Hands out the oldest records not yet handed out, up to maxSize plain
+	 * bytes but at least one record. Released batches are handed out again
+	 * first, split if they are larger than maxSize. Returns null if nothing is
+	 * waiting.
+	 */
+
+	public synchronized Batch next(long maxSize) throws IOException
+	{
+		return this.next(maxSize, true);
+	}
+
+	/**
+	 * As next(maxSize), but if atLeastOne is false a first record larger than
+	 * maxSize is left waiting and null is returned.
+	 */
+
+	public synchronized Batch next(long maxSize, boolean atLeastOne) throws IOException
+	{
+		if (this._released.isEmpty() == false)
+		{
+			Batch released = this._released.poll();
+
+			if (released._count > 1 && released._size > maxSize)
+			{
+				Batch rest = this.split(released, maxSize);
+
+				if (rest._count > 0)
+					this._released.addFirst(rest);
+			}
+
+			if (atLeastOne == false && released._size > maxSize)
+			{
+				this._released.addFirst(released);
+
+				return null;
+			}
+
+			return released;
+		}
+
+		Batch batch = new Batch();
+
+		for (Segment segment : new ArrayList<Segment>(this._segments))
+		{
+			if (segment._next >= segment._count)
+				continue;
+
+			if (segment._log.exists() == false)
+			{
+				this._segments.remove(segment);
+
+				continue;
+			}
+
+			segment.loadIndex();
+
+			Range range = new Range();
+			range.segment = segment;
+			range.first = segment._next;
+			range.offset = segment._nextOffset;
+
+			while (segment._next < segment._count && ((atLeastOne && batch._count == 0) || batch._size + segment._plain[segment._next] <= maxSize))
+			{
+				int stored = segment._stored[segment._next];
+
+				range.count += 1;
+				range.length += 4 + stored;
+
+				batch._count += 1;
+				batch._size += segment._plain[segment._next];
+
+				segment._next += 1;
+				segment._nextOffset += 4 + stored;
+			}
+
+			if (range.count > 0)
+				batch._ranges.add(range);
+
+			if (segment._next < segment._count)
+				break;
+		}
+
+		if (batch._count == 0)
+			return null;
+
+		return batch;
+	}
+
+	/**
+	 * Keeps the leading records of a handed out batch up to maxSize plain
+	 * bytes (at least one) and returns the others as a new batch.
+	 */
+
+	private Batch split(Batch batch, long maxSize)
+	{
+		Batch rest = new Batch();
+
+		ArrayList<Range> ranges = batch._ranges;
+
+		batch._ranges = new ArrayList<Range>();
+		batch._count = 0;
+		batch._size = 0;
+
+		for (Range range : ranges)
+		{
+			Segment segment = range.segment;
+
+			Range kept = new Range();
+			kept.segment = segment;
+			kept.first = range.first;
+			kept.offset = range.offset;
+
+			Range moved = null;
+
+			for (int i = range.first; i < range.first + range.count; i++)
+			{
+				int stored = segment._stored[i];
+				int plain = segment._plain[i];
+
+				if (rest._count == 0 && (batch._count == 0 || batch._size + plain <= maxSize))
+				{
+					kept.count += 1;
+					kept.length += 4 + stored;
+
+					batch._count += 1;
+					batch._size += plain;
+				}
+				else
+				{
+					if (moved == null)
+					{
+						moved = new Range();
+						moved.segment = segment;
+						moved.first = i;
+						moved.offset = kept.offset + kept.length;
+					}
+
+					moved.count += 1;
+					moved.length += 4 + stored;
+
+					rest._count += 1;
+					rest._size += plain;
+				}
+			}
+
+			if (kept.count > 0)
+				batch._ranges.add(kept);
+
+			if (moved != null)
+				rest._ranges.add(moved);
+		}
+
+		return rest;
+	}
+
+	/**
+	 * Reads a batch's records back in order, decrypted.
+	 */
+
+	public List<byte[]> read(Batch batch) throws IOException
+	{
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+
+		for (Range range : batch._ranges)
+		{
+			byte[] bytes = new byte[(int) range.length];
+
+			RandomAccessFile log = new RandomAccessFile(range.segment._log, "r");
+
+			try
+			{
+				log.seek(range.offset);
+				log.readFully(bytes);
+			}
+			finally
+			{
+				log.close();
+			}
+
+			Cipher cipher = null;
+
+			if (range.segment._encrypted)
+				cipher = EncryptionManager.getInstance().decryptCipher(this._context, true);
+
+			int position = 0;
+
+			for (int i = 0; i < range.count; i++)
+			{
+				int length = ((bytes[position] & 0xff) << 24) | ((bytes[position + 1] & 0xff) << 16) | ((bytes[position + 2] & 0xff) << 8) | (bytes[position + 3] & 0xff);
+
+				position += 4;
+
+				if (length < 0 || position + length > bytes.length)
+					throw new IOException("Corrupt record in " + range.segment._log);
+
+				try
+				{
+					if (cipher != null)
+						records.add(cipher.doFinal(bytes, position, length));
+					else
+					{
+						byte[] record = new byte[length];
+						System.arraycopy(bytes, position, record, 0, length);
+
+						records.add(record);
+					}
+				}
+				catch (GeneralSecurityException e)
+				{
+					throw new IOException(e.toString());
+				}
+
+				position += length;
+			}
+		}
+
+		return records;
+	}
+
+	/**
+	 * Trims the batch's records from the log.
+	 */
+
+	public synchronized void acknowledge(Batch batch) throws IOException
+	{
+		for (Range range : batch._ranges)
+		{
+			Segment segment = range.segment;
+
+			if (this._segments.contains(segment) == false)
+				continue;
+
+			segment._acknowledged.put(range.first, range.count);
+
+			boolean moved = false;
+
+			while (segment._acknowledged.containsKey(segment._first))
+			{
+				int count = segment._acknowledged.remove(segment._first);
+
+				for (int i = 0; i < count; i++)
+				{
+					segment._firstOffset += 4 + segment._stored[segment._first];
+					segment._first += 1;
+				}
+
+				moved = true;
+			}
+
+			if (segment._first >= segment._count && segment != this._writer)
+			{
+				this._segments.remove(segment);
+
+				segment.delete();
+			}
+			else if (moved)
+				segment.writeHead();
+		}
+	}
+
+	/**
+	 * Returns a batch that was not delivered so that next() hands it out again.
+	 */
+
+	public synchronized void release(Batch batch)
+	{
+		this._released.addFirst(batch);
+	}
+
+	public synchronized int segmentCount()
+	{
+		return this._segments.size();
+	}
+
+	/**
+	 * Stored bytes of the records that have not been acknowledged.
+	 */
+
+	public synchronized long pendingBytes()
+	{
+		long bytes = 0;
+
+		for (Segment segment : this._segments)
+		{
+			bytes += segment.pendingBytes();
+		}
+
+		return bytes;
+	}
+}
@@ -0,0 +1,120 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Wraps a single broadcast reading and lazily serializes it at most once per
+ * representation. Every consumer of the same intent (output plugins, the model
+ * manager) shares one envelope, so a reading is converted to JSON and Jackson
+ * output once instead of once per plugin. Returned values must be treated as
+ * read-only.
+ */
+
+public class ReadingEnvelope
+{
+	private static final JsonFactory _factory = new JsonFactory();
+
+	private static final Map<Intent, ReadingEnvelope> _envelopes = Collections.synchronizedMap(new WeakHashMap<Intent, ReadingEnvelope>());
+
+	private Context _context = null;
+	private Bundle _extras = null;
+
+	private Map<String, Object> _values = null;
+	private JSONObject _json = null;
+	private String _jsonString = null;
+	private String _jacksonString = null;
+
+	private ReadingEnvelope(Context context, Bundle extras)
+	{
+		this._context = context;
+		this._extras = extras;
+	}
+
+	public static ReadingEnvelope forIntent(Context context, Intent intent)
+	{
+		synchronized(_envelopes)
+		{
+			ReadingEnvelope envelope = _envelopes.get(intent);
+
+			if (envelope == null)
+			{
+				Bundle extras = intent.getExtras();
+
+				if (extras == null)
+					extras = new Bundle();
+
+				envelope = new ReadingEnvelope(context.getApplicationContext(), extras);
+
+				_envelopes.put(intent, envelope);
+			}
+
+			return envelope;
+		}
+	}
+
+	public Bundle getExtras()
+	{
+		return this._extras;
+	}
+
+	public synchronized Map<String, Object> values()
+	{
+		if (this._values == null)
+			this._values = Collections.unmodifiableMap(OutputPlugin.getValues(this._extras));
+
+		return this._values;
+	}
+
+	/**
+	 * The reading as JSON. The same object goes to every plugin, on several
+	 * threads at once, so callers must not modify it. Copy it, or use
+	 * jsonString(), to build on it.
+	 */
+
+	public synchronized JSONObject json() throws JSONException
+	{
+		if (this._json == null)
+			this._json = OutputPlugin.jsonForBundle(this._extras);
+
+		return this._json;
+	}
+
+	public synchronized String jsonString() throws JSONException
+	{
+		if (this._jsonString == null)
+			this._jsonString = this.json().toString();
+
+		return this._jsonString;
+	}
+
+	public synchronized String jacksonString() throws IOException
+	{
+		if (this._jacksonString == null)
+		{
+			StringWriter outputWriter = new StringWriter();
+
+			JsonGenerator generator = _factory.createGenerator(outputWriter);
+
+			StreamingJacksonUploadPlugin.writeBundle(this._context, generator, this._extras);
+			generator.close();
+
+			this._jacksonString = outputWriter.toString();
+		}
+
+		return this._jacksonString;
+	}
+}
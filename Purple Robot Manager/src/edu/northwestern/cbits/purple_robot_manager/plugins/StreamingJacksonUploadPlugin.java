@@ -141,7 +141,9 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
 			}
 			else if (Probe.PROBE_READING.equals(action))
 			{
-				Bundle extras = intent.getExtras();
+				ReadingEnvelope envelope = ReadingEnvelope.forIntent(context, intent);
+
+				Bundle extras = envelope.getExtras();
 				
 				if (extras.containsKey(DataUploadPlugin.TRANSMIT_KEY) && extras.getBoolean(DataUploadPlugin.TRANSMIT_KEY) == false)
 				{
@@ -212,7 +214,7 @@ public class StreamingJacksonUploadPlugin extends DataUploadPlugin
 							this._generator.writeStartArray();
 						}
 						
-						StreamingJacksonUploadPlugin.writeBundle(this.getContext(), this._generator, extras);
+						this._generator.writeRawValue(envelope.jacksonString());
 						this._generator.flush();
 					} 
 					catch (IOException e) 
@@ -26,6 +26,10 @@ public class TriggerOutputPlugin extends OutputPlugin
 	{
 		Context context = this.getContext();
 
+		ReadingEnvelope envelope = ReadingEnvelope.forIntent(context, intent);
+
+		String probeName = envelope.getExtras().getString("PROBE");
+
 		synchronized(this)
 		{
 			List<Trigger> triggers = new ArrayList<Trigger>();
@@ -39,7 +43,7 @@ public class TriggerOutputPlugin extends OutputPlugin
 	
 					try
 					{
-						if (probeTrigger.matchesProbe(intent.getExtras().getString("PROBE")) &&  probeTrigger.matches(context, OutputPlugin.jsonForBundle(intent.getExtras())))
+						if (probeTrigger.matchesProbe(probeName) && probeTrigger.matches(context, envelope.json()))
 							trigger.execute(context, false);
 					}
 					catch (JSONException e)
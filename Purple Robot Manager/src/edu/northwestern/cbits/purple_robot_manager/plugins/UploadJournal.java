@@ -0,0 +1,325 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Remembers the GUIDs of readings the server has acknowledged, so that a
+ * reading is not uploaded again after its acknowledgement was recorded here
+ * but not yet trimmed from the pending log (or when it reappears from legacy
+ * pending files).
+ *
+ * The GUIDs are kept in two generations of GENERATION_SIZE readings, each a
+ * bloom filter in memory and a file of 64-bit GUID digests on disk from which
+ * the filter is rebuilt at startup. When the current generation is full the
+ * older one is dropped. At full generations a reading that was never
+ * acknowledged matches with a probability of about 1 in 130 million, and such
+ * a reading would be dropped.
+ *
+ * Generation file: one long per GUID, the first 8 bytes of the MD5 of the
+ * GUID string.
+ */
+
+public class UploadJournal
+{
+	private static final int BITS = 1 << 20;
+	private static final int HASHES = 20;
+	private static final int GENERATION_SIZE = 25000;
+
+	private static final String PREFIX = "acknowledged_";
+	private static final String SUFFIX = ".guids";
+
+	private static final byte[] GUID_KEY = { '"', 'G', 'U', 'I', 'D', '"', ':', '"' };
+
+	private File _directory = null;
+
+	// Current generation first.
+	private long[][] _filters = new long[2][BITS / 64];
+	private int _count = 0;
+	private long _generation = 0;
+
+	public UploadJournal(File directory)
+	{
+		this._directory = directory;
+
+		ArrayList<Long> generations = new ArrayList<Long>();
+
+		File[] files = directory.listFiles();
+
+		if (files != null)
+		{
+			for (File file : files)
+			{
+				String name = file.getName();
+
+				if (name.startsWith(PREFIX) && name.endsWith(SUFFIX))
+				{
+					try
+					{
+						generations.add(Long.valueOf(name.substring(PREFIX.length(), name.length() - SUFFIX.length())));
+					}
+					catch (NumberFormatException e)
+					{
+						file.delete();
+					}
+				}
+			}
+		}
+
+		Collections.sort(generations);
+
+		for (int i = 0; i < generations.size(); i++)
+		{
+			long generation = generations.get(i).longValue();
+
+			if (i < generations.size() - 2)
+				this.file(generation).delete();
+			else
+			{
+				if (i == generations.size() - 1)
+					this._generation = generation;
+
+				int filter = generations.size() - 1 - i;
+				int count = this.load(generation, this._filters[filter]);
+
+				if (filter == 0)
+					this._count = count;
+			}
+		}
+	}
+
+	private File file(long generation)
+	{
+		return new File(this._directory, PREFIX + generation + SUFFIX);
+	}
+
+	private int load(long generation, long[] filter)
+	{
+		int count = 0;
+
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(this.file(generation))));
+
+			try
+			{
+				while (true)
+				{
+					UploadJournal.set(filter, in.readLong());
+
+					count += 1;
+				}
+			}
+			catch (EOFException e)
+			{
+				// A partly written last digest is dropped with the end of the file.
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+
+		}
+
+		return count;
+	}
+
+	/**
+	 * Returns the records whose GUID has not been acknowledged. Records
+	 * without a GUID are always kept.
+	 */
+
+	public synchronized List<byte[]> unacknowledged(List<byte[]> records)
+	{
+		ArrayList<byte[]> kept = new ArrayList<byte[]>(records.size());
+
+		for (byte[] record : records)
+		{
+			String guid = UploadJournal.guid(record);
+
+			if (guid == null || this.contains(UploadJournal.digest(guid)) == false)
+				kept.add(record);
+		}
+
+		return kept;
+	}
+
+	/**
+	 * Records the GUIDs of acknowledged records. Call before trimming them from
+	 * the pending log.
+	 */
+
+	public synchronized void acknowledge(List<byte[]> records) throws IOException
+	{
+		DataOutputStream out = null;
+
+		try
+		{
+			for (byte[] record : records)
+			{
+				String guid = UploadJournal.guid(record);
+
+				if (guid == null)
+					continue;
+
+				long digest = UploadJournal.digest(guid);
+
+				if (this.contains(digest))
+					continue;
+
+				if (this._count >= GENERATION_SIZE)
+				{
+					if (out != null)
+					{
+						out.close();
+						out = null;
+					}
+
+					this.rotate();
+				}
+
+				if (out == null)
+					out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(this.file(this._generation), true)));
+
+				out.writeLong(digest);
+
+				UploadJournal.set(this._filters[0], digest);
+				this._count += 1;
+			}
+		}
+		finally
+		{
+			if (out != null)
+				out.close();
+		}
+	}
+
+	private void rotate()
+	{
+		this.file(this._generation - 1).delete();
+
+		long[] older = this._filters[1];
+		Arrays.fill(older, 0);
+
+		this._filters[1] = this._filters[0];
+		this._filters[0] = older;
+
+		this._generation += 1;
+		this._count = 0;
+	}
+
+	private boolean contains(long digest)
+	{
+		return UploadJournal.test(this._filters[0], digest) || UploadJournal.test(this._filters[1], digest);
+	}
+
+	private static void set(long[] filter, long digest)
+	{
+		int first = (int) digest;
+		int second = ((int) (digest >>> 32)) | 1;
+
+		for (int i = 0; i < HASHES; i++)
+		{
+			int bit = (first + i * second) & (BITS - 1);
+
+			filter[bit >>> 6] |= 1L << (bit & 63);
+		}
+	}
+
+	private static boolean test(long[] filter, long digest)
+	{
+		int first = (int) digest;
+		int second = ((int) (digest >>> 32)) | 1;
+
+		for (int i = 0; i < HASHES; i++)
+		{
+			int bit = (first + i * second) & (BITS - 1);
+
+			if ((filter[bit >>> 6] & (1L << (bit & 63))) == 0)
+				return false;
+		}
+
+		return true;
+	}
+
+	private static long digest(String guid)
+	{
+		try
+		{
+			byte[] hash = MessageDigest.getInstance("MD5").digest(guid.getBytes("UTF-8"));
+
+			long digest = 0;
+
+			for (int i = 0; i < 8; i++)
+			{
+				digest = (digest << 8) | (hash[i] & 0xff);
+			}
+
+			return digest;
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new RuntimeException(e);
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new RuntimeException(e);
+		}
+	}
+
+	/**
+	 * Finds the first GUID field of a serialized reading without parsing it, or
+	 * returns null if it has none.
+	 */
+
+	public static String guid(byte[] record)
+	{
+		for (int i = 0; i + GUID_KEY.length < record.length; i++)
+		{
+			int j = 0;
+
+			while (j < GUID_KEY.length && record[i + j] == GUID_KEY[j])
+				j += 1;
+
+			if (j == GUID_KEY.length)
+			{
+				int start = i + j;
+				int end = start;
+
+				while (end < record.length && record[end] != '"')
+					end += 1;
+
+				if (end == record.length || end == start)
+					return null;
+
+				try
+				{
+					return new String(record, start, end - start, "UTF-8");
+				}
+				catch (UnsupportedEncodingException e)
+				{
+					throw new RuntimeException(e);
+				}
+			}
+		}
+
+		return null;
+	}
+}
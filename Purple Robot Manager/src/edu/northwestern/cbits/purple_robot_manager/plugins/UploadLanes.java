@@ -0,0 +1,268 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.preference.PreferenceManager;
+import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeManager;
+
+/**
+ * Pending upload records in priority lanes, each its own PendingRecordLog.
+ * Each batch first gives every lane its quota (a share of the batch size).
+ * Room a lane leaves unused then goes to the others in priority order.
+ *
+ * Readings from the high lane therefore fill at least half of every batch,
+ * whatever the backlog in the other lanes. A high priority record waits for at
+ * most the high lane backlog ahead of it divided by half the batch size. Bulk
+ * data still gets its share, so it drains too.
+ *
+ * The normal lane keeps the pending folder itself, where earlier versions left
+ * their records. The other lanes use subfolders.
+ *
+ * Probes choose their lane with Probe.uploadLane(). Readings that do not come
+ * from a probe, such as script readings and survey responses, go to the high
+ * lane. A string preference LANE_PREFIX + reading name, set to high, normal or
+ * bulk, overrides either.
+ */
+
+public class UploadLanes
+{
+	public static final int HIGH = 0;
+	public static final int NORMAL = 1;
+	public static final int BULK = 2;
+
+	public static final String LANE_PREFIX = "config_http_upload_lane_";
+
+	private static final String[] NAMES = { "high", "normal", "bulk" };
+	private static final double[] QUOTAS = { 0.5, 0.35, 0.15 };
+
+	private static final long LANE_CACHE_PERIOD = 300000;
+
+	private static HashMap<String, Integer> _lanes = new HashMap<String, Integer>();
+	private static long _lanesCached = 0;
+
+	/**
+	 * Records handed out together from several lanes.
+	 */
+
+	public static class Batch
+	{
+		private ArrayList<PendingRecordLog> _logs = new ArrayList<PendingRecordLog>();
+		private ArrayList<PendingRecordLog.Batch> _parts = new ArrayList<PendingRecordLog.Batch>();
+		private int _count = 0;
+		private long _size = 0;
+
+		public int count()
+		{
+			return this._count;
+		}
+
+		public long size()
+		{
+			return this._size;
+		}
+	}
+
+	private File _directory = null;
+	private PendingRecordLog[] _logs = new PendingRecordLog[NAMES.length];
+	private UploadJournal _journal = null;
+
+	public UploadLanes(Context context, File directory)
+	{
+		this._directory = directory;
+
+		for (int i = 0; i < NAMES.length; i++)
+		{
+			if (i == NORMAL)
+				this._logs[i] = new PendingRecordLog(context, directory);
+			else
+				this._logs[i] = new PendingRecordLog(context, new File(directory, NAMES[i]));
+		}
+
+		this._journal = new UploadJournal(directory);
+	}
+
+	public File getDirectory()
+	{
+		return this._directory;
+	}
+
+	public PendingRecordLog log(int lane)
+	{
+		return this._logs[lane];
+	}
+
+	/**
+	 * GUIDs of the readings the server has acknowledged.
+	 */
+
+	public UploadJournal journal()
+	{
+		return this._journal;
+	}
+
+	public void append(int lane, List<byte[]> records, boolean encrypt) throws IOException
+	{
+		this._logs[lane].append(records, encrypt);
+	}
+
+	/**
+	 * Hands out up to maxSize plain bytes across the lanes, highest priority
+	 * first. A record larger than a lane's quota or the room left is only
+	 * handed out on its own, as the first record of an empty batch. Returns
+	 * null if nothing is waiting.
+	 */
+
+	public synchronized Batch next(long maxSize) throws IOException
+	{
+		Batch batch = new Batch();
+
+		for (int i = 0; i < this._logs.length; i++)
+		{
+			this.take(batch, i, (long) (maxSize * QUOTAS[i]));
+		}
+
+		for (int i = 0; i < this._logs.length && batch._size < maxSize; i++)
+		{
+			this.take(batch, i, maxSize - batch._size);
+		}
+
+		if (batch._count == 0)
+			return null;
+
+		return batch;
+	}
+
+	private void take(Batch batch, int lane, long maxSize) throws IOException
+	{
+		PendingRecordLog.Batch part = this._logs[lane].next(maxSize, batch._count == 0);
+
+		if (part != null)
+		{
+			batch._logs.add(this._logs[lane]);
+			batch._parts.add(part);
+
+			batch._count += part.count();
+			batch._size += part.size();
+		}
+	}
+
+	/**
+	 * Reads a batch's records back, highest priority first.
+	 */
+
+	public List<byte[]> read(Batch batch) throws IOException
+	{
+		ArrayList<byte[]> records = new ArrayList<byte[]>();
+
+		for (int i = 0; i < batch._parts.size(); i++)
+		{
+			records.addAll(batch._logs.get(i).read(batch._parts.get(i)));
+		}
+
+		return records;
+	}
+
+	public void acknowledge(Batch batch) throws IOException
+	{
+		for (int i = 0; i < batch._parts.size(); i++)
+		{
+			batch._logs.get(i).acknowledge(batch._parts.get(i));
+		}
+	}
+
+	public void release(Batch batch)
+	{
+		// Released parts go to the front of their lane, so the last goes back first.
+
+		for (int i = batch._parts.size() - 1; i >= 0; i--)
+		{
+			batch._logs.get(i).release(batch._parts.get(i));
+		}
+	}
+
+	public int segmentCount()
+	{
+		int count = 0;
+
+		for (PendingRecordLog log : this._logs)
+		{
+			count += log.segmentCount();
+		}
+
+		return count;
+	}
+
+	public long pendingBytes()
+	{
+		long bytes = 0;
+
+		for (PendingRecordLog log : this._logs)
+		{
+			bytes += log.pendingBytes();
+		}
+
+		return bytes;
+	}
+
+	/**
+	 * Lane for readings with the given name.
+	 */
+
+	public static int laneFor(Context context, String name)
+	{
+		if (name == null)
+			return HIGH;
+
+		SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
+
+		String configured = prefs.getString(LANE_PREFIX + name, null);
+
+		if (configured != null)
+		{
+			configured = configured.trim().toLowerCase(Locale.ENGLISH);
+
+			for (int i = 0; i < NAMES.length; i++)
+			{
+				if (NAMES[i].equals(configured))
+					return i;
+			}
+		}
+
+		synchronized (UploadLanes._lanes)
+		{
+			long now = System.currentTimeMillis();
+
+			// Probes are looked up by name, which is slow for names that match none. Results are kept for a while.
+
+			if (now - UploadLanes._lanesCached > LANE_CACHE_PERIOD)
+			{
+				UploadLanes._lanes.clear();
+				UploadLanes._lanesCached = now;
+			}
+
+			Integer lane = UploadLanes._lanes.get(name);
+
+			if (lane == null)
+			{
+				Probe probe = ProbeManager.probeForName(name, context);
+
+				if (probe != null)
+					lane = Integer.valueOf(probe.uploadLane(context));
+				else
+					lane = Integer.valueOf(HIGH);
+
+				UploadLanes._lanes.put(name, lane);
+			}
+
+			return lane.intValue();
+		}
+	}
+}
@@ -0,0 +1,129 @@
+package edu.northwestern.cbits.purple_robot_manager.plugins;
+
+/**
+ * Sizes upload batches the way TCP sizes its congestion window, with separate
+ * state for Wi-Fi and mobile links. The size doubles with each delivered batch
+ * until the first congestion signal, then grows by one minimum size per
+ * delivery. A timeout or server error halves it and ends the doubling phase
+ * at the halved size. Like TCP, which halves once per window, it halves once
+ * per congestion event: failures of batches sent before the last reduction
+ * are ignored.
+ *
+ * Each link also keeps a moving average of the throughput of delivered
+ * batches, and the size never exceeds what that throughput moves in
+ * TARGET_DURATION. This keeps a batch on a slow link well inside the socket
+ * timeout, where losing it costs the most.
+ */
+
+public class UploadSizeController
+{
+	public static final int LINK_MOBILE = 0;
+	public static final int LINK_WIFI = 1;
+
+	private static final long TARGET_DURATION = 60000;
+	private static final double THROUGHPUT_WEIGHT = 0.25;
+
+	private static class Link
+	{
+		private long _size = 0;
+		private long _maxSize = 0;
+		private long _threshold = Long.MAX_VALUE;
+		private double _throughput = 0.0;
+		private long _reduced = 0;
+	}
+
+	private long _minSize = 0;
+	private Link[] _links = new Link[2];
+
+	public UploadSizeController(long minSize, long mobileMaxSize, long wifiMaxSize)
+	{
+		this._minSize = minSize;
+
+		for (int i = 0; i < this._links.length; i++)
+		{
+			this._links[i] = new Link();
+			this._links[i]._size = minSize;
+		}
+
+		this._links[LINK_MOBILE]._maxSize = mobileMaxSize;
+		this._links[LINK_WIFI]._maxSize = wifiMaxSize;
+	}
+
+	/**
+	 * Batch size in bytes to use next on the link.
+	 */
+
+	public synchronized long size(int link)
+	{
+		Link state = this._links[link];
+
+		long size = state._size;
+
+		if (state._throughput > 0)
+			size = Math.min(size, (long) (state._throughput * TARGET_DURATION / 1000));
+
+		return Math.max(this._minSize, size);
+	}
+
+	/**
+	 * Average throughput of the batches delivered over the link, in bytes per
+	 * second.
+	 */
+
+	public synchronized double throughput(int link)
+	{
+		return this._links[link]._throughput;
+	}
+
+	/**
+	 * Records a batch of the given size delivered over the link in elapsed
+	 * milliseconds. Only batches that used at least half of the size count
+	 * towards growing it, so that quiet periods do not inflate it.
+	 */
+
+	public synchronized void delivered(int link, long bytes, long elapsed)
+	{
+		Link state = this._links[link];
+
+		if (elapsed > 0)
+		{
+			double throughput = ((double) bytes) * 1000 / elapsed;
+
+			if (state._throughput > 0)
+				state._throughput += THROUGHPUT_WEIGHT * (throughput - state._throughput);
+			else
+				state._throughput = throughput;
+		}
+
+		// Grows from the size actually in use, which the throughput may cap.
+
+		long size = this.size(link);
+
+		if (bytes * 2 < size)
+			return;
+
+		if (size < state._threshold)
+			size *= 2;
+		else
+			size += this._minSize;
+
+		state._size = Math.min(size, state._maxSize);
+	}
+
+	/**
+	 * Backs off after a batch over the link, sent at the given time, timed out
+	 * or was refused by an overloaded server.
+	 */
+
+	public synchronized void congested(int link, long sent)
+	{
+		Link state = this._links[link];
+
+		if (sent < state._reduced)
+			return;
+
+		state._size = Math.max(this._minSize, this.size(link) / 2);
+		state._threshold = state._size;
+		state._reduced = System.currentTimeMillis();
+	}
+}
@@ -18,6 +18,7 @@ import android.preference.PreferenceScreen;
 import android.support.v4.content.LocalBroadcastManager;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadLanes;
 
 public abstract class Probe
 {
@@ -166,8 +167,11 @@ public abstract class Probe
 	{
 		if (context != null)
 		{
-			UUID uuid = UUID.randomUUID();
-			data.putString("GUID", uuid.toString());
+			if (data.containsKey("GUID") == false)
+			{
+				UUID uuid = UUID.randomUUID();
+				data.putString("GUID", uuid.toString());
+			}
 
 			LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
 			Intent intent = new Intent(edu.northwestern.cbits.purple_robot_manager.probes.Probe.PROBE_READING);
@@ -177,6 +181,19 @@ public abstract class Probe
 		}
 	}
 
+	protected void transmitReading(Context context, ProbeReading reading)
+	{
+		if (context != null)
+		{
+			UUID uuid = UUID.randomUUID();
+			reading.setGuid(uuid.toString());
+
+			ProbeReadingBus.getInstance().publish(context, reading);
+
+			this.transmitData(context, reading.toBundle());
+		}
+	}
+
 	public Intent viewIntent(Context context)
 	{
 		return null;
@@ -192,6 +209,15 @@ public abstract class Probe
 		return null;
 	}
 
+	/**
+	 * Upload priority lane for this probe's readings (see UploadLanes).
+	 */
+
+	public int uploadLane(Context context)
+	{
+		return UploadLanes.NORMAL;
+	}
+
 	public abstract void enable(Context context);
 	public abstract void disable(Context context);
 
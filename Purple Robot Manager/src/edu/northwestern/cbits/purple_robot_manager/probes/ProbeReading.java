@@ -0,0 +1,255 @@
+package edu.northwestern.cbits.purple_robot_manager.probes;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Bundle;
+
+/**
+ * In-process representation of a batch of probe samples. Sample columns are kept
+ * as primitive arrays (event timestamps in nanoseconds, values as floats) and
+ * only copied into a Bundle by toBundle() when the reading leaves the process
+ * (output plugins, storage, uploads).
+ *
+ * Readings built on recycled sample buffers carry a reference count. Holders
+ * that keep a reading past the call that delivered it must retain() it and
+ * release() it when done; the buffer is reused once the count drops to zero.
+ */
+
+public class ProbeReading
+{
+	public static final String PROBE = "PROBE";
+	public static final String TIMESTAMP = "TIMESTAMP";
+	public static final String EVENT_TIMESTAMP = "EVENT_TIMESTAMP";
+	public static final String GUID = "GUID";
+
+	public interface Recycler
+	{
+		public void recycle(ProbeReading reading);
+	}
+
+	private String _probe = null;
+	private double _timestamp = 0;
+	private String _guid = null;
+
+	private int _size = 0;
+	private long[] _eventTimes = null;
+
+	private Map<String, float[]> _floatColumns = new LinkedHashMap<String, float[]>();
+	private Map<String, int[]> _intColumns = new LinkedHashMap<String, int[]>();
+	private Map<String, Object> _scalars = new LinkedHashMap<String, Object>();
+
+	private AtomicInteger _references = new AtomicInteger(1);
+	private Recycler _recycler = null;
+
+	public ProbeReading(String probe, double timestamp, int size)
+	{
+		this._probe = probe;
+		this._timestamp = timestamp;
+		this._size = size;
+	}
+
+	public String getProbe()
+	{
+		return this._probe;
+	}
+
+	public double getTimestamp()
+	{
+		return this._timestamp;
+	}
+
+	public String getGuid()
+	{
+		return this._guid;
+	}
+
+	public void setGuid(String guid)
+	{
+		this._guid = guid;
+	}
+
+	public int size()
+	{
+		return this._size;
+	}
+
+	public long[] getEventTimes()
+	{
+		return this._eventTimes;
+	}
+
+	public void setEventTimes(long[] eventTimes)
+	{
+		this._eventTimes = eventTimes;
+	}
+
+	public double eventTimeMillis(int index)
+	{
+		return ((double) this._eventTimes[index]) / 1000000;
+	}
+
+	public float[] getFloatColumn(String key)
+	{
+		return this._floatColumns.get(key);
+	}
+
+	public void putFloatColumn(String key, float[] column)
+	{
+		this._floatColumns.put(key, column);
+	}
+
+	public int[] getIntColumn(String key)
+	{
+		return this._intColumns.get(key);
+	}
+
+	public void putIntColumn(String key, int[] column)
+	{
+		this._intColumns.put(key, column);
+	}
+
+	public void setRecycler(Recycler recycler)
+	{
+		this._recycler = recycler;
+	}
+
+	public ProbeReading retain()
+	{
+		this._references.incrementAndGet();
+
+		return this;
+	}
+
+	public void release()
+	{
+		if (this._references.decrementAndGet() == 0 && this._recycler != null)
+			this._recycler.recycle(this);
+	}
+
+	public boolean containsKey(String key)
+	{
+		if (PROBE.equals(key) || TIMESTAMP.equals(key))
+			return true;
+		else if (EVENT_TIMESTAMP.equals(key))
+			return this._eventTimes != null;
+
+		return this._floatColumns.containsKey(key) || this._intColumns.containsKey(key) || this._scalars.containsKey(key);
+	}
+
+	public Object get(String key)
+	{
+		return this._scalars.get(key);
+	}
+
+	public void putString(String key, String value)
+	{
+		this._scalars.put(key, value);
+	}
+
+	public void putDouble(String key, double value)
+	{
+		this._scalars.put(key, Double.valueOf(value));
+	}
+
+	public void putFloat(String key, float value)
+	{
+		this._scalars.put(key, Float.valueOf(value));
+	}
+
+	public void putLong(String key, long value)
+	{
+		this._scalars.put(key, Long.valueOf(value));
+	}
+
+	public void putInt(String key, int value)
+	{
+		this._scalars.put(key, Integer.valueOf(value));
+	}
+
+	public void putBoolean(String key, boolean value)
+	{
+		this._scalars.put(key, Boolean.valueOf(value));
+	}
+
+	public void putBundle(String key, Bundle value)
+	{
+		this._scalars.put(key, value);
+	}
+
+	public Bundle toBundle()
+	{
+		Bundle bundle = new Bundle();
+
+		bundle.putString(PROBE, this._probe);
+		bundle.putDouble(TIMESTAMP, this._timestamp);
+
+		if (this._guid != null)
+			bundle.putString(GUID, this._guid);
+
+		for (String key : this._scalars.keySet())
+		{
+			Object value = this._scalars.get(key);
+
+			if (value instanceof String)
+				bundle.putString(key, (String) value);
+			else if (value instanceof Double)
+				bundle.putDouble(key, ((Double) value).doubleValue());
+			else if (value instanceof Float)
+				bundle.putFloat(key, ((Float) value).floatValue());
+			else if (value instanceof Long)
+				bundle.putLong(key, ((Long) value).longValue());
+			else if (value instanceof Integer)
+				bundle.putInt(key, ((Integer) value).intValue());
+			else if (value instanceof Boolean)
+				bundle.putBoolean(key, ((Boolean) value).booleanValue());
+			else if (value instanceof Bundle)
+				bundle.putBundle(key, new Bundle((Bundle) value));
+		}
+
+		if (this._eventTimes != null)
+		{
+			double[] eventTimes = new double[this._size];
+
+			for (int i = 0; i < this._size; i++)
+			{
+				eventTimes[i] = this.eventTimeMillis(i);
+			}
+
+			bundle.putDoubleArray(EVENT_TIMESTAMP, eventTimes);
+		}
+
+		for (String key : this._intColumns.keySet())
+		{
+			int[] column = this._intColumns.get(key);
+
+			if (this._recycler != null || column.length != this._size)
+			{
+				int[] copy = new int[this._size];
+				System.arraycopy(column, 0, copy, 0, Math.min(column.length, this._size));
+
+				column = copy;
+			}
+
+			bundle.putIntArray(key, column);
+		}
+
+		for (String key : this._floatColumns.keySet())
+		{
+			float[] column = this._floatColumns.get(key);
+
+			if (this._recycler != null || column.length != this._size)
+			{
+				float[] copy = new float[this._size];
+				System.arraycopy(column, 0, copy, 0, Math.min(column.length, this._size));
+
+				column = copy;
+			}
+
+			bundle.putFloatArray(key, column);
+		}
+
+		return bundle;
+	}
+}
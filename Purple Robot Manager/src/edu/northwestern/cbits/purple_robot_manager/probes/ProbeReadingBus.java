@@ -0,0 +1,85 @@
+package edu.northwestern.cbits.purple_robot_manager.probes;
+
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import android.content.Context;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+
+/**
+ * Direct, in-process delivery of ProbeReading objects from probes to the
+ * features that consume them. Subscribers are called synchronously on the
+ * publishing thread, before the probe reuses its sample buffers. Subscribers
+ * that hand a reading to another thread must retain() it first.
+ */
+
+public class ProbeReadingBus
+{
+	public interface Subscriber
+	{
+		public void onReading(Context context, ProbeReading reading);
+	}
+
+	private static ProbeReadingBus _instance = null;
+
+	private ConcurrentHashMap<String, List<Subscriber>> _subscribers = new ConcurrentHashMap<String, List<Subscriber>>();
+
+	public static synchronized ProbeReadingBus getInstance()
+	{
+		if (ProbeReadingBus._instance == null)
+			ProbeReadingBus._instance = new ProbeReadingBus();
+
+		return ProbeReadingBus._instance;
+	}
+
+	public void subscribe(String probeName, Subscriber subscriber)
+	{
+		List<Subscriber> subscribers = this._subscribers.get(probeName);
+
+		if (subscribers == null)
+		{
+			this._subscribers.putIfAbsent(probeName, new CopyOnWriteArrayList<Subscriber>());
+
+			subscribers = this._subscribers.get(probeName);
+		}
+
+		if (subscribers.contains(subscriber) == false)
+			subscribers.add(subscriber);
+	}
+
+	public void unsubscribe(String probeName, Subscriber subscriber)
+	{
+		List<Subscriber> subscribers = this._subscribers.get(probeName);
+
+		if (subscribers != null)
+			subscribers.remove(subscriber);
+	}
+
+	public boolean hasSubscribers(String probeName)
+	{
+		List<Subscriber> subscribers = this._subscribers.get(probeName);
+
+		return subscribers != null && subscribers.size() > 0;
+	}
+
+	public void publish(Context context, ProbeReading reading)
+	{
+		List<Subscriber> subscribers = this._subscribers.get(reading.getProbe());
+
+		if (subscribers == null)
+			return;
+
+		for (Subscriber subscriber : subscribers)
+		{
+			try
+			{
+				subscriber.onReading(context, reading);
+			}
+			catch (RuntimeException e)
+			{
+				LogManager.getInstance(context).logException(e);
+			}
+		}
+	}
+}
@@ -15,13 +15,13 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class AmbientHumidityProbe extends ContinuousProbe implements SensorEventListener
@@ -39,10 +39,7 @@ public class AmbientHumidityProbe extends ContinuousProbe implements SensorEvent
 	private long lastThresholdLookup = 0;
 	private double lastThreshold = 1.0;
 
-	private float valueBuffer[][] = new float[1][BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
-
-	private int bufferIndex  = 0;
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, false, BUFFER_SIZE);
 
 	private int _lastFrequency = -1;
 
@@ -139,26 +136,26 @@ public class AmbientHumidityProbe extends ContinuousProbe implements SensorEvent
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_humidity_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 
-				if (this._lastFrequency  != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 	        		sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 
 	                }
@@ -265,52 +262,25 @@ public class AmbientHumidityProbe extends ContinuousProbe implements SensorEvent
 		{
 			synchronized(this)
 			{
-				double elapsed = SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
-
-				double timestamp = event.timestamp + boot;
-
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
-
-				timeBuffer[bufferIndex] = timestamp / 1000000;
-				valueBuffer[0][bufferIndex] = event.values[0];
-
-				bufferIndex += 1;
-
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
+				long timestamp = this.sensorTimestamp(event, now);
 
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, event.values);
 
-					data.putString("PROBE", this.name(this._context));
-
-					data.putBundle("SENSOR", sensorBundle);
-					data.putDouble("TIMESTAMP", now / 1000);
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						data.putFloatArray(fieldNames[i], valueBuffer[i]);
-					}
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-					this.transmitData(this._context, data);
+		this.transmitReading(this._context, reading);
 
-					bufferIndex = 0;
-				}
-			}
-		}
+		reading.release();
 	}
 
 	public String getPreferenceKey()
@@ -1,10 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
@@ -18,6 +13,7 @@ import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.util.RealFFT;
 
 public class AudioFeaturesProbe extends Probe
 {
@@ -132,32 +128,26 @@ public class AudioFeaturesProbe extends Probe
 							bundle.putLong("TIMESTAMP", System.currentTimeMillis() / 1000);
 							bundle.putInt("SAMPLE_RATE", recorder.getSampleRate());
 
+							int sampleRate = recorder.getSampleRate();
+
 							recorder.release();
 
-							FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-							
-							Complex[] values = fft.transform(me.samples, TransformType.FORWARD);
-							
+							RealFFT fft = RealFFT.forSize(me.samples.length);
+
+							double[] real = new double[fft.bins()];
+							double[] imaginary = new double[fft.bins()];
+
+							fft.transform(me.samples, real, imaginary);
+
+							// Reuse the real buffer for the power spectrum; the peak of the power is the peak of the magnitude.
+							RealFFT.powerSpectrum(real, imaginary, real, me.samples.length / 2);
+
 							double maxFrequency = 0;
-							double maxMagnitude = 0;
-							
-							double minMagnitude = Double.MAX_VALUE;
 
-							for (int i = 0; i < values.length / 2; i++) 
-							{
-								Complex value = values[i];
-								
-								double magnitude = value.abs();
-								
-								if (magnitude > maxMagnitude)
-								{
-									maxMagnitude = magnitude;
-									maxFrequency = (i * recorder.getSampleRate()) / (double) me.samples.length;
-								}
-	
-								if (magnitude < minMagnitude)
-									minMagnitude = magnitude;
-							}
+							int peak = RealFFT.peakIndex(real, 0, me.samples.length / 2, 0);
+
+							if (peak >= 0)
+								maxFrequency = (peak * sampleRate) / (double) me.samples.length;
 
 							bundle.putDouble("FREQUENCY", maxFrequency);
 							bundle.putDouble("NORMALIZED_AVG_MAGNITUDE", (sampleSum / Short.MAX_VALUE) / me.samples.length);
@@ -26,6 +26,7 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -85,33 +86,14 @@ public class BatteryProbe extends Probe
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			SplineChart c = new SplineChart();
-
-			ArrayList<Double> battery = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
-
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, BatteryProbe.DB_TABLE, this.databaseSchema());
-
-			int count = -1;
-
-			if (cursor != null)
-			{
-				count = cursor.getCount();
+			String[] columns = { BatteryProbe.BATTERY_KEY };
 
-				while (cursor.moveToNext())
-				{
-					double d = cursor.getDouble(cursor.getColumnIndex(BatteryProbe.BATTERY_KEY));
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, BatteryProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-					battery.add(d);
-					time.add(t);
-				}
+			int count = values.rowCount();
 
-				cursor.close();
-			}
-
-			c.addSeries(activity.getString(R.string.battery_level_label), battery);
-			c.addTime(activity.getString(R.string.battery_time_label), time);
+			SplineChart c = new SplineChart();
+			c.addSeries(activity.getString(R.string.battery_level_label), values.times(BatteryProbe.BATTERY_KEY), values.values(BatteryProbe.BATTERY_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
@@ -8,7 +8,12 @@ import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.hardware.Sensor;
 import android.hardware.SensorEvent;
+import android.hardware.SensorEventListener;
+import android.hardware.SensorManager;
+import android.os.Build;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
 import android.preference.CheckBoxPreference;
@@ -17,14 +22,22 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
+import edu.northwestern.cbits.purple_robot_manager.plugins.UploadLanes;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
 
 public abstract class ContinuousProbe extends Probe
 {
 	protected static final String PROBE_THRESHOLD = "threshold";
+	protected static final String PROBE_BATCH_SIZE = "batch_size";
+	protected static final String PROBE_BATCH_LATENCY = "batch_latency";
+	protected static final String PROBE_FIFO_LATENCY = "fifo_latency";
 
 	protected static final boolean DEFAULT_ENABLED = false;
 	protected static final String DEFAULT_FREQUENCY = "0";
+	protected static final String DEFAULT_BATCH_SIZE = "0";
+	protected static final String DEFAULT_BATCH_LATENCY = "0";
+	protected static final String DEFAULT_FIFO_LATENCY = "0";
 
 	private WakeLock _wakeLock = null;
 	private int _wakeLockLevel = -1;
@@ -34,6 +47,22 @@ public abstract class ContinuousProbe extends Probe
 	private boolean _lastEnableResult = false;
 	private long _lastEnableCheck = 0;
 
+	private Sensor _lastSensor = null;
+	private Bundle _sensorBundle = null;
+
+	private long _lastBatchCheck = 0;
+	private int _batchSize = 0;
+	private long _batchLatency = 0;
+
+	private Handler _flushHandler = null;
+	private boolean _flushScheduled = false;
+
+	private long _requestedFifoLatency = 0;
+	private long _fifoLatency = 0;
+	private int _fifoEventCount = 0;
+
+	private SensorClock _clock = new SensorClock();
+
 	public void enable(Context context)
 	{
 		String key = this.getPreferenceKey();
@@ -78,6 +107,197 @@ public abstract class ContinuousProbe extends Probe
 		return this._lastEnableResult;
 	}
 
+	/**
+	 * Appends a sample to the probe's buffers, applying the configured batching
+	 * policy. Returns a buffer that is ready to transmit, or null. Call with the
+	 * probe locked. A partly filled buffer whose oldest sample has waited for the
+	 * batch latency is later passed to transmitSamples() even if no further
+	 * samples arrive.
+	 */
+
+	protected SampleBufferPool.SampleBuffer appendSample(SampleBufferPool samples, Sensor sensor, long timestamp, int accuracy, float[] values)
+	{
+		long now = System.currentTimeMillis();
+
+		if (now - this._lastBatchCheck > 5000)
+		{
+			SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(this._context);
+
+			String key = this.getPreferenceKey();
+
+			try
+			{
+				this._batchSize = Integer.parseInt(prefs.getString("config_probe_" + key + "_batch_size", ContinuousProbe.DEFAULT_BATCH_SIZE));
+				this._batchLatency = Long.parseLong(prefs.getString("config_probe_" + key + "_batch_latency", ContinuousProbe.DEFAULT_BATCH_LATENCY));
+			}
+			catch (NumberFormatException e)
+			{
+				LogManager.getInstance(this._context).logException(e);
+			}
+
+			this._lastBatchCheck = now;
+		}
+
+		int batchSize = this._batchSize;
+		long batchLatency = this._batchLatency;
+
+		if (this._fifoLatency > 0)
+		{
+			// Keep each hardware burst in a single software batch.
+
+			if (batchLatency < this._fifoLatency)
+				batchLatency = this._fifoLatency;
+
+			if (batchSize <= 0 && this._fifoEventCount > samples.getDefaultCapacity())
+				batchSize = this._fifoEventCount;
+		}
+
+		samples.setPolicy(batchSize, batchLatency);
+
+		SampleBufferPool.SampleBuffer buffer = samples.append(timestamp, accuracy, values);
+
+		this.scheduleFlush(samples, sensor, samples.flushDelay(now));
+
+		return buffer;
+	}
+
+	private void scheduleFlush(final SampleBufferPool samples, final Sensor sensor, long delay)
+	{
+		if (delay < 0 || this._flushScheduled)
+			return;
+
+		if (this._flushHandler == null)
+			this._flushHandler = new Handler(Looper.getMainLooper());
+
+		this._flushScheduled = true;
+
+		final ContinuousProbe me = this;
+
+		this._flushHandler.postDelayed(new Runnable()
+		{
+			public void run()
+			{
+				synchronized (me)
+				{
+					me._flushScheduled = false;
+
+					long now = System.currentTimeMillis();
+					long delay = samples.flushDelay(now);
+
+					if (delay == 0)
+					{
+						SampleBufferPool.SampleBuffer buffer = samples.flush();
+
+						if (buffer != null)
+							me.transmitSamples(buffer, sensor, now);
+					}
+					else
+						me.scheduleFlush(samples, sensor, delay);
+				}
+			}
+		}, delay);
+	}
+
+	/**
+	 * Transmits and stores the samples of a buffer handed over by the probe's
+	 * SampleBufferPool. Called with the probe locked.
+	 */
+
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+
+	}
+
+	/**
+	 * Converts a sensor event timestamp to wall-clock nanoseconds. The offset is
+	 * computed once per burst of events rather than for every event.
+	 */
+
+	protected long sensorTimestamp(SensorEvent event, double now)
+	{
+		return this._clock.timestamp(event.timestamp, now);
+	}
+
+	private long configuredFifoLatency()
+	{
+		SharedPreferences prefs = Probe.getPreferences(this._context);
+
+		try
+		{
+			return Long.parseLong(prefs.getString("config_probe_" + this.getPreferenceKey() + "_fifo_latency", ContinuousProbe.DEFAULT_FIFO_LATENCY));
+		}
+		catch (NumberFormatException e)
+		{
+			LogManager.getInstance(this._context).logException(e);
+		}
+
+		return 0;
+	}
+
+	protected boolean fifoLatencyChanged()
+	{
+		long latency = this.configuredFifoLatency();
+
+		if (latency < 0)
+			latency = 0;
+
+		return latency != this._requestedFifoLatency;
+	}
+
+	/**
+	 * Registers the listener for the sensor. When a FIFO latency is configured
+	 * and the device has a hardware sensor FIFO (API 19+), events are batched
+	 * by the sensor hub and delivered in bursts instead of waking the CPU for
+	 * every sample.
+	 */
+
+	@SuppressLint("NewApi")
+	protected void registerSensorListener(SensorManager sensors, SensorEventListener listener, Sensor sensor, int delay)
+	{
+		long latency = this.configuredFifoLatency();
+
+		if (latency < 0)
+			latency = 0;
+
+		this._requestedFifoLatency = latency;
+		this._fifoLatency = 0;
+		this._fifoEventCount = 0;
+		this._lastBatchCheck = 0;
+
+		if (latency > 0 && sensor != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT && sensor.getFifoMaxEventCount() > 0)
+		{
+			if (sensors.registerListener(listener, sensor, delay, (int) Math.min(latency * 1000, Integer.MAX_VALUE)))
+			{
+				this._fifoLatency = latency;
+				this._fifoEventCount = sensor.getFifoMaxEventCount();
+
+				return;
+			}
+		}
+
+		sensors.registerListener(listener, sensor, delay, null);
+	}
+
+	protected Bundle sensorBundle(Sensor sensor)
+	{
+		if (sensor != this._lastSensor || this._sensorBundle == null)
+		{
+			Bundle sensorBundle = new Bundle();
+			sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
+			sensorBundle.putString("NAME", sensor.getName());
+			sensorBundle.putFloat("POWER", sensor.getPower());
+			sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
+			sensorBundle.putInt("TYPE", sensor.getType());
+			sensorBundle.putString("VENDOR", sensor.getVendor());
+			sensorBundle.putInt("VERSION", sensor.getVersion());
+
+			this._sensorBundle = sensorBundle;
+			this._lastSensor = sensor;
+		}
+
+		return this._sensorBundle;
+	}
+
 	@SuppressWarnings("deprecation")
 	public PreferenceScreen preferenceScreen(PreferenceActivity activity)
 	{
@@ -123,6 +343,20 @@ public abstract class ContinuousProbe extends Probe
 		Map<String, Object> map = super.configuration(context);
 		
 		map.put(Probe.PROBE_FREQUENCY, this.getFrequency());
+
+		SharedPreferences prefs = Probe.getPreferences(context);
+		String key = this.getPreferenceKey();
+
+		try
+		{
+			map.put(ContinuousProbe.PROBE_BATCH_SIZE, Long.parseLong(prefs.getString("config_probe_" + key + "_batch_size", ContinuousProbe.DEFAULT_BATCH_SIZE)));
+			map.put(ContinuousProbe.PROBE_BATCH_LATENCY, Long.parseLong(prefs.getString("config_probe_" + key + "_batch_latency", ContinuousProbe.DEFAULT_BATCH_LATENCY)));
+			map.put(ContinuousProbe.PROBE_FIFO_LATENCY, Long.parseLong(prefs.getString("config_probe_" + key + "_fifo_latency", ContinuousProbe.DEFAULT_FIFO_LATENCY)));
+		}
+		catch (NumberFormatException e)
+		{
+			LogManager.getInstance(context).logException(e);
+		}
 		
 		return map;
 	}
@@ -156,6 +390,42 @@ public abstract class ContinuousProbe extends Probe
 				e.commit();
 			}
 		}
+
+		String[] batchKeys = { ContinuousProbe.PROBE_BATCH_SIZE, ContinuousProbe.PROBE_BATCH_LATENCY, ContinuousProbe.PROBE_FIFO_LATENCY };
+
+		for (String batchKey : batchKeys)
+		{
+			Object value = params.get(batchKey);
+
+			long batchValue = -1;
+
+			if (value instanceof Number)
+				batchValue = ((Number) value).longValue();
+			else if (value instanceof String)
+			{
+				try
+				{
+					batchValue = Long.parseLong(value.toString());
+				}
+				catch (NumberFormatException e)
+				{
+					LogManager.getInstance(context).logException(e);
+				}
+			}
+
+			if (batchValue >= 0)
+			{
+				String key = "config_probe_" + this.getPreferenceKey() + "_" + batchKey;
+
+				SharedPreferences prefs = Probe.getPreferences(context);
+				Editor e = prefs.edit();
+
+				e.putString(key, "" + batchValue);
+				e.commit();
+
+				this._lastBatchCheck = 0;
+			}
+		}
 	}
 
 	public Bundle formattedBundle(Context context, Bundle bundle)
@@ -177,6 +447,13 @@ public abstract class ContinuousProbe extends Probe
 	
 	public abstract long getFrequency();
 
+	// High rate sensor data should not hold up sparser readings.
+
+	public int uploadLane(Context context)
+	{
+		return UploadLanes.BULK;
+	}
+
 	public abstract int getTitleResource();
 	public abstract int getSummaryResource();
 
@@ -82,26 +82,26 @@ public class GeomagneticRotationProbe extends RotationProbe
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_geomagnetic_rotation_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 				
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
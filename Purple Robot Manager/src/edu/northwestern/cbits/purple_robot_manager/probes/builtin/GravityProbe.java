@@ -23,7 +23,6 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
@@ -31,9 +30,11 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class GravityProbe extends ContinuousProbe implements SensorEventListener
@@ -59,15 +60,12 @@ public class GravityProbe extends ContinuousProbe implements SensorEventListener
 	private double _lastY = Double.MAX_VALUE;
 	private double _lastZ = Double.MAX_VALUE;
 	
-	private float valueBuffer[][] = new float[3][BUFFER_SIZE];
-	private int accuracyBuffer[] = new int[BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, true, BUFFER_SIZE);
 
 	private Map<String, String> _schema = null;
 	
 	private int _lastFrequency = -1;
 
-	private int bufferIndex  = 0;
 
 	public Intent viewIntent(Context context)
 	{
@@ -116,42 +114,16 @@ public class GravityProbe extends ContinuousProbe implements SensorEventListener
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			ArrayList<Double> x = new ArrayList<Double>();
-			ArrayList<Double> y = new ArrayList<Double>();
-			ArrayList<Double> z = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
+			String[] columns = { GravityProbe.X_KEY, GravityProbe.Y_KEY, GravityProbe.Z_KEY };
 
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, GravityProbe.DB_TABLE, this.databaseSchema());
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, GravityProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-			int count = -1;
-
-			if (cursor != null)
-			{
-				count = cursor.getCount();
-
-				while (cursor.moveToNext())
-				{
-					double xd = cursor.getDouble(cursor.getColumnIndex(GravityProbe.X_KEY));
-					double yd = cursor.getDouble(cursor.getColumnIndex(GravityProbe.Y_KEY));
-					double zd = cursor.getDouble(cursor.getColumnIndex(GravityProbe.Z_KEY));
-
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-					x.add(xd);
-					y.add(yd);
-					z.add(zd);
-					time.add(t);
-				}
-
-				cursor.close();
-			}
+			int count = values.rowCount();
 
 			SplineChart c = new SplineChart();
-			c.addSeries("X", x);
-			c.addSeries("Y", y);
-			c.addSeries("Z", z);
-
-			c.addTime("tIME", time);
+			c.addSeries("X", values.times(GravityProbe.X_KEY), values.values(GravityProbe.X_KEY));
+			c.addSeries("Y", values.times(GravityProbe.Y_KEY), values.values(GravityProbe.Y_KEY));
+			c.addSeries("Z", values.times(GravityProbe.Z_KEY), values.values(GravityProbe.Z_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
@@ -264,26 +236,26 @@ public class GravityProbe extends ContinuousProbe implements SensorEventListener
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_gravity_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 				
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
@@ -399,90 +371,58 @@ public class GravityProbe extends ContinuousProbe implements SensorEventListener
 		{
 			synchronized(this)
 			{
-				double elapsed = (double) SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
-
-				double timestamp = event.timestamp + boot;
-				
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
-
-				timeBuffer[bufferIndex] = timestamp / 1000000;
-
-				accuracyBuffer[bufferIndex] = event.accuracy;
-
-				for (int i = 0; i < event.values.length; i++)
-				{
-					valueBuffer[i][bufferIndex] = event.values[i];
-				}
+				long timestamp = this.sensorTimestamp(event, now);
 
-				bufferIndex += 1;
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, event.values);
 
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
-
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
-
-					data.putDouble("TIMESTAMP", now / 1000);
-
-					data.putString("PROBE", this.name(this._context));
-
-					data.putBundle("SENSOR", sensorBundle);
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
-					data.putIntArray("ACCURACY", accuracyBuffer);
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						data.putFloatArray(fieldNames[i], valueBuffer[i]);
-					}
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-					this.transmitData(this._context, data);
+		this.transmitReading(this._context, reading);
 
-					for (int j = 0; j < timeBuffer.length; j++)
-					{
-						Double x = null;
-						Double y = null;
-						Double z = null;
+		long[] timeBuffer = buffer.times;
+		float[][] valueBuffer = buffer.values;
 
-						for (int i = 0; i < fieldNames.length; i++)
-						{
-							if (fieldNames[i].equals(GravityProbe.X_KEY))
-								x = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(GravityProbe.Y_KEY))
-								y = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(GravityProbe.Z_KEY))
-								z = Double.valueOf(valueBuffer[i][j]);
-						}
+		for (int j = 0; j < buffer.size(); j++)
+		{
+			Double x = null;
+			Double y = null;
+			Double z = null;
 
-						if (x != null && y != null && z != null)
-						{
-							Map<String, Object> values = new HashMap<String, Object>();
+			for (int i = 0; i < fieldNames.length; i++)
+			{
+				if (fieldNames[i].equals(GravityProbe.X_KEY))
+					x = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(GravityProbe.Y_KEY))
+					y = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(GravityProbe.Z_KEY))
+					z = Double.valueOf(valueBuffer[i][j]);
+			}
 
-							values.put(GravityProbe.X_KEY, x);
-							values.put(GravityProbe.Y_KEY, y);
-							values.put(GravityProbe.Z_KEY, z);
+			if (x != null && y != null && z != null)
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
 
-							values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
+				values.put(GravityProbe.X_KEY, x);
+				values.put(GravityProbe.Y_KEY, y);
+				values.put(GravityProbe.Z_KEY, z);
 
-							ProbeValuesProvider.getProvider(this._context).insertValue(this._context, GravityProbe.DB_TABLE, this.databaseSchema(), values);
-						}
-					}
+				values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(((double) timeBuffer[j]) / 1000000000));
 
-					bufferIndex = 0;
-				}
+				ProbeValuesProvider.getProvider(this._context).insertValue(this._context, GravityProbe.DB_TABLE, this.databaseSchema(), values);
 			}
 		}
+
+		reading.release();
 	}
 
 	public String getPreferenceKey()
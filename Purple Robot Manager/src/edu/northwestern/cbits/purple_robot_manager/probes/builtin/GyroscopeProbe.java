@@ -22,7 +22,6 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
@@ -30,9 +29,11 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class GyroscopeProbe extends ContinuousProbe implements SensorEventListener
@@ -58,13 +59,10 @@ public class GyroscopeProbe extends ContinuousProbe implements SensorEventListen
 	private long lastThresholdLookup = 0;
 	private double lastThreshold = 0.0025;
 
-	private float valueBuffer[][] = new float[3][BUFFER_SIZE];
-	private int accuracyBuffer[] = new int[BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, true, BUFFER_SIZE);
 
 	private Map<String, String> _schema = null;
 
-	private int bufferIndex  = 0;
 
 	private int _lastFrequency = -1;
 
@@ -142,42 +140,17 @@ public class GyroscopeProbe extends ContinuousProbe implements SensorEventListen
 		try
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
-			ArrayList<Double> x = new ArrayList<Double>();
-			ArrayList<Double> y = new ArrayList<Double>();
-			ArrayList<Double> z = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
 
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, GyroscopeProbe.DB_TABLE, this.databaseSchema());
+			String[] columns = { GyroscopeProbe.X_KEY, GyroscopeProbe.Y_KEY, GyroscopeProbe.Z_KEY };
 
-			int count = -1;
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, GyroscopeProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-			if (cursor != null)
-			{
-				count = cursor.getCount();
-
-				while (cursor.moveToNext())
-				{
-					double xd = cursor.getDouble(cursor.getColumnIndex(GyroscopeProbe.X_KEY));
-					double yd = cursor.getDouble(cursor.getColumnIndex(GyroscopeProbe.Y_KEY));
-					double zd = cursor.getDouble(cursor.getColumnIndex(GyroscopeProbe.Z_KEY));
-
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-					x.add(xd);
-					y.add(yd);
-					z.add(zd);
-					time.add(t);
-				}
-
-				cursor.close();
-			}
+			int count = values.rowCount();
 
 			SplineChart c = new SplineChart();
-			c.addSeries("X", x);
-			c.addSeries("Y", y);
-			c.addSeries("Z", z);
-
-			c.addTime("tIME", time);
+			c.addSeries("X", values.times(GyroscopeProbe.X_KEY), values.values(GyroscopeProbe.X_KEY));
+			c.addSeries("Y", values.times(GyroscopeProbe.Y_KEY), values.values(GyroscopeProbe.Y_KEY));
+			c.addSeries("Z", values.times(GyroscopeProbe.Z_KEY), values.values(GyroscopeProbe.Z_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
@@ -281,26 +254,26 @@ public class GyroscopeProbe extends ContinuousProbe implements SensorEventListen
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_gyroscope_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
@@ -371,88 +344,60 @@ public class GyroscopeProbe extends ContinuousProbe implements SensorEventListen
 		{
 			synchronized(this)
 			{
-				double elapsed = (double) SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
-
-				double timestamp = event.timestamp + boot;
-
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
-
-				timeBuffer[bufferIndex] = timestamp / 1000000;
-				accuracyBuffer[bufferIndex] = event.accuracy;
+				long timestamp = this.sensorTimestamp(event, now);
 
-				for (int i = 0; i < event.values.length; i++)
-				{
-					valueBuffer[i][bufferIndex] = event.values[i];
-				}
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, event.values);
 
-				bufferIndex += 1;
-
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
-
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
-
-					data.putString("PROBE", this.name(this._context));
-
-					data.putBundle("SENSOR", sensorBundle);
-					data.putDouble("TIMESTAMP", now / 1000);
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
-					data.putIntArray("ACCURACY", accuracyBuffer);
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						data.putFloatArray(fieldNames[i], valueBuffer[i]);
-					}
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-					this.transmitData(this._context, data);
+		this.transmitReading(this._context, reading);
 
-					if (timeBuffer.length > 0)
-					{
-						double x = Double.NaN;
-						double y = Double.NaN;
-						double z = Double.NaN;
+		long[] timeBuffer = buffer.times;
+		float[][] valueBuffer = buffer.values;
 
-						for (int i = 0; i < fieldNames.length; i++)
-						{
-							if (fieldNames[i].equals(GyroscopeProbe.X_KEY))
-								x = valueBuffer[i][0];
-							else if (fieldNames[i].equals(GyroscopeProbe.Y_KEY))
-								y = valueBuffer[i][0];
-							else if (fieldNames[i].equals(GyroscopeProbe.Z_KEY))
-								z = valueBuffer[i][0];
-						}
+		if (buffer.size() > 0)
+		{
+			double x = Double.NaN;
+			double y = Double.NaN;
+			double z = Double.NaN;
 
-						if (Double.isNaN(x) == false && Double.isNaN(y) == false && Double.isNaN(z) == false)
-						{
-							Map<String, Object> values = new HashMap<String, Object>(4);
+			for (int i = 0; i < fieldNames.length; i++)
+			{
+				if (fieldNames[i].equals(GyroscopeProbe.X_KEY))
+					x = valueBuffer[i][0];
+				else if (fieldNames[i].equals(GyroscopeProbe.Y_KEY))
+					y = valueBuffer[i][0];
+				else if (fieldNames[i].equals(GyroscopeProbe.Z_KEY))
+					z = valueBuffer[i][0];
+			}
 
-							values.put(GyroscopeProbe.X_KEY, x);
-							values.put(GyroscopeProbe.Y_KEY, y);
-							values.put(GyroscopeProbe.Z_KEY, z);
+			if (Double.isNaN(x) == false && Double.isNaN(y) == false && Double.isNaN(z) == false)
+			{
+				Map<String, Object> values = new HashMap<String, Object>(4);
 
-							values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[0] / 1000));
+				values.put(GyroscopeProbe.X_KEY, x);
+				values.put(GyroscopeProbe.Y_KEY, y);
+				values.put(GyroscopeProbe.Z_KEY, z);
 
-							ProbeValuesProvider.getProvider(this._context).insertValue(this._context, GyroscopeProbe.DB_TABLE, this.databaseSchema(), values);
-						}
-					}
+				values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(((double) timeBuffer[0]) / 1000000000));
 
-					bufferIndex = 0;
-				}
+				ProbeValuesProvider.getProvider(this._context).insertValue(this._context, GyroscopeProbe.DB_TABLE, this.databaseSchema(), values);
 			}
 		}
+
+		ProbeValuesProvider.getProvider(this._context).insertSamples(this._context, GyroscopeProbe.DB_TABLE, this.databaseSchema(), fieldNames, timeBuffer, valueBuffer, buffer.size());
+
+		reading.release();
 	}
 	
 	public PreferenceScreen preferenceScreen(PreferenceActivity activity)
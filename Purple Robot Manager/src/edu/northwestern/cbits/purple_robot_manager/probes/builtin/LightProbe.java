@@ -22,7 +22,6 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
@@ -31,9 +30,11 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class LightProbe extends ContinuousProbe implements SensorEventListener
@@ -55,13 +56,10 @@ public class LightProbe extends ContinuousProbe implements SensorEventListener
 	private long lastThresholdLookup = 0;
 	private double lastThreshold = 10.0;
 
-	private float valueBuffer[][] = new float[1][BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, false, BUFFER_SIZE);
 
 	private Map<String, String> _schema = null;
 
-	private int bufferIndex  = 0;
-
 	private int _lastFrequency = -1;
 
 	public Intent viewIntent(Context context)
@@ -109,33 +107,14 @@ public class LightProbe extends ContinuousProbe implements SensorEventListener
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			ArrayList<Double> light = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
-
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, LightProbe.DB_TABLE, this.databaseSchema());
-
-			int count = -1;
-
-			if (cursor != null)
-			{
-				count = cursor.getCount();
-
-				while (cursor.moveToNext())
-				{
-					double d = cursor.getDouble(cursor.getColumnIndex(LightProbe.LIGHT_KEY));
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-					light.add(d);
-					time.add(t);
-				}
+			String[] columns = { LightProbe.LIGHT_KEY };
 
-				cursor.close();
-			}
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, LightProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
+			int count = values.rowCount();
 
 			SplineChart c = new SplineChart();
-			c.addSeries("lIGHT", light);
-			c.addTime("tIME", time);
+			c.addSeries("lIGHT", values.times(LightProbe.LIGHT_KEY), values.values(LightProbe.LIGHT_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
@@ -241,23 +220,23 @@ public class LightProbe extends ContinuousProbe implements SensorEventListener
         	{
             	int frequency = Integer.parseInt(prefs.getString("config_probe_light_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
@@ -364,79 +343,50 @@ public class LightProbe extends ContinuousProbe implements SensorEventListener
 		{
 			synchronized(this)
 			{
-				double elapsed = SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
-
-				double timestamp = event.timestamp + boot;
-
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
-
-				timeBuffer[bufferIndex] = timestamp / 1000000;
-				valueBuffer[0][bufferIndex] = event.values[0];
-
-				bufferIndex += 1;
+				long timestamp = this.sensorTimestamp(event, now);
 
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
-
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
-
-					data.putString("PROBE", this.name(this._context));
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, event.values);
 
-					data.putBundle("SENSOR", sensorBundle);
-					data.putDouble("TIMESTAMP", now / 1000);
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						double[] values = new double[valueBuffer[i].length];
-						
-						for (int j = 0; j < values.length; j++)
-							values[j] = valueBuffer[i][j];
-						
-						data.putDoubleArray(fieldNames[i], values);
-					}
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-					this.transmitData(this._context, data);
+		this.transmitReading(this._context, reading);
 
-					for (int j = 0; j < timeBuffer.length; j++)
-					{
-						Double light = null;
+		long[] timeBuffer = buffer.times;
+		float[][] valueBuffer = buffer.values;
 
-						for (int i = 0; i < fieldNames.length; i++)
-						{
-							if (fieldNames[i].equals(LightProbe.LIGHT_KEY))
-								light = Double.valueOf(valueBuffer[i][j]);
-						}
+		for (int j = 0; j < buffer.size(); j++)
+		{
+			Double light = null;
 
-						if (light != null)
-						{
-							Map<String, Object> values = new HashMap<String, Object>();
+			for (int i = 0; i < fieldNames.length; i++)
+			{
+				if (fieldNames[i].equals(LightProbe.LIGHT_KEY))
+					light = Double.valueOf(valueBuffer[i][j]);
+			}
 
-							values.put(LightProbe.LIGHT_KEY, light);
+			if (light != null)
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
 
-							values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
+				values.put(LightProbe.LIGHT_KEY, light);
 
-							ProbeValuesProvider.getProvider(this._context).insertValue(this._context, LightProbe.DB_TABLE, this.databaseSchema(), values);
-						}
-					}
+				values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(((double) timeBuffer[j]) / 1000000000));
 
-					bufferIndex = 0;
-				}
+				ProbeValuesProvider.getProvider(this._context).insertValue(this._context, LightProbe.DB_TABLE, this.databaseSchema(), values);
 			}
 		}
+
+		reading.release();
 	}
 
 	public String getPreferenceKey()
@@ -446,7 +396,7 @@ public class LightProbe extends ContinuousProbe implements SensorEventListener
 
 	public String summarizeValue(Context context, Bundle bundle)
 	{
-		double lux = bundle.getDoubleArray(LIGHT_KEY)[0];
+		double lux = bundle.getFloatArray(LIGHT_KEY)[0];
 		
 		return String.format(context.getResources().getString(R.string.summary_light_probe), lux);
 	}
@@ -22,7 +22,6 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
@@ -31,9 +30,11 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class PressureProbe extends ContinuousProbe implements SensorEventListener
@@ -56,11 +57,8 @@ public class PressureProbe extends ContinuousProbe implements SensorEventListene
 	private long lastThresholdLookup = 0;
 	private double lastThreshold = 0.5;
 
-	private float valueBuffer[][] = new float[2][BUFFER_SIZE];
-	private int accuracyBuffer[] = new int[BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
-
-	private int bufferIndex  = 0;
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, true, BUFFER_SIZE);
+	private float[] _sample = new float[2];
 
 	private Map<String, String> _schema = null;
 
@@ -99,33 +97,14 @@ public class PressureProbe extends ContinuousProbe implements SensorEventListene
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			SplineChart c = new SplineChart();
-
-			ArrayList<Double> pressure = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
-
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, PressureProbe.DB_TABLE, this.databaseSchema());
-
-			int count = -1;
-
-			if (cursor != null)
-			{
-				count = cursor.getCount();
-
-				while (cursor.moveToNext())
-				{
-					double d = cursor.getDouble(cursor.getColumnIndex(PressureProbe.PRESSURE_KEY));
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
+			String[] columns = { PressureProbe.PRESSURE_KEY };
 
-					pressure.add(d);
-					time.add(t);
-				}
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, PressureProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-				cursor.close();
-			}
+			int count = values.rowCount();
 
-			c.addSeries(activity.getString(R.string.pressure_label), pressure);
-			c.addTime(activity.getString(R.string.pressure_time_label), time);
+			SplineChart c = new SplineChart();
+			c.addSeries(activity.getString(R.string.pressure_label), values.times(PressureProbe.PRESSURE_KEY), values.values(PressureProbe.PRESSURE_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
@@ -230,26 +209,26 @@ public class PressureProbe extends ContinuousProbe implements SensorEventListene
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_pressure_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
@@ -355,90 +334,65 @@ public class PressureProbe extends ContinuousProbe implements SensorEventListene
 		{
 			synchronized(this)
 			{
-				double elapsed = SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
+				long timestamp = this.sensorTimestamp(event, now);
 
-				double timestamp = event.timestamp + boot;
-
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
-
-				timeBuffer[bufferIndex] = timestamp / 1000000;
-				accuracyBuffer[bufferIndex] = event.accuracy;
-
-				valueBuffer[0][bufferIndex] = event.values[0];
+				this._sample[0] = event.values[0];
 
 				try
 				{
-					valueBuffer[1][bufferIndex] = SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, event.values[0]);
+					this._sample[1] = SensorManager.getAltitude(SensorManager.PRESSURE_STANDARD_ATMOSPHERE, event.values[0]);
 				}
 				catch (Exception e)
 				{
-					valueBuffer[1][bufferIndex] = 0;
+					this._sample[1] = 0;
 				}
 
-				bufferIndex += 1;
-				
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
-
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
-
-					data.putString("PROBE", this.name(this._context));
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, this._sample);
 
-					data.putBundle("SENSOR", sensorBundle);
-					data.putDouble("TIMESTAMP", now / 1000);
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
-					data.putIntArray("ACCURACY", accuracyBuffer);
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						data.putFloatArray(fieldNames[i], valueBuffer[i]);
-					}
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-					this.transmitData(this._context, data);
-					
-					for (int j = 0; j < timeBuffer.length; j++)
-					{
-						Double pressure = null;
-						Double altitude = null;
+		this.transmitReading(this._context, reading);
 
-						for (int i = 0; i < fieldNames.length; i++)
-						{
-							if (fieldNames[i].equals(PressureProbe.PRESSURE_KEY))
-								pressure = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(PressureProbe.ALTITUDE_KEY))
-								altitude = Double.valueOf(valueBuffer[i][j]);
-						}
+		long[] timeBuffer = buffer.times;
+		float[][] valueBuffer = buffer.values;
+		
+		for (int j = 0; j < buffer.size(); j++)
+		{
+			Double pressure = null;
+			Double altitude = null;
 
-						if (pressure != null && altitude != null)
-						{
-							Map<String, Object> values = new HashMap<String, Object>();
+			for (int i = 0; i < fieldNames.length; i++)
+			{
+				if (fieldNames[i].equals(PressureProbe.PRESSURE_KEY))
+					pressure = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(PressureProbe.ALTITUDE_KEY))
+					altitude = Double.valueOf(valueBuffer[i][j]);
+			}
 
-							values.put(PressureProbe.PRESSURE_KEY, pressure);
-							values.put(PressureProbe.ALTITUDE_KEY, altitude);
+			if (pressure != null && altitude != null)
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
 
-							values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
+				values.put(PressureProbe.PRESSURE_KEY, pressure);
+				values.put(PressureProbe.ALTITUDE_KEY, altitude);
 
-							ProbeValuesProvider.getProvider(this._context).insertValue(this._context, PressureProbe.DB_TABLE, this.databaseSchema(), values);
-						}
-					}
+				values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(((double) timeBuffer[j]) / 1000000000));
 
-					bufferIndex = 0;
-				}
+				ProbeValuesProvider.getProvider(this._context).insertValue(this._context, PressureProbe.DB_TABLE, this.databaseSchema(), values);
 			}
 		}
+
+		reading.release();
 	}
 
 	public Map<String, String> databaseSchema()
@@ -22,7 +22,6 @@ import android.hardware.SensorEvent;
 import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
@@ -30,9 +29,11 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class ProximityProbe extends ContinuousProbe implements SensorEventListener
@@ -54,10 +55,7 @@ public class ProximityProbe extends ContinuousProbe implements SensorEventListen
 	private long lastThresholdLookup = 0;
 	private double lastThreshold = 5.0;
 
-	private float valueBuffer[][] = new float[1][BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
-
-	private int bufferIndex  = 0;
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, false, BUFFER_SIZE);
 
 	private int _lastFrequency = -1;
 
@@ -103,33 +101,14 @@ public class ProximityProbe extends ContinuousProbe implements SensorEventListen
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			ArrayList<Double> distance = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
-
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, ProximityProbe.DB_TABLE, this.databaseSchema());
-
-			int count = -1;
-
-			if (cursor != null)
-			{
-				count = cursor.getCount();
+			String[] columns = { ProximityProbe.DISTANCE_KEY };
 
-				while (cursor.moveToNext())
-				{
-					double d = cursor.getDouble(cursor.getColumnIndex(ProximityProbe.DISTANCE_KEY));
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, ProximityProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-					distance.add(d);
-					time.add(t);
-				}
-
-				cursor.close();
-			}
+			int count = values.rowCount();
 
 			SplineChart c = new SplineChart();
-			c.addSeries(activity.getString(R.string.proximity_label), distance);
-
-			c.addTime("tIME", time);
+			c.addSeries(activity.getString(R.string.proximity_label), values.times(ProximityProbe.DISTANCE_KEY), values.values(ProximityProbe.DISTANCE_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
@@ -234,26 +213,26 @@ public class ProximityProbe extends ContinuousProbe implements SensorEventListen
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_proximity_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 					
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
@@ -359,76 +338,50 @@ public class ProximityProbe extends ContinuousProbe implements SensorEventListen
 		{
 			synchronized(this)
 			{
-				double elapsed = SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
-
-				double timestamp = event.timestamp + boot;
-
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
-
-				timeBuffer[bufferIndex] = timestamp / 1000000;
-				valueBuffer[0][bufferIndex] = event.values[0];
-
-				bufferIndex += 1;
-
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
+				long timestamp = this.sensorTimestamp(event, now);
 
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, event.values);
 
-					data.putString("PROBE", this.name(this._context));
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-					data.putBundle("SENSOR", sensorBundle);
-					data.putDouble("TIMESTAMP", now / 1000);
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						data.putFloatArray(fieldNames[i], valueBuffer[i]);
-					}
-					
-					this.transmitData(this._context, data);
+		this.transmitReading(this._context, reading);
 
-					for (int j = 0; j < timeBuffer.length; j++)
-					{
-						Double distance = null;
+		long[] timeBuffer = buffer.times;
+		float[][] valueBuffer = buffer.values;
 
-						for (int i = 0; i < fieldNames.length; i++)
-						{
-							if (fieldNames[i].equals(ProximityProbe.DISTANCE_KEY))
-								distance = Double.valueOf(valueBuffer[i][j]);
-						}
+		for (int j = 0; j < buffer.size(); j++)
+		{
+			Double distance = null;
 
-						if (distance != null)
-						{
-							Map<String, Object> values = new HashMap<String, Object>();
+			for (int i = 0; i < fieldNames.length; i++)
+			{
+				if (fieldNames[i].equals(ProximityProbe.DISTANCE_KEY))
+					distance = Double.valueOf(valueBuffer[i][j]);
+			}
 
-							values.put(ProximityProbe.DISTANCE_KEY, distance);
+			if (distance != null)
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
 
-							values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
+				values.put(ProximityProbe.DISTANCE_KEY, distance);
 
-							ProbeValuesProvider.getProvider(this._context).insertValue(this._context, ProximityProbe.DB_TABLE, this.databaseSchema(), values);
-						}
-					}
-					
-					
+				values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(((double) timeBuffer[j]) / 1000000000));
 
-					bufferIndex = 0;
-				}
+				ProbeValuesProvider.getProvider(this._context).insertValue(this._context, ProximityProbe.DB_TABLE, this.databaseSchema(), values);
 			}
 		}
+
+		reading.release();
 	}
 
 	public String getPreferenceKey()
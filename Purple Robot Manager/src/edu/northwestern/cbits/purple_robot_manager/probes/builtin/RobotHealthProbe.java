@@ -49,6 +49,10 @@ public class RobotHealthProbe extends Probe
 //	private static final String ARCHIVE_SIZE = "ARCHIVE_SIZE";
 	private static final String THROUGHPUT = "THROUGHPUT";
 	private static final String CLEAR_TIME = "CLEAR_TIME";
+	private static final String UPLOAD_SIZE = "UPLOAD_SIZE";
+	private static final String LINK_THROUGHPUT = "LINK_THROUGHPUT";
+	private static final String ROUTED_BROADCASTS = "ROUTED_BROADCASTS";
+	private static final String ROUTED_PLUGINS = "ROUTED_PLUGINS";
 	protected static final String APP_VERSION_NAME = "APP_VERSION_NAME";
 	protected static final String APP_VERSION_CODE = "APP_VERSION_CODE";
 	protected static final String ACTIVE_RUNTIME = "ACTIVE_RUNTIME";
@@ -258,6 +262,25 @@ public class RobotHealthProbe extends Probe
 										cleartime = pendingSize / ((long) throughput);
 
 									bundle.putLong(RobotHealthProbe.CLEAR_TIME, cleartime);
+
+									bundle.putLong(RobotHealthProbe.UPLOAD_SIZE, httpPlugin.getUploadSize());
+									bundle.putDouble(RobotHealthProbe.LINK_THROUGHPUT, httpPlugin.getLinkThroughput());
+
+									// Broadcasts routed per action since startup, and how many plugins each fans out to.
+
+									Map<String, Long> routedCounts = OutputPluginManager.sharedInstance.routedCounts();
+
+									Bundle routed = new Bundle();
+									Bundle routedPlugins = new Bundle();
+
+									for (String action : routedCounts.keySet())
+									{
+										routed.putLong(action, routedCounts.get(action).longValue());
+										routedPlugins.putInt(action, OutputPluginManager.sharedInstance.pluginCountForAction(action));
+									}
+
+									bundle.putBundle(RobotHealthProbe.ROUTED_BROADCASTS, routed);
+									bundle.putBundle(RobotHealthProbe.ROUTED_PLUGINS, routedPlugins);
 									
 									// Version checks
 
@@ -23,7 +23,6 @@ import android.hardware.SensorEventListener;
 import android.hardware.SensorManager;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.preference.ListPreference;
 import android.preference.PreferenceActivity;
 import android.preference.PreferenceScreen;
@@ -32,9 +31,11 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 @SuppressLint("SimpleDateFormat")
 public class RotationProbe extends ContinuousProbe implements SensorEventListener
@@ -63,15 +64,12 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
 	private double _lastZ = Double.MAX_VALUE;
 	private double _lastC = Double.MAX_VALUE;
 	
-	private float valueBuffer[][] = new float[5][BUFFER_SIZE];
-	private int accuracyBuffer[] = new int[BUFFER_SIZE];
-	private double timeBuffer[] = new double[BUFFER_SIZE];
+	private SampleBufferPool _samples = new SampleBufferPool(fieldNames, true, BUFFER_SIZE);
 
 	private Map<String, String> _schema = null;
 	
 	protected int _lastFrequency = -1;
 
-	protected int bufferIndex  = 0;
 
 	public Intent viewIntent(Context context)
 	{
@@ -122,51 +120,18 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			ArrayList<Double> x = new ArrayList<Double>();
-			ArrayList<Double> y = new ArrayList<Double>();
-			ArrayList<Double> z = new ArrayList<Double>();
-			ArrayList<Double> c = new ArrayList<Double>();
-			ArrayList<Double> a = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
+			String[] columns = { RotationProbe.X_KEY, RotationProbe.Y_KEY, RotationProbe.Z_KEY, RotationProbe.COSINE, RotationProbe.ACCURACY };
 
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, RotationProbe.DB_TABLE, this.databaseSchema());
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, RotationProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-			int count = -1;
-
-			if (cursor != null)
-			{
-				count = cursor.getCount();
-
-				while (cursor.moveToNext())
-				{
-					double xd = cursor.getDouble(cursor.getColumnIndex(RotationProbe.X_KEY));
-					double yd = cursor.getDouble(cursor.getColumnIndex(RotationProbe.Y_KEY));
-					double zd = cursor.getDouble(cursor.getColumnIndex(RotationProbe.Z_KEY));
-					double cd = cursor.getDouble(cursor.getColumnIndex(RotationProbe.COSINE));
-					double ad = cursor.getDouble(cursor.getColumnIndex(RotationProbe.ACCURACY));
-
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
-
-					x.add(xd);
-					y.add(yd);
-					z.add(zd);
-					c.add(cd);
-					a.add(ad);
-
-					time.add(t);
-				}
-
-				cursor.close();
-			}
+			int count = values.rowCount();
 
 			SplineChart ch = new SplineChart();
-			ch.addSeries("X", x);
-			ch.addSeries("Y", y);
-			ch.addSeries("Z", z);
-			ch.addSeries("Cosine", c);
-			ch.addSeries("Accuracy", a);
-
-			ch.addTime("tIME", time);
+			ch.addSeries("X", values.times(RotationProbe.X_KEY), values.values(RotationProbe.X_KEY));
+			ch.addSeries("Y", values.times(RotationProbe.Y_KEY), values.values(RotationProbe.Y_KEY));
+			ch.addSeries("Z", values.times(RotationProbe.Z_KEY), values.values(RotationProbe.Z_KEY));
+			ch.addSeries("Cosine", values.times(RotationProbe.COSINE), values.values(RotationProbe.COSINE));
+			ch.addSeries("Accuracy", values.times(RotationProbe.ACCURACY), values.values(RotationProbe.ACCURACY));
 
 			JSONObject json = ch.dataJson(activity);
 
@@ -281,26 +246,26 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
         	{
 				int frequency = Integer.parseInt(prefs.getString("config_probe_rotation_built_in_frequency", ContinuousProbe.DEFAULT_FREQUENCY));
 				
-				if (this._lastFrequency != frequency)
+				if (this._lastFrequency != frequency || this.fifoLatencyChanged())
 				{
 					sensors.unregisterListener(this, sensor);
 	                
 	                switch (frequency)
 	                {
 	                	case SensorManager.SENSOR_DELAY_FASTEST:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_FASTEST, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_FASTEST);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_GAME:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_UI:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_UI, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_UI);
 	                		break;
 	                	case SensorManager.SENSOR_DELAY_NORMAL:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_NORMAL, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_NORMAL);
 	                		break;
 	                	default:
-		                	sensors.registerListener(this, sensor, SensorManager.SENSOR_DELAY_GAME, null);
+		                	this.registerSensorListener(sensors, this, sensor, SensorManager.SENSOR_DELAY_GAME);
 	                		break;
 	                }
 	                
@@ -420,98 +385,66 @@ public class RotationProbe extends ContinuousProbe implements SensorEventListene
 		{
 			synchronized(this)
 			{
-				double elapsed = (double) SystemClock.uptimeMillis();
-				double boot = (now - elapsed) * 1000 * 1000;
+				long timestamp = this.sensorTimestamp(event, now);
 
-				double timestamp = event.timestamp + boot;
-				
-				if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
-					timestamp = event.timestamp;
+				SampleBufferPool.SampleBuffer buffer = this.appendSample(this._samples, event.sensor, timestamp, event.accuracy, event.values);
 
-				timeBuffer[bufferIndex] = timestamp / 1000000;
+				if (buffer != null)
+					this.transmitSamples(buffer, event.sensor, now);
+			}
+		}
+	}
 
-				accuracyBuffer[bufferIndex] = event.accuracy;
-				
-				for (int i = 0; i < event.values.length; i++)
-				{
-					valueBuffer[i][bufferIndex] = event.values[i];
-				}
+	protected void transmitSamples(SampleBufferPool.SampleBuffer buffer, Sensor sensor, double now)
+	{
+		ProbeReading reading = buffer.toReading(this.name(this._context), now / 1000);
 
-				bufferIndex += 1;
+		reading.putBundle("SENSOR", this.sensorBundle(sensor));
 
-				if (bufferIndex >= timeBuffer.length)
-				{
-					Sensor sensor = event.sensor;
-
-					Bundle data = new Bundle();
-
-					Bundle sensorBundle = new Bundle();
-					sensorBundle.putFloat("MAXIMUM_RANGE", sensor.getMaximumRange());
-					sensorBundle.putString("NAME", sensor.getName());
-					sensorBundle.putFloat("POWER", sensor.getPower());
-					sensorBundle.putFloat("RESOLUTION", sensor.getResolution());
-					sensorBundle.putInt("TYPE", sensor.getType());
-					sensorBundle.putString("VENDOR", sensor.getVendor());
-					sensorBundle.putInt("VERSION", sensor.getVersion());
-
-					data.putDouble("TIMESTAMP", now / 1000);
-
-					data.putString("PROBE", this.name(this._context));
-
-					data.putBundle("SENSOR", sensorBundle);
-
-					data.putDoubleArray("EVENT_TIMESTAMP", timeBuffer);
-					data.putIntArray("ACCURACY", accuracyBuffer);
-
-					for (int i = 0; i < fieldNames.length; i++)
-					{
-						data.putFloatArray(fieldNames[i], valueBuffer[i]);
-					}
-
-					this.transmitData(this._context, data);
-
-					for (int j = 0; j < timeBuffer.length; j++)
-					{
-						Double x = null;
-						Double y = null;
-						Double z = null;
-						Double c = null;
-						Double a = null;
-
-						for (int i = 0; i < fieldNames.length; i++)
-						{
-							if (fieldNames[i].equals(RotationProbe.X_KEY))
-								x = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(RotationProbe.Y_KEY))
-								y = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(RotationProbe.Z_KEY))
-								z = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(RotationProbe.COSINE))
-								c = Double.valueOf(valueBuffer[i][j]);
-							else if (fieldNames[i].equals(RotationProbe.ACCURACY))
-								a = Double.valueOf(valueBuffer[i][j]);
-						}
-
-						if (x != null && y != null && z != null)
-						{
-							Map<String, Object> values = new HashMap<String, Object>();
-
-							values.put(RotationProbe.X_KEY, x);
-							values.put(RotationProbe.Y_KEY, y);
-							values.put(RotationProbe.Z_KEY, z);
-							values.put(RotationProbe.COSINE, c);
-							values.put(RotationProbe.ACCURACY, a);
-
-							values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(timeBuffer[j] / 1000));
-
-							ProbeValuesProvider.getProvider(this._context).insertValue(this._context, this.dbTable(), this.databaseSchema(), values);
-						}
-					}
-
-					bufferIndex = 0;
-				}
+		this.transmitReading(this._context, reading);
+
+		long[] timeBuffer = buffer.times;
+		float[][] valueBuffer = buffer.values;
+
+		for (int j = 0; j < buffer.size(); j++)
+		{
+			Double x = null;
+			Double y = null;
+			Double z = null;
+			Double c = null;
+			Double a = null;
+
+			for (int i = 0; i < fieldNames.length; i++)
+			{
+				if (fieldNames[i].equals(RotationProbe.X_KEY))
+					x = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(RotationProbe.Y_KEY))
+					y = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(RotationProbe.Z_KEY))
+					z = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(RotationProbe.COSINE))
+					c = Double.valueOf(valueBuffer[i][j]);
+				else if (fieldNames[i].equals(RotationProbe.ACCURACY))
+					a = Double.valueOf(valueBuffer[i][j]);
+			}
+
+			if (x != null && y != null && z != null)
+			{
+				Map<String, Object> values = new HashMap<String, Object>();
+
+				values.put(RotationProbe.X_KEY, x);
+				values.put(RotationProbe.Y_KEY, y);
+				values.put(RotationProbe.Z_KEY, z);
+				values.put(RotationProbe.COSINE, c);
+				values.put(RotationProbe.ACCURACY, a);
+
+				values.put(ProbeValuesProvider.TIMESTAMP, Double.valueOf(((double) timeBuffer[j]) / 1000000000));
+
+				ProbeValuesProvider.getProvider(this._context).insertValue(this._context, this.dbTable(), this.databaseSchema(), values);
 			}
 		}
+
+		reading.release();
 	}
 
 	protected String dbTable() 
@@ -0,0 +1,276 @@
+package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
+
+import java.util.LinkedList;
+
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+
+/**
+ * Recycled sample buffers for continuous sensor probes. The probe appends
+ * samples into the current buffer while readings built from previously filled
+ * buffers are still held by subscribers. A buffer goes back to the pool once
+ * every holder of its reading has called ProbeReading.release().
+ *
+ * A buffer is handed over when it holds the configured maximum number of
+ * samples or when its oldest sample is older than the configured latency,
+ * whichever comes first. With a latency set, new buffers are sized from the
+ * observed sample rate instead of the maximum. The latency is checked as each
+ * sample arrives, so a sensor that goes quiet relies on the probe calling
+ * flush() once flushDelay() reaches zero.
+ */
+
+public class SampleBufferPool
+{
+	private static final int MAX_IDLE_BUFFERS = 2;
+	private static final int MIN_CAPACITY = 16;
+	private static final int MAX_CAPACITY = 16384;
+
+	private String[] _fields = null;
+	private boolean _hasAccuracy = false;
+	private int _capacity = 0;
+
+	private int _maxSamples = 0;
+	private long _maxLatency = 0;
+	private double _meanInterval = 0;
+
+	private LinkedList<SampleBuffer> _idle = new LinkedList<SampleBuffer>();
+	private SampleBuffer _current = null;
+	private long _currentStarted = 0;
+
+	public static class SampleBuffer implements ProbeReading.Recycler
+	{
+		private SampleBufferPool _pool = null;
+
+		public final long[] times;
+		public final int[] accuracies;
+		public final float[][] values;
+
+		private int _count = 0;
+
+		private SampleBuffer(SampleBufferPool pool, int fieldCount, boolean hasAccuracy, int capacity)
+		{
+			this._pool = pool;
+
+			this.times = new long[capacity];
+			this.values = new float[fieldCount][capacity];
+
+			if (hasAccuracy)
+				this.accuracies = new int[capacity];
+			else
+				this.accuracies = null;
+		}
+
+		public int size()
+		{
+			return this._count;
+		}
+
+		public int capacity()
+		{
+			return this.times.length;
+		}
+
+		public ProbeReading toReading(String probe, double timestamp)
+		{
+			ProbeReading reading = new ProbeReading(probe, timestamp, this._count);
+
+			reading.setEventTimes(this.times);
+
+			if (this.accuracies != null)
+				reading.putIntColumn("ACCURACY", this.accuracies);
+
+			for (int i = 0; i < this.values.length; i++)
+			{
+				reading.putFloatColumn(this._pool._fields[i], this.values[i]);
+			}
+
+			reading.setRecycler(this);
+
+			return reading;
+		}
+
+		public void recycle(ProbeReading reading)
+		{
+			this._pool.recycle(this);
+		}
+	}
+
+	public SampleBufferPool(String[] fields, boolean hasAccuracy, int capacity)
+	{
+		this._fields = fields;
+		this._hasAccuracy = hasAccuracy;
+		this._capacity = capacity;
+		this._maxSamples = capacity;
+	}
+
+	/**
+	 * Sets the batching policy: maxSamples of zero or less restores the probe's
+	 * default buffer size, maxLatency (milliseconds) of zero or less disables
+	 * time-based flushing.
+	 */
+
+	public synchronized void setPolicy(int maxSamples, long maxLatency)
+	{
+		if (maxSamples > 0)
+			this._maxSamples = Math.min(maxSamples, MAX_CAPACITY);
+		else
+			this._maxSamples = this._capacity;
+
+		if (maxLatency > 0)
+			this._maxLatency = maxLatency * 1000000;
+		else
+			this._maxLatency = 0;
+	}
+
+	public int getDefaultCapacity()
+	{
+		return this._capacity;
+	}
+
+	public synchronized int getMaxSamples()
+	{
+		return this._maxSamples;
+	}
+
+	public synchronized long getMaxLatency()
+	{
+		return this._maxLatency / 1000000;
+	}
+
+	public synchronized double getSampleRate()
+	{
+		if (this._meanInterval <= 0)
+			return 0;
+
+		return 1000000000.0 / this._meanInterval;
+	}
+
+	/**
+	 * Appends one sample to the current buffer. Returns the buffer once it is
+	 * full (the caller then owns it until its reading is released), otherwise
+	 * null.
+	 */
+
+	public synchronized SampleBuffer append(long timestamp, int accuracy, float[] values)
+	{
+		if (this._current == null)
+			this._current = this.obtain();
+
+		if (this._current._count == 0)
+			this._currentStarted = System.currentTimeMillis();
+
+		SampleBuffer buffer = this._current;
+
+		if (buffer._count > 0)
+		{
+			long interval = timestamp - buffer.times[buffer._count - 1];
+
+			if (interval > 0)
+			{
+				if (this._meanInterval <= 0)
+					this._meanInterval = interval;
+				else
+					this._meanInterval += (interval - this._meanInterval) / 32;
+			}
+		}
+
+		buffer.times[buffer._count] = timestamp;
+
+		if (buffer.accuracies != null)
+			buffer.accuracies[buffer._count] = accuracy;
+
+		for (int i = 0; i < values.length && i < buffer.values.length; i++)
+		{
+			buffer.values[i][buffer._count] = values[i];
+		}
+
+		buffer._count += 1;
+
+		boolean full = buffer._count >= buffer.capacity() || buffer._count >= this._maxSamples;
+
+		if (full == false && this._maxLatency > 0)
+			full = (timestamp - buffer.times[0]) >= this._maxLatency;
+
+		if (full)
+		{
+			this._current = null;
+
+			return buffer;
+		}
+
+		return null;
+	}
+
+	/**
+	 * Milliseconds from now until the oldest sample in the current buffer has
+	 * waited for the latency, zero if it already has, or -1 if there is no
+	 * latency or nothing buffered.
+	 */
+
+	public synchronized long flushDelay(long now)
+	{
+		if (this._maxLatency <= 0 || this._current == null || this._current._count == 0)
+			return -1;
+
+		return Math.max(0, this._currentStarted + this.getMaxLatency() - now);
+	}
+
+	/**
+	 * Hands over the partially filled current buffer, or null if it is empty.
+	 */
+
+	public synchronized SampleBuffer flush()
+	{
+		SampleBuffer buffer = this._current;
+
+		if (buffer == null || buffer._count == 0)
+			return null;
+
+		this._current = null;
+
+		return buffer;
+	}
+
+	private SampleBuffer obtain()
+	{
+		int capacity = this.bufferCapacity();
+
+		SampleBuffer buffer = this._idle.poll();
+
+		while (buffer != null && buffer.capacity() != capacity)
+			buffer = this._idle.poll();
+
+		if (buffer == null)
+			buffer = new SampleBuffer(this, this._fields.length, this._hasAccuracy, capacity);
+
+		return buffer;
+	}
+
+	private int bufferCapacity()
+	{
+		int capacity = this._maxSamples;
+
+		if (this._maxLatency > 0 && this._meanInterval > 0)
+		{
+			double expected = (this._maxLatency / this._meanInterval) * 1.25;
+
+			if (expected < capacity)
+			{
+				// Round up to a power of two so small rate changes keep recycling the same buffers.
+
+				int rounded = Integer.highestOneBit(Math.max(MIN_CAPACITY, (int) Math.ceil(expected)) - 1) << 1;
+
+				capacity = Math.min(capacity, rounded);
+			}
+		}
+
+		return capacity;
+	}
+
+	private synchronized void recycle(SampleBuffer buffer)
+	{
+		buffer._count = 0;
+
+		if (buffer.capacity() == this.bufferCapacity() && this._idle.size() < MAX_IDLE_BUFFERS)
+			this._idle.add(buffer);
+	}
+}
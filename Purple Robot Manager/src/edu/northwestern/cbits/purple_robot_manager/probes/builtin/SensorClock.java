@@ -0,0 +1,64 @@
+package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
+
+import android.os.SystemClock;
+
+/**
+ * Converts sensor event timestamps (nanoseconds of uptime) to wall-clock
+ * nanoseconds. The offset between the two clocks is sampled when a burst of
+ * events starts, so every event of a hardware FIFO batch gets the same offset
+ * and keeps its spacing. A burst starts after a gap of BURST_GAP between event
+ * timestamps or between arrivals. Between bursts, and for sensors that deliver
+ * events as they are sampled, the offset is also sampled again every
+ * OFFSET_INTERVAL and whenever the wall clock is set back.
+ */
+
+public class SensorClock
+{
+	// Milliseconds.
+	private static final double BURST_GAP = 100;
+	private static final double OFFSET_INTERVAL = 1000;
+
+	private long _offset = 0;
+	private double _offsetUpdated = 0;
+
+	private long _lastEvent = -1;
+	private double _lastArrival = 0;
+
+	/**
+	 * Wall-clock time in nanoseconds of an event with the given timestamp that
+	 * arrived at now (milliseconds).
+	 */
+
+	public long timestamp(long eventTimestamp, double now)
+	{
+		double eventGap = ((double) (eventTimestamp - this._lastEvent)) / (1000 * 1000);
+		double arrivalGap = now - this._lastArrival;
+
+		boolean burstStart = this._lastEvent < 0 || eventGap < 0 || eventGap > BURST_GAP || arrivalGap > BURST_GAP;
+
+		// Within a hardware batch, events arrive much faster than they were sampled.
+
+		boolean inBurst = arrivalGap < eventGap / 2;
+
+		if (burstStart || now < this._lastArrival || (inBurst == false && now - this._offsetUpdated > OFFSET_INTERVAL))
+		{
+			this._offset = (long) ((now - this.uptime()) * 1000 * 1000);
+			this._offsetUpdated = now;
+		}
+
+		this._lastEvent = eventTimestamp;
+		this._lastArrival = now;
+
+		long timestamp = eventTimestamp + this._offset;
+
+		if (timestamp > now * (1000 * 1000) * 1.1) // Used to detect if sensors already have built-in times...
+			timestamp = eventTimestamp;
+
+		return timestamp;
+	}
+
+	protected double uptime()
+	{
+		return SystemClock.uptimeMillis();
+	}
+}
@@ -1,7 +1,6 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.builtin;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,6 +28,7 @@ import edu.northwestern.cbits.purple_robot_manager.R;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitActivity;
 import edu.northwestern.cbits.purple_robot_manager.activities.WebkitLandscapeActivity;
 import edu.northwestern.cbits.purple_robot_manager.charts.SplineChart;
+import edu.northwestern.cbits.purple_robot_manager.db.ProbeValueSeries;
 import edu.northwestern.cbits.purple_robot_manager.db.ProbeValuesProvider;
 import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
@@ -89,33 +89,14 @@ public class StepCounterProbe extends Probe implements SensorEventListener
 		{
 			String template = WebkitActivity.stringForAsset(activity, "webkit/chart_spline_full.html");
 
-			SplineChart c = new SplineChart();
-
-			ArrayList<Double> battery = new ArrayList<Double>();
-			ArrayList<Double> time = new ArrayList<Double>();
-
-			Cursor cursor = ProbeValuesProvider.getProvider(activity).retrieveValues(activity, StepCounterProbe.DB_TABLE, this.databaseSchema());
-
-			int count = -1;
+			String[] columns = { StepCounterProbe.STEPS_KEY };
 
-			if (cursor != null)
-			{
-				count = cursor.getCount();
+			ProbeValueSeries values = ProbeValuesProvider.getProvider(activity).retrieveSeries(activity, StepCounterProbe.DB_TABLE, this.databaseSchema(), columns, 0, Double.MAX_VALUE, ProbeValuesProvider.CHART_POINTS);
 
-				while (cursor.moveToNext())
-				{
-					double d = cursor.getDouble(cursor.getColumnIndex(StepCounterProbe.STEPS_KEY));
-					double t = cursor.getDouble(cursor.getColumnIndex(ProbeValuesProvider.TIMESTAMP));
+			int count = values.rowCount();
 
-					battery.add(d);
-					time.add(t);
-				}
-
-				cursor.close();
-			}
-
-			c.addSeries(activity.getString(R.string.step_count_label), battery);
-			c.addTime(activity.getString(R.string.step_count_time_label), time);
+			SplineChart c = new SplineChart();
+			c.addSeries(activity.getString(R.string.step_count_label), values.times(StepCounterProbe.STEPS_KEY), values.values(StepCounterProbe.STEPS_KEY));
 
 			JSONObject json = c.dataJson(activity);
 
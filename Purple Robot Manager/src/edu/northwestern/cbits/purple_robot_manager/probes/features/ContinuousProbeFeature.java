@@ -1,17 +1,23 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.features;
 
-import android.content.BroadcastReceiver;
+import java.util.Map;
+
 import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.Editor;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
+import edu.northwestern.cbits.purple_robot_manager.logging.LogManager;
 import edu.northwestern.cbits.purple_robot_manager.probes.Probe;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReadingBus;
 
 public abstract class ContinuousProbeFeature extends Feature
 {
+	protected static final String FEATURE_WINDOW_SIZE = "window_size";
+	protected static final String FEATURE_INTERVAL = "interval";
+
+	protected static final String DEFAULT_INTERVAL = "10000";
+
 	protected abstract String featureKey();
 	public abstract String summary(Context context);
 
@@ -21,7 +27,127 @@ public abstract class ContinuousProbeFeature extends Feature
 
 	protected abstract void processData(Context context, Bundle dataBundle);
 
-	private BroadcastReceiver _receiver = null;
+	private ProbeReadingBus.Subscriber _subscriber = null;
+	private String _subscribedSource = null;
+
+	private long _lastWindowCheck = 0;
+	private int _windowSize = 0;
+	private long _interval = 0;
+
+	protected void processReading(Context context, ProbeReading reading)
+	{
+		this.processData(context, reading.toBundle());
+	}
+
+	/**
+	 * Default number of samples summarized by windowed features.
+	 */
+
+	protected int defaultWindowSize()
+	{
+		return 512;
+	}
+
+	/**
+	 * Re-reads the window length and emission interval from preferences at
+	 * most every five seconds. Returns true if the window length changed.
+	 */
+
+	protected boolean refreshWindow(Context context, long now)
+	{
+		if (now - this._lastWindowCheck < 5000 && this._windowSize > 0)
+			return false;
+
+		this._lastWindowCheck = now;
+
+		SharedPreferences prefs = Probe.getPreferences(context);
+
+		int windowSize = this._windowSize;
+
+		try
+		{
+			windowSize = Integer.parseInt(prefs.getString("config_feature_" + this.featureKey() + "_window_size", "" + this.defaultWindowSize()));
+			this._interval = Long.parseLong(prefs.getString("config_feature_" + this.featureKey() + "_interval", ContinuousProbeFeature.DEFAULT_INTERVAL));
+		}
+		catch (NumberFormatException e)
+		{
+			LogManager.getInstance(context).logException(e);
+		}
+
+		if (windowSize < 1)
+			windowSize = this.defaultWindowSize();
+
+		if (windowSize != this._windowSize)
+		{
+			this._windowSize = windowSize;
+
+			return true;
+		}
+
+		return false;
+	}
+
+	protected int windowSize()
+	{
+		return this._windowSize;
+	}
+
+	protected long interval()
+	{
+		return this._interval;
+	}
+
+	protected void putWindowConfiguration(Context context, Map<String, Object> map)
+	{
+		SharedPreferences prefs = Probe.getPreferences(context);
+
+		try
+		{
+			map.put(ContinuousProbeFeature.FEATURE_WINDOW_SIZE, Long.parseLong(prefs.getString("config_feature_" + this.featureKey() + "_window_size", "" + this.defaultWindowSize())));
+			map.put(ContinuousProbeFeature.FEATURE_INTERVAL, Long.parseLong(prefs.getString("config_feature_" + this.featureKey() + "_interval", ContinuousProbeFeature.DEFAULT_INTERVAL)));
+		}
+		catch (NumberFormatException e)
+		{
+			LogManager.getInstance(context).logException(e);
+		}
+	}
+
+	protected void updateWindowFromMap(Context context, Map<String, Object> params)
+	{
+		String[] windowKeys = { ContinuousProbeFeature.FEATURE_WINDOW_SIZE, ContinuousProbeFeature.FEATURE_INTERVAL };
+
+		for (String windowKey : windowKeys)
+		{
+			Object value = params.get(windowKey);
+
+			long windowValue = -1;
+
+			if (value instanceof Number)
+				windowValue = ((Number) value).longValue();
+			else if (value instanceof String)
+			{
+				try
+				{
+					windowValue = Long.parseLong(value.toString());
+				}
+				catch (NumberFormatException e)
+				{
+					LogManager.getInstance(context).logException(e);
+				}
+			}
+
+			if (windowValue >= 0)
+			{
+				SharedPreferences prefs = Probe.getPreferences(context);
+				Editor e = prefs.edit();
+
+				e.putString("config_feature_" + this.featureKey() + "_" + windowKey, "" + windowValue);
+				e.commit();
+
+				this._lastWindowCheck = 0;
+			}
+		}
+	}
 
 	public boolean isEnabled(Context context)
 	{
@@ -31,27 +157,21 @@ public abstract class ContinuousProbeFeature extends Feature
 
 			if (prefs.getBoolean("config_feature_" + this.featureKey() + "_enabled", false))
 			{
-				if (this._receiver == null)
+				if (this._subscriber == null)
 				{
-					IntentFilter intentFilter = new IntentFilter(Probe.PROBE_READING);
-	
 					final ContinuousProbeFeature me = this;
 	
-					this._receiver = new BroadcastReceiver()
+					this._subscriber = new ProbeReadingBus.Subscriber()
 					{
-						public void onReceive(final Context context, Intent intent)
+						public void onReading(Context context, ProbeReading reading)
 						{
-							Bundle extras = intent.getExtras();
-	
-							String probeName = extras.getString("PROBE");
-	
-							if (probeName != null && (me.source(context).equals(probeName)))
-								me.processData(context, extras);
+							me.processReading(context, reading);
 						}
 					};
-	
-					LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-					localManager.registerReceiver(this._receiver, intentFilter);
+
+					this._subscribedSource = this.source(context);
+
+					ProbeReadingBus.getInstance().subscribe(this._subscribedSource, this._subscriber);
 				}
 				
 				return true;
@@ -74,12 +194,11 @@ public abstract class ContinuousProbeFeature extends Feature
 		
 		e.commit();
 		
-		if (this._receiver != null)
+		if (this._subscriber != null)
 		{
-			LocalBroadcastManager localManager = LocalBroadcastManager.getInstance(context);
-			localManager.unregisterReceiver(this._receiver);
+			ProbeReadingBus.getInstance().unsubscribe(this._subscribedSource, this._subscriber);
 			
-			this._receiver = null;
+			this._subscriber = null;
 		}
 	}
 
@@ -0,0 +1,237 @@
+package edu.northwestern.cbits.purple_robot_manager.probes.features;
+
+/**
+ * Summary statistics over the most recent values of a stream, updated in
+ * constant (amortized) time per value. Mean and variance are maintained with
+ * Welford's update and its inverse on eviction, RMS from a running sum of
+ * squares, and minimum / maximum from monotonic queues over the window.
+ *
+ * Running sums are recomputed from the window after every few passes over it
+ * so that rounding error from repeated removals does not accumulate.
+ */
+
+public class SlidingWindowStatistics
+{
+	private static final int REBUILD_PASSES = 8;
+
+	private double[] _values = null;
+	private int _count = 0;
+	private long _sequence = 0;
+
+	private double _mean = 0;
+	private double _m2 = 0;
+	private double _sumsq = 0;
+	private int _evictions = 0;
+
+	// Sequence numbers of candidate extremes, oldest first. Values are non-increasing in the max queue and non-decreasing in the min queue.
+	private long[] _maxQueue = null;
+	private int _maxHead = 0;
+	private int _maxCount = 0;
+
+	private long[] _minQueue = null;
+	private int _minHead = 0;
+	private int _minCount = 0;
+
+	public SlidingWindowStatistics(int capacity)
+	{
+		this.resize(capacity);
+	}
+
+	/**
+	 * Changes the window length. Values already in the window are discarded.
+	 */
+
+	public void resize(int capacity)
+	{
+		if (capacity < 1)
+			throw new IllegalArgumentException("Window capacity must be positive: " + capacity);
+
+		this._values = new double[capacity];
+		this._maxQueue = new long[capacity];
+		this._minQueue = new long[capacity];
+
+		this.clear();
+	}
+
+	public void clear()
+	{
+		this._count = 0;
+		this._sequence = 0;
+
+		this._mean = 0;
+		this._m2 = 0;
+		this._sumsq = 0;
+		this._evictions = 0;
+
+		this._maxHead = 0;
+		this._maxCount = 0;
+		this._minHead = 0;
+		this._minCount = 0;
+	}
+
+	public int capacity()
+	{
+		return this._values.length;
+	}
+
+	public int size()
+	{
+		return this._count;
+	}
+
+	public boolean isFull()
+	{
+		return this._count == this._values.length;
+	}
+
+	public void add(double value)
+	{
+		int capacity = this._values.length;
+
+		if (this._count == capacity)
+			this.evictOldest();
+
+		long sequence = this._sequence;
+
+		this._values[(int) (sequence % capacity)] = value;
+
+		this._count += 1;
+		this._sequence += 1;
+
+		double delta = value - this._mean;
+
+		this._mean += delta / this._count;
+		this._m2 += delta * (value - this._mean);
+		this._sumsq += value * value;
+
+		while (this._maxCount > 0 && this.valueAt(this._maxQueue[(this._maxHead + this._maxCount - 1) % capacity]) <= value)
+			this._maxCount -= 1;
+
+		this._maxQueue[(this._maxHead + this._maxCount) % capacity] = sequence;
+		this._maxCount += 1;
+
+		while (this._minCount > 0 && this.valueAt(this._minQueue[(this._minHead + this._minCount - 1) % capacity]) >= value)
+			this._minCount -= 1;
+
+		this._minQueue[(this._minHead + this._minCount) % capacity] = sequence;
+		this._minCount += 1;
+
+		if (this._evictions >= REBUILD_PASSES * capacity)
+			this.rebuild();
+	}
+
+	private void evictOldest()
+	{
+		int capacity = this._values.length;
+
+		long oldest = this._sequence - this._count;
+		double value = this.valueAt(oldest);
+
+		if (this._count == 1)
+		{
+			this._mean = 0;
+			this._m2 = 0;
+			this._sumsq = 0;
+		}
+		else
+		{
+			double mean = ((this._count * this._mean) - value) / (this._count - 1);
+
+			this._m2 -= (value - this._mean) * (value - mean);
+			this._mean = mean;
+			this._sumsq -= value * value;
+		}
+
+		this._count -= 1;
+		this._evictions += 1;
+
+		if (this._maxCount > 0 && this._maxQueue[this._maxHead] == oldest)
+		{
+			this._maxHead = (this._maxHead + 1) % capacity;
+			this._maxCount -= 1;
+		}
+
+		if (this._minCount > 0 && this._minQueue[this._minHead] == oldest)
+		{
+			this._minHead = (this._minHead + 1) % capacity;
+			this._minCount -= 1;
+		}
+	}
+
+	private void rebuild()
+	{
+		int capacity = this._values.length;
+
+		double mean = 0;
+		double m2 = 0;
+		double sumsq = 0;
+
+		for (int i = 0; i < this._count; i++)
+		{
+			double value = this._values[(int) ((this._sequence - this._count + i) % capacity)];
+
+			double delta = value - mean;
+
+			mean += delta / (i + 1);
+			m2 += delta * (value - mean);
+			sumsq += value * value;
+		}
+
+		this._mean = mean;
+		this._m2 = m2;
+		this._sumsq = sumsq;
+		this._evictions = 0;
+	}
+
+	private double valueAt(long sequence)
+	{
+		return this._values[(int) (sequence % this._values.length)];
+	}
+
+	public double min()
+	{
+		if (this._minCount == 0)
+			return Double.NaN;
+
+		return this.valueAt(this._minQueue[this._minHead]);
+	}
+
+	public double max()
+	{
+		if (this._maxCount == 0)
+			return Double.NaN;
+
+		return this.valueAt(this._maxQueue[this._maxHead]);
+	}
+
+	public double mean()
+	{
+		if (this._count == 0)
+			return Double.NaN;
+
+		return this._mean;
+	}
+
+	/**
+	 * Sample (bias-corrected) standard deviation, as reported by commons-math
+	 * DescriptiveStatistics.
+	 */
+
+	public double standardDeviation()
+	{
+		if (this._count == 0)
+			return Double.NaN;
+		else if (this._count == 1)
+			return 0;
+
+		return Math.sqrt(Math.max(this._m2, 0) / (this._count - 1));
+	}
+
+	public double rms()
+	{
+		if (this._count == 0)
+			return Double.NaN;
+
+		return Math.sqrt(Math.max(this._sumsq, 0) / this._count);
+	}
+}
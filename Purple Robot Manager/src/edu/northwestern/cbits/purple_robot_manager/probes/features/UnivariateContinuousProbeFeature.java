@@ -1,8 +1,9 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.features;
 
-import org.apache.commons.math3.stat.descriptive.DescriptiveStatistics;
+import java.util.Map;
 
 import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 import android.content.Context;
 import android.os.Bundle;
 
@@ -10,72 +11,80 @@ public abstract class UnivariateContinuousProbeFeature extends ContinuousProbeFe
 {
 	protected static int BUFFER_SIZE = 1024;
 	
-	protected float[] value = new float[BUFFER_SIZE];
-	protected double[] timestamp = new double[BUFFER_SIZE];
-	
-	protected int index = 0;
-	private boolean _filled = false;
+	protected SlidingWindowStatistics valueStats = new SlidingWindowStatistics(BUFFER_SIZE);
+	protected SlidingWindowStatistics timeStats = new SlidingWindowStatistics(BUFFER_SIZE);
 
 	private long _lastCheck = 0;
-	private boolean _running = false;
 	
 	protected abstract String valueKey();
 
-	protected void analyzeBuffers(final Context context) 
+	protected int defaultWindowSize()
+	{
+		return UnivariateContinuousProbeFeature.BUFFER_SIZE;
+	}
+
+	protected void analyzeBuffers(Context context) 
 	{
-		final long now = System.currentTimeMillis();
+		long now = System.currentTimeMillis();
 		
-		if (now - this._lastCheck  > 10000 && this._running  == false)
+		if (now - this._lastCheck > this.interval())
 		{
 			this._lastCheck = now;
 
-			final UnivariateContinuousProbeFeature me = this;
-			
-			Runnable r = new Runnable()
+			Bundle data = new Bundle();
+	
+			data.putDouble("TIMESTAMP", now / 1000);
+			data.putString("PROBE", this.name(context));
+
+			double maxTime = this.timeStats.max();
+			double minTime = this.timeStats.min();
+			int size = this.timeStats.size();
+
+			data.putDouble("MIN", this.valueStats.min());
+			data.putDouble("MAX", this.valueStats.max());
+			data.putDouble("MEAN", this.valueStats.mean());
+			data.putDouble("STD_DEV", this.valueStats.standardDeviation());
+			data.putDouble("RMS", this.valueStats.rms());
+	
+			data.putInt("BUFFER_SIZE", size);
+			data.putDouble("FREQUENCY", ((double) size) / ((maxTime - minTime) / 1000));
+			data.putDouble("DURATION", ((double) ((maxTime - minTime) / 1000.0)));
+	
+			this.transmitData(context, data);
+		}
+	}
+
+	private void updateWindow(Context context)
+	{
+		if (this.refreshWindow(context, System.currentTimeMillis()))
+		{
+			int windowSize = this.windowSize();
+
+			if (windowSize != this.timeStats.capacity())
 			{
-				public void run() 
-				{
-					me._running = true;
+				this.valueStats.resize(windowSize);
+				this.timeStats.resize(windowSize);
+			}
+		}
+	}
 
-					Bundle data = new Bundle();
-			
-					data.putDouble("TIMESTAMP", now / 1000);
-					data.putString("PROBE", me.name(context));
-					
-					double maxTime = Double.MIN_VALUE;
-					double minTime = Double.MAX_VALUE;
-					
-					DescriptiveStatistics stats = new DescriptiveStatistics(XYZContinuousProbeFeature.BUFFER_SIZE);
-					
-					for (int i = 0; i < UnivariateContinuousProbeFeature.BUFFER_SIZE; i++)
-					{
-						stats.addValue(me.value[i]);
-			
-						if (me.timestamp[i] > maxTime)
-							maxTime = me.timestamp[i];
-			
-						if (me.timestamp[i] < minTime)
-							minTime = me.timestamp[i];
-					}
-					
-					data.putDouble("MIN", stats.getMin());
-					data.putDouble("MAX", stats.getMax());
-					data.putDouble("MEAN", stats.getMean());
-					data.putDouble("STD_DEV", stats.getStandardDeviation());
-					data.putDouble("RMS", Math.sqrt(stats.getSumsq() / UnivariateContinuousProbeFeature.BUFFER_SIZE));
-			
-					data.putInt("BUFFER_SIZE", UnivariateContinuousProbeFeature.BUFFER_SIZE);
-					data.putDouble("FREQUENCY", ((double) UnivariateContinuousProbeFeature.BUFFER_SIZE) / ((maxTime - minTime) / 1000));
-					data.putDouble("DURATION", ((double) ((maxTime - minTime) / 1000.0)));
-			
-					me.transmitData(context, data);
+	protected void processReading(Context context, ProbeReading reading)
+	{
+		float[] values = reading.getFloatColumn(this.valueKey());
+		long[] incomingTimes = reading.getEventTimes();
 
-					me._running = false;
-				}
-			};
+		if (values != null && incomingTimes != null)
+		{
+			this.updateWindow(context);
+
+			for (int i = 0; i < reading.size(); i++)
+			{
+				this.timeStats.add(reading.eventTimeMillis(i));
+				this.valueStats.add(values[i]);
+			}
 			
-			Thread t = new Thread(r);
-			t.start();
+			if (this.timeStats.isFull())
+				this.analyzeBuffers(context);
 		}
 	}
 
@@ -90,24 +99,35 @@ public abstract class UnivariateContinuousProbeFeature extends ContinuousProbeFe
 			
 			if (values != null)
 			{
+				this.updateWindow(context);
+
 				for (int i = 0; i < incomingTimes.length; i++)
 				{
-					if (index + i > BUFFER_SIZE)
-						this._filled = true;
-					
-					int bufferIndex = (index + i) % BUFFER_SIZE;
-		
-					timestamp[bufferIndex] = incomingTimes[i];
-					value[bufferIndex] = values[i];
+					this.timeStats.add(incomingTimes[i]);
+					this.valueStats.add(values[i]);
 				}
 				
-				index += incomingTimes.length;
-	
-				if (this._filled)
+				if (this.timeStats.isFull())
 					this.analyzeBuffers(context);
 			}
 		}
 	}
+
+	public Map<String, Object> configuration(Context context)
+	{
+		Map<String, Object> map = super.configuration(context);
+
+		this.putWindowConfiguration(context, map);
+
+		return map;
+	}
+
+	public void updateFromMap(Context context, Map<String, Object> params)
+	{
+		super.updateFromMap(context, params);
+
+		this.updateWindowFromMap(context, params);
+	}
 	
 	public String summarizeValue(Context context, Bundle bundle)
 	{
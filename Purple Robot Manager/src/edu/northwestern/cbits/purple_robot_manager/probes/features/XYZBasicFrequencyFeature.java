@@ -1,17 +1,5 @@
 package edu.northwestern.cbits.purple_robot_manager.probes.features;
 
-import java.util.ArrayList;
-import java.util.Comparator;
-
-import org.apache.commons.math3.analysis.interpolation.LinearInterpolator;
-import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.exception.NonMonotonicSequenceException;
-import org.apache.commons.math3.transform.DftNormalization;
-import org.apache.commons.math3.transform.FastFourierTransformer;
-import org.apache.commons.math3.transform.TransformType;
-import org.apache.commons.math3.util.MathArrays;
-
 import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Bundle;
@@ -21,8 +9,9 @@ import android.preference.PreferenceActivity;
 import android.preference.PreferenceManager;
 import android.preference.PreferenceScreen;
 import edu.emory.mathcs.backport.java.util.Arrays;
-import edu.emory.mathcs.backport.java.util.Collections;
 import edu.northwestern.cbits.purple_robot_manager.R;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
+import edu.northwestern.cbits.purple_robot_manager.util.RealFFT;
 
 public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature 
 {
@@ -33,10 +22,16 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 
 	protected static int BUFFER_SIZE = 4096;
 
-	private double[] _xValues = new double[BUFFER_SIZE];
-	private double[] _yValues = new double[BUFFER_SIZE];
-	private double[] _zValues = new double[BUFFER_SIZE];
-	private double[] _timestamps = new double[BUFFER_SIZE];
+	// Ring buffers of BUFFER_SIZE samples, each slot mirrored at slot + BUFFER_SIZE so
+	// the retained window is always contiguous from _start (no copying for analysis).
+
+	private double[] _xValues = new double[BUFFER_SIZE * 2];
+	private double[] _yValues = new double[BUFFER_SIZE * 2];
+	private double[] _zValues = new double[BUFFER_SIZE * 2];
+	private double[] _timestamps = new double[BUFFER_SIZE * 2];
+
+	// Out-of-order samples are merged at most this many positions back from the newest sample.
+	private static final int MAX_MERGE_DISTANCE = 256;
 	
 	private double[] _xBPHistory = { 0.0, 0.0, 0.0 };
 	private double[] _yBPHistory = { 0.0, 0.0, 0.0 };
@@ -46,130 +41,81 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 	private double[] _yLPHistory = { 0.0, 0.0, 0.0 };
 	private double[] _zLPHistory = { 0.0, 0.0, 0.0 };
 	
-	private int _currentIndex = 0;
+	private int _start = 0;
+	private int _count = 0;
 	private long _lastUpdate = 0;
 	
 	double interTimes[];
+
+	private double[] _fftReal = new double[0];
+	private double[] _fftImaginary = new double[0];
 	
-	private class Reading
+	private void writeSample(int slot, double t, double x, double y, double z)
 	{
-		public double t;
-		public double x;
-		public double y;
-		public double z;
-
-		private Reading(double t, double x, double y, double z)
-		{
-			this.t = t;
-			this.x = x;
-			this.y = y;
-			this.z = z;
-		}
+		this._timestamps[slot] = t;
+		this._xValues[slot] = x;
+		this._yValues[slot] = y;
+		this._zValues[slot] = z;
+
+		this._timestamps[slot + BUFFER_SIZE] = t;
+		this._xValues[slot + BUFFER_SIZE] = x;
+		this._yValues[slot + BUFFER_SIZE] = y;
+		this._zValues[slot + BUFFER_SIZE] = z;
 	}
-	
-	private void appendValues(float[] incomingX, float[] incomingY, float[] incomingZ, double[] ts)
+
+	private void appendSample(double t, double x, double y, double z)
 	{
-		if (this._currentIndex + ts.length > BUFFER_SIZE)
+		if (this._count > 0 && t <= this._timestamps[this._start + this._count - 1])
 		{
-			int shift = this._currentIndex + ts.length - BUFFER_SIZE;
-			
-			for (int i = 0; i < BUFFER_SIZE - shift; i++)
-			{
-				_xValues[i] = _xValues[i + shift];
-				_yValues[i] = _yValues[i + shift];
-				_zValues[i] = _zValues[i + shift];
-				_timestamps[i] = _timestamps[i + shift];
-			}
+			this.mergeSample(t, x, y, z);
 
-			int offset = BUFFER_SIZE - shift;
-
-			for (int i = 0; i < ts.length; i++)
-			{
-				_xValues[offset + i] = (double) incomingX[i];
-				_yValues[offset + i] = (double) incomingY[i];
-				_zValues[offset + i] = (double) incomingZ[i];
-				_timestamps[offset + i] = ts[i] / 1000;
-			}
-			
-			this._currentIndex = offset + ts.length; // Should be BUFFER_SIZE
+			return;
 		}
-		else
-		{
-			for (int i = 0; i < ts.length; i++)
-			{
-				_xValues[this._currentIndex + i] = (double) incomingX[i];
-				_yValues[this._currentIndex + i] = (double) incomingY[i];
-				_zValues[this._currentIndex + i] = (double) incomingZ[i];
-				_timestamps[this._currentIndex + i] = ts[i] / 1000;
-			}
 
-			this._currentIndex += ts.length;
+		if (this._count == BUFFER_SIZE)
+		{
+			this._start = (this._start + 1) % BUFFER_SIZE;
+			this._count -= 1;
 		}
 
-		//Log.e("PR", "Raw Timestamp: " + ts[ts.length-1]);
+		this.writeSample((this._start + this._count) % BUFFER_SIZE, t, x, y, z);
 
-		ArrayList<Reading> readings = new ArrayList<Reading>();
-		
-		for (int i = 0; i < this._currentIndex; i++)
+		this._count += 1;
+	}
+
+	private void mergeSample(double t, double x, double y, double z)
+	{
+		int position = this._count;
+		int limit = Math.max(0, this._count - MAX_MERGE_DISTANCE);
+
+		while (position > limit && this._timestamps[this._start + position - 1] > t)
 		{
-			readings.add(new Reading(_timestamps[i], _xValues[i], _yValues[i], _zValues[i]));
+			position -= 1;
 		}
-		
-		boolean ordered = false;
 
-		while (ordered == false)
+		if (position > 0 && this._timestamps[this._start + position - 1] >= t)
+			return; // Duplicate timestamp, or further out of order than we are willing to merge.
+
+		if (this._count == BUFFER_SIZE)
 		{
-			try
-			{
-				Collections.sort(readings, new Comparator<Reading>()
-				{
-					public int compare(Reading one, Reading two) 
-					{
-						if ((two.t - one.t) > 0)
-							return -1;
-						else if ((two.t - one.t) < 0)
-							return 1;
-						
-						return 0;
-					}
-				});
-				
-				double[] testTimestamps = new double[readings.size()];
-						
-				for (int i = 0; i < readings.size(); i++)
-				{
-					Reading r = readings.get(i);
-					
-					testTimestamps[i] = r.t;
+			if (position == 0)
+				return; // Older than everything retained.
 
-					if (i > 1 && testTimestamps[i] == testTimestamps[i-1])
-					{
-						double newTime = (testTimestamps[i-2] + testTimestamps[i]) / 2;
+			this._start = (this._start + 1) % BUFFER_SIZE;
+			this._count -= 1;
+			position -= 1;
+		}
 
-						testTimestamps[i-1] = newTime;
-						readings.get(i-1).t = newTime;
-					}
-				}
+		for (int i = this._count; i > position; i--)
+		{
+			int from = this._start + i - 1;
 
-				MathArrays.checkOrder(testTimestamps);
-				
-				ordered = true;
-				
-				for (int i = 0; i < readings.size(); i++)
-				{
-					Reading r = readings.get(i);
-					
-					_timestamps[i] = r.t;
-					_xValues[i] = r.x;
-					_yValues[i] = r.y;
-					_zValues[i] = r.z;
-				}
-			}
-			catch (NonMonotonicSequenceException e)
-			{
-				e.printStackTrace();
-			}
+			this.writeSample((this._start + i) % BUFFER_SIZE, this._timestamps[from], this._xValues[from], this._yValues[from], this._zValues[from]);
 		}
+
+		this.writeSample((this._start + position) % BUFFER_SIZE, t, x, y, z);
+
+		this._count += 1;
 	}
 
 	protected void processData(final Context context, Bundle dataBundle) 
@@ -185,8 +131,38 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 			float[] incomingY = dataBundle.getFloatArray("Y");
 			float[] incomingZ = dataBundle.getFloatArray("Z");
 			
-			this.appendValues(incomingX, incomingY, incomingZ, incomingTimes);
-			
+			for (int i = 0; i < incomingTimes.length; i++)
+			{
+				this.appendSample(incomingTimes[i] / 1000, incomingX[i], incomingY[i], incomingZ[i]);
+			}
+
+			this.updateFrequencies(context);
+		}
+	}
+
+	protected void processReading(final Context context, ProbeReading reading)
+	{
+		float[] incomingX = reading.getFloatColumn("X");
+		float[] incomingY = reading.getFloatColumn("Y");
+		float[] incomingZ = reading.getFloatColumn("Z");
+
+		if (reading.getEventTimes() != null && incomingX != null && incomingY != null && incomingZ != null)
+		{
+			long[] incomingTimes = reading.getEventTimes();
+
+			for (int i = 0; i < reading.size(); i++)
+			{
+				this.appendSample(((double) incomingTimes[i]) / 1000000000, incomingX[i], incomingY[i], incomingZ[i]);
+			}
+
+			this.updateFrequencies(context);
+		}
+	}
+
+	private void updateFrequencies(final Context context)
+	{
+		if (this._count > 1)
+		{
 			final long now = System.currentTimeMillis();
 			
 			final String key = this.featureKey();
@@ -198,42 +174,29 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 			{
 				this._lastUpdate = now;
 				
-				LinearInterpolator interpolator = new LinearInterpolator();
+				// Contiguous view of the retained window: [base, base + count)
+
+				int base = this._start;
+				int count = this._count;
 
 				double[] xs = _xValues;
 				double[] ys = _yValues;
 				double[] zs = _zValues;
 				double[] ts = _timestamps;
-
-				if (this._currentIndex < BUFFER_SIZE - 1)
-				{
-					xs = Arrays.copyOfRange(_xValues, 0, this._currentIndex);
-					ys = Arrays.copyOfRange(_yValues, 0, this._currentIndex);
-					zs = Arrays.copyOfRange(_zValues, 0, this._currentIndex);
-					ts = Arrays.copyOfRange(_timestamps, 0, this._currentIndex);
-				}
-				
-//				Log.e("PR", "FIRST RAW TIME: " + ts[0] + " LAST RAW TIME: " + ts[ts.length - 1]);
-				
-				//Log.e("PR", "RAW TIME[0]: " + ts[0]);
-				//Log.e("PR", "RAW TIME[1]: " + ts[1]);
-				
-				PolynomialSplineFunction fX = interpolator.interpolate(ts, xs);
-				PolynomialSplineFunction fY = interpolator.interpolate(ts, ys);
-				PolynomialSplineFunction fZ = interpolator.interpolate(ts, zs);
 				
 //				double lowFreq = 0.6;
 //				double highFreq = 7.0;
 			
-				double durationOffset = ts[0];
-				double bufferDuration = ts[ts.length-1] - durationOffset;
+				double durationOffset = ts[base];
+				double lastTime = ts[base + count - 1];
+				double bufferDuration = lastTime - durationOffset;
 
 				double interval = 1.0 / 120.0; 
 
 				//Log.e("PR", "TS/0: " + ts[0] + " -- TS/-1: " + ts[ts.length - 1] + " -- LEN TS: " + ts.length);
 //				Log.e("PR", "BD: " + bufferDuration + " INT: " + interval);
 				
-				int twoPow = ts.length == 0 ? 0 : (32 - Integer.numberOfLeadingZeros(ts.length - 1));
+				int twoPow = 32 - Integer.numberOfLeadingZeros(count - 1);
 				int bufferSize = (int) Math.pow(2, twoPow);
 				
 //				Log.e("PR", "BUFF SIZE: " + bufferSize);
@@ -248,6 +211,9 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 				
 				interTimes = new double[bufferSize];
 				
+				int segment = base;
+				int lastSegment = base + count - 2;
+
 				for (int i = 0; i < bufferSize; i++)
 				{
 					interTimes[i] = durationOffset + (i * interval);
@@ -255,13 +221,19 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 					//Log.e("PR", "TIME REQUEST: " + time);
 					//Log.e("PR", "TIME DIFFERENCE: " + (oldTime - time));
 					
-					if (interTimes[i] > ts[ts.length - 1]) //If the current timestamp is greater than the last recorded timestamp, set it to the last timestamp
-						interTimes[i] = ts[ts.length - 1];
-					
-					_interX[i] = fX.value(interTimes[i]);
-					_interY[i] = fY.value(interTimes[i]);
-					_interZ[i] = fZ.value(interTimes[i]);
-							
+					if (interTimes[i] > lastTime) //If the current timestamp is greater than the last recorded timestamp, set it to the last timestamp
+						interTimes[i] = lastTime;
+
+					// Request times only increase, so the enclosing segment is found with a forward sweep.
+
+					while (segment < lastSegment && ts[segment + 1] < interTimes[i])
+						segment += 1;
+
+					double fraction = (interTimes[i] - ts[segment]) / (ts[segment + 1] - ts[segment]);
+
+					_interX[i] = xs[segment] + fraction * (xs[segment + 1] - xs[segment]);
+					_interY[i] = ys[segment] + fraction * (ys[segment + 1] - ys[segment]);
+					_interZ[i] = zs[segment] + fraction * (zs[segment + 1] - zs[segment]);
 				}
 			
 //				double timeDifference = interTimes[bufferSize - 1] - interTimes[0];
@@ -343,17 +315,26 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 //				Log.e("PR", "IL: + " + _interX.length + " / BD: " + bufferDuration);
 //				Log.e("PR", "OBS HZ: " + observedFreq);
 	
-				FastFourierTransformer fft = new FastFourierTransformer(DftNormalization.STANDARD);
-				
-				Complex[] xFFT = fft.transform(_dynamicX, TransformType.FORWARD);
-				Complex[] yFFT = fft.transform(_dynamicY, TransformType.FORWARD);
-				Complex[] zFFT = fft.transform(_dynamicZ, TransformType.FORWARD);
+				RealFFT fft = RealFFT.forSize(_dynamicX.length);
+
+				if (this._fftReal.length != fft.bins())
+				{
+					this._fftReal = new double[fft.bins()];
+					this._fftImaginary = new double[fft.bins()];
+				}
 				
 				double[] frequencies = XYZBasicFrequencyFeature.calculateFreqArray(_interX.length, observedFreq);
-				
-				final double[] _xMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(xFFT, frequencies); 
-				final double[] _yMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(yFFT, frequencies);
-				final double[] _zMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(zFFT, frequencies);
+
+				int singleSide = _dynamicX.length / 2;
+
+				fft.transform(_dynamicX, this._fftReal, this._fftImaginary);
+				final double[] _xMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(this._fftReal, singleSide, frequencies); 
+
+				fft.transform(_dynamicY, this._fftReal, this._fftImaginary);
+				final double[] _yMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(this._fftReal, singleSide, frequencies);
+
+				fft.transform(_dynamicZ, this._fftReal, this._fftImaginary);
+				final double[] _zMaxFreqPowPair = XYZBasicFrequencyFeature.findPeakFrequency(this._fftReal, singleSide, frequencies);
 				
 //				Log.e("PR", "FREQS & GEEKS: x:" + _xMaxFreqPowPair[0] + " - " + _xMaxFreqPowPair[1]  + " y:" + _yMaxFreqPowPair[0]  + " - " + _yMaxFreqPowPair[1] + " z:" + _zMaxFreqPowPair[0]  + " - " + _zMaxFreqPowPair[1] );
 	
@@ -426,7 +407,7 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 		}
 	}
 
-	private static double[] findPeakFrequency(Complex[] samples, double[] frequencies)
+	private static double[] findPeakFrequency(double[] real, int singleSide, double[] frequencies)
 	{
 		int FREQUENCY_INDEX = 0;
 		int POWER_INDEX = 1;
@@ -435,11 +416,9 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 		double max = Double.MIN_NORMAL; 
 		int index = -1;
 		
-		int singleSide = (samples.length / 2);
-		
 		for(int i = 0; i < singleSide; i++)
 		{
-			double value = 2 * Math.abs(samples[i].getReal());
+			double value = 2 * Math.abs(real[i]);
 
 			if (value > max)
 			{
@@ -451,7 +430,7 @@ public abstract class XYZBasicFrequencyFeature extends ContinuousProbeFeature
 		if (index >= 0)
 		{
 			returnFrequencyPowerPair[FREQUENCY_INDEX] = frequencies[index];
-			returnFrequencyPowerPair[POWER_INDEX] = 2 * Math.abs(samples[index].getReal());
+			returnFrequencyPowerPair[POWER_INDEX] = 2 * Math.abs(real[index]);
 		}
 			//return frequencies[index];
 		
@@ -2,20 +2,66 @@ package edu.northwestern.cbits.purple_robot_manager.probes.features;
 
 import android.content.Context;
 import android.os.Bundle;
+import edu.northwestern.cbits.purple_robot_manager.probes.ProbeReading;
 
 public abstract class XYZContinuousProbeFeature extends ContinuousProbeFeature 
 {
 	protected static int BUFFER_SIZE = 512;
 	
-	protected float[] x = new float[BUFFER_SIZE];
-	protected float[] y = new float[BUFFER_SIZE];
-	protected float[] z = new float[BUFFER_SIZE];
-	protected double[] timestamp = new double[BUFFER_SIZE];
-	
-	protected int index = 0;
-	private boolean _filled = false;
+	protected SlidingWindowStatistics xStats = new SlidingWindowStatistics(BUFFER_SIZE);
+	protected SlidingWindowStatistics yStats = new SlidingWindowStatistics(BUFFER_SIZE);
+	protected SlidingWindowStatistics zStats = new SlidingWindowStatistics(BUFFER_SIZE);
+	protected SlidingWindowStatistics timeStats = new SlidingWindowStatistics(BUFFER_SIZE);
 	
 	protected abstract void analyzeBuffers(Context context);
+
+	protected int defaultWindowSize()
+	{
+		return XYZContinuousProbeFeature.BUFFER_SIZE;
+	}
+
+	private void updateWindow(Context context)
+	{
+		if (this.refreshWindow(context, System.currentTimeMillis()))
+		{
+			int windowSize = this.windowSize();
+
+			if (windowSize != this.timeStats.capacity())
+			{
+				this.xStats.resize(windowSize);
+				this.yStats.resize(windowSize);
+				this.zStats.resize(windowSize);
+				this.timeStats.resize(windowSize);
+			}
+		}
+	}
+
+	protected void processReading(Context context, ProbeReading reading)
+	{
+		if (this.isEnabled(context))
+		{
+			long[] incomingTimes = reading.getEventTimes();
+			float[] incomingX = reading.getFloatColumn("X");
+			float[] incomingY = reading.getFloatColumn("Y");
+			float[] incomingZ = reading.getFloatColumn("Z");
+
+			if (incomingTimes != null && incomingX != null && incomingY != null && incomingZ != null)
+			{
+				this.updateWindow(context);
+
+				for (int i = 0; i < reading.size(); i++)
+				{
+					this.timeStats.add(reading.eventTimeMillis(i));
+					this.xStats.add(incomingX[i]);
+					this.yStats.add(incomingY[i]);
+					this.zStats.add(incomingZ[i]);
+				}
+				
+				if (this.timeStats.isFull())
+					this.analyzeBuffers(context);
+			}
+		}
+	}
 	
 	protected void processData(Context context, Bundle dataBundle) 
 	{
@@ -30,23 +76,18 @@ public abstract class XYZContinuousProbeFeature extends ContinuousProbeFeature
 				float[] incomingX = dataBundle.getFloatArray("X");
 				float[] incomingY = dataBundle.getFloatArray("Y");
 				float[] incomingZ = dataBundle.getFloatArray("Z");
+
+				this.updateWindow(context);
 				
 				for (int i = 0; i < incomingTimes.length; i++)
 				{
-					if (index + i > BUFFER_SIZE)
-						this._filled = true;
-					
-					int bufferIndex = (index + i) % BUFFER_SIZE;
-		
-					timestamp[bufferIndex] = incomingTimes[i];
-					x[bufferIndex] = incomingX[i];
-					y[bufferIndex] = incomingY[i];
-					z[bufferIndex] = incomingZ[i];
+					this.timeStats.add(incomingTimes[i]);
+					this.xStats.add(incomingX[i]);
+					this.yStats.add(incomingY[i]);
+					this.zStats.add(incomingZ[i]);
 				}
 				
-				index += incomingTimes.length;
-	
-				if (this._filled)
+				if (this.timeStats.isFull())
 					this.analyzeBuffers(context);
 			}
 		}
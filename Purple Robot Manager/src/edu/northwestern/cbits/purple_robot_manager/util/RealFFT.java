@@ -0,0 +1,214 @@
+package edu.northwestern.cbits.purple_robot_manager.util;
+
+import java.util.HashMap;
+
+/**
+ * Forward FFT of real-valued input, matching the unscaled (STANDARD) forward
+ * transform of commons-math3. Plans are cached per size and hold only
+ * read-only tables, so one plan may be used from several threads as long as
+ * each caller supplies its own output buffers.
+ *
+ * A size N input is packed into an N/2-point complex transform and split into
+ * the single-sided spectrum, bins 0 .. N/2 inclusive.
+ */
+
+public class RealFFT
+{
+	private static HashMap<Integer, RealFFT> _plans = new HashMap<Integer, RealFFT>();
+
+	private int _size = 0;
+
+	// Twiddle factors e^(-2 pi i k / size) for k in [0, size / 2).
+	private double[] _cos = null;
+	private double[] _sin = null;
+
+	private int[] _reversed = null;
+
+	public static synchronized RealFFT forSize(int size)
+	{
+		RealFFT plan = RealFFT._plans.get(Integer.valueOf(size));
+
+		if (plan == null)
+		{
+			plan = new RealFFT(size);
+
+			RealFFT._plans.put(Integer.valueOf(size), plan);
+		}
+
+		return plan;
+	}
+
+	private RealFFT(int size)
+	{
+		if (size < 1 || Integer.bitCount(size) != 1)
+			throw new IllegalArgumentException("FFT size must be a power of two: " + size);
+
+		this._size = size;
+
+		int half = Math.max(size / 2, 1);
+
+		this._cos = new double[half];
+		this._sin = new double[half];
+
+		for (int k = 0; k < half; k++)
+		{
+			double angle = (2 * Math.PI * k) / size;
+
+			this._cos[k] = Math.cos(angle);
+			this._sin[k] = -Math.sin(angle);
+		}
+
+		int bits = Integer.numberOfTrailingZeros(half);
+
+		this._reversed = new int[half];
+
+		for (int i = 0; i < half; i++)
+		{
+			this._reversed[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+		}
+	}
+
+	public int size()
+	{
+		return this._size;
+	}
+
+	public int bins()
+	{
+		return (this._size / 2) + 1;
+	}
+
+	/**
+	 * Transforms size() samples of input into bins() real and imaginary
+	 * components. The input array is left untouched.
+	 */
+
+	public void transform(double[] input, double[] re, double[] im)
+	{
+		int n = this._size;
+
+		if (n == 1)
+		{
+			re[0] = input[0];
+			im[0] = 0;
+
+			return;
+		}
+
+		int half = n / 2;
+
+		// Pack even samples as real and odd samples as imaginary parts, in bit-reversed order.
+
+		for (int i = 0; i < half; i++)
+		{
+			int j = this._reversed[i];
+
+			re[j] = input[2 * i];
+			im[j] = input[(2 * i) + 1];
+		}
+
+		// Iterative radix-2 transform of size half. Its twiddles are every other entry of the size n table.
+
+		for (int length = 2; length <= half; length <<= 1)
+		{
+			int span = length / 2;
+			int step = n / length;
+
+			for (int start = 0; start < half; start += length)
+			{
+				for (int k = 0; k < span; k++)
+				{
+					double wr = this._cos[k * step];
+					double wi = this._sin[k * step];
+
+					int a = start + k;
+					int b = a + span;
+
+					double tr = (re[b] * wr) - (im[b] * wi);
+					double ti = (re[b] * wi) + (im[b] * wr);
+
+					re[b] = re[a] - tr;
+					im[b] = im[a] - ti;
+
+					re[a] += tr;
+					im[a] += ti;
+				}
+			}
+		}
+
+		// Split the packed spectrum Z into the real-input spectrum X:
+		// X[k] = (Z[k] + conj(Z[half - k])) / 2 - i W^k (Z[k] - conj(Z[half - k])) / 2
+
+		double zr = re[0];
+		double zi = im[0];
+
+		re[0] = zr + zi;
+		im[0] = 0;
+
+		re[half] = zr - zi;
+		im[half] = 0;
+
+		for (int k = 1; k <= half / 2; k++)
+		{
+			int m = half - k;
+
+			double ar = re[k];
+			double ai = im[k];
+			double br = re[m];
+			double bi = im[m];
+
+			double er = (ar + br) / 2;
+			double ei = (ai - bi) / 2;
+			double or = (ai + bi) / 2;
+			double oi = (br - ar) / 2;
+
+			double wr = this._cos[k];
+			double wi = this._sin[k];
+
+			double tr = (or * wr) - (oi * wi);
+			double ti = (or * wi) + (oi * wr);
+
+			re[k] = er + tr;
+			im[k] = ei + ti;
+
+			// Bin half - k uses the conjugate-symmetric counterpart and twiddle -conj(W^k).
+
+			re[m] = er - tr;
+			im[m] = -ei + ti;
+		}
+	}
+
+	/**
+	 * Writes re^2 + im^2 for the first count bins into power.
+	 */
+
+	public static void powerSpectrum(double[] re, double[] im, double[] power, int count)
+	{
+		for (int i = 0; i < count; i++)
+		{
+			power[i] = (re[i] * re[i]) + (im[i] * im[i]);
+		}
+	}
+
+	/**
+	 * Returns the index of the largest value in values[from, to), or -1 if no
+	 * value exceeds floor.
+	 */
+
+	public static int peakIndex(double[] values, int from, int to, double floor)
+	{
+		int index = -1;
+		double max = floor;
+
+		for (int i = from; i < to; i++)
+		{
+			if (values[i] > max)
+			{
+				max = values[i];
+				index = i;
+			}
+		}
+
+		return index;
+	}
+}
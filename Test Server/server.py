@@ -1,7 +1,11 @@
+import argparse
+import base64
 import cherrypy
 import hashlib
 import os
+import random
 import time
+import zlib
 
 from json import dumps, loads
 
@@ -12,46 +16,214 @@ CONFIG = {
     }
 }
 
+# Must match PayloadEncoder.DEFLATE_DICTIONARY in the app.
+
+DEFLATE_DICTIONARY = b'"IS_OBFUSCATED":false,"CAPABILITIES":"","BSSID":"","SSID":"","LEVEL":-,"ACCESS_POINTS":[{"SPEED":,"BEARING":,"ALTITUDE":,"PROVIDER":"","ACCURACY":,"LATITUDE":,"LONGITUDE":,"SENSOR":{"POWER":,"VENDOR":"","RESOLUTION":,"NAME":"","TYPE":,"VERSION":,"MAXIMUM_RANGE":},"FREQUENCY":,"BUFFER_SIZE":,"ACCURACY":[,"EVENT_TIMESTAMP":[,"X":[,"Y":[,"Z":[,"TIMESTAMP":,"GUID":"-","PROBE":"edu.northwestern.cbits.purple_robot_manager.probes.builtin.'
+
+def supported_encodings():
+    encodings = ['gzip']
+
+    try:
+        zlib.decompressobj(zdict=DEFLATE_DICTIONARY)
+        encodings.insert(0, 'deflate')
+    except TypeError:
+        pass # Preset dictionaries need Python 3.3 or later.
+
+    return encodings
+
+def decode_payload(payload, encoding):
+    if encoding is None:
+        return payload
+
+    data = base64.urlsafe_b64decode(str(payload) + '=' * (-len(payload) % 4))
+
+    if encoding == 'gzip':
+        data = zlib.decompress(data, 16 + zlib.MAX_WBITS)
+    elif encoding == 'deflate':
+        decompressor = zlib.decompressobj(zdict=DEFLATE_DICTIONARY)
+        data = decompressor.decompress(data) + decompressor.flush()
+    else:
+        raise ValueError('Unsupported encoding: ' + encoding)
+
+    return data.decode('ascii')
+
+def md5_hex(value):
+    m = hashlib.md5()
+    m.update(value.encode('utf-8'))
+
+    return m.hexdigest()
+
 class RobotPost:
+    def __init__(self, encodings, latency=0.0, drop_rate=0.0):
+        self.defaults = (encodings, latency, drop_rate)
+
+        self.configure()
+
+    def configure(self, encodings=None, latency=None, drop_rate=None):
+        # Clears the counters and stored readings. Options not given go back to their command line values.
+
+        self.encodings, self.latency, self.drop_rate = self.defaults
+
+        if encodings is not None:
+            self.encodings = [e for e in encodings.split(',') if e in supported_encodings()]
+
+        if latency is not None:
+            self.latency = float(latency)
+
+        if drop_rate is not None:
+            self.drop_rate = float(drop_rate)
+
+        # Readings already stored, so that batches sent again after a lost response are not stored twice.
+
+        self.guids = set()
+        self.batches = set()
+        self.duplicates = 0
+
+        self.requests = 0
+        self.dropped = 0
+        self.connections = set()
+        self.started = None
+
+    def reset(self, encodings=None, latency=None, drop_rate=None):
+        self.configure(encodings, latency, drop_rate)
+
+        return self.stats()
+
+    reset.exposed = True
+
+    def stats(self):
+        # Lets tests check what reached the server since the last reset.
+
+        cherrypy.response.headers['Content-Type']= 'application/json'
+
+        return dumps({ 'Requests': self.requests, 'Connections': len(self.connections), 'Readings': len(self.guids), 'Duplicates': self.duplicates, 'Dropped': self.dropped, 'Encodings': ','.join(self.encodings) })
+
+    stats.exposed = True
+
     def index(self, json=None):
+        # Every new client connection costs a TCP (and TLS) handshake; reused ones do not.
+
+        remote = (cherrypy.request.remote.ip, cherrypy.request.remote.port)
+
+        self.requests += 1
+        self.connections.add(remote)
+
+        if self.started is None:
+            self.started = time.time()
+
+        print('%d requests over %d connections in %.1fs (now %s:%d)' % (self.requests, len(self.connections), time.time() - self.started, remote[0], remote[1]))
+
+        # Stands in for a slow (e.g. cellular) link. Requests overlap, so clients that keep several batches in flight drain faster.
+
+        if self.latency > 0:
+            time.sleep(self.latency)
+
         json_obj = loads(json)
-        
-        payload_str = json_obj['Payload']
-        
-        m = hashlib.md5()
-        m.update(json_obj['UserHash'] + json_obj['Operation'] + json_obj['Payload'])
-        
-        checksum_str = m.hexdigest()
+
+        encoding = json_obj.get('Encoding')
 
         result = {}
         result['Status'] = 'error'
         result['Payload'] = "{}"
-        
-        if checksum_str == json_obj['Checksum']:
+
+        try:
+            if encoding is not None and encoding not in self.encodings:
+                raise ValueError('Unsupported encoding: ' + encoding)
+
+            payload_str = decode_payload(json_obj['Payload'], encoding)
+        except (ValueError, TypeError, zlib.error) as e:
+            print('Unable to decode payload: ' + str(e))
+
+            payload_str = None
+
+            # Tells the client to stop sending this encoding, unlike other errors.
+
+            if encoding is not None:
+                result['EncodingError'] = encoding
+
+        if payload_str is not None and md5_hex(json_obj['UserHash'] + json_obj['Operation'] + payload_str) == json_obj['Checksum']:
             result['Status'] = 'success'
-            
+
+            readings = loads(payload_str)
+            batch_id = json_obj.get('BatchId')
+
+            new_readings = []
+
+            for reading in readings:
+                guid = reading.get('GUID')
+
+                if guid is None or guid not in self.guids:
+                    new_readings.append(reading)
+
+                if guid is not None:
+                    self.guids.add(guid)
+
+            self.duplicates += len(readings) - len(new_readings)
+
+            print('%s payload: %d bytes, %d sent, %d readings, %d already stored (%d in total)%s' % (encoding or 'plain', len(payload_str), len(json_obj['Payload']), len(readings), len(readings) - len(new_readings), self.duplicates, ' - repeated batch' if batch_id in self.batches else ''))
+
+            if batch_id is not None:
+                self.batches.add(batch_id)
+                result['BatchId'] = batch_id
+
+            json_obj['Payload'] = dumps(new_readings)
+            json_obj.pop('Encoding', None)
+
             timestamp = str(time.time())
-            
+
             path = 'files' + os.sep + json_obj['UserHash'] + os.sep + timestamp + '.json'
-            
+
             d = os.path.dirname(path)
-            
+
             if not os.path.exists(d):
                 os.makedirs(d)
-                
-            f = open(path, 'w')
-            f.write(dumps(json_obj, indent=2))
-            f.close()
-        
-        m = hashlib.md5()
-        m.update(result['Status'] + result['Payload'])
-
-        result['Checksum'] = m.hexdigest()
-        
+
+            if len(new_readings) > 0:
+                f = open(path, 'w')
+                f.write(dumps(json_obj, indent=2))
+                f.close()
+
+        result['Checksum'] = md5_hex(result['Status'] + result['Payload'])
+        result['Encodings'] = ','.join(self.encodings)
+
         cherrypy.response.headers['Content-Type']= 'application/json'
 
-        return dumps(result, indent=2)
-        
+        body = dumps(result, indent=2)
+
+        if random.random() < self.drop_rate:
+            # The batch is stored, but the client never gets a usable answer, like a connection lost mid-response.
+
+            print('Dropping response')
+
+            self.dropped += 1
+
+            return body[:len(body) // 2]
+
+        return body
+
     index.exposed = True
 
-cherrypy.quickstart(RobotPost(), config=CONFIG)
+if __name__ == '__main__':
+    parser = argparse.ArgumentParser(description='Stand-in for the Purple Robot upload server.')
+    parser.add_argument('--encodings', default=','.join(supported_encodings()),
+                        help='Comma-separated payload encodings to accept. Leave empty to only accept plain payloads, like servers without compression support.')
+    parser.add_argument('--latency', type=float, default=0.0,
+                        help='Seconds to hold each request before answering.')
+    parser.add_argument('--drop-rate', type=float, default=0.0,
+                        help='Fraction of responses (0-1) to cut off after the batch has been stored.')
+    parser.add_argument('--port', type=int, default=CONFIG['global']['server.socket_port'])
+    parser.add_argument('--ssl-certificate', help='PEM certificate file. Serves HTTPS when given with --ssl-private-key.')
+    parser.add_argument('--ssl-private-key', help='PEM private key file.')
+
+    args = parser.parse_args()
+
+    CONFIG['global']['server.socket_port'] = args.port
+
+    if args.ssl_certificate and args.ssl_private_key:
+        CONFIG['global']['server.ssl_module'] = 'builtin'
+        CONFIG['global']['server.ssl_certificate'] = args.ssl_certificate
+        CONFIG['global']['server.ssl_private_key'] = args.ssl_private_key
+
+    encodings = [e for e in args.encodings.split(',') if e in supported_encodings()]
+
+    cherrypy.quickstart(RobotPost(encodings, args.latency, args.drop_rate), config=CONFIG)